@@ -27,6 +27,7 @@ package polyglot.ext.jl5;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 import javax.tools.FileObject;
@@ -100,6 +101,12 @@ public class JL5ExtensionInfo extends JLExtensionInfo {
         return new JL5ClassFile(classFileSource, code, this);
     }
 
+    @Override
+    public ClassFile createClassFile(FileObject classFileSource,
+            ByteBuffer code) throws IOException {
+        return new JL5ClassFile(classFileSource, code, this);
+    }
+
     /**
      * Return a parser for {@code source} using the given
      * {@code reader}.
@@ -121,8 +128,12 @@ public class JL5ExtensionInfo extends JLExtensionInfo {
 
     @Override
     public polyglot.frontend.ExtensionInfo outputExtensionInfo() {
-        if (outputExtensionInfo == null) {
-            if (((JL5Options) getOptions()).leaveCovariantReturns) {
+        boolean covariant = ((JL5Options) getOptions()).leaveCovariantReturns;
+        // A reused extension may be given options that need the other kind
+        // of output extension.
+        if (outputExtensionInfo == null
+                || covariant != outputExtensionInfo instanceof CovarRetOutputExtensionInfo) {
+            if (covariant) {
                 outputExtensionInfo = new CovarRetOutputExtensionInfo(this);
             }
             else {
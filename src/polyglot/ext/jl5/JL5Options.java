@@ -44,6 +44,8 @@ public class JL5Options extends Options {
     public boolean morePermissiveCasts;
     public boolean skip524checks;
     public boolean leaveCovariantReturns;
+    public boolean serialRemoveJava5isms;
+    public boolean checkFusedRemoveJava5isms;
 
     public JL5Options(ExtensionInfo extension) {
         super(extension);
@@ -95,6 +97,14 @@ public class JL5Options extends Options {
                              new String[] { "-leaveCovariantReturns",
                                      "--leaveCovariantReturns" },
                              "With removeJava5isms, does not translate away covariant returns"));
+        flags.add(new Switch(Kind.SECRET,
+                             new String[] { "-serialRemoveJava5isms",
+                                     "--serialRemoveJava5isms" },
+                             "With removeJava5isms, runs each translation pass in a traversal of its own"));
+        flags.add(new Switch(Kind.SECRET,
+                             new String[] { "-checkFusedRemoveJava5isms",
+                                     "--checkFusedRemoveJava5isms" },
+                             "With removeJava5isms, checks that translation passes sharing a traversal produce the same code as when run one after another"));
         flags.add(new Switch(new String[] { "-morepermissiveinference",
                                      "--morepermissiveinference" },
                              "Use a more permissive algorithm for type inference. (Experimental)"));
@@ -129,6 +139,12 @@ public class JL5Options extends Options {
         else if (arg.flag().ids().contains("-leaveCovariantReturns")) {
             this.leaveCovariantReturns = (Boolean) arg.value();
         }
+        else if (arg.flag().ids().contains("-serialRemoveJava5isms")) {
+            this.serialRemoveJava5isms = (Boolean) arg.value();
+        }
+        else if (arg.flag().ids().contains("-checkFusedRemoveJava5isms")) {
+            this.checkFusedRemoveJava5isms = (Boolean) arg.value();
+        }
         else super.handleArg(arg);
     }
 }
@@ -25,6 +25,9 @@
  ******************************************************************************/
 package polyglot.ext.jl5;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import polyglot.ast.NodeFactory;
 import polyglot.ext.jl5.translate.JL5ToJLRewriter;
 import polyglot.ext.jl5.types.JL5TypeSystem;
@@ -51,12 +54,14 @@ import polyglot.frontend.Pass;
 import polyglot.frontend.Scheduler;
 import polyglot.frontend.goals.CodeGenerated;
 import polyglot.frontend.goals.EmptyGoal;
+import polyglot.frontend.goals.FusedVisitorGoal;
 import polyglot.frontend.goals.Goal;
 import polyglot.frontend.goals.VisitorGoal;
 import polyglot.main.Options;
 import polyglot.types.ParsedClassType;
 import polyglot.types.TypeSystem;
 import polyglot.util.InternalCompilerError;
+import polyglot.visit.NodeVisitor;
 
 public class JL5Scheduler extends JLScheduler {
 
@@ -74,157 +79,304 @@ public class JL5Scheduler extends JLScheduler {
         return internGoal(g);
     }
 
-    public Goal CastsInserted(Job job) {
-        TypeSystem ts = extInfo.typeSystem();
-        NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new TVCaster(job, ts, nf));
-        try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-            g.addPrerequisiteGoal(TypeChecked(job), this);
-            g.addPrerequisiteGoal(AnnotationCheck(job), this);
-            g.addPrerequisiteGoal(TypeClosure(job), this);
-            g.addPrerequisiteGoal(AutoBoxing(job), this);
-            g.addPrerequisiteGoal(RemoveExtendedFors(job), this);
+    /**
+     * The translation passes of removeJava5isms, with the passes each
+     * requires, in an order consistent with these prerequisites.  Passes
+     * share traversals of the AST as determined by
+     * {@link JL5Scheduler#removeJava5ismsGroup}.
+     */
+    protected enum Java5ismPass {
+        REMOVE_VAR_ARGS(Fusion.SHARED) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new RemoveVarargVisitor(job, ts, nf);
+            }
+        },
+        REMOVE_EXTENDED_FORS(Fusion.SHARED) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new RemoveExtendedFors(job, ts, nf);
+            }
+        },
+        REMOVE_STATIC_IMPORTS(Fusion.SHARED) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new RemoveStaticImports(job, ts, nf);
+            }
+        },
+        REMOVE_ANNOTATIONS(Fusion.SHARED, REMOVE_STATIC_IMPORTS) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new RemoveAnnotations(job, ts, nf);
+            }
+        },
+        /** Copies subtrees it has processed, so it ends its traversal. */
+        SIMPLIFY_EXPRESSIONS_FOR_BOXING(Fusion.LAST) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new SimplifyExpressionsForBoxing(nf, ts);
+            }
+        },
+        /**
+         * Wraps expressions in new calls whose targets need the casts of
+         * CastsInserted, so it runs in a traversal of its own.
+         */
+        AUTO_BOXING(Fusion.ALONE, REMOVE_VAR_ARGS, REMOVE_EXTENDED_FORS,
+                SIMPLIFY_EXPRESSIONS_FOR_BOXING) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new AutoBoxer(job, (JL5TypeSystem) ts, nf);
+            }
+        },
+        CASTS_INSERTED(Fusion.SHARED, AUTO_BOXING, REMOVE_EXTENDED_FORS) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new TVCaster(job, ts, nf);
+            }
+        },
+        TYPE_ERASURE_PROC_DECLS(Fusion.SHARED, CASTS_INSERTED, AUTO_BOXING,
+                REMOVE_EXTENDED_FORS) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new TypeErasureProcDecls(job, ts, nf);
+            }
+        },
+        REMOVE_ENUMS(Fusion.SHARED, REMOVE_STATIC_IMPORTS, REMOVE_VAR_ARGS,
+                AUTO_BOXING) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new RemoveEnums(job, ts, nf);
+            }
+        },
+        REMOVE_VAR_ARGS_FLAGS(Fusion.SHARED, REMOVE_ENUMS) {
+            @Override
+            NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf) {
+                return new RemoveVarArgsFlags(job, ts, nf);
+            }
+        };
+
+        /** How a pass may share a traversal with other passes. */
+        enum Fusion {
+            /** The pass may share a traversal. */
+            SHARED,
+            /** The pass may share a traversal, as its last member. */
+            LAST,
+            /** The pass runs in a traversal of its own. */
+            ALONE
         }
-        catch (CyclicDependencyException e) {
-            throw new InternalCompilerError(e);
+
+        final Fusion fusion;
+        final Java5ismPass[] prerequisites;
+
+        Java5ismPass(Fusion fusion, Java5ismPass... prerequisites) {
+            this.fusion = fusion;
+            this.prerequisites = prerequisites;
         }
-        return internGoal(g);
 
+        abstract NodeVisitor visitor(Job job, TypeSystem ts, NodeFactory nf);
     }
 
-    public Goal AutoBoxing(Job job) {
-        JL5TypeSystem ts = (JL5TypeSystem) extInfo.typeSystem();
-        NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new AutoBoxer(job, ts, nf));
-        try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-            g.addPrerequisiteGoal(RemoveVarArgs(job), this);
-            g.addPrerequisiteGoal(RemoveExtendedFors(job), this);
-            g.addPrerequisiteGoal(SimplifyExpressionsForBoxing(job), this);
-            g.addPrerequisiteGoal(AnnotationCheck(job), this);
-        }
-        catch (CyclicDependencyException e) {
-            throw new InternalCompilerError(e);
-        }
-        return internGoal(g);
+    public Goal CastsInserted(Job job) {
+        return removeJava5ismsGoal(job, Java5ismPass.CASTS_INSERTED);
+    }
 
+    public Goal AutoBoxing(Job job) {
+        return removeJava5ismsGoal(job, Java5ismPass.AUTO_BOXING);
     }
 
     public Goal TypeErasureProcDecls(Job job) {
-        TypeSystem ts = extInfo.typeSystem();
-        NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new TypeErasureProcDecls(job, ts, nf));
-        try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-            g.addPrerequisiteGoal(CastsInserted(job), this);
-            g.addPrerequisiteGoal(AutoBoxing(job), this);
-            g.addPrerequisiteGoal(RemoveExtendedFors(job), this);
-        }
-        catch (CyclicDependencyException e) {
-            throw new InternalCompilerError(e);
-        }
-        return internGoal(g);
-
+        return removeJava5ismsGoal(job, Java5ismPass.TYPE_ERASURE_PROC_DECLS);
     }
 
     public Goal RemoveVarArgs(Job job) {
-        TypeSystem ts = extInfo.typeSystem();
-        NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new RemoveVarargVisitor(job, ts, nf));
-        try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-        }
-        catch (CyclicDependencyException e) {
-            throw new InternalCompilerError(e);
-        }
-        return internGoal(g);
+        return removeJava5ismsGoal(job, Java5ismPass.REMOVE_VAR_ARGS);
     }
 
     public Goal SimplifyExpressionsForBoxing(Job job) {
-        TypeSystem ts = extInfo.typeSystem();
-        NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new SimplifyExpressionsForBoxing(nf, ts));
-        try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-        }
-        catch (CyclicDependencyException e) {
-            throw new InternalCompilerError(e);
-        }
-        return internGoal(g);
+        return removeJava5ismsGoal(job,
+                                   Java5ismPass.SIMPLIFY_EXPRESSIONS_FOR_BOXING);
     }
 
     public Goal RemoveEnums(Job job) {
-        TypeSystem ts = extInfo.typeSystem();
-        NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new RemoveEnums(job, ts, nf));
-        try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-            g.addPrerequisiteGoal(RemoveStaticImports(job), this);
-            g.addPrerequisiteGoal(RemoveVarArgs(job), this);
-            g.addPrerequisiteGoal(AutoBoxing(job), this);
-        }
-        catch (CyclicDependencyException e) {
-            throw new InternalCompilerError(e);
-        }
-        return internGoal(g);
+        return removeJava5ismsGoal(job, Java5ismPass.REMOVE_ENUMS);
     }
 
     public Goal RemoveVarArgsFlags(Job job) {
-        TypeSystem ts = extInfo.typeSystem();
-        NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new RemoveVarArgsFlags(job, ts, nf));
-        try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-            g.addPrerequisiteGoal(RemoveEnums(job), this);
-        }
-        catch (CyclicDependencyException e) {
-            throw new InternalCompilerError(e);
-        }
-        return internGoal(g);
+        return removeJava5ismsGoal(job, Java5ismPass.REMOVE_VAR_ARGS_FLAGS);
     }
 
     public Goal RemoveExtendedFors(Job job) {
+        return removeJava5ismsGoal(job, Java5ismPass.REMOVE_EXTENDED_FORS);
+    }
+
+    public Goal RemoveStaticImports(Job job) {
+        return removeJava5ismsGoal(job, Java5ismPass.REMOVE_STATIC_IMPORTS);
+    }
+
+    public Goal RemoveAnnotations(Job job) {
+        return removeJava5ismsGoal(job, Java5ismPass.REMOVE_ANNOTATIONS);
+    }
+
+    /**
+     * Whether the passes of removeJava5isms that can share a traversal of
+     * the AST are fused.
+     */
+    protected boolean fuseRemoveJava5isms() {
+        Options opts = extInfo.getOptions();
+        return !(opts instanceof JL5Options)
+                || !((JL5Options) opts).serialRemoveJava5isms;
+    }
+
+    /**
+     * Return the goal that runs the translation pass {@code pass} on
+     * {@code job}: a goal for the traversal the pass shares with other
+     * passes, or a goal for the pass alone.
+     */
+    protected Goal removeJava5ismsGoal(Job job, Java5ismPass pass) {
+        if (fuseRemoveJava5isms() && pass.fusion != Java5ismPass.Fusion.ALONE)
+            return fusedRemoveJava5ismsGoal(job, removeJava5ismsGroup(pass));
+
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new RemoveExtendedFors(job, ts, nf));
+        Goal g = new VisitorGoal(job, pass.visitor(job, ts, nf));
         try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
+            for (Goal p : removeJava5ismsPrerequisites(job, pass))
+                g.addPrerequisiteGoal(p, this);
+            for (Java5ismPass p : pass.prerequisites)
+                g.addPrerequisiteGoal(passGoal(job, p), this);
         }
         catch (CyclicDependencyException e) {
             throw new InternalCompilerError(e);
         }
         return internGoal(g);
-
     }
 
-    public Goal RemoveStaticImports(Job job) {
-        TypeSystem ts = extInfo.typeSystem();
-        NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new RemoveStaticImports(job, ts, nf));
-        try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
+    /** Return the goal of the method for the translation pass {@code pass}. */
+    protected Goal passGoal(Job job, Java5ismPass pass) {
+        switch (pass) {
+        case REMOVE_VAR_ARGS:
+            return RemoveVarArgs(job);
+        case REMOVE_EXTENDED_FORS:
+            return RemoveExtendedFors(job);
+        case REMOVE_STATIC_IMPORTS:
+            return RemoveStaticImports(job);
+        case REMOVE_ANNOTATIONS:
+            return RemoveAnnotations(job);
+        case SIMPLIFY_EXPRESSIONS_FOR_BOXING:
+            return SimplifyExpressionsForBoxing(job);
+        case AUTO_BOXING:
+            return AutoBoxing(job);
+        case CASTS_INSERTED:
+            return CastsInserted(job);
+        case TYPE_ERASURE_PROC_DECLS:
+            return TypeErasureProcDecls(job);
+        case REMOVE_ENUMS:
+            return RemoveEnums(job);
+        case REMOVE_VAR_ARGS_FLAGS:
+            return RemoveVarArgsFlags(job);
+        default:
+            throw new InternalCompilerError("Unknown pass " + pass);
         }
-        catch (CyclicDependencyException e) {
-            throw new InternalCompilerError(e);
+    }
+
+    /**
+     * Return the goals other than translation passes that the translation
+     * pass {@code pass} requires.
+     */
+    protected List<Goal> removeJava5ismsPrerequisites(Job job,
+            Java5ismPass pass) {
+        List<Goal> l = new ArrayList<>();
+        l.add(PreRemoveJava5isms(job));
+        switch (pass) {
+        case CASTS_INSERTED:
+            l.add(TypeChecked(job));
+            l.add(AnnotationCheck(job));
+            l.add(TypeClosure(job));
+            break;
+        case AUTO_BOXING:
+            l.add(AnnotationCheck(job));
+            break;
+        default:
+            break;
+        }
+        return l;
+    }
+
+    /**
+     * Return the passes that share a traversal with {@code pass}, in the
+     * order they run.  Passes share a traversal if they may and they require,
+     * directly or indirectly, the same number of passes that run alone.
+     * Passes that require each other run in the order of
+     * {@link Java5ismPass}.
+     */
+    protected List<Java5ismPass> removeJava5ismsGroup(Java5ismPass pass) {
+        int stage = removeJava5ismsStage(pass);
+        List<Java5ismPass> group = new ArrayList<>();
+        for (Java5ismPass p : Java5ismPass.values()) {
+            if (p.fusion != Java5ismPass.Fusion.ALONE
+                    && removeJava5ismsStage(p) == stage) {
+                if (!group.isEmpty()
+                        && group.get(group.size() - 1).fusion == Java5ismPass.Fusion.LAST)
+                    throw new InternalCompilerError(group.get(group.size() - 1)
+                            + " must be the last pass of its traversal, but "
+                            + p + " shares it.");
+                group.add(p);
+            }
         }
-        return internGoal(g);
+        return group;
+    }
 
+    /**
+     * The number of passes that run alone that {@code pass} requires,
+     * directly or indirectly, along a chain of prerequisites.
+     */
+    protected int removeJava5ismsStage(Java5ismPass pass) {
+        int stage = 0;
+        for (Java5ismPass p : pass.prerequisites) {
+            if (p.ordinal() >= pass.ordinal())
+                throw new InternalCompilerError(pass + " requires " + p
+                        + ", which must come before it.");
+            int s = removeJava5ismsStage(p);
+            if (p.fusion == Java5ismPass.Fusion.ALONE) s++;
+            stage = Math.max(stage, s);
+        }
+        return stage;
     }
 
-    public Goal RemoveAnnotations(Job job) {
+    /**
+     * Return the goal that runs the translation passes {@code group} on
+     * {@code job} in one traversal.  Its prerequisites are those of the
+     * passes in the group, other than the passes themselves.
+     */
+    protected Goal fusedRemoveJava5ismsGoal(Job job, List<Java5ismPass> group) {
         TypeSystem ts = extInfo.typeSystem();
         NodeFactory nf = extInfo.nodeFactory();
-        Goal g = new VisitorGoal(job, new RemoveAnnotations(job, ts, nf));
+        List<NodeVisitor> members = new ArrayList<>();
+        for (Java5ismPass p : group)
+            members.add(p.visitor(job, ts, nf));
+        FusedVisitorGoal g = new FusedVisitorGoal(job, members);
+        Options opts = extInfo.getOptions();
+        if (opts instanceof JL5Options
+                && ((JL5Options) opts).checkFusedRemoveJava5isms) {
+            List<NodeVisitor> serial = new ArrayList<>();
+            for (Java5ismPass p : group)
+                serial.add(p.visitor(job, ts, nf));
+            g.checkAgainst(serial);
+        }
         try {
-            g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-            g.addPrerequisiteGoal(RemoveStaticImports(job), this);
+            for (Java5ismPass pass : group) {
+                for (Goal p : removeJava5ismsPrerequisites(job, pass))
+                    g.addPrerequisiteGoal(p, this);
+                for (Java5ismPass p : pass.prerequisites) {
+                    if (!group.contains(p))
+                        g.addPrerequisiteGoal(passGoal(job, p), this);
+                }
+            }
         }
         catch (CyclicDependencyException e) {
             throw new InternalCompilerError(e);
         }
         return internGoal(g);
-
     }
 
     public Goal PreRemoveJava5isms(Job job) {
@@ -253,16 +405,8 @@ public class JL5Scheduler extends JLScheduler {
                 : new EmptyGoal(job, "RemoveJava5isms");
         try {
             g.addPrerequisiteGoal(PreRemoveJava5isms(job), this);
-            g.addPrerequisiteGoal(CastsInserted(job), this);
-            g.addPrerequisiteGoal(TypeErasureProcDecls(job), this);
-            g.addPrerequisiteGoal(RemoveVarArgs(job), this);
-            g.addPrerequisiteGoal(AutoBoxing(job), this);
-            g.addPrerequisiteGoal(RemoveEnums(job), this);
-            g.addPrerequisiteGoal(RemoveVarArgsFlags(job), this);
-            g.addPrerequisiteGoal(RemoveExtendedFors(job), this);
-            g.addPrerequisiteGoal(RemoveStaticImports(job), this);
-            g.addPrerequisiteGoal(RemoveAnnotations(job), this);
-
+            for (Java5ismPass p : Java5ismPass.values())
+                g.addPrerequisiteGoal(passGoal(job, p), this);
         }
         catch (CyclicDependencyException e) {
             throw new InternalCompilerError(e);
@@ -351,6 +495,10 @@ public class JL5Scheduler extends JLScheduler {
     }
 
     protected void cleanup() {
+        // The output extension has its own jobs and ASTs from here on.
+        for (Job job : jobs.values()) {
+            if (job != Job.COMPLETED) releaseAST(job);
+        }
         extInfo.cleanup();
         inWorklist.clear();
         worklist.clear();
@@ -31,6 +31,7 @@ import java.util.List;
 import polyglot.ext.jl5.JL5ExtensionInfo;
 import polyglot.ext.jl5.JL5Options;
 import polyglot.ext.jl5.JL5Scheduler;
+import polyglot.ext.jl5.types.reflect.JL5ClassFile;
 import polyglot.frontend.EmptyPass;
 import polyglot.frontend.ExtensionInfo;
 import polyglot.frontend.Job;
@@ -41,6 +42,8 @@ import polyglot.frontend.goals.SourceFileGoal;
 import polyglot.main.OptFlag.Arg;
 import polyglot.main.Options;
 import polyglot.main.UsageError;
+import polyglot.types.reflect.ClassFileLoader;
+import polyglot.types.reflect.SharedClassFileLoader;
 import polyglot.util.InternalCompilerError;
 
 /**
@@ -94,6 +97,19 @@ public class JL5OutputExtensionInfo extends JL5ExtensionInfo {
         return opt;
     }
 
+    /**
+     * Share the class files loaded by the parent extension, so each class
+     * file is only located and parsed once.
+     */
+    @Override
+    public ClassFileLoader classFileLoader() {
+        if (classFileLoader == null) {
+            classFileLoader =
+                    new SharedClassFileLoader(parent, this, JL5ClassFile.class);
+        }
+        return classFileLoader;
+    }
+
     static protected class JL5OutputScheduler extends JL5Scheduler {
         public JL5OutputScheduler(JL5ExtensionInfo extInfo) {
             super(extInfo);
@@ -41,6 +41,7 @@ import polyglot.types.ParsedClassType_c;
 import polyglot.types.ReferenceType;
 import polyglot.types.Resolver;
 import polyglot.types.Type;
+import polyglot.types.TypeObject;
 import polyglot.types.TypeSystem;
 import polyglot.util.CodeWriter;
 import polyglot.util.InternalCompilerError;
@@ -115,6 +116,15 @@ public class JL5ParsedClassType_c extends ParsedClassType_c implements
         return Collections.unmodifiableList(annotationElems);
     }
 
+    @Override
+    public List<List<List<? extends TypeObject>>> encodedMemberGroups() {
+        // Enum constants are also fields, and annotation elements methods.
+        List<List<List<? extends TypeObject>>> l = super.encodedMemberGroups();
+        l.get(FIELD_GROUP).add(enumConstants);
+        l.get(METHOD_GROUP).add(annotationElems);
+        return l;
+    }
+
     // find methods with compatible name and formals as the given one
     @Override
     public List<? extends JL5MethodInstance> methods(JL5MethodInstance mi) {
@@ -101,6 +101,20 @@ public class JL5TypeSystem_c
 
     protected ClassType ITERATOR_;
 
+    @Override
+    protected void discardCaches() {
+        super.discardCaches();
+        varargsArrayTypeCache.clear();
+        ENUM_ = null;
+        ANNOTATION_ = null;
+        OVERRIDE_ANNOTATION_ = null;
+        TARGET_ANNOTATION_ = null;
+        RETENTION_ANNOTATION_ = null;
+        ELEMENT_TYPE_ = null;
+        ITERABLE_ = null;
+        ITERATOR_ = null;
+    }
+
     @Override
     public ClassType Enum() {
         if (ENUM_ != null) {
@@ -187,6 +201,11 @@ public class JL5TypeSystem_c
         return new JL5SchedulerClassInitializer(this);
     }
 
+    @Override
+    public LazyClassInitializer deserializedClassInitializer() {
+        return new JL5DeserializedClassInitializer(this);
+    }
+
     @Override
     public boolean accessibleFromPackage(Flags flags, Package pkg1,
             Package pkg2) {
@@ -573,7 +592,8 @@ public class JL5TypeSystem_c
 
     Map<Type, ArrayType> varargsArrayTypeCache = new HashMap<>();
 
-    protected ArrayType arrayType(Position pos, Type type, boolean isVarargs) {
+    protected synchronized ArrayType arrayType(Position pos, Type type,
+            boolean isVarargs) {
         if (isVarargs) {
             ArrayType t = varargsArrayTypeCache.get(type);
             if (t == null) {
@@ -686,13 +706,12 @@ public class JL5TypeSystem_c
 
             @SuppressWarnings("unchecked")
             List<JL5MethodInstance> methods =
-                    (List<JL5MethodInstance>) type.toReference().methods();
+                    (List<JL5MethodInstance>) type.toReference()
+                                                  .methodsNamed(name);
             for (JL5MethodInstance mi : methods) {
                 if (Report.should_report(Report.types, 3))
                     Report.report(3, "Trying " + mi);
 
-                // Method name must match
-                if (!mi.name().equals(name)) continue;
 //                System.err.println("      checking " + mi);
 
                 JL5MethodInstance substMi =
@@ -1410,9 +1429,9 @@ public class JL5TypeSystem_c
     }
 
     @Override
-    public boolean descendsFrom(Type child, Type ancestor) {
+    protected boolean computeDescendsFrom(Type child, Type ancestor) {
 //        System.err.println("jl5TS_C: descends from: " + child + " descended from " + ancestor);
-        boolean b = super.descendsFrom(child, ancestor);
+        boolean b = super.computeDescendsFrom(child, ancestor);
         if (b) return true;
 //        System.err.println("   : descends from 0");
         if (ancestor instanceof TypeVariable) {
@@ -1443,8 +1462,8 @@ public class JL5TypeSystem_c
     }
 
     @Override
-    public boolean isSubtype(Type t1, Type t2) {
-        if (super.isSubtype(t1, t2)) {
+    protected boolean computeSubtype(Type t1, Type t2) {
+        if (super.computeSubtype(t1, t2)) {
             return true;
         }
         if (t2 instanceof WildCardType) {
@@ -1485,7 +1504,7 @@ public class JL5TypeSystem_c
     }
 
     @Override
-    public boolean isImplicitCastValid(Type fromType, Type toType) {
+    protected boolean computeImplicitCastValid(Type fromType, Type toType) {
         LinkedList<Type> chain = isImplicitCastValidChain(fromType, toType);
         // Try an unchecked conversion, if toType is a parameterized type.
         if (chain == null && toType instanceof JL5SubstClassType) {
@@ -1560,8 +1579,8 @@ public class JL5TypeSystem_c
     }
 
     @Override
-    public boolean isCastValid(Type fromType, Type toType) {
-        if (super.isCastValid(fromType, toType)) {
+    protected boolean computeCastValid(Type fromType, Type toType) {
+        if (super.computeCastValid(fromType, toType)) {
             return true;
         }
 
@@ -2644,9 +2663,8 @@ public class JL5TypeSystem_c
 
     public void checkMethodNameClash(JL5MethodInstance mi, ClassType type,
             ReferenceType declaringClass) throws SemanticException {
-        for (MethodInstance mj_ : declaringClass.methods()) {
+        for (MethodInstance mj_ : declaringClass.methodsNamed(mi.name())) {
             JL5MethodInstance mj = (JL5MethodInstance) mj_;
-            if (!mi.name().equals(mj.name())) continue;
             if (!isAccessible(mj, type)) continue;
             if (isSubSignature(mi, mj)) continue;
 
@@ -134,11 +134,21 @@ public class RawClass_c extends JL5ClassType_c implements RawClass {
         return erased().memberClasses();
     }
 
+    @Override
+    public ClassType memberClassNamed(String name) {
+        return erased().memberClassNamed(name);
+    }
+
     @Override
     public List<? extends MethodInstance> methods() {
         return erased().methods();
     }
 
+    @Override
+    public List<? extends MethodInstance> methodsNamed(String name) {
+        return erased().methodsNamed(name);
+    }
+
     @Override
     public List<? extends FieldInstance> fields() {
         List<? extends FieldInstance> fields = erased().fields();
@@ -27,6 +27,7 @@ package polyglot.ext.jl5.types.reflect;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.tools.FileObject;
 
@@ -46,6 +47,11 @@ public class JL5ClassFile extends ClassFile_c {
         super(classFileSource, code, ext);
     }
 
+    public JL5ClassFile(FileObject classFileSource, ByteBuffer code,
+            ExtensionInfo ext) throws IOException {
+        super(classFileSource, code, ext);
+    }
+
     @Override
     public Method createMethod(DataInputStream in) throws IOException {
         Method m = new JL5Method(in, this);
@@ -656,12 +656,13 @@ public class RemoveEnums extends ContextVisitor {
         // add the if statements
         for (FieldInstance field : enumConstantFieldInstances(enumType)) {
             int index = findEnumConstIndex(enumType, field);
-            Stmt s = qq.parseStmt("if (%E == %T." + field.name() + ") return "
-                    + index + ";",
+            Stmt s = qq.parseStmt("if (%E == %T.%s) return %E;",
                                   nodeFactory().Local(pos, arg)
                                                .localInstance(argLI)
                                                .type(enumType),
-                                  enumType);
+                                  enumType,
+                                  field.name(),
+                                  nodeFactory().IntLit(pos, IntLit.INT, index));
             stmts.add(s);
         }
 
@@ -55,6 +55,12 @@ public class JL7TypeSystem_c extends JL5TypeSystem_c implements JL7TypeSystem {
 
     protected ClassType AUTOCLOSEABLE_;
 
+    @Override
+    protected void discardCaches() {
+        super.discardCaches();
+        AUTOCLOSEABLE_ = null;
+    }
+
     @Override
     public ClassType AutoCloseable() {
         if (AUTOCLOSEABLE_ != null) return AUTOCLOSEABLE_;
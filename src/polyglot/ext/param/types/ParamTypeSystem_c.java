@@ -47,6 +47,12 @@ public abstract class ParamTypeSystem_c<Formal extends Param, Actual extends Typ
     protected Map<Map<Formal, ? extends Actual>, Subst<Formal, Actual>> substCache =
             new HashMap<>();
 
+    @Override
+    protected void discardCaches() {
+        super.discardCaches();
+        substCache.clear();
+    }
+
     @Override
     public MuPClass<Formal, Actual> mutablePClass(Position pos) {
         return new MuPClass_c<>(this, pos);
@@ -37,6 +37,7 @@ import polyglot.types.ClassType_c;
 import polyglot.types.ConstructorInstance;
 import polyglot.types.FieldInstance;
 import polyglot.types.Flags;
+import polyglot.types.MemberTable;
 import polyglot.types.MethodInstance;
 import polyglot.types.Package;
 import polyglot.types.ReferenceType;
@@ -67,6 +68,10 @@ public class SubstClassType_c<Formal extends Param, Actual extends TypeObject>
     protected transient List<? extends MethodInstance> substMethods;
     protected transient List<? extends ConstructorInstance> substConstructors;
     protected transient List<? extends ClassType> substMemberClasses;
+    // the substituted members indexed by name
+    protected transient MemberTable<FieldInstance> fieldTable;
+    protected transient MemberTable<MethodInstance> methodTable;
+    protected transient MemberTable<ClassType> memberClassTable;
 
     /** The class type we are substituting into. */
     protected ClassType base;
@@ -160,6 +165,29 @@ public class SubstClassType_c<Formal extends Param, Actual extends TypeObject>
         return substMemberClasses;
     }
 
+    @Override
+    public FieldInstance fieldNamed(String name) {
+        fieldTable =
+                MemberTable.update(fieldTable, fields(), MemberTable.FIELDS);
+        return fieldTable.first(name);
+    }
+
+    @Override
+    public List<? extends MethodInstance> methodsNamed(String name) {
+        methodTable =
+                MemberTable.update(methodTable, methods(), MemberTable.METHODS);
+        return methodTable.named(name);
+    }
+
+    @Override
+    public ClassType memberClassNamed(String name) {
+        memberClassTable =
+                MemberTable.update(memberClassTable,
+                                   memberClasses(),
+                                   MemberTable.CLASSES);
+        return memberClassTable.first(name);
+    }
+
     @Override
     public ClassType outer() {
         return (ClassType) subst.substType(base.outer());
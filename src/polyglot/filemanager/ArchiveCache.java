@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.filemanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import polyglot.main.Report;
+
+/**
+ * An {@code ArchiveCache} holds the packages of the jar and zip files a file
+ * manager has looked in.  Each archive is opened once to list its packages
+ * and closed again, so the cache keeps no archive open.  An archive whose
+ * modification time or size has changed since it was scanned is scanned
+ * again, and {@link #generation()} is incremented so that the file manager
+ * can discard what it derived from the archive.
+ *
+ * The cache is safe for use by several threads.
+ */
+public class ArchiveCache {
+    protected static class Entry {
+        protected final long lastModified;
+        protected final long length;
+        /** The packages of the archive, as paths. */
+        protected final Set<String> packages;
+
+        protected Entry(long lastModified, long length, Set<String> packages) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.packages = packages;
+        }
+    }
+
+    protected final Map<File, Entry> entries = new HashMap<>();
+
+    /** Archives that do not exist. */
+    protected final Set<File> missing = new HashSet<>();
+
+    protected int generation;
+
+    /**
+     * Return the paths of the packages in the archive {@code f}, or null if
+     * it does not exist.
+     */
+    public synchronized Set<String> packages(File f) throws IOException {
+        Entry e = entries.get(f);
+        if (e != null) {
+            if (e.lastModified == f.lastModified() && e.length == f.length())
+                return e.packages;
+            if (Report.should_report(ExtFileManager.verbose, 2))
+                Report.report(2, "Archive " + f + " changed");
+            entries.remove(f);
+            generation++;
+        }
+        else if (missing.contains(f)) {
+            return null;
+        }
+
+        if (!f.exists()) {
+            missing.add(f);
+            return null;
+        }
+
+        long lastModified = f.lastModified();
+        long length = f.length();
+        Set<String> packages = new HashSet<>();
+        try (ZipFile zip = openZip(f)) {
+            Enumeration<? extends ZipEntry> i = zip.entries();
+            while (i.hasMoreElements()) {
+                String n = i.nextElement().getName();
+                int index = n.indexOf('/');
+                while (index >= 0) {
+                    packages.add(n.substring(0, index));
+                    index = n.indexOf('/', index + 1);
+                }
+            }
+        }
+        e =
+                new Entry(lastModified,
+                          length,
+                          Collections.unmodifiableSet(packages));
+        entries.put(f, e);
+        return e.packages;
+    }
+
+    /**
+     * The number of times an archive was found to have changed since it was
+     * scanned.
+     */
+    public synchronized int generation() {
+        return generation;
+    }
+
+    /** Forget all the archives. */
+    public synchronized void close() {
+        entries.clear();
+        missing.clear();
+    }
+
+    /** Open the archive {@code f}. */
+    protected static ZipFile openZip(File f) throws IOException {
+        if (Report.should_report(ExtFileManager.verbose, 2))
+            Report.report(2, "Opening zip " + f);
+        if (f.getName().endsWith(".jar")) return new JarFile(f);
+        return new ZipFile(f);
+    }
+}
@@ -0,0 +1,524 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+package polyglot.filemanager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+import polyglot.main.Report;
+
+/**
+ * A {@code ClassPathIndex} maps the names of the entries of the archives on
+ * a class path to their positions in the archives, and reads entries from
+ * memory-mapped archives, so that looking up a class does not open or scan
+ * the archive.  An archive is indexed by reading its central directory once;
+ * the index is kept in a file so that later compilations only check the
+ * modification time and size of each archive.  An archive is mapped when
+ * an entry is first read, and dropped by {@link #release()} when a file
+ * manager using the index is closed.
+ *
+ * Archives that cannot be indexed, such as zip64 archives and archives
+ * larger than 2 GB, are left to the standard file manager.
+ */
+public class ClassPathIndex {
+    protected static final int MAGIC = 0x504c4349;
+    protected static final int VERSION = 1;
+
+    protected static final int LOCAL_HEADER = 0x04034b50;
+    protected static final int CENTRAL_HEADER = 0x02014b50;
+    protected static final int END_HEADER = 0x06054b50;
+
+    /** The number of indexes kept by {@link #forBuildCache(File)}. */
+    protected static final int MAX_INDEXES = 4;
+
+    /**
+     * The indexes used most recently by this VM, keyed by index file, least
+     * recently used first.
+     */
+    protected static final Map<File, ClassPathIndex> indexes =
+            new LinkedHashMap<File, ClassPathIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<File, ClassPathIndex> eldest) {
+                    if (size() <= MAX_INDEXES) return false;
+                    eldest.getValue().release();
+                    return true;
+                }
+            };
+
+    /** Return the index kept next to the build cache {@code buildCache}. */
+    public static ClassPathIndex forBuildCache(File buildCache) {
+        File file = new File(buildCache.getPath() + ".index").getAbsoluteFile();
+        synchronized (indexes) {
+            ClassPathIndex index = indexes.get(file);
+            if (index == null) {
+                index = new ClassPathIndex(file);
+                indexes.put(file, index);
+            }
+            return index;
+        }
+    }
+
+    /** The index of one archive. */
+    public static class Archive {
+        public final File file;
+        public final long lastModified;
+        public final long length;
+
+        /** Entry names, sorted, and where each entry is in the archive. */
+        protected final String[] names;
+        protected final int[] offsets;
+        protected final int[] compressedSizes;
+        protected final int[] sizes;
+        protected final short[] methods;
+
+        /** The packages of the entries, as paths. */
+        protected Set<String> packages;
+
+        /** The contents of the archive, mapped when first read. */
+        protected ByteBuffer buffer;
+
+        protected Archive(File file, long lastModified, long length, int n) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.names = new String[n];
+            this.offsets = new int[n];
+            this.compressedSizes = new int[n];
+            this.sizes = new int[n];
+            this.methods = new short[n];
+        }
+
+        /** Return the position of entry {@code name}, or -1. */
+        protected int find(String name) {
+            int i = Arrays.binarySearch(names, name);
+            return i >= 0 ? i : -1;
+        }
+
+        /** Does the archive have an entry named {@code name}? */
+        public boolean contains(String name) {
+            return find(name) >= 0;
+        }
+
+        /**
+         * Does the archive have an entry in the package or a subpackage of
+         * the package whose path is {@code path}?
+         */
+        public synchronized boolean hasPackage(String path) {
+            if (packages == null) {
+                packages = new HashSet<>();
+                for (String n : names) {
+                    int index = n.indexOf('/');
+                    while (index >= 0) {
+                        packages.add(n.substring(0, index));
+                        index = n.indexOf('/', index + 1);
+                    }
+                }
+            }
+            return packages.contains(path);
+        }
+
+        /**
+         * Return the contents of the entry {@code name}, or null if there is
+         * no such entry.  The contents of an uncompressed entry are a slice
+         * of the mapped archive.
+         */
+        public ByteBuffer read(String name) throws IOException {
+            int i = find(name);
+            if (i < 0) return null;
+
+            ByteBuffer b = buffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int offset = offsets[i];
+            if (b.getInt(offset) != LOCAL_HEADER)
+                throw new IOException("Bad local header for " + name + " in "
+                        + file);
+            int start =
+                    offset + 30 + (b.getShort(offset + 26) & 0xffff)
+                            + (b.getShort(offset + 28) & 0xffff);
+            // ByteBuffer's own limit(int) and position(int) are new in
+            // Java 9; Buffer's link on every JDK.
+            ((Buffer) b).limit(start + compressedSizes[i]);
+            ((Buffer) b).position(start);
+            ByteBuffer data = b.slice();
+
+            if (methods[i] == ZipEntry.STORED) return data;
+
+            byte[] in = new byte[compressedSizes[i]];
+            data.get(in);
+            byte[] out = new byte[sizes[i]];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(in);
+                int n = 0;
+                while (n < out.length && !inflater.finished()) {
+                    int k = inflater.inflate(out, n, out.length - n);
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    n += k;
+                }
+                if (n != out.length)
+                    throw new IOException("Truncated entry " + name + " in "
+                            + file);
+            }
+            catch (DataFormatException e) {
+                throw new IOException("Bad entry " + name + " in " + file
+                        + ": " + e.getMessage());
+            }
+            finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(out);
+        }
+
+        protected synchronized ByteBuffer buffer() throws IOException {
+            if (buffer == null) buffer = map(file);
+            return buffer;
+        }
+
+        /** Drop the mapped contents of the archive. */
+        protected synchronized void release() {
+            buffer = null;
+        }
+
+        /** Return a file object for the entry {@code name}. */
+        public JavaFileObject fileObject(String name) {
+            return new EntryFileObject(this, name);
+        }
+    }
+
+    /** A class file in an indexed archive. */
+    protected static class EntryFileObject extends SimpleJavaFileObject {
+        protected final Archive archive;
+        protected final String name;
+
+        protected final URI uri;
+
+        protected EntryFileObject(Archive archive, String name) {
+            // A jar URI has no path, which SimpleJavaFileObject requires, so
+            // the URI of the archive is given instead.
+            super(archive.file.toURI(), Kind.CLASS);
+            this.archive = archive;
+            this.name = name;
+            this.uri = URI.create("jar:" + archive.file.toURI() + "!/" + name);
+        }
+
+        @Override
+        public URI toUri() {
+            return uri;
+        }
+
+        @Override
+        public String getName() {
+            return archive.file.getPath() + "(" + name + ")";
+        }
+
+        /** The contents of the entry. */
+        public ByteBuffer contents() throws IOException {
+            ByteBuffer b = archive.read(name);
+            if (b == null)
+                throw new IOException("No entry " + name + " in "
+                        + archive.file);
+            return b;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            final ByteBuffer b = contents();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return b.hasRemaining() ? b.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] bytes, int off, int len) {
+                    if (!b.hasRemaining()) return -1;
+                    len = Math.min(len, b.remaining());
+                    b.get(bytes, off, len);
+                    return len;
+                }
+            };
+        }
+
+        @Override
+        public long getLastModified() {
+            return archive.lastModified;
+        }
+    }
+
+    protected final File file;
+
+    /** The archives in the index, keyed by file. */
+    protected final Map<File, Archive> archives = new LinkedHashMap<>();
+
+    /** Files that cannot be indexed, with their modification times. */
+    protected final Map<File, Long> unindexable = new HashMap<>();
+
+    protected boolean loaded;
+    protected boolean changed;
+
+    protected ClassPathIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Return the index of the archive {@code f}, indexing it if it has
+     * changed since it was last indexed, or null if it cannot be indexed.
+     */
+    public synchronized Archive archive(File f) {
+        f = f.getAbsoluteFile();
+        if (!loaded) load();
+
+        long lastModified = f.lastModified();
+        long length = f.length();
+        Archive a = archives.get(f);
+        if (a != null && a.lastModified == lastModified && a.length == length)
+            return a;
+
+        Long m = unindexable.get(f);
+        if (m != null && m == lastModified) return null;
+
+        try {
+            a = index(f, lastModified, length);
+        }
+        catch (IOException e) {
+            if (Report.should_report(Report.loader, 2))
+                Report.report(2, "Cannot index " + f + ": " + e.getMessage());
+            a = null;
+        }
+        if (a == null) {
+            archives.remove(f);
+            unindexable.put(f, lastModified);
+            return null;
+        }
+        archives.put(f, a);
+        changed = true;
+        return a;
+    }
+
+    /**
+     * Drop the mapped contents of the archives, which are mapped again when
+     * next read.  A file manager calls this when it is closed, so that the
+     * archives stay mapped only while they are used.
+     */
+    public synchronized void release() {
+        for (Archive a : archives.values())
+            a.release();
+    }
+
+    /**
+     * Read the index file.  A missing, unreadable or incompatible index file
+     * is treated as an empty index.
+     */
+    protected void load() {
+        loaded = true;
+        if (!file.exists()) return;
+
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+            int archiveCount = in.readInt();
+            for (int i = 0; i < archiveCount; i++) {
+                File f = new File(in.readUTF());
+                long lastModified = in.readLong();
+                long length = in.readLong();
+                int n = in.readInt();
+                Archive a = new Archive(f, lastModified, length, n);
+                for (int j = 0; j < n; j++) {
+                    a.names[j] = in.readUTF();
+                    a.offsets[j] = in.readInt();
+                    a.compressedSizes[j] = in.readInt();
+                    a.sizes[j] = in.readInt();
+                    a.methods[j] = in.readShort();
+                }
+                archives.put(f, a);
+            }
+        }
+        catch (IOException e) {
+            if (Report.should_report(Report.loader, 1))
+                Report.report(1, "Ignoring unreadable class path index "
+                        + file + ": " + e.getMessage());
+            archives.clear();
+        }
+    }
+
+    /**
+     * Write the index file if an archive was indexed since it was read.
+     * The file is replaced atomically.
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) return;
+
+        File dir = file.getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        File tmp = File.createTempFile(file.getName() + ".tmp", null, dir);
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(archives.size());
+                for (Archive a : archives.values()) {
+                    out.writeUTF(a.file.getPath());
+                    out.writeLong(a.lastModified);
+                    out.writeLong(a.length);
+                    out.writeInt(a.names.length);
+                    for (int j = 0; j < a.names.length; j++) {
+                        out.writeUTF(a.names[j]);
+                        out.writeInt(a.offsets[j]);
+                        out.writeInt(a.compressedSizes[j]);
+                        out.writeInt(a.sizes[j]);
+                        out.writeShort(a.methods[j]);
+                    }
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file))
+                    throw new IOException("Cannot replace class path index "
+                            + file);
+            }
+            changed = false;
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Index the archive {@code f} by reading its central directory, or
+     * return null if it cannot be indexed.
+     */
+    protected static Archive index(File f, long lastModified, long length)
+            throws IOException {
+        if (length > Integer.MAX_VALUE) return null;
+        if (Report.should_report(Report.loader, 2))
+            Report.report(2, "Indexing " + f);
+
+        ByteBuffer b = map(f).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Find the end of central directory record, which is followed by a
+        // comment of at most 64 KB.
+        int end = -1;
+        for (int i = b.limit() - 22; i >= 0 && i >= b.limit() - 22 - 0xffff; i--) {
+            if (b.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) throw new IOException("Not a zip file");
+
+        int total = b.getShort(end + 10) & 0xffff;
+        long directory = b.getInt(end + 16) & 0xffffffffL;
+        if (total == 0xffff || directory == 0xffffffffL) {
+            // A zip64 archive.
+            return null;
+        }
+
+        Map<String, int[]> entries = new HashMap<>();
+        int p = (int) directory;
+        for (int i = 0; i < total; i++) {
+            if (p + 46 > b.limit() || b.getInt(p) != CENTRAL_HEADER)
+                throw new IOException("Bad central directory");
+            int flags = b.getShort(p + 8) & 0xffff;
+            int method = b.getShort(p + 10) & 0xffff;
+            long compressedSize = b.getInt(p + 20) & 0xffffffffL;
+            long size = b.getInt(p + 24) & 0xffffffffL;
+            int nameLength = b.getShort(p + 28) & 0xffff;
+            int extraLength = b.getShort(p + 30) & 0xffff;
+            int commentLength = b.getShort(p + 32) & 0xffff;
+            long offset = b.getInt(p + 42) & 0xffffffffL;
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer d = b.duplicate();
+            ((Buffer) d).position(p + 46);
+            d.get(name);
+            String n = new String(name, StandardCharsets.UTF_8);
+
+            if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE
+                    || offset > Integer.MAX_VALUE) return null;
+
+            // Skip directories, encrypted entries and unsupported methods.
+            if (!n.endsWith("/")
+                    && (flags & 1) == 0
+                    && (method == ZipEntry.STORED || method == ZipEntry.DEFLATED)
+                    && !entries.containsKey(n)) {
+                entries.put(n, new int[] { (int) offset, (int) compressedSize,
+                        (int) size, method });
+            }
+
+            p += 46 + nameLength + extraLength + commentLength;
+        }
+
+        String[] names = entries.keySet().toArray(new String[entries.size()]);
+        Arrays.sort(names);
+        Archive a = new Archive(f, lastModified, length, names.length);
+        for (int i = 0; i < names.length; i++) {
+            int[] e = entries.get(names[i]);
+            a.names[i] = names[i];
+            a.offsets[i] = e[0];
+            a.compressedSizes[i] = e[1];
+            a.sizes[i] = e[2];
+            a.methods[i] = (short) e[3];
+        }
+        a.buffer = b;
+        return a;
+    }
+
+    /** Map the file {@code f} into memory. */
+    protected static ByteBuffer map(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
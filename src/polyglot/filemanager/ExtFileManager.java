@@ -35,15 +35,19 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.ZipFile;
 
 import javax.tools.FileObject;
@@ -54,6 +58,7 @@ import javax.tools.JavaFileObject.Kind;
 import javax.tools.StandardJavaFileManager;
 import javax.tools.StandardLocation;
 
+import polyglot.frontend.AbstractExtensionInfo;
 import polyglot.frontend.ExtensionInfo;
 import polyglot.frontend.FileSource;
 import polyglot.frontend.Source;
@@ -78,19 +83,58 @@ public class ExtFileManager
     /** Map of sources already loaded */
     protected final Map<String, FileSource> loadedSources;
     /** A cache for package look ups */
-    protected static final Map<String, Boolean> packageCache = new HashMap<>();
+    protected final Map<String, Boolean> packageCache =
+            new ConcurrentHashMap<>();
     /** A cache for the class files that don't exist */
-    protected static final Set<String> nocache = new HashSet<>();
+    protected final Set<String> nocache =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    protected static final Map<File, Object> zipCache = new HashMap<>();
+    /** The packages of the archives on the class paths. */
+    protected final ArchiveCache zipCache = new ArchiveCache();
 
-    protected static final Object not_found = new Object();
+    /** The generation of {@code zipCache} the look up caches agree with. */
+    protected int zipCacheGeneration;
+
+    /**
+     * A cache for the contents of class files found in archives, shared by
+     * all compilations in this VM; see {@link #setShareArchivedClassFiles}.
+     * It holds at most {@code maxArchivedClassBytes} bytes, dropping the
+     * least recently used class files first.
+     */
+    protected static final LinkedHashMap<URI, ArchivedClass> archivedClassCache =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The number of bytes in {@code archivedClassCache}. */
+    protected static long archivedClassBytes;
+
+    protected static long maxArchivedClassBytes = 256L * 1024 * 1024;
+
+    /** Whether to use {@code archivedClassCache}. */
+    protected static boolean shareArchivedClassFiles = false;
+
+    /** The contents of a class file in an archive. */
+    protected static class ArchivedClass {
+        /** The archive, or null for the run-time image. */
+        protected final File archive;
+        /** The modification time of the archive when it was read. */
+        protected final long lastModified;
+        protected final byte[] bytes;
+
+        protected ArchivedClass(File archive, long lastModified, byte[] bytes) {
+            this.archive = archive;
+            this.lastModified = lastModified;
+            this.bytes = bytes;
+        }
+    }
 
     protected static final int BUF_SIZE = 1024 * 8;
 
     protected static final Collection<String> report_topics =
             CollectionUtil.list(Report.types, Report.resolver, Report.loader);
 
+    private static final Report.Topic REPORT_TOPICS =
+            Report.topic(report_topics);
+
     protected static final Set<Kind> ALL_KINDS = new HashSet<>();
     static {
         ALL_KINDS.add(Kind.CLASS);
@@ -101,9 +145,10 @@ public class ExtFileManager
 
     /**
      * Map for storing in-memory FileObjects and associated fully qualified
-     * names
+     * names.  The post-compiler may store class files here while the
+     * compiler is still storing source files.
      */
-    protected final Map<Location, Map<String, JavaFileObject>> objectMap;
+    protected final ConcurrentMap<Location, Map<String, JavaFileObject>> objectMap;
 
     /**
      * Indicates if the file system is case-insensitive.
@@ -119,25 +164,99 @@ public class ExtFileManager
      */
     protected final boolean inMemory;
 
-    protected static List<Location> default_locations;
+    protected List<Location> default_locations;
+
+    /**
+     * The index of the archives on the class paths, or null if class files
+     * are looked up by the standard file manager.
+     */
+    protected final ClassPathIndex classPathIndex;
+
+    /**
+     * The indexed archives on the class paths, checked to be up to date once
+     * per file manager, or null for a location with an archive that cannot
+     * be indexed.
+     */
+    protected final Map<Location, List<Object>> indexedLocations;
 
     public ExtFileManager(ExtensionInfo extInfo) {
         super(javaCompiler.getStandardFileManager(null, null, null));
         this.extInfo = extInfo;
         loadedSources = new HashMap<>();
-        objectMap = new HashMap<>();
+        objectMap = new ConcurrentHashMap<>();
         inMemory = extInfo.getOptions().noOutputToFS;
-        List<Location> defaultLocations = extInfo.defaultLocations();
-        if (!defaultLocations.equals(default_locations)) {
-            default_locations = defaultLocations;
-            clearCache();
-        }
+        File buildCache = extInfo.getOptions().build_cache;
+        classPathIndex =
+                buildCache != null
+                        ? ClassPathIndex.forBuildCache(buildCache) : null;
+        indexedLocations = new HashMap<>();
+        default_locations = extInfo.defaultLocations();
     }
 
     protected void clearCache() {
         packageCache.clear();
         nocache.clear();
-        zipCache.clear();
+    }
+
+    /**
+     * Clear the package and class file look up caches of this file manager.
+     * A client that keeps a file manager across compilations must call this
+     * before each of them, since a directory on the class path may have
+     * changed in between; changed archives are detected by the file
+     * manager itself.
+     */
+    public void invalidateLookupCaches() {
+        clearCache();
+    }
+
+    /**
+     * Release the caches of this file manager and the contents of the
+     * indexed archives it mapped.
+     */
+    @Override
+    public void close() throws IOException {
+        clearCache();
+        zipCache.close();
+        if (classPathIndex != null) classPathIndex.release();
+        super.close();
+    }
+
+    /**
+     * Keep the contents of class files found in archives (such as the JDK's
+     * jars) in memory, so later compilations in this VM do not read and
+     * decompress them again.  A class file is read again if its archive has
+     * changed.
+     */
+    public static void setShareArchivedClassFiles(boolean share) {
+        shareArchivedClassFiles = share;
+        if (!share) invalidateArchivedClassFiles();
+    }
+
+    /**
+     * Set the number of bytes of class files kept in memory by
+     * {@link #setShareArchivedClassFiles}.
+     */
+    public static void setMaxArchivedClassBytes(long max) {
+        synchronized (archivedClassCache) {
+            maxArchivedClassBytes = max;
+            trimArchivedClassCache();
+        }
+    }
+
+    /** Forget the contents of class files found in archives. */
+    public static void invalidateArchivedClassFiles() {
+        synchronized (archivedClassCache) {
+            archivedClassCache.clear();
+            archivedClassBytes = 0;
+        }
+    }
+
+    protected static void trimArchivedClassCache() {
+        Iterator<ArchivedClass> i = archivedClassCache.values().iterator();
+        while (archivedClassBytes > maxArchivedClassBytes && i.hasNext()) {
+            archivedClassBytes -= i.next().bytes.length;
+            i.remove();
+        }
     }
 
     @Override
@@ -217,8 +336,9 @@ public class ExtFileManager
                     new ExtFileObject(src, kindFromExtension(relativeName));
             Map<String, JavaFileObject> locMap = objectMap.get(location);
             if (locMap == null) {
-                locMap = new HashMap<>();
-                objectMap.put(location, locMap);
+                Map<String, JavaFileObject> m = new ConcurrentHashMap<>();
+                locMap = objectMap.putIfAbsent(location, m);
+                if (locMap == null) locMap = m;
             }
             locMap.put(key, jfo);
             return jfo;
@@ -334,81 +454,175 @@ public class ExtFileManager
         return exists;
     }
 
+    /** The archives opened by {@link #loadZip(File)}. */
+    protected static final Map<File, ZipFile> loadedZips = new HashMap<>();
+
+    /**
+     * Return the archive {@code dir}, or null if it does not exist.  The
+     * archive is kept open for the life of the VM.  The file manager itself
+     * does not use it: it keeps no archive open.
+     */
     protected static ZipFile loadZip(File dir) throws IOException {
-        Object o = zipCache.get(dir);
-        if (o != not_found) {
-            ZipFile zip = (ZipFile) o;
-            if (zip != null) {
-                return zip;
-            }
-            else {
-                // the zip is not in the cache.
-                // try to get it.
-                if (!dir.exists()) {
-                    // record that the file does not exist,
-                    zipCache.put(dir, not_found);
-                }
-                else {
-                    // get the zip and put it in the cache.
-                    if (Report.should_report(verbose, 2))
-                        Report.report(2, "Opening zip " + dir);
-                    if (dir.getName().endsWith(".jar")) {
-                        zip = new JarFile(dir);
-                    }
-                    else {
-                        zip = new ZipFile(dir);
-                    }
-                    zipCache.put(dir, zip);
-
-                    // Load the package cache
-                    Enumeration<? extends ZipEntry> i = zip.entries();
-                    while (i.hasMoreElements()) {
-                        ZipEntry ei = i.nextElement();
-                        String n = ei.getName();
-                        int index = n.indexOf('/');
-                        while (index >= 0) {
-                            packageCache.put(n.substring(0, index), true);
-                            index = n.indexOf('/', index + 1);
-                        }
-                    }
-                    return zip;
-                }
+        synchronized (loadedZips) {
+            ZipFile zip = loadedZips.get(dir);
+            if (zip == null && dir.exists()) {
+                zip = ArchiveCache.openZip(dir);
+                loadedZips.put(dir, zip);
             }
+            return zip;
         }
-        return null;
+    }
+
+    /**
+     * Return the paths of the packages in the archive {@code f}, or null if
+     * it does not exist.  If an archive has changed since it was last
+     * looked in, the look up caches are cleared.
+     */
+    protected Set<String> zipPackages(File f) throws IOException {
+        Set<String> packages = zipCache.packages(f);
+        int generation = zipCache.generation();
+        if (generation != zipCacheGeneration) {
+            zipCacheGeneration = generation;
+            clearCache();
+        }
+        return packages;
     }
 
     @Override
     public boolean packageExists(Location location, String name) {
+        List<Object> indexed = indexedLocation(location);
+        if (indexed != null) {
+            String path = name.replace('.', '/');
+            for (Object o : indexed) {
+                if (o instanceof ClassPathIndex.Archive) {
+                    if (((ClassPathIndex.Archive) o).hasPackage(path))
+                        return true;
+                }
+                else if (directoryPackageExists((File) o, name)) return true;
+            }
+            return false;
+        }
+
         Iterable<? extends File> files = getLocation(location);
         if (files == null) return false;
         for (File f : files) {
             String fileName = f.getName();
             if (fileName.endsWith(".jar") || fileName.endsWith(".zip")) {
                 String entryName = name.replace('.', '/');
+                Set<String> packages;
                 try {
-                    loadZip(f);
+                    packages = zipPackages(f);
                 }
                 catch (IOException e) {
                     throw new InternalCompilerError(e);
                 }
-                Boolean contains = packageCache.get(entryName);
-                if (contains != null && contains) return true;
+                if (packages != null && packages.contains(entryName))
+                    return true;
             }
-            else {
-                String filePath = name.replace('.', File.separatorChar);
-                File newFile = new File(f, filePath);
-                try {
-                    if (newFile.exists() && newFile.isDirectory()
-                            && newFile.getCanonicalPath().endsWith(filePath))
-                        return true;
-                }
-                catch (IOException e) {
-                    return false;
+            else if (directoryPackageExists(f, name)) return true;
+        }
+        return false;
+    }
+
+    /** Does the directory {@code dir} contain the package {@code name}? */
+    protected boolean directoryPackageExists(File dir, String name) {
+        String filePath = name.replace('.', File.separatorChar);
+        File newFile = new File(dir, filePath);
+        try {
+            return newFile.exists() && newFile.isDirectory()
+                    && newFile.getCanonicalPath().endsWith(filePath);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the archives and directories of {@code location} in order,
+     * with each archive replaced by its index, or null if the location is
+     * not searched through {@code classPathIndex}.
+     */
+    protected List<Object> indexedLocation(Location location) {
+        if (classPathIndex == null
+                || (location != StandardLocation.CLASS_PATH
+                        && location != StandardLocation.PLATFORM_CLASS_PATH))
+            return null;
+        if (indexedLocations.containsKey(location))
+            return indexedLocations.get(location);
+
+        List<Object> indexed = new ArrayList<>();
+        Iterable<? extends File> files = getLocation(location);
+        if (files == null) indexed = null;
+        for (File f : files == null ? Collections.<File> emptyList() : files) {
+            String fileName = f.getName();
+            if (f.isDirectory()) {
+                indexed.add(f);
+            }
+            else if (fileName.endsWith(".jar") || fileName.endsWith(".zip")) {
+                if (!f.exists()) continue;
+                ClassPathIndex.Archive a = classPathIndex.archive(f);
+                if (a == null) {
+                    indexed = null;
+                    break;
                 }
+                indexed.add(a);
             }
         }
-        return false;
+        // Without a platform class path, the standard file manager finds
+        // the system classes itself.
+        if (indexed != null && indexed.isEmpty()
+                && location == StandardLocation.PLATFORM_CLASS_PATH)
+            indexed = null;
+        indexedLocations.put(location, indexed);
+        return indexed;
+    }
+
+    /**
+     * Look up the class file for the class {@code name} in the archives and
+     * directories {@code indexed}, and return it or null if it is not found.
+     */
+    protected ClassFile loadIndexedFile(List<Object> indexed, String name)
+            throws IOException {
+        String entryName = name.replace('.', '/') + Kind.CLASS.extension;
+        for (Object o : indexed) {
+            JavaFileObject jfo;
+            ByteBuffer contents;
+            if (o instanceof ClassPathIndex.Archive) {
+                ClassPathIndex.Archive a = (ClassPathIndex.Archive) o;
+                if (!a.contains(entryName)) continue;
+                ClassPathIndex.EntryFileObject efo =
+                        (ClassPathIndex.EntryFileObject) a.fileObject(entryName);
+                jfo = efo;
+                contents = efo.contents();
+            }
+            else {
+                File f =
+                        new File((File) o,
+                                 entryName.replace('/', File.separatorChar));
+                if (!f.isFile()) continue;
+                jfo = fileManager.getJavaFileObjects(f).iterator().next();
+                contents = ByteBuffer.wrap(getBytes(jfo));
+            }
+            if (Report.should_report(REPORT_TOPICS, 4))
+                Report.report(4, "Class " + name + " found at " + jfo.toUri());
+            return createClassFile(jfo, contents);
+        }
+        return null;
+    }
+
+    /**
+     * Create the class file {@code jfo} with the remaining contents of
+     * {@code contents}.  The contents are passed to the extension without a
+     * copy if it creates class files from buffers.
+     */
+    protected ClassFile createClassFile(JavaFileObject jfo, ByteBuffer contents)
+            throws IOException {
+        if (extInfo instanceof AbstractExtensionInfo)
+            return ((AbstractExtensionInfo) extInfo).createClassFile(jfo,
+                                                                     contents);
+        byte[] b = new byte[contents.remaining()];
+        contents.duplicate().get(b);
+        return extInfo.createClassFile(jfo, b);
     }
 
     @Override
@@ -425,16 +639,19 @@ public class ExtFileManager
 
     @Override
     public ClassFile loadFile(Location location, String name) {
-        if (Report.should_report(report_topics, 3)) {
+        if (Report.should_report(REPORT_TOPICS, 3)) {
             Report.report(3, "looking in " + location + " for " + name);
         }
-        if (Report.should_report(report_topics, 4)) {
+        if (Report.should_report(REPORT_TOPICS, 4)) {
             Report.report(4,
                           "Location " + location + " has "
                                   + getLocation(location));
         }
 
         try {
+            List<Object> indexed = indexedLocation(location);
+            if (indexed != null) return loadIndexedFile(indexed, name);
+
             JavaFileObject jfo = null;
             try {
                 jfo = getJavaFileForInput(location, name, Kind.CLASS);
@@ -444,14 +661,14 @@ public class ExtFileManager
                         + name, e);
             }
             if (jfo != null) {
-                if (Report.should_report(report_topics, 4)) {
+                if (Report.should_report(REPORT_TOPICS, 4)) {
                     Report.report(4,
                                   "Class " + name + " found in " + location
                                           + " at " + jfo.toUri());
                 }
             }
             else {
-                if (Report.should_report(report_topics, 4)) {
+                if (Report.should_report(REPORT_TOPICS, 4)) {
                     Report.report(4,
                                   "Class " + name + " not found in "
                                           + location);
@@ -459,15 +676,15 @@ public class ExtFileManager
             }
 
             if (jfo != null) {
-                return extInfo.createClassFile(jfo, getBytes(jfo));
+                return extInfo.createClassFile(jfo, classFileBytes(jfo));
             }
         }
         catch (ClassFormatError e) {
-            if (Report.should_report(report_topics, 4))
+            if (Report.should_report(REPORT_TOPICS, 4))
                 Report.report(4, "Class " + name + " format error");
         }
         catch (IOException e) {
-            if (Report.should_report(report_topics, 4))
+            if (Report.should_report(REPORT_TOPICS, 4))
                 Report.report(4, "Error loading class " + name);
         }
         return null;
@@ -725,6 +942,54 @@ public class ExtFileManager
         }
     }
 
+    /**
+     * Return the contents of the class file {@code jfo}, from
+     * {@code archivedClassCache} if it is enabled and {@code jfo} is in an
+     * archive.
+     */
+    protected byte[] classFileBytes(JavaFileObject jfo) throws IOException {
+        if (!shareArchivedClassFiles) return getBytes(jfo);
+
+        URI uri = jfo.toUri();
+        String scheme = uri.getScheme();
+        File archive;
+        if ("jar".equals(scheme)) {
+            String s = uri.getRawSchemeSpecificPart();
+            int bang = s.indexOf("!/");
+            try {
+                archive = bang < 0 ? null : new File(new URI(s.substring(0, bang)));
+            }
+            catch (URISyntaxException | IllegalArgumentException e) {
+                archive = null;
+            }
+            if (archive == null) return getBytes(jfo);
+        }
+        else if ("jrt".equals(scheme)) {
+            // The run-time image does not change while the VM runs.
+            archive = null;
+        }
+        else return getBytes(jfo);
+
+        long lastModified = archive != null ? archive.lastModified() : 0;
+        synchronized (archivedClassCache) {
+            ArchivedClass c = archivedClassCache.get(uri);
+            if (c != null && c.lastModified == lastModified) return c.bytes;
+        }
+
+        byte[] b = getBytes(jfo);
+        synchronized (archivedClassCache) {
+            ArchivedClass old =
+                    archivedClassCache.put(uri,
+                                           new ArchivedClass(archive,
+                                                             lastModified,
+                                                             b));
+            if (old != null) archivedClassBytes -= old.bytes.length;
+            archivedClassBytes += b.length;
+            trimArchivedClassCache();
+        }
+        return b;
+    }
+
     /**
      * Convenience method for extracting bytes from a FileObject
      */
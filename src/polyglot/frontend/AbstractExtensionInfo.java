@@ -29,12 +29,14 @@ package polyglot.frontend;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import javax.tools.FileObject;
 import javax.tools.JavaFileManager.Location;
+import javax.tools.StandardJavaFileManager;
 import javax.tools.StandardLocation;
 
 import polyglot.ast.Node;
@@ -45,10 +47,12 @@ import polyglot.frontend.Source.Kind;
 import polyglot.frontend.goals.Goal;
 import polyglot.main.Options;
 import polyglot.main.Version;
+import polyglot.qq.QQTemplateCache;
 import polyglot.translate.ext.ToExt;
 import polyglot.translate.ext.ToExt_c;
 import polyglot.types.TypeSystem;
 import polyglot.types.reflect.ClassFile;
+import polyglot.types.reflect.ClassFileCache;
 import polyglot.types.reflect.ClassFileLoader;
 import polyglot.types.reflect.ClassFile_c;
 import polyglot.util.ErrorQueue;
@@ -69,6 +73,8 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
     protected FileManager extFM;
     protected ClassFileLoader classFileLoader;
     protected List<Location> default_locations;
+    protected QQTemplateCache qqTemplateCache;
+    protected boolean reusable;
 
     @Override
     public abstract Goal getCompileGoal(Job job);
@@ -99,6 +105,7 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
     public Stats getStats() {
         if (stats == null) {
             stats = new Stats(this);
+            if (qqTemplateCache != null) stats.addCounters(qqTemplateCache);
         }
         return stats;
     }
@@ -112,6 +119,9 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
     public void initCompiler(Compiler compiler) {
         this.compiler = compiler;
 
+        // The class files kept are those of the previous compiler.
+        classFileLoader = null;
+
         // Register the extension with the compiler.
         compiler.addExtension(this);
 
@@ -221,6 +231,29 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
         return new ClassFile_c(f, code, this);
     }
 
+    /**
+     * Create class file for a file object from the remaining contents of
+     * {@code code}, which must not change afterwards.  This implementation
+     * passes the array backing {@code code} to
+     * {@link #createClassFile(FileObject, byte[])}, copying the contents of
+     * the buffer only if it is not backed by an array, so that extensions
+     * that override that method keep working.
+     */
+    public ClassFile createClassFile(FileObject f, ByteBuffer code)
+            throws IOException {
+        byte[] b;
+        if (code.hasArray() && code.arrayOffset() == 0
+                && code.position() == 0
+                && code.remaining() == code.array().length) {
+            b = code.array();
+        }
+        else {
+            b = new byte[code.remaining()];
+            code.duplicate().get(b);
+        }
+        return createClassFile(f, b);
+    }
+
     @Deprecated
     @Override
     public FileSource createFileSource(FileObject f, boolean user)
@@ -272,33 +305,58 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
      */
     @Override
     public void configureFileManagerForPostCompiler() throws IOException {
+        configureFileManagerForPostCompiler(extFM);
+    }
+
+    @Override
+    public void configureFileManagerForPostCompiler(StandardJavaFileManager fm)
+            throws IOException {
         Options opt = getOptions();
 
-        extFM.setLocation(StandardLocation.PLATFORM_CLASS_PATH,
-                          opt.defaultPlatformClasspath());
+        fm.setLocation(StandardLocation.PLATFORM_CLASS_PATH,
+                       opt.defaultPlatformClasspath());
 
         List<File> sourcepath =
                 Collections.singletonList(opt.sourceOutputDirectory());
-        extFM.setLocation(StandardLocation.SOURCE_PATH, sourcepath);
+        fm.setLocation(StandardLocation.SOURCE_PATH, sourcepath);
 
         List<File> classpath = new ArrayList<>();
         classpath.addAll(opt.bootclasspathDirectories());
         classpath.addAll(opt.classpathDirectories());
-        extFM.setLocation(StandardLocation.CLASS_PATH, classpath);
+        fm.setLocation(StandardLocation.CLASS_PATH, classpath);
 
         List<File> classout =
                 Collections.singletonList(opt.classOutputDirectory());
-        extFM.setLocation(StandardLocation.CLASS_OUTPUT, classout);
+        fm.setLocation(StandardLocation.CLASS_OUTPUT, classout);
     }
 
+    /**
+     * Return the class file loader.  An extension with an output extension
+     * keeps the class files it loads, for the output extension to share.
+     */
     @Override
     public ClassFileLoader classFileLoader() {
         if (classFileLoader == null) {
-            classFileLoader = extFileManager();
+            if (outputExtensionInfo() != null)
+                classFileLoader = new ClassFileCache(extFileManager());
+            else classFileLoader = extFileManager();
         }
         return classFileLoader;
     }
 
+    @Override
+    public QQTemplateCache qqTemplateCache() {
+        if (qqTemplateCache == null) {
+            qqTemplateCache = createQQTemplateCache();
+            getStats().addCounters(qqTemplateCache);
+        }
+        return qqTemplateCache;
+    }
+
+    protected QQTemplateCache createQQTemplateCache() {
+        return new QQTemplateCache();
+    }
+
     @Override
     public ToExt getToExt(ExtensionInfo to_ext, Node n) {
         // just return the first ToExt extension we find.
@@ -314,7 +372,54 @@ public abstract class AbstractExtensionInfo implements ExtensionInfo {
     public void cleanup() {
         // Flush the outputFiles collection
         compiler().outputFiles().clear();
-        ts = null;
+        if (!reusable) ts = null;
+    }
+
+    /**
+     * Set whether this extension is kept for further compilations after the
+     * current one, to be prepared for each by {@link #reset()}.
+     */
+    public void setReusable(boolean reusable) {
+        this.reusable = reusable;
+    }
+
+    /**
+     * Prepare this extension, after a compilation, for another compilation
+     * with new options.  The compiler, options, scheduler, file manager, and
+     * statistics of the last compilation are discarded.  The type system,
+     * node factory, and quasiquoting templates are kept; the type system
+     * keeps the types it can share with the next compilation when it is
+     * initialized again.
+     *
+     * @return false if the extension cannot be reused, in which case a new
+     *          extension must be created for the next compilation.
+     */
+    public boolean reset() {
+        if (!reusable || ts == null) return false;
+        ExtensionInfo out = outputExtensionInfo();
+        if (out != null) {
+            if (!(out instanceof AbstractExtensionInfo)) return false;
+            AbstractExtensionInfo o = (AbstractExtensionInfo) out;
+            o.setReusable(true);
+            if (!o.reset()) return false;
+        }
+        if (extFM != null) {
+            try {
+                extFM.close();
+            }
+            catch (IOException e) {
+                // Nothing more can be done with it.
+            }
+        }
+        compiler = null;
+        options = null;
+        stats = null;
+        scheduler = null;
+        extFM = null;
+        classFileLoader = null;
+        target_factory = null;
+        default_locations = null;
+        return true;
     }
 
     @Override
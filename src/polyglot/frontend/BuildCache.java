@@ -0,0 +1,652 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.frontend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+
+import polyglot.ast.ClassDecl;
+import polyglot.ast.Field;
+import polyglot.ast.Node;
+import polyglot.ast.ProcedureCall;
+import polyglot.ast.SourceFile;
+import polyglot.ast.Typed;
+import polyglot.filemanager.ClassPathIndex;
+import polyglot.main.Options;
+import polyglot.main.Report;
+import polyglot.types.ClassType;
+import polyglot.types.Declaration;
+import polyglot.types.FieldInstance;
+import polyglot.types.ParsedClassType;
+import polyglot.types.ProcedureInstance;
+import polyglot.types.ReferenceType;
+import polyglot.types.Type;
+import polyglot.types.reflect.ClassFile;
+import polyglot.util.InternalCompilerError;
+import polyglot.util.StringUtil;
+import polyglot.visit.NodeVisitor;
+
+/**
+ * A {@code BuildCache} records, for every source file translated by the
+ * compiler, a hash of the source, the output files generated from it, and
+ * fingerprints of the top-level classes it depends on.  A later compilation
+ * given the same cache file (with {@code -buildcache}) does not recompile
+ * sources whose content and dependencies are unchanged; their previous
+ * output files are handed to the post-compiler instead.
+ *
+ * A dependency is fingerprinted by the hash of the source or class file it
+ * was loaded from, and by where the class is found: the source file named
+ * after it on the source path and, for a class loaded from a class file,
+ * the class file on the class path.  A source is recompiled if a file
+ * added to or removed from these paths changes where one of its
+ * dependencies is found.  A source is also recompiled if it depends on a
+ * class declared in a source that is recompiled, since the class file of
+ * that class is only regenerated by the post-compiler.
+ *
+ * Files are rehashed only if their size or modification time changed since
+ * they were hashed.
+ */
+public class BuildCache {
+    protected static final int MAGIC = 0x504c4243;
+    protected static final int VERSION = 2;
+
+    /** A top-level class a source depends on. */
+    protected static class Dependency {
+        /** Fully qualified name of the class. */
+        public final String className;
+        /** URI of the source or class file the class was loaded from. */
+        public final String uri;
+        /** Hash of the contents of {@code uri}. */
+        public final String hash;
+        /** Size and modification time of {@code uri} when it was hashed. */
+        public final String stamp;
+        /** Whether the class was loaded from a source file. */
+        public final boolean fromSource;
+        /** Where the class is found, as computed by {@code location}. */
+        public final String location;
+
+        public Dependency(String className, String uri, String hash,
+                String stamp, boolean fromSource, String location) {
+            this.className = className;
+            this.uri = uri;
+            this.hash = hash;
+            this.stamp = stamp;
+            this.fromSource = fromSource;
+            this.location = location;
+        }
+    }
+
+    /** What is known about one source file. */
+    protected static class Entry {
+        public final String uri;
+        public final String hash;
+        public final String stamp;
+        public final List<String> outputs = new ArrayList<>();
+        public final List<String> classes = new ArrayList<>();
+        public final List<Dependency> dependencies = new ArrayList<>();
+
+        public Entry(String uri, String hash, String stamp) {
+            this.uri = uri;
+            this.hash = hash;
+            this.stamp = stamp;
+        }
+    }
+
+    protected final ExtensionInfo extInfo;
+    protected final File file;
+
+    /** Entries read from the cache file, keyed by source URI. */
+    protected final Map<String, Entry> previous = new LinkedHashMap<>();
+
+    /** Entries recorded by this compilation, keyed by source URI. */
+    protected final Map<String, Entry> recorded = new LinkedHashMap<>();
+
+    /** Sources whose previous entry is reused by this compilation. */
+    protected final Map<String, Entry> reused = new LinkedHashMap<>();
+
+    /** Hashes of the files read by this compilation, keyed by URI. */
+    protected final Map<String, String> hashes = new HashMap<>();
+
+    /**
+     * Sizes and modification times of the files read by this compilation,
+     * keyed by URI.
+     */
+    protected final Map<String, String> stamps = new HashMap<>();
+
+    /** Locations of the dependencies checked by this compilation. */
+    protected final Map<String, String> locations = new HashMap<>();
+
+    /** Class file dependencies found by this compilation, keyed by name. */
+    protected final Map<String, Dependency> classFileDependencies =
+            new HashMap<>();
+
+    public BuildCache(ExtensionInfo extInfo, File file) {
+        this.extInfo = extInfo;
+        this.file = file;
+        load();
+    }
+
+    /** The header identifying the compiler that wrote a cache file. */
+    protected String header() {
+        return extInfo.compilerName() + " " + extInfo.version()
+                + extInfo.getOptions().outputConfiguration();
+    }
+
+    /**
+     * Read the cache file.  A missing, unreadable, or incompatible cache file
+     * is treated as an empty cache.
+     */
+    protected void load() {
+        if (!file.exists()) return;
+
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(header())) {
+                if (Report.should_report(Report.frontend, 1))
+                    Report.report(1, "Ignoring out-of-date build cache "
+                            + file);
+                return;
+            }
+
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                Entry e =
+                        new Entry(in.readUTF(), in.readUTF(), readStamp(in));
+                int outputs = in.readInt();
+                for (int j = 0; j < outputs; j++)
+                    e.outputs.add(in.readUTF());
+                int classes = in.readInt();
+                for (int j = 0; j < classes; j++)
+                    e.classes.add(in.readUTF());
+                int deps = in.readInt();
+                for (int j = 0; j < deps; j++)
+                    e.dependencies.add(new Dependency(in.readUTF(),
+                                                      in.readUTF(),
+                                                      in.readUTF(),
+                                                      readStamp(in),
+                                                      in.readBoolean(),
+                                                      in.readUTF()));
+                previous.put(e.uri, e);
+            }
+        }
+        catch (IOException e) {
+            if (Report.should_report(Report.frontend, 1))
+                Report.report(1, "Ignoring unreadable build cache " + file
+                        + ": " + e.getMessage());
+            previous.clear();
+        }
+    }
+
+    private static String readStamp(DataInputStream in) throws IOException {
+        String stamp = in.readUTF();
+        return stamp.isEmpty() ? null : stamp;
+    }
+
+    private static void writeStamp(DataOutputStream out, String stamp)
+            throws IOException {
+        out.writeUTF(stamp == null ? "" : stamp);
+    }
+
+    /**
+     * Write the entries recorded by this compilation to the cache file,
+     * keeping the previous entries of sources that were not recompiled so
+     * that their dependents are still checked against them.  The file is
+     * replaced atomically, so an interrupted compilation leaves the previous
+     * cache intact.  The index of the archives on the class paths is
+     * written next to the cache file.
+     */
+    public void save() throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>(previous);
+        entries.putAll(recorded);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        File tmp = File.createTempFile(file.getName() + ".tmp", null, dir);
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(header());
+                out.writeInt(entries.size());
+                for (Entry e : entries.values()) {
+                    out.writeUTF(e.uri);
+                    out.writeUTF(e.hash);
+                    writeStamp(out, e.stamp);
+                    out.writeInt(e.outputs.size());
+                    for (String s : e.outputs)
+                        out.writeUTF(s);
+                    out.writeInt(e.classes.size());
+                    for (String s : e.classes)
+                        out.writeUTF(s);
+                    out.writeInt(e.dependencies.size());
+                    for (Dependency d : e.dependencies) {
+                        out.writeUTF(d.className);
+                        out.writeUTF(d.uri);
+                        out.writeUTF(d.hash);
+                        writeStamp(out, d.stamp);
+                        out.writeBoolean(d.fromSource);
+                        out.writeUTF(d.location);
+                    }
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file))
+                    throw new IOException("Cannot replace build cache "
+                            + file);
+            }
+        }
+        finally {
+            tmp.delete();
+        }
+
+        ClassPathIndex.forBuildCache(file).save();
+    }
+
+    /**
+     * Return the sources in {@code sources} that must be compiled.  Every
+     * other source is unchanged since the previous compilation, and its
+     * previous outputs are added by {@code addReusedOutputs}.
+     */
+    public List<FileSource> staleSources(Collection<FileSource> sources) {
+        // Check the hashes of the sources, outputs, and dependencies of
+        // every previous entry.
+        Set<String> stale = new HashSet<>();
+        Map<String, String> declaredBy = new HashMap<>();
+        for (Entry e : previous.values()) {
+            for (String c : e.classes)
+                declaredBy.put(c, e.uri);
+            if (!upToDate(e)) stale.add(e.uri);
+        }
+
+        for (FileSource source : sources) {
+            String uri = source.toUri().toString();
+            if (!previous.containsKey(uri)) stale.add(uri);
+        }
+
+        // Sources depending on classes declared in stale sources are stale.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Entry e : previous.values()) {
+                if (stale.contains(e.uri)) continue;
+                for (Dependency d : e.dependencies) {
+                    String uri = declaredBy.get(d.className);
+                    if (uri != null && stale.contains(uri)) {
+                        stale.add(e.uri);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<FileSource> result = new ArrayList<>(sources.size());
+        for (FileSource source : sources) {
+            String uri = source.toUri().toString();
+            if (stale.contains(uri)) {
+                result.add(source);
+            }
+            else {
+                reused.put(uri, previous.get(uri));
+                if (Report.should_report(Report.frontend, 1))
+                    Report.report(1, "Reusing outputs of unchanged " + source);
+            }
+        }
+        return result;
+    }
+
+    /** Is the previous entry {@code e} still valid? */
+    protected boolean upToDate(Entry e) {
+        if (!unchanged(e.uri, e.hash, e.stamp)) return false;
+        for (String output : e.outputs) {
+            if (!new File(URI.create(output)).exists()) return false;
+        }
+        for (Dependency d : e.dependencies) {
+            if (!unchanged(d.uri, d.hash, d.stamp)) return false;
+            if (!d.location.equals(location(d.className, d.fromSource)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Does {@code uri} still have the contents it had when it was hashed to
+     * {@code hash}?  The file is rehashed only if its size or modification
+     * time is not {@code stamp}.
+     */
+    protected boolean unchanged(String uri, String hash, String stamp) {
+        if (stamp != null && stamp.equals(stamp(uri))) {
+            if (!hashes.containsKey(uri)) hashes.put(uri, hash);
+            return true;
+        }
+        return hash.equals(hash(uri));
+    }
+
+    /**
+     * Add the previous outputs of the sources that were not recompiled to
+     * {@code outputFiles}.
+     */
+    public void addReusedOutputs(Collection<JavaFileObject> outputFiles) {
+        Set<URI> present = new HashSet<>();
+        for (JavaFileObject jfo : outputFiles)
+            present.add(jfo.toUri());
+
+        List<File> files = new ArrayList<>();
+        for (Entry e : reused.values()) {
+            for (String output : e.outputs) {
+                URI uri = URI.create(output);
+                if (present.add(uri)) files.add(new File(uri));
+            }
+        }
+        if (files.isEmpty()) return;
+
+        for (JavaFileObject jfo : extInfo.extFileManager()
+                                         .getJavaFileObjects(files.toArray(new File[files.size()])))
+            outputFiles.add(jfo);
+    }
+
+    /**
+     * Record that the source file {@code sf} of {@code job} was translated to
+     * {@code outputs}, together with the classes it depends on.  This must
+     * be called on the AST that was translated, while it is still type
+     * checked.
+     */
+    public void record(Job job, SourceFile sf, List<JavaFileObject> outputs) {
+        Source source = sf.source();
+        String uri = source.toUri().toString();
+        // Drop any reused entry for a source that was compiled anyway, e.g.,
+        // because a recompiled source loaded it from the source path.
+        reused.remove(uri);
+
+        String hash = hash(uri);
+        if (hash == null) return;
+        Entry e = new Entry(uri, hash, stamp(uri));
+
+        for (JavaFileObject of : outputs)
+            e.outputs.add(of.toUri().toString());
+
+        final Set<ClassType> declared = new HashSet<>();
+        final Set<Type> used =
+                Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+        sf.visit(new NodeVisitor(job.extensionInfo().nodeFactory().lang()) {
+            @Override
+            public Node leave(Node old, Node n, NodeVisitor v) {
+                if (n instanceof Typed) used.add(((Typed) n).type());
+                if (n instanceof ProcedureCall) {
+                    ProcedureInstance pi =
+                            ((ProcedureCall) n).procedureInstance();
+                    if (pi != null) used.add(pi.container());
+                }
+                if (n instanceof Field) {
+                    FieldInstance fi = ((Field) n).fieldInstance();
+                    if (fi != null) used.add(fi.container());
+                }
+                if (n instanceof ClassDecl) {
+                    ClassType ct = ((ClassDecl) n).type();
+                    if (ct != null) {
+                        used.add(ct);
+                        if (ct.isTopLevel()) declared.add(ct);
+                    }
+                }
+                return n;
+            }
+        });
+
+        for (ClassType ct : declared)
+            e.classes.add(ct.fullName());
+
+        Map<String, Dependency> deps = new LinkedHashMap<>();
+        Set<Type> seen =
+                Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+        for (Type t : used) {
+            if (!addDependencies(t, e, seen, deps)) {
+                if (Report.should_report(Report.frontend, 1))
+                    Report.report(1, "Not caching " + source
+                            + ": cannot fingerprint dependency " + t);
+                return;
+            }
+        }
+        e.dependencies.addAll(deps.values());
+
+        recorded.put(uri, e);
+    }
+
+    /**
+     * Add the top-level classes {@code t} depends on, including the classes
+     * declaring its supertypes, to {@code deps}.  Return false if one of them
+     * was not loaded from a file.
+     */
+    protected boolean addDependencies(Type t, Entry e, Set<Type> seen,
+            Map<String, Dependency> deps) {
+        if (t == null) return true;
+        if (t.isArray())
+            return addDependencies(t.toArray().base(), e, seen, deps);
+        if (!(t instanceof ReferenceType)) return true;
+
+        ReferenceType rt = (ReferenceType) t;
+        if (rt instanceof ClassType) {
+            Declaration decl = ((ClassType) rt).declaration();
+            if (decl instanceof ClassType) rt = (ClassType) decl;
+        }
+        if (!seen.add(rt)) return true;
+
+        if (rt instanceof ClassType) {
+            ClassType ct = (ClassType) rt;
+            if (ct.isNested()) {
+                if (!addDependencies(ct.outer(), e, seen, deps)) return false;
+            }
+            else if (!e.classes.contains(ct.fullName())
+                    && !deps.containsKey(ct.fullName())) {
+                Dependency d = dependency(ct);
+                if (d == null) return false;
+                if (!d.uri.equals(e.uri)) deps.put(ct.fullName(), d);
+            }
+        }
+
+        if (!addDependencies(rt.superType(), e, seen, deps)) return false;
+        for (ReferenceType it : rt.interfaces()) {
+            if (!addDependencies(it, e, seen, deps)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the fingerprint of the top-level class {@code ct}, or null if it
+     * was not loaded from a file.
+     */
+    protected Dependency dependency(ClassType ct) {
+        String name = ct.fullName();
+        if (ct instanceof ParsedClassType) {
+            Source from = ((ParsedClassType) ct).fromSource();
+            if (from != null) {
+                String uri = from.toUri().toString();
+                String hash = hash(uri);
+                return hash == null ? null : new Dependency(name,
+                                                            uri,
+                                                            hash,
+                                                            stamp(uri),
+                                                            true,
+                                                            location(name,
+                                                                     true));
+            }
+        }
+
+        if (classFileDependencies.containsKey(name))
+            return classFileDependencies.get(name);
+
+        Dependency d = null;
+        ClassFile cf = extInfo.classFileLoader().loadFile(name);
+        if (cf != null) {
+            String uri = cf.getClassFileURI().toString();
+            String hash = hash(uri);
+            if (hash != null)
+                d = new Dependency(name,
+                                   uri,
+                                   hash,
+                                   stamp(uri),
+                                   false,
+                                   location(name, false));
+        }
+        classFileDependencies.put(name, d);
+        return d;
+    }
+
+    /**
+     * Return where the top-level class {@code name} is found: the source
+     * file named after it on the source path and, if it is not loaded from
+     * source, the class file for it on the class path.  The class files
+     * of classes loaded from source are not looked up, since they are
+     * generated by the compilation itself.
+     */
+    protected String location(String name, boolean fromSource) {
+        String key = (fromSource ? "source " : "class ") + name;
+        String location = locations.get(key);
+        if (location != null) return location;
+
+        FileObject source = sourceFile(name);
+        location = source == null ? "" : source.toUri().toString();
+        if (!fromSource) {
+            ClassFile cf = extInfo.classFileLoader().loadFile(name);
+            location += " " + (cf == null ? "" : cf.getClassFileURI());
+        }
+        locations.put(key, location);
+        return location;
+    }
+
+    /**
+     * Return the source file named after the top-level class {@code name}
+     * on the source path, or null if there is none.
+     */
+    protected FileObject sourceFile(String name) {
+        Options opt = extInfo.getOptions();
+        String pkgName = StringUtil.getPackageComponent(name);
+        String shortName = StringUtil.getShortNameComponent(name);
+        for (String ext : extInfo.fileExtensions()) {
+            try {
+                FileObject fo =
+                        extInfo.extFileManager()
+                               .getFileForInput(opt.source_path,
+                                                pkgName,
+                                                shortName + "." + ext);
+                if (fo != null) return fo;
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the SHA-1 hash of the contents of {@code uri}, or null if it
+     * cannot be read.
+     */
+    protected String hash(String uri) {
+        if (hashes.containsKey(uri)) return hashes.get(uri);
+
+        // Take the stamp before reading the file, so that a change while
+        // the file is read is seen by the next compilation.
+        stamp(uri);
+
+        String result = null;
+        try (InputStream in = URI.create(uri).toURL().openStream()) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                md.update(buf, 0, n);
+
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest())
+                sb.append(String.format("%02x", b & 0xff));
+            result = sb.toString();
+        }
+        catch (IOException | IllegalArgumentException e) {
+            // Treat an unreadable file as changed.
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new InternalCompilerError(e);
+        }
+
+        hashes.put(uri, result);
+        return result;
+    }
+
+    /**
+     * Return the size and modification time of {@code uri}, or of the archive
+     * containing it, or null if it is not a file.
+     */
+    protected String stamp(String uri) {
+        if (stamps.containsKey(uri)) return stamps.get(uri);
+
+        String result = null;
+        try {
+            URI u = URI.create(uri);
+            if ("jar".equals(u.getScheme())) {
+                String path = u.getRawSchemeSpecificPart();
+                int bang = path.indexOf("!/");
+                u = bang < 0 ? null : URI.create(path.substring(0, bang));
+            }
+            if (u != null && "file".equals(u.getScheme())) {
+                File f = new File(u);
+                if (f.isFile()) result = f.length() + ":" + f.lastModified();
+            }
+        }
+        catch (IllegalArgumentException e) {
+            // Not a file; always rehash it.
+        }
+
+        stamps.put(uri, result);
+        return result;
+    }
+}
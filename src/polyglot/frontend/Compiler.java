@@ -26,10 +26,15 @@
 
 package polyglot.frontend;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
@@ -41,6 +46,7 @@ import polyglot.frontend.Source.Kind;
 import polyglot.frontend.goals.Goal;
 import polyglot.main.Options;
 import polyglot.types.reflect.ClassFileLoader;
+import polyglot.types.reflect.TypeArchive;
 import polyglot.util.CodeWriter;
 import polyglot.util.ErrorInfo;
 import polyglot.util.ErrorLimitError;
@@ -82,6 +88,25 @@ public class Compiler {
      */
     private List<Job> jobs = new ArrayList<>();
 
+    /**
+     * The build cache used to skip unchanged sources, or null if none was
+     * requested.
+     */
+    private BuildCache buildCache;
+
+    /**
+     * The updater of the type archive in the class output directory, or null
+     * if class information is not serialized.
+     */
+    private TypeArchive.Updater typeArchive;
+
+    /**
+     * The post-compiler run on translated files while others are still being
+     * translated, or null if the output files are post-compiled after the
+     * compilation.
+     */
+    private PipelinedPostCompiler pipelinedPostCompiler;
+
     /**
      * Initialize the compiler.
      *
@@ -106,6 +131,14 @@ public class Compiler {
 
         loader = extensionInfo.classFileLoader();
 
+        Options options = extensionInfo.getOptions();
+        if (options.build_cache != null && !options.output_stdout)
+            buildCache = new BuildCache(extensionInfo, options.build_cache);
+        if (options.serialize_type_info && !options.output_stdout)
+            typeArchive =
+                    new TypeArchive.Updater(options.classOutputDirectory(),
+                                            extensionInfo.version().name());
+
         // This must be done last.
         extensionInfo.initCompiler(this);
     }
@@ -186,12 +219,46 @@ public class Compiler {
      * point for the compiler, called from main().
      */
     public boolean compile(Collection<FileSource> sources) {
-        return runToGoal(sources, new GoalFactory() {
-            @Override
-            public Goal getGoal(Job job) {
-                return sourceExtension().getCompileGoal(job);
+        if (buildCache != null) sources = buildCache.staleSources(sources);
+
+        boolean okay = false;
+        try {
+            okay = sources.isEmpty() || runToGoal(sources, new GoalFactory() {
+                @Override
+                public Goal getGoal(Job job) {
+                    return sourceExtension().getCompileGoal(job);
+                }
+            });
+        }
+        finally {
+            if (!okay && pipelinedPostCompiler != null)
+                pipelinedPostCompiler.cancel();
+        }
+
+        if (okay && typeArchive != null) {
+            try {
+                typeArchive.commit();
             }
-        });
+            catch (IOException e) {
+                eq.enqueue(ErrorInfo.IO_ERROR, "Cannot write type archive: "
+                        + e.getMessage());
+                eq.flush();
+            }
+        }
+
+        if (okay && buildCache != null) {
+            buildCache.addReusedOutputs(outputFiles);
+            try {
+                buildCache.save();
+            }
+            catch (IOException e) {
+                eq.enqueue(ErrorInfo.IO_ERROR, "Cannot write build cache: "
+                        + e.getMessage());
+                eq.flush();
+            }
+        }
+
+        return okay;
     }
 
     /**
@@ -262,9 +329,41 @@ public class Compiler {
         for (ExtensionInfo ext : allExtensions)
             ext.getStats().report();
 
+        File metricsFile = extensionInfo.getOptions().metrics_file;
+        if (metricsFile != null) {
+            try {
+                writeMetrics(metricsFile);
+            }
+            catch (IOException e) {
+                eq.enqueue(ErrorInfo.IO_ERROR, "Cannot write metrics: "
+                        + e.getMessage());
+                eq.flush();
+            }
+        }
+
         return okay;
     }
 
+    /**
+     * Write the metrics of all extensions to {@code file} as a JSON object
+     * whose {@code extensions} member is the list of the stats of each
+     * extension.
+     */
+    protected void writeMetrics(File file) throws IOException {
+        try (Writer w =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                                                          StandardCharsets.UTF_8))) {
+            w.write("{\"extensions\": [\n");
+            String sep = "";
+            for (ExtensionInfo ext : allExtensions) {
+                w.write(sep);
+                ext.getStats().writeJSON(w);
+                sep = ",\n";
+            }
+            w.write("\n]}\n");
+        }
+    }
+
     /** Get the compiler's class file loader. */
     public ClassFileLoader loader() {
         return loader;
@@ -305,6 +404,34 @@ public class Compiler {
         return eq;
     }
 
+    /**
+     * Return the build cache used to skip unchanged sources, or null if none
+     * was requested.
+     */
+    public BuildCache buildCache() {
+        return buildCache;
+    }
+
+    /**
+     * Return the updater of the type archive in the class output directory,
+     * or null if class information is not serialized.
+     */
+    public TypeArchive.Updater typeArchive() {
+        return typeArchive;
+    }
+
+    /**
+     * The post-compiler to hand translated files to as they are generated,
+     * or null if there is none.
+     */
+    public PipelinedPostCompiler pipelinedPostCompiler() {
+        return pipelinedPostCompiler;
+    }
+
+    public void setPipelinedPostCompiler(PipelinedPostCompiler pc) {
+        pipelinedPostCompiler = pc;
+    }
+
     /** Return the list of Jobs generated during the last compiler run. **/
     public List<Job> jobs() {
         return jobs;
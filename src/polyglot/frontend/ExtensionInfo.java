@@ -33,6 +33,7 @@ import java.util.Set;
 
 import javax.tools.FileObject;
 import javax.tools.JavaFileManager.Location;
+import javax.tools.StandardJavaFileManager;
 
 import polyglot.ast.Node;
 import polyglot.ast.NodeFactory;
@@ -40,6 +41,7 @@ import polyglot.filemanager.FileManager;
 import polyglot.frontend.Source.Kind;
 import polyglot.frontend.goals.Goal;
 import polyglot.main.Options;
+import polyglot.qq.QQTemplateCache;
 import polyglot.translate.ext.ToExt;
 import polyglot.types.TypeSystem;
 import polyglot.types.reflect.ClassFile;
@@ -149,6 +151,13 @@ public interface ExtensionInfo {
     /** Configure the filemanger for the post-compilation phase. */
     void configureFileManagerForPostCompiler() throws IOException;
 
+    /**
+     * Configure the file manager {@code fm} as the file manager for the
+     * post-compilation phase would be configured.
+     */
+    void configureFileManagerForPostCompiler(StandardJavaFileManager fm)
+            throws IOException;
+
     /** Create class file for a file object. */
     ClassFile createClassFile(FileObject f, byte[] code) throws IOException;
 
@@ -166,6 +175,9 @@ public interface ExtensionInfo {
     /** Produce a class factory for this language extension. */
     ClassFileLoader classFileLoader();
 
+    /** The cache of the quasiquote templates parsed for this extension. */
+    QQTemplateCache qqTemplateCache();
+
     /**
      * Produce an extension info object for the output language this extension
      * translates to.
@@ -44,7 +44,10 @@ public class Job {
     /** The language extension used for this job. */
     protected ExtensionInfo lang;
 
-    /** The AST constructed from the source file. */
+    /**
+     * The AST constructed from the source file, or null if the job has
+     * completed and the scheduler released it.
+     */
     protected Node ast;
 
     /** The pass currently running over the job, or null. */
@@ -62,6 +65,9 @@ public class Job {
     /** The {@code Source} that this {@code Job} represents. */
     protected Source source;
 
+    /** The metrics of the passes run over the job, if they are recorded. */
+    protected Metrics.Counters metrics;
+
     /**
      * Global constant representing a job that has been completed.
      */
@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.frontend;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import polyglot.frontend.goals.Goal;
+import polyglot.main.Report;
+
+/**
+ * Structured metrics of the passes run by a scheduler.  For each kind of
+ * goal, identified by its name, and for each job, the metrics count the
+ * passes run and their outcomes, and accumulate the time in nanoseconds and
+ * the bytes allocated by the passes.  The counters of a goal are registered
+ * the first time a pass is run for a goal of its kind, so recording a pass
+ * costs a map lookup on a name the goal already has, rather than building
+ * string keys as {@link Stats#accumPassTimes} does.
+ *
+ * Metrics are only recorded if they are enabled, that is, if time is
+ * reported or the {@code -metrics} option gives a file to write them to.
+ * Thread allocation measurement, which slows down every allocation on some
+ * VMs, is turned on only when metrics are first enabled.  Each thread keeps
+ * its own stack of running passes.
+ */
+public class Metrics {
+    /** The outcome of running a pass for a goal. */
+    public enum Outcome {
+        /** The pass reached its goal. */
+        REACHED("reached"),
+
+        /** The pass succeeded, but did not reach its goal. */
+        UNREACHED("unreached"),
+
+        /** The pass failed. */
+        FAILED("failures"),
+
+        /** The pass was aborted because of a missing dependency. */
+        ABORTED("aborts");
+
+        /** The name of the count of this outcome when exported. */
+        public final String key;
+
+        private Outcome(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * The counters of a goal kind, a pass, or a job.  The time and
+     * allocation of a pass are split into those of the pass itself
+     * (exclusive) and those including the passes it spawned (inclusive).
+     */
+    public static class Counters {
+        protected final String name;
+        protected final long[] outcomes = new long[Outcome.values().length];
+        protected long inclusiveNanos;
+        protected long exclusiveNanos;
+        protected long exclusiveBytes;
+
+        protected Counters(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public synchronized void record(Outcome outcome, long inclusiveNanos,
+                long exclusiveNanos, long exclusiveBytes) {
+            outcomes[outcome.ordinal()]++;
+            this.inclusiveNanos += inclusiveNanos;
+            this.exclusiveNanos += exclusiveNanos;
+            this.exclusiveBytes += exclusiveBytes;
+        }
+
+        protected synchronized void add(Counters c) {
+            for (int i = 0; i < outcomes.length; i++)
+                outcomes[i] += c.outcomes[i];
+            inclusiveNanos += c.inclusiveNanos;
+            exclusiveNanos += c.exclusiveNanos;
+            exclusiveBytes += c.exclusiveBytes;
+        }
+
+        /** The number of passes run. */
+        public synchronized long runs() {
+            long n = 0;
+            for (long c : outcomes)
+                n += c;
+            return n;
+        }
+
+        public synchronized long count(Outcome outcome) {
+            return outcomes[outcome.ordinal()];
+        }
+
+        public synchronized long inclusiveNanos() {
+            return inclusiveNanos;
+        }
+
+        public synchronized long exclusiveNanos() {
+            return exclusiveNanos;
+        }
+
+        /** Bytes allocated by the passes, excluding any they spawned. */
+        public synchronized long allocatedBytes() {
+            return exclusiveBytes;
+        }
+
+        /**
+         * Write the counters as the members of a JSON object, naming the
+         * counters with {@code key}.
+         */
+        protected synchronized void writeJSON(Writer w, String key,
+                boolean inclusive) throws IOException {
+            w.write(quote(key) + ": " + quote(name));
+            w.write(", \"runs\": " + runs());
+            for (Outcome o : Outcome.values())
+                w.write(", " + quote(o.key) + ": " + outcomes[o.ordinal()]);
+            if (inclusive) w.write(", \"inclusiveNanos\": " + inclusiveNanos);
+            w.write(", \"exclusiveNanos\": " + exclusiveNanos);
+            w.write(", \"allocatedBytes\": " + exclusiveBytes);
+        }
+    }
+
+    /** The counters of a goal kind, and the name of its pass. */
+    public static class GoalCounters extends Counters {
+        protected final String passName;
+
+        protected GoalCounters(String name, String passName) {
+            super(name);
+            this.passName = passName;
+        }
+
+        public String passName() {
+            return passName;
+        }
+    }
+
+    /** The start times and allocations of the passes running on a thread. */
+    protected static class Frames {
+        protected long[] startNanos = new long[16];
+        protected long[] startBytes = new long[16];
+        protected long[] childNanos = new long[16];
+        protected long[] childBytes = new long[16];
+        protected int depth;
+    }
+
+    /**
+     * The bean measuring thread allocation, or null if unsupported, in a
+     * class of its own so that measurement is only turned on when enabled
+     * metrics first need it.
+     */
+    protected static class Allocation {
+        protected static final com.sun.management.ThreadMXBean threads =
+                allocationBean();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            java.lang.management.ThreadMXBean bean =
+                    ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean b =
+                        (com.sun.management.ThreadMXBean) bean;
+                if (b.isThreadAllocatedMemorySupported()) {
+                    if (!b.isThreadAllocatedMemoryEnabled())
+                        b.setThreadAllocatedMemoryEnabled(true);
+                    return b;
+                }
+            }
+        }
+        catch (LinkageError | RuntimeException e) {
+            // Allocation is not measured on this VM.
+        }
+        return null;
+    }
+
+    protected final ExtensionInfo ext;
+    protected final boolean enabled;
+
+    /** The bean measuring thread allocation, or null if not measured. */
+    protected final com.sun.management.ThreadMXBean threads;
+
+    /** Counters of goal kinds, by goal name. */
+    protected final ConcurrentMap<String, GoalCounters> goals =
+            new ConcurrentHashMap<>();
+
+    /** Goal names, in the order their counters were registered. */
+    protected final List<String> goalNames = new ArrayList<>();
+
+    /** Counters of jobs, in the order they were registered. */
+    protected final List<Counters> jobs = new ArrayList<>();
+
+    protected final ThreadLocal<Frames> frames = new ThreadLocal<Frames>() {
+        @Override
+        protected Frames initialValue() {
+            return new Frames();
+        }
+    };
+
+    public Metrics(ExtensionInfo ext, boolean enabled) {
+        this.ext = ext;
+        this.enabled = enabled;
+        this.threads = enabled ? Allocation.threads : null;
+    }
+
+    /** Are metrics recorded? */
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /** Return the counters of the kind of {@code goal}, run by {@code pass}. */
+    public GoalCounters goal(Goal goal, Pass pass) {
+        String name = goal.name();
+        GoalCounters c = goals.get(name);
+        if (c == null) {
+            c = new GoalCounters(name, pass.name());
+            GoalCounters old = goals.putIfAbsent(name, c);
+            if (old != null) return old;
+            synchronized (goalNames) {
+                goalNames.add(name);
+            }
+        }
+        return c;
+    }
+
+    /** Return the counters of {@code job}. */
+    public Counters job(Job job) {
+        Counters c = job.metrics;
+        if (c == null) {
+            synchronized (jobs) {
+                c = job.metrics;
+                if (c == null) {
+                    c = new Counters(job.toString());
+                    job.metrics = c;
+                    jobs.add(c);
+                }
+            }
+        }
+        return c;
+    }
+
+    /** Start measuring a pass on the current thread. */
+    public void start() {
+        Frames f = frames.get();
+        int d = f.depth++;
+        if (d == f.startNanos.length) {
+            f.startNanos = Arrays.copyOf(f.startNanos, 2 * d);
+            f.startBytes = Arrays.copyOf(f.startBytes, 2 * d);
+            f.childNanos = Arrays.copyOf(f.childNanos, 2 * d);
+            f.childBytes = Arrays.copyOf(f.childBytes, 2 * d);
+        }
+        f.childNanos[d] = 0;
+        f.childBytes[d] = 0;
+        f.startBytes[d] = allocatedBytes();
+        f.startNanos[d] = System.nanoTime();
+    }
+
+    /**
+     * Stop measuring the pass last started on the current thread, and record
+     * it with {@code outcome} in the counters of its goal and of
+     * {@code job}, if any.
+     */
+    public void stop(GoalCounters goal, Job job, Outcome outcome) {
+        long nanos = System.nanoTime();
+        long bytes = allocatedBytes();
+
+        Frames f = frames.get();
+        int d = --f.depth;
+        nanos -= f.startNanos[d];
+        bytes -= f.startBytes[d];
+        if (d > 0) {
+            f.childNanos[d - 1] += nanos;
+            f.childBytes[d - 1] += bytes;
+        }
+
+        long exclusiveNanos = nanos - f.childNanos[d];
+        long exclusiveBytes = bytes - f.childBytes[d];
+        goal.record(outcome, nanos, exclusiveNanos, exclusiveBytes);
+        if (job != null)
+            job(job).record(outcome,
+                            exclusiveNanos,
+                            exclusiveNanos,
+                            exclusiveBytes);
+    }
+
+    /** Bytes allocated so far by the current thread, or 0 if unknown. */
+    protected long allocatedBytes() {
+        if (threads == null) return 0;
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Return the counters of each goal kind, in registration order. */
+    public List<GoalCounters> goals() {
+        List<GoalCounters> l = new ArrayList<>();
+        synchronized (goalNames) {
+            for (String name : goalNames)
+                l.add(goals.get(name));
+        }
+        return l;
+    }
+
+    /** Return the counters of each pass, summed over the goals it ran for. */
+    public List<Counters> passes() {
+        Map<String, Counters> passes = new LinkedHashMap<>();
+        for (GoalCounters g : goals()) {
+            Counters p = passes.get(g.passName());
+            if (p == null) {
+                p = new Counters(g.passName());
+                passes.put(g.passName(), p);
+            }
+            p.add(g);
+        }
+        return new ArrayList<>(passes.values());
+    }
+
+    /** Return the counters of each job, in registration order. */
+    public List<Counters> jobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs);
+        }
+    }
+
+    /** Report the metrics of each goal kind and pass. */
+    public void report() {
+        if (!enabled) return;
+        Report.report(1, "Runs Reached Inclusive(ms) Exclusive(ms) Allocated(KB) Goal Pass");
+        Report.report(1, "---- ------- ------------- ------------- ------------- ---- ----");
+        for (GoalCounters g : goals()) {
+            Report.report(1, g.runs() + " " + g.count(Outcome.REACHED) + " "
+                    + g.inclusiveNanos() / 1000000 + " "
+                    + g.exclusiveNanos() / 1000000 + " "
+                    + g.allocatedBytes() / 1024 + " " + g.name() + " "
+                    + g.passName());
+        }
+    }
+
+    /**
+     * Write the metrics as the members {@code goals}, {@code passes} and
+     * {@code jobs} of a JSON object.
+     */
+    public void writeJSON(Writer w) throws IOException {
+        w.write("\"goals\": [");
+        String sep = "\n    ";
+        for (GoalCounters g : goals()) {
+            w.write(sep + "{");
+            g.writeJSON(w, "goal", true);
+            w.write(", \"pass\": " + quote(g.passName()) + "}");
+            sep = ",\n    ";
+        }
+        w.write("],\n  \"passes\": [");
+        writeJSON(w, passes(), "pass", true);
+        w.write("],\n  \"jobs\": [");
+        writeJSON(w, jobs(), "job", false);
+        w.write("]");
+    }
+
+    protected static void writeJSON(Writer w, List<Counters> l, String key,
+            boolean inclusive) throws IOException {
+        String sep = "\n    ";
+        for (Counters c : l) {
+            w.write(sep + "{");
+            c.writeJSON(w, key, inclusive);
+            w.write("}");
+            sep = ",\n    ";
+        }
+    }
+
+    /** Return {@code s} as a JSON string literal. */
+    public static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -52,6 +52,21 @@ public class ParserPass extends AbstractPass {
     public boolean run() {
         ErrorQueue eq = compiler.errorQueue();
 
+        Scheduler.ParsedSource parsed =
+                goal.job().extensionInfo().scheduler().parsedAhead(goal.job());
+        if (parsed != null) {
+            // The source was parsed on a worker thread; report its errors
+            // now, in the order they would have been reported here.
+            for (ErrorInfo e : parsed.errors) {
+                eq.enqueue(e);
+            }
+            if (parsed.ast != null) {
+                goal.job().ast(parsed.ast);
+                return true;
+            }
+            return false;
+        }
+
         Source source = goal.job().source();
 
         try (Reader reader = source.openReader(false)) {
@@ -0,0 +1,523 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.frontend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+import polyglot.ast.ClassDecl;
+import polyglot.ast.Field;
+import polyglot.ast.Node;
+import polyglot.ast.ProcedureCall;
+import polyglot.ast.SourceFile;
+import polyglot.ast.Typed;
+import polyglot.main.Report;
+import polyglot.types.ClassType;
+import polyglot.types.Declaration;
+import polyglot.types.FieldInstance;
+import polyglot.types.ParsedClassType;
+import polyglot.types.ProcedureInstance;
+import polyglot.types.ReferenceType;
+import polyglot.types.Type;
+import polyglot.util.ErrorInfo;
+import polyglot.util.ErrorQueue;
+import polyglot.util.InternalCompilerError;
+import polyglot.visit.NodeVisitor;
+
+/**
+ * A {@code PipelinedPostCompiler} runs the in-process Java compiler on the
+ * files generated by the compiler while other sources are still being
+ * translated, so that post-compilation overlaps with the remaining passes.
+ *
+ * The translator hands every translated source file to
+ * {@link #sourceTranslated}.  The files generated from a source are
+ * post-compiled once every other source of this compilation that declares a
+ * class it uses has been post-compiled, or is post-compiled together with
+ * it.  The files that become ready together are compiled as one batch by a
+ * single background thread, in the order in which they become ready.  A
+ * batch finds the classes of earlier batches, but not the generated source
+ * path, so a dependency that was not recorded makes the batch fail rather
+ * than compile a source that is not ready.
+ *
+ * The output of a failed batch is discarded.  {@link #finish} compiles the
+ * files of failed batches and all other output files that were not yet
+ * compiled in one last batch, with the usual source path, and reports the
+ * messages of the post-compiler as {@code Main} does without pipelining.
+ * If the last batch succeeds, the messages of the failed batches, which
+ * then point to a dependency that was not recorded, are reported as a
+ * warning; otherwise the messages of the last batch report the errors.
+ */
+public class PipelinedPostCompiler {
+    protected final ExtensionInfo extInfo;
+    protected final JavaCompiler javaCompiler;
+    protected final List<String> javacArgs;
+
+    /** The files generated from a source. */
+    protected static class Unit {
+        public final String uri;
+        public final List<JavaFileObject> files = new ArrayList<>();
+        /** URIs of the other sources declaring classes the files use. */
+        public final Set<String> dependencies = new HashSet<>();
+
+        public Unit(String uri) {
+            this.uri = uri;
+        }
+    }
+
+    /** The result of compiling a batch of units. */
+    protected static class Batch {
+        public final List<Unit> units;
+        public boolean succeeded;
+        public String messages;
+
+        public Batch(List<Unit> units) {
+            this.units = units;
+        }
+    }
+
+    /** Translated sources not yet handed to the post-compiler, by URI. */
+    protected final Map<String, Unit> pending = new LinkedHashMap<>();
+
+    /** URIs of the sources handed to the post-compiler. */
+    protected final Set<String> dispatched = new HashSet<>();
+
+    /** URIs of files generated again after they were dispatched. */
+    protected final Set<String> retranslated = new HashSet<>();
+
+    protected final List<Future<Batch>> batches = new ArrayList<>();
+
+    /** The thread running the batches, created with the first batch. */
+    protected ExecutorService executor;
+
+    /** The file manager shared by all batches. */
+    protected StandardJavaFileManager fileManager;
+
+    /**
+     * The class files written by successful batches, by binary name.  Only
+     * used by the thread running the batches, and by {@link #finish} once
+     * all batches are done.
+     */
+    protected final Map<String, JavaFileObject> compiledClasses =
+            new LinkedHashMap<>();
+    protected final Map<JavaFileObject, String> compiledClassNames =
+            new IdentityHashMap<>();
+
+    public PipelinedPostCompiler(ExtensionInfo extInfo,
+            JavaCompiler javaCompiler, List<String> javacArgs) {
+        this.extInfo = extInfo;
+        this.javaCompiler = javaCompiler;
+        this.javacArgs = javacArgs;
+    }
+
+    /**
+     * Record that the files {@code outputs} were generated from {@code sf},
+     * and post-compile every translated source whose dependencies are now
+     * post-compiled.
+     */
+    public synchronized void sourceTranslated(Job job, SourceFile sf,
+            List<JavaFileObject> outputs) {
+        String uri = sf.source().toUri().toString();
+        Unit u = pending.get(uri);
+        if (u == null) {
+            if (dispatched.contains(uri)) {
+                // Translated again after its files were dispatched; leave
+                // them to the last batch.
+                for (JavaFileObject jfo : outputs)
+                    retranslated.add(jfo.toUri().toString());
+                return;
+            }
+            u = new Unit(uri);
+            pending.put(uri, u);
+        }
+        u.files.addAll(outputs);
+        addDependencies(job, sf, u);
+        dispatchReady();
+    }
+
+    /**
+     * Add the sources declaring the classes used by {@code sf} to the
+     * dependencies of {@code u}.
+     */
+    protected void addDependencies(Job job, SourceFile sf, Unit u) {
+        final Set<Type> used =
+                Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+        sf.visit(new NodeVisitor(job.extensionInfo().nodeFactory().lang()) {
+            @Override
+            public Node leave(Node old, Node n, NodeVisitor v) {
+                if (n instanceof Typed) used.add(((Typed) n).type());
+                if (n instanceof ProcedureCall) {
+                    ProcedureInstance pi =
+                            ((ProcedureCall) n).procedureInstance();
+                    if (pi != null) used.add(pi.container());
+                }
+                if (n instanceof Field) {
+                    FieldInstance fi = ((Field) n).fieldInstance();
+                    if (fi != null) used.add(fi.container());
+                }
+                if (n instanceof ClassDecl) used.add(((ClassDecl) n).type());
+                return n;
+            }
+        });
+
+        Set<Type> seen =
+                Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+        for (Type t : used)
+            addDependencies(t, u, seen);
+    }
+
+    /**
+     * Add the sources declaring {@code t} and its supertypes to the
+     * dependencies of {@code u}.
+     */
+    protected void addDependencies(Type t, Unit u, Set<Type> seen) {
+        if (t == null) return;
+        if (t.isArray()) {
+            addDependencies(t.toArray().base(), u, seen);
+            return;
+        }
+        if (!(t instanceof ReferenceType)) return;
+
+        ReferenceType rt = (ReferenceType) t;
+        if (rt instanceof ClassType) {
+            Declaration decl = ((ClassType) rt).declaration();
+            if (decl instanceof ClassType) rt = (ClassType) decl;
+        }
+        if (!seen.add(rt)) return;
+
+        if (rt instanceof ClassType) {
+            ClassType ct = (ClassType) rt;
+            if (ct.isNested())
+                addDependencies(ct.outer(), u, seen);
+            else if (ct instanceof ParsedClassType) {
+                Source from = ((ParsedClassType) ct).fromSource();
+                if (from != null) {
+                    String uri = from.toUri().toString();
+                    if (!uri.equals(u.uri)) u.dependencies.add(uri);
+                }
+            }
+        }
+
+        addDependencies(rt.superType(), u, seen);
+        for (ReferenceType it : rt.interfaces())
+            addDependencies(it, u, seen);
+    }
+
+    /**
+     * Hand the pending units whose dependencies are dispatched or ready to
+     * the post-compiler as one batch.
+     */
+    protected void dispatchReady() {
+        Map<String, Unit> ready = new LinkedHashMap<>(pending);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator<Unit> i = ready.values().iterator(); i.hasNext();) {
+                Unit u = i.next();
+                for (String dep : u.dependencies) {
+                    if (!dispatched.contains(dep) && !ready.containsKey(dep)) {
+                        i.remove();
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        if (ready.isEmpty()) return;
+
+        pending.keySet().removeAll(ready.keySet());
+        dispatched.addAll(ready.keySet());
+
+        if (executor == null) {
+            try {
+                fileManager = createFileManager();
+            }
+            catch (IOException e) {
+                throw new InternalCompilerError("Cannot configure the post-compiler: "
+                        + e.getMessage(), e);
+            }
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "post-compiler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        final Batch batch = new Batch(new ArrayList<>(ready.values()));
+        if (Report.should_report(Report.frontend, 2))
+            Report.report(2, "Post-compiling " + ready.keySet());
+        batches.add(executor.submit(new Callable<Batch>() {
+            @Override
+            public Batch call() {
+                List<JavaFileObject> files = new ArrayList<>();
+                for (Unit u : batch.units)
+                    files.addAll(u.files);
+                BatchFileManager fm = new BatchFileManager(fileManager, false);
+                compile(batch, fm, files);
+                if (batch.succeeded) {
+                    compiledClasses.putAll(fm.written);
+                    for (Map.Entry<String, JavaFileObject> e : fm.written.entrySet())
+                        compiledClassNames.put(e.getValue(), e.getKey());
+                }
+                return batch;
+            }
+        }));
+    }
+
+    protected StandardJavaFileManager createFileManager() throws IOException {
+        StandardJavaFileManager fm =
+                javaCompiler.getStandardFileManager(null, null, null);
+        extInfo.configureFileManagerForPostCompiler(fm);
+        return fm;
+    }
+
+    /** Compile {@code files}, recording the outcome in {@code batch}. */
+    protected void compile(Batch batch, JavaFileManager fm,
+            List<JavaFileObject> files) {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Writer javac_err = new OutputStreamWriter(err);
+        JavaCompiler.CompilationTask task =
+                javaCompiler.getTask(javac_err,
+                                     fm,
+                                     null,
+                                     javacArgs,
+                                     null,
+                                     files);
+        batch.succeeded = task.call();
+        batch.messages = err.toString();
+    }
+
+    /**
+     * Wait for the batches handed to the post-compiler, compile the output
+     * files {@code outputFiles} that were not compiled by a successful
+     * batch, and report the messages of the post-compiler to {@code eq}.
+     */
+    public synchronized void finish(Collection<JavaFileObject> outputFiles,
+            ErrorQueue eq) throws IOException {
+        StringBuilder messages = new StringBuilder();
+        StringBuilder failedMessages = new StringBuilder();
+        Set<String> compiled = new HashSet<>();
+        int compiledBatches = 0;
+        try {
+            for (Future<Batch> f : batches) {
+                Batch batch = f.get();
+                if (!batch.succeeded) {
+                    failedMessages.append(batch.messages);
+                    continue;
+                }
+                compiledBatches++;
+                messages.append(batch.messages);
+                for (Unit u : batch.units)
+                    for (JavaFileObject jfo : u.files)
+                        compiled.add(jfo.toUri().toString());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalCompilerError(e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new InternalCompilerError(cause);
+        }
+        finally {
+            shutdown();
+        }
+
+        compiled.removeAll(retranslated);
+
+        List<JavaFileObject> remaining = new ArrayList<>();
+        for (JavaFileObject jfo : outputFiles) {
+            if (!compiled.contains(jfo.toUri().toString())) remaining.add(jfo);
+        }
+
+        if (Report.should_report(Report.frontend, 1))
+            Report.report(1, "Post-compiled " + compiled.size() + " files in "
+                    + compiledBatches + " of " + batches.size()
+                    + " batches while translating; " + remaining.size()
+                    + " files left");
+
+        boolean lastSucceeded = true;
+        if (!remaining.isEmpty()) {
+            if (fileManager == null) fileManager = createFileManager();
+            Batch last = new Batch(Collections.<Unit> emptyList());
+            compile(last, new BatchFileManager(fileManager, true), remaining);
+            messages.append(last.messages);
+            lastSucceeded = last.succeeded;
+        }
+        if (fileManager != null) fileManager.close();
+
+        if (lastSucceeded && failedMessages.length() != 0)
+            eq.enqueue(ErrorInfo.WARNING,
+                       "Post-compiling files while translating failed, "
+                               + "but they compiled after translation:\n"
+                               + failedMessages);
+
+        if (messages.length() != 0)
+            eq.enqueue(ErrorInfo.POST_COMPILER_ERROR, messages.toString());
+    }
+
+    /**
+     * Stop post-compiling, for example because the compilation failed, and
+     * wait for the current batch to finish.
+     */
+    public synchronized void cancel() {
+        shutdown();
+        if (fileManager != null) {
+            try {
+                fileManager.close();
+            }
+            catch (IOException e) {
+                // Nothing more can be done with it.
+            }
+        }
+    }
+
+    protected void shutdown() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The file manager of a batch.  It adds the classes of the successful
+     * batches to the class path, records the classes it writes, and hides
+     * the source path unless {@code sourcePath} is set.  Class files are
+     * kept in memory by the file manager of the extension if it keeps its
+     * output files in memory.
+     */
+    protected class BatchFileManager extends
+            ForwardingJavaFileManager<StandardJavaFileManager> {
+        protected final boolean sourcePath;
+        protected final Map<String, JavaFileObject> written =
+                new LinkedHashMap<>();
+
+        protected BatchFileManager(StandardJavaFileManager fm,
+                boolean sourcePath) {
+            super(fm);
+            this.sourcePath = sourcePath;
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location,
+                String packageName, Set<Kind> kinds, boolean recurse)
+                throws IOException {
+            if (location == StandardLocation.SOURCE_PATH && !sourcePath)
+                return Collections.emptyList();
+
+            Iterable<JavaFileObject> files =
+                    super.list(location, packageName, kinds, recurse);
+            if (location != StandardLocation.CLASS_PATH
+                    || !kinds.contains(Kind.CLASS)
+                    || compiledClasses.isEmpty()) return files;
+
+            // Classes of earlier batches shadow those on the class path.
+            List<JavaFileObject> result = new ArrayList<>();
+            String prefix = packageName.isEmpty() ? "" : packageName + ".";
+            for (Map.Entry<String, JavaFileObject> e : compiledClasses.entrySet()) {
+                String name = e.getKey();
+                if (!name.startsWith(prefix)) continue;
+                if (recurse || name.indexOf('.', prefix.length()) < 0)
+                    result.add(e.getValue());
+            }
+            for (JavaFileObject jfo : files)
+                result.add(jfo);
+            return result;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            String name = compiledClassNames.get(file);
+            if (name != null) return name;
+            return super.inferBinaryName(location, file);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location,
+                String className, Kind kind, FileObject sibling)
+                throws IOException {
+            JavaFileObject jfo;
+            if (extInfo.getOptions().noOutputToFS)
+                jfo = extInfo.extFileManager()
+                             .getJavaFileForOutput(location,
+                                                   className,
+                                                   kind,
+                                                   sibling);
+            else jfo =
+                    super.getJavaFileForOutput(location,
+                                               className,
+                                               kind,
+                                               sibling);
+            if (location == StandardLocation.CLASS_OUTPUT
+                    && kind == Kind.CLASS) written.put(className, jfo);
+            return jfo;
+        }
+
+        @Override
+        public void close() {
+            // The underlying file manager is shared by all batches.
+        }
+    }
+}
@@ -26,9 +26,12 @@
 
 package polyglot.frontend;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -36,6 +39,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import polyglot.ast.Lang;
 import polyglot.ast.Node;
@@ -48,8 +56,10 @@ import polyglot.main.Report;
 import polyglot.types.FieldInstance;
 import polyglot.types.ParsedClassType;
 import polyglot.util.ErrorInfo;
+import polyglot.util.ErrorLimitError;
 import polyglot.util.ErrorQueue;
 import polyglot.util.InternalCompilerError;
+import polyglot.util.SilentErrorQueue;
 import polyglot.util.StringUtil;
 
 /**
@@ -74,9 +84,18 @@ import polyglot.util.StringUtil;
  * on this run so that it will be added back to the worklist; the pass
  * must also add any missing dependencies.
  *
+ * If the {@code -parallel} option is given, the sources of the current jobs
+ * are first parsed concurrently on a pool of worker threads; all goals,
+ * including those that install the parsed ASTs, are run on the calling
+ * thread.
+ *
  * @author nystrom
  */
 public abstract class Scheduler {
+    private static final Report.Topic FRONTEND = Report.topic(Report.frontend);
+    private static final Report.Topic TIME = Report.topic(Report.time);
+    private static final Report.Topic DEPS = Report.topic("deps");
+
     protected ExtensionInfo extInfo;
 
     /**
@@ -108,6 +127,12 @@ public abstract class Scheduler {
     /** The currently running pass, or null if no pass is running. */
     protected Pass currentPass;
 
+    /**
+     * The sources parsed ahead of the {@code Parsed} goals of their jobs, by
+     * job.
+     */
+    protected final Map<Job, ParsedSource> parsedAhead = new HashMap<>();
+
     public Scheduler(ExtensionInfo extInfo) {
         this.extInfo = extInfo;
 
@@ -148,8 +173,8 @@ public abstract class Scheduler {
      */
     public void addCorequisiteDependency(Goal goal, Goal subgoal) {
         if (!goal.corequisiteGoals(this).contains(subgoal)) {
-            if (Report.should_report(Report.frontend, 3)
-                    || Report.should_report("deps", 1))
+            if (Report.should_report(FRONTEND, 3)
+                    || Report.should_report(DEPS, 1))
                 Report.report(3, "Adding coreq edge: " + subgoal + " -> "
                         + goal);
             goal.addCorequisiteGoal(subgoal, this);
@@ -189,8 +214,8 @@ public abstract class Scheduler {
     public void addPrerequisiteDependency(Goal goal, Goal subgoal)
             throws CyclicDependencyException {
         if (!goal.prerequisiteGoals(this).contains(subgoal)) {
-            if (Report.should_report(Report.frontend, 3)
-                    || Report.should_report("deps", 1))
+            if (Report.should_report(FRONTEND, 3)
+                    || Report.should_report(DEPS, 1))
                 Report.report(3, "Adding prereq edge: " + subgoal + " => "
                         + goal);
             goal.addPrerequisiteGoal(subgoal, this);
@@ -218,9 +243,9 @@ public abstract class Scheduler {
         if (g == null) {
             g = goal;
             goals.put(g, g);
-            if (Report.should_report(Report.frontend, 4))
+            if (Report.should_report(FRONTEND, 4))
                 Report.report(4, "new goal " + g);
-            if (Report.should_report(Report.frontend, 5))
+            if (Report.should_report(FRONTEND, 5))
                 Report.report(5, "goals = " + goals.keySet());
         }
         return g;
@@ -249,12 +274,28 @@ public abstract class Scheduler {
     protected void completeJob(Job job) {
         if (job != null) {
             jobs.put(job.source(), Job.COMPLETED);
-            if (Report.should_report(Report.frontend, 1)) {
+            releaseAST(job);
+            if (Report.should_report(FRONTEND, 1)) {
                 Report.report(1, "Completed job " + job);
             }
         }
     }
 
+    /**
+     * Discard the AST of {@code job}, which no pending goal needs, unless
+     * ASTs are to be kept.  The job itself may still be referenced, e.g., by
+     * the compiler's list of jobs and by the goals of the job, but the class
+     * types declared by the job remain in the type system, so later jobs
+     * can still use them.
+     */
+    protected void releaseAST(Job job) {
+        if (!extInfo.getOptions().keep_asts && job.ast() != null) {
+            job.ast(null);
+            if (Report.should_report(FRONTEND, 2))
+                Report.report(2, "Released AST of " + job);
+        }
+    }
+
     protected List<Goal> worklist() {
         return worklist;
     }
@@ -323,6 +364,11 @@ public abstract class Scheduler {
      * should be empty at return.
      */
     public boolean runToCompletion() {
+        int threads = extInfo.getOptions().parallel_threads;
+        if (threads > 1) {
+            parseInParallel(threads);
+        }
+
         Goal theEnd = internGoal(new TheEndGoal(this));
 
         boolean okay = true;
@@ -331,7 +377,7 @@ public abstract class Scheduler {
             okay = attemptGoal(theEnd);
         }
 
-        if (Report.should_report(Report.frontend, 1))
+        if (Report.should_report(FRONTEND, 1))
             Report.report(1, "Finished all passes for "
                     + this.getClass().getName() + " -- "
                     + (okay ? "okay" : "failed"));
@@ -339,6 +385,112 @@ public abstract class Scheduler {
         return okay;
     }
 
+    /**
+     * The result of parsing the source of a job ahead of its {@code Parsed}
+     * goal: the AST, or null if the source could not be parsed, and the
+     * errors reported by the parser.
+     */
+    public static class ParsedSource {
+        public final Node ast;
+        public final SilentErrorQueue errors;
+
+        public ParsedSource(Node ast, SilentErrorQueue errors) {
+            this.ast = ast;
+            this.errors = errors;
+        }
+    }
+
+    /**
+     * Parse the sources of the current jobs on a pool of {@code threads}
+     * worker threads, ahead of their {@code Parsed} goals.  Only the parsers
+     * run on the worker threads, each reporting errors to a queue of its
+     * own; the goals themselves, and all the bookkeeping of the scheduler,
+     * stay on the calling thread, which waits for the parsers to finish.
+     * When the {@code Parsed} goal of a job is run, its {@link ParserPass}
+     * takes the result from {@link #parsedAhead(Job)}, reports its errors
+     * and installs its AST, so errors are reported in the same order as if
+     * the sources were parsed serially.  A source that cannot be parsed
+     * ahead is parsed again by its goal.
+     */
+    protected void parseInParallel(int threads) {
+        List<Job> jobs = new ArrayList<>();
+        for (Job job : jobs()) {
+            if (job.ast() == null && !reached(Parsed(job))) jobs.add(job);
+        }
+        if (jobs.size() < 2) return;
+
+        if (Report.should_report(FRONTEND, 1))
+            Report.report(1, "Parsing " + jobs.size() + " sources on "
+                    + threads + " threads");
+
+        ExecutorService pool =
+                Executors.newFixedThreadPool(Math.min(threads, jobs.size()));
+        List<Future<ParsedSource>> results = new ArrayList<>(jobs.size());
+        try {
+            for (final Job job : jobs) {
+                results.add(pool.submit(new Callable<ParsedSource>() {
+                    @Override
+                    public ParsedSource call() {
+                        return parseAhead(job);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < jobs.size(); i++) {
+                ParsedSource parsed = results.get(i).get();
+                if (parsed != null) parsedAhead.put(jobs.get(i), parsed);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalCompilerError(e);
+        }
+        catch (ExecutionException e) {
+            throw new InternalCompilerError(e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parse the source of {@code job} on the current thread, a worker thread
+     * of {@link #parseInParallel(int)}.  The only state shared with the other
+     * workers that a parser may change is that of the type system and its
+     * resolvers when it loads a well-known class, which
+     * {@code TypeSystem_c.load} does while holding the lock of the type
+     * system.
+     *
+     * @return the result, or null if the source should be parsed again by
+     *          the {@code Parsed} goal of the job, which reports the failure.
+     */
+    protected ParsedSource parseAhead(Job job) {
+        SilentErrorQueue eq =
+                new SilentErrorQueue(extInfo.getOptions().error_count,
+                                     extInfo.compilerName());
+        Source source = job.source();
+        try (Reader reader = source.openReader(false)) {
+            Parser p = job.extensionInfo().parser(reader, source, eq);
+            return new ParsedSource(p.parse(), eq);
+        }
+        catch (ErrorLimitError e) {
+            // The limit is reached again when the errors are reported.
+            return new ParsedSource(null, eq);
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the result of parsing the source of {@code job} ahead of its
+     * {@code Parsed} goal, or null if it was not parsed ahead.  The result
+     * is returned only once.
+     */
+    public ParsedSource parsedAhead(Job job) {
+        return parsedAhead.remove(job);
+    }
+
     /**
      * Load a source file and create a job for it.  Optionally add a goal
      * to compile the job to Java.
@@ -403,10 +555,10 @@ public abstract class Scheduler {
         if (Report.should_report("dump-dep-graph", 2))
             dumpInFlightDependenceGraph();
 
-        if (Report.should_report(Report.frontend, 2))
+        if (Report.should_report(FRONTEND, 2))
             Report.report(2, "Running to goal " + goal);
 
-        if (Report.should_report(Report.frontend, 4)) {
+        if (Report.should_report(FRONTEND, 4)) {
             Report.report(4, "  Reachable = " + goal.isReachable());
             Report.report(4,
                           "  Prerequisites for " + goal + " = "
@@ -417,7 +569,7 @@ public abstract class Scheduler {
         }
 
         if (above.contains(goal)) {
-            if (Report.should_report(Report.frontend, 4))
+            if (Report.should_report(FRONTEND, 4))
                 Report.report(4, goal
                         + " is being attempted by a caller; returning");
             return true;
@@ -433,7 +585,7 @@ public abstract class Scheduler {
         while (progress && !reached(goal)) {
             progress = false;
 
-            if (Report.should_report(Report.frontend, 4))
+            if (Report.should_report(FRONTEND, 4))
                 Report.report(4, "outer loop for " + goal);
 
             // Run the prereqs of the goal.
@@ -442,7 +594,7 @@ public abstract class Scheduler {
                     continue;
                 }
 
-                if (Report.should_report(Report.frontend, 4))
+                if (Report.should_report(FRONTEND, 4))
                     Report.report(4, "running prereq: " + subgoal + "->" + goal);
 
                 if (!attemptGoal(subgoal, newAbove)) {
@@ -469,7 +621,7 @@ public abstract class Scheduler {
             }
 
             // Now, run the goal itself.
-            if (Report.should_report(Report.frontend, 4))
+            if (Report.should_report(FRONTEND, 4))
                 Report.report(4, "running goal " + goal);
 
             boolean result = runGoal(goal);
@@ -493,7 +645,7 @@ public abstract class Scheduler {
                     continue;
                 }
 
-                if (Report.should_report(Report.frontend, 4))
+                if (Report.should_report(FRONTEND, 4))
                     Report.report(4, "running coreq: " + subgoal + "->" + goal);
 
                 if (!attemptGoal(subgoal, newAbove)) {
@@ -515,13 +667,13 @@ public abstract class Scheduler {
 
     protected boolean runGoal(Goal goal) {
         if (reached(goal)) {
-            if (Report.should_report(Report.frontend, 3))
+            if (Report.should_report(FRONTEND, 3))
                 Report.report(3, "Already reached goal " + goal);
             return true;
         }
 
         if (!goal.isReachable()) {
-            if (Report.should_report(Report.frontend, 3))
+            if (Report.should_report(FRONTEND, 3))
                 Report.report(3, "Cannot reach goal " + goal);
             return false;
         }
@@ -540,15 +692,16 @@ public abstract class Scheduler {
         Goal goal = pass.goal();
         Job job = goal.job();
 
-        if (extInfo.getOptions().disable_passes.contains(pass.name())) {
-            if (Report.should_report(Report.frontend, 1))
+        Set<String> disabled = extInfo.getOptions().disable_passes;
+        if (!disabled.isEmpty() && disabled.contains(pass.name())) {
+            if (Report.should_report(FRONTEND, 1))
                 Report.report(1, "Skipping pass " + pass);
 
             goal.setState(Goal.REACHED);
             return true;
         }
 
-        if (Report.should_report(Report.frontend, 1))
+        if (Report.should_report(FRONTEND, 1))
             Report.report(1, "Running pass " + pass + " for " + goal);
 
         if (reached(goal)) {
@@ -615,7 +768,9 @@ public abstract class Scheduler {
         if (job == null || job.status()) {
             Pass oldPass = currentPass;
             currentPass = pass;
-            Report.pushTopic(pass.name());
+            // Report on the pass's topic, unless nothing is reported.
+            boolean pushedTopic = Report.reporting();
+            if (pushedTopic) Report.pushTopic(pass.name());
 
             // Stop the timer on the old pass. */
             if (oldPass != null) {
@@ -630,83 +785,62 @@ public abstract class Scheduler {
 
             goal.setState(Goal.RUNNING);
 
-            long t = System.currentTimeMillis();
-            String key = goal.toString();
-
-            extInfo.getStats().accumPassTimes(key + " attempts", 1, 1);
-            extInfo.getStats().accumPassTimes("total goal attempts", 1, 1);
+            Metrics metrics = extInfo.getStats().metrics();
+            Metrics.GoalCounters counters =
+                    metrics.enabled() ? metrics.goal(goal, pass) : null;
+            Metrics.Outcome outcome = Metrics.Outcome.FAILED;
+            if (counters != null) metrics.start();
 
             try {
                 result = pass.run();
 
                 if (!result) {
-                    extInfo.getStats().accumPassTimes(key + " failures", 1, 1);
-                    extInfo.getStats().accumPassTimes("total goal failures",
-                                                      1,
-                                                      1);
-
                     goal.setState(Goal.UNREACHABLE);
-                    if (Report.should_report(Report.frontend, 1))
+                    if (Report.should_report(FRONTEND, 1))
                         Report.report(1, "Failed pass " + pass + " for " + goal);
                 }
                 else {
                     if (goal.state() == Goal.RUNNING) {
-                        extInfo.getStats().accumPassTimes(key + " reached",
-                                                          1,
-                                                          1);
-                        extInfo.getStats().accumPassTimes("total goal reached",
-                                                          1,
-                                                          1);
-
+                        outcome = Metrics.Outcome.REACHED;
                         goal.setState(Goal.REACHED);
-                        if (Report.should_report(Report.frontend, 1))
+                        if (Report.should_report(FRONTEND, 1))
                             Report.report(1, "Completed pass " + pass + " for "
                                     + goal);
                     }
                     else {
-                        extInfo.getStats().accumPassTimes(key + " unreached",
-                                                          1,
-                                                          1);
-                        extInfo.getStats()
-                               .accumPassTimes("total goal unreached", 1, 1);
-
+                        outcome = Metrics.Outcome.UNREACHED;
                         goal.setState(Goal.ATTEMPTED);
-                        if (Report.should_report(Report.frontend, 1))
+                        if (Report.should_report(FRONTEND, 1))
                             Report.report(1, "Completed (unreached) pass "
                                     + pass + " for " + goal);
                     }
                 }
             }
             catch (MissingDependencyException e) {
-                if (Report.should_report(Report.frontend, 1))
+                if (Report.should_report(FRONTEND, 1))
                     Report.report(1, "Did not complete pass " + pass + " for "
                             + goal + " (missing " + e.goal() + ")");
 
-                if (Report.should_report(Report.frontend, 3))
+                if (Report.should_report(FRONTEND, 3))
                     e.printStackTrace();
 
-                extInfo.getStats().accumPassTimes(key + " aborts", 1, 1);
-                extInfo.getStats().accumPassTimes("total goal aborts", 1, 1);
-
+                outcome = Metrics.Outcome.ABORTED;
                 addDependencyAndEnqueue(goal, e.goal(), e.prerequisite());
 
                 goal.setState(Goal.ATTEMPTED);
                 result = true;
             }
             catch (SchedulerException e) {
-                if (Report.should_report(Report.frontend, 1))
+                if (Report.should_report(FRONTEND, 1))
                     Report.report(1, "Did not complete pass " + pass + " for "
                             + goal);
 
-                extInfo.getStats().accumPassTimes(key + " aborts", 1, 1);
-                extInfo.getStats().accumPassTimes("goal aborts", 1, 1);
-
+                outcome = Metrics.Outcome.ABORTED;
                 goal.setState(Goal.ATTEMPTED);
                 result = true;
             }
             finally {
-                t = System.currentTimeMillis() - t;
-                extInfo.getStats().accumPassTimes(key, t, t);
+                if (counters != null) metrics.stop(counters, job, outcome);
 
                 pass.toggleTimers(false);
 
@@ -714,7 +848,7 @@ public abstract class Scheduler {
                     job.setRunningPass(null);
                 }
 
-                Report.popTopic();
+                if (pushedTopic) Report.popTopic();
                 currentPass = oldPass;
 
                 // Restart the timer on the old pass. */
@@ -757,25 +891,20 @@ public abstract class Scheduler {
             // System.gc();
         }
 
-        Stats stats = extInfo.getStats();
-        stats.accumPassTimes(pass.name(),
-                             pass.inclusiveTime(),
-                             pass.exclusiveTime());
-
         if (!result) {
             failed = true;
         }
 
         // Record the progress made before running the pass and then update
         // the current progress.
-        if (Report.should_report(Report.time, 2)) {
+        if (Report.should_report(TIME, 2)) {
             Report.report(2,
                           "Finished " + pass + " status="
                                   + statusString(result) + " inclusive_time="
                                   + pass.inclusiveTime() + " exclusive_time="
                                   + pass.exclusiveTime());
         }
-        else if (Report.should_report(Report.frontend, 1)) {
+        else if (Report.should_report(FRONTEND, 1)) {
             Report.report(1, "Finished " + pass + " status="
                     + statusString(result));
         }
@@ -893,9 +1022,9 @@ public abstract class Scheduler {
         // record the job in the map and the worklist.
         jobs.put(source, job);
 
-        if (Report.should_report(Report.frontend, 4)) {
+        if (Report.should_report(FRONTEND, 4)) {
             Report.report(4, "Adding job for " + source + " at the "
-                    + "request of pass " + currentPass);
+                    + "request of pass " + currentPass());
         }
 
         return job;
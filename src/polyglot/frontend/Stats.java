@@ -26,6 +26,8 @@
 
 package polyglot.frontend;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -36,7 +38,8 @@ import polyglot.main.Report;
 /**
  * Statistics collection and reporting object.
  * Extensions can override this to collect more stats or to change
- * reporting.
+ * reporting.  The scheduler records the passes it runs in the structured
+ * {@link Metrics}; the times accumulated by key are for extensions.
  */
 public class Stats {
     protected static class Times {
@@ -56,17 +59,57 @@ public class Stats {
      */
     protected List<Object> keys = new ArrayList<>(20);
 
+    /** Map from Objects to accumulated counts, such as cache hits. */
+    protected Map<Object, Long> counts = new HashMap<>();
+
+    /** List of Objects used as keys to counts, in order. */
+    protected List<Object> countKeys = new ArrayList<>();
+
+    /** Sources of counts that are collected when the stats are reported. */
+    protected List<Counters> counters = new ArrayList<>();
+
+    /** Structured metrics of the passes run, or null if not yet created. */
+    protected Metrics metrics;
+
+    /**
+     * A source of counts that are too frequent to accumulate in the
+     * {@code Stats} one at a time, such as the hits of a cache.
+     */
+    public interface Counters {
+        /**
+         * Accumulate the counts since the last call into {@code stats}, with
+         * {@link Stats#accumCount}.
+         */
+        void accumCounts(Stats stats);
+    }
+
     public Stats(ExtensionInfo ext) {
         this.ext = ext;
     }
 
+    /**
+     * Return the structured metrics of the passes run, which are enabled if
+     * time is reported or a metrics file is given.
+     */
+    public synchronized Metrics metrics() {
+        if (metrics == null) {
+            metrics = createMetrics(Report.should_report(Report.time, 1)
+                    || ext.getOptions().metrics_file != null);
+        }
+        return metrics;
+    }
+
+    protected Metrics createMetrics(boolean enabled) {
+        return new Metrics(ext, enabled);
+    }
+
     /** Reset the accumulated times for a pass. */
-    public void resetPassTimes(Object key) {
+    public synchronized void resetPassTimes(Object key) {
         passTimes.remove(key);
     }
 
     /** Return the accumulated times for a pass. */
-    public long passTime(Object key, boolean inclusive) {
+    public synchronized long passTime(Object key, boolean inclusive) {
         Times t = passTimes.get(key);
         if (t == null) {
             return 0;
@@ -76,7 +119,7 @@ public class Stats {
     }
 
     /** Accumulate inclusive and exclusive times for a pass. */
-    public void accumPassTimes(Object key, long in, long ex) {
+    public synchronized void accumPassTimes(Object key, long in, long ex) {
         // don't hold references if we aren't reporting timing.
         if (Report.should_report(Report.time, 1)) {
             Times t = passTimes.get(key);
@@ -90,20 +133,76 @@ public class Stats {
         }
     }
 
+    /** Register a source of counts to collect when reporting. */
+    public synchronized void addCounters(Counters c) {
+        counters.add(c);
+    }
+
+    /** Return the accumulated count for a key. */
+    public synchronized long count(Object key) {
+        Long n = counts.get(key);
+        return n == null ? 0 : n.longValue();
+    }
+
+    /** Accumulate a count. */
+    public synchronized void accumCount(Object key, long n) {
+        // don't hold references if we aren't recording metrics.
+        if (metrics().enabled()) {
+            Long old = counts.get(key);
+            if (old == null) countKeys.add(key);
+            counts.put(key, old == null ? n : old.longValue() + n);
+        }
+    }
+
+    /**
+     * Write the stats of the extension as a JSON object with its name, the
+     * structured metrics, and the accumulated counts.  The counts are only
+     * complete after {@link #report()}.
+     */
+    public synchronized void writeJSON(Writer w) throws IOException {
+        w.write("{\n  \"extension\": " + Metrics.quote(ext.compilerName()));
+        w.write(",\n  \"class\": "
+                + Metrics.quote(ext.getClass().getName()) + ",\n  ");
+        metrics().writeJSON(w);
+        w.write(",\n  \"counts\": {");
+        String sep = "\n    ";
+        for (Object key : countKeys) {
+            w.write(sep + Metrics.quote(key.toString()) + ": "
+                    + counts.get(key));
+            sep = ",\n    ";
+        }
+        w.write("}\n}");
+    }
+
     /** Report the stats. */
-    public void report() {
+    public synchronized void report() {
+        for (Counters c : counters)
+            c.accumCounts(this);
+
         if (Report.should_report(Report.time, 1)) {
             Report.report(1, "\nStatistics for " + ext.compilerName() + " ("
                     + ext.getClass().getName() + ")");
-            Report.report(1, "Inclusive Exclusive Key");
-            Report.report(1, "--------- --------- ---");
+            if (!keys.isEmpty()) {
+                Report.report(1, "Inclusive Exclusive Key");
+                Report.report(1, "--------- --------- ---");
+
+                for (Object key : keys) {
+                    Times t = passTimes.get(key);
+
+                    Report.report(1,
+                                  t.inclusive + " " + t.exclusive + " "
+                                          + key.toString());
+                }
+            }
 
-            for (Object key : keys) {
-                Times t = passTimes.get(key);
+            metrics().report();
 
-                Report.report(1,
-                              t.inclusive + " " + t.exclusive + " "
-                                      + key.toString());
+            if (!countKeys.isEmpty()) {
+                Report.report(1, "Count Key");
+                Report.report(1, "----- ---");
+                for (Object key : countKeys) {
+                    Report.report(1, counts.get(key) + " " + key.toString());
+                }
             }
         }
     }
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.frontend.goals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import polyglot.ast.Node;
+import polyglot.frontend.ExtensionInfo;
+import polyglot.frontend.Job;
+import polyglot.frontend.Pass;
+import polyglot.frontend.VisitorPass;
+import polyglot.util.InternalCompilerError;
+import polyglot.visit.FusedVisitor;
+import polyglot.visit.NodeVisitor;
+
+/**
+ * A goal to run several visitors over a job in one traversal, using a
+ * {@link FusedVisitor}.  The visitors run in the order given, so the goal
+ * should have the prerequisites of every member that are not themselves
+ * members.
+ */
+public class FusedVisitorGoal extends VisitorGoal {
+    /**
+     * Visitors like the members, to run one after another to check the
+     * fused traversal, or null.
+     */
+    protected List<NodeVisitor> serial;
+
+    public FusedVisitorGoal(Job job, List<? extends NodeVisitor> members) {
+        super(job, new FusedVisitor(members));
+    }
+
+    /**
+     * Check the fused traversal against running {@code serial}, new visitors
+     * like the members, one after another on the same AST.  The pass fails
+     * with an internal error if the two resulting ASTs are printed
+     * differently.
+     */
+    public void checkAgainst(List<? extends NodeVisitor> serial) {
+        this.serial = new ArrayList<>(serial);
+    }
+
+    @Override
+    public Pass createPass(ExtensionInfo extInfo) {
+        if (serial == null) return super.createPass(extInfo);
+        return new CheckedPass(this, v, serial);
+    }
+
+    /** A pass that checks the fused traversal; see {@link #checkAgainst}. */
+    protected static class CheckedPass extends VisitorPass {
+        protected final List<NodeVisitor> serial;
+
+        protected CheckedPass(FusedVisitorGoal goal, NodeVisitor v,
+                List<NodeVisitor> serial) {
+            super(goal, v);
+            this.serial = serial;
+        }
+
+        @Override
+        public boolean run() {
+            Node expected = goal.job().ast();
+            if (expected != null) {
+                for (NodeVisitor s : serial) {
+                    NodeVisitor v_ = s.begin();
+                    if (v_ == null) continue;
+                    expected = expected.visit(v_);
+                    v_.finish(expected);
+                }
+            }
+
+            boolean result = super.run();
+
+            String fused = print(goal.job().ast());
+            if (!fused.equals(print(expected))) {
+                throw new InternalCompilerError(v + " on " + goal.job()
+                        + " differs from its members run one after another:\n"
+                        + fused + "\ninstead of\n" + print(expected));
+            }
+            return result;
+        }
+
+        protected String print(Node n) {
+            StringWriter w = new StringWriter();
+            n.prettyPrint(lang(), w);
+            return w.toString();
+        }
+    }
+
+    public List<NodeVisitor> members() {
+        return ((FusedVisitor) visitor()).members();
+    }
+
+    protected List<Class<?>> memberClasses() {
+        List<Class<?>> l = new ArrayList<>();
+        for (NodeVisitor v : members()) {
+            l.add(v.getClass());
+        }
+        return l;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode() + memberClasses().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o)
+                && memberClasses().equals(((FusedVisitorGoal) o).memberClasses());
+    }
+}
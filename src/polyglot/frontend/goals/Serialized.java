@@ -40,6 +40,7 @@ import polyglot.frontend.Scheduler;
 import polyglot.frontend.VisitorPass;
 import polyglot.main.Version;
 import polyglot.types.TypeSystem;
+import polyglot.types.reflect.TypeArchive;
 import polyglot.util.ErrorQueue;
 import polyglot.visit.ClassSerializer;
 
@@ -68,7 +69,9 @@ public class Serialized extends SourceFileGoal {
                                                     job().source()
                                                          .getLastModified(),
                                                     compiler.errorQueue(),
-                                                    extInfo.version()));
+                                                    extInfo.version(),
+                                                    compiler.typeArchive(),
+                                                    extInfo.getOptions().type_archive));
         }
         else {
             return new EmptyPass(this);
@@ -76,8 +79,15 @@ public class Serialized extends SourceFileGoal {
     }
 
     protected ClassSerializer createSerializer(TypeSystem ts, NodeFactory nf,
-            long lastModified, ErrorQueue eq, Version version) {
-        return new ClassSerializer(ts, nf, lastModified, eq, version);
+            long lastModified, ErrorQueue eq, Version version,
+            TypeArchive.Updater archive, boolean toArchive) {
+        return new ClassSerializer(ts,
+                                   nf,
+                                   lastModified,
+                                   eq,
+                                   version,
+                                   archive,
+                                   toArchive);
     }
 
     @Override
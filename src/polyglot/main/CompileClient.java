@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import polyglot.main.Main.TerminationException;
+
+/**
+ * A {@code CompileClient} sends a compilation to a {@link CompileServer}
+ * listening on a local port and reports its output and exit code as if the
+ * compiler had run in this VM.
+ *
+ * Usage: {@code CompileClient -port <port> [-tokenfile <file>] <compiler arguments>}.
+ * The token file is the one written by the server, by default
+ * {@link CompileServer#defaultTokenFile(int)}.
+ */
+public class CompileClient {
+    /**
+     * Compile with the server listening on {@code port}, and return the exit
+     * code of the compilation.
+     */
+    public static int compile(int port, String[] args) throws IOException {
+        return compile(port, CompileServer.defaultTokenFile(port), args);
+    }
+
+    /**
+     * Compile with the server listening on {@code port}, which wrote its
+     * token to {@code tokenFile}, and return the exit code of the
+     * compilation.
+     */
+    public static int compile(int port, File tokenFile, String[] args)
+            throws IOException {
+        String token = CompileServer.readToken(tokenFile);
+        // Expand @file arguments here, where relative file names resolve
+        // the same way as for Main.
+        List<String> exploded = Main.explodeOptions(args);
+        StringBuilder request =
+                new StringBuilder(System.getProperty("user.dir"));
+        for (String arg : exploded) {
+            if (arg.indexOf('\t') >= 0 || arg.indexOf('\n') >= 0)
+                throw new TerminationException("Argument contains a tab or newline: "
+                        + arg);
+            request.append('\t');
+            request.append(arg);
+        }
+
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            PrintStream out =
+                    new PrintStream(s.getOutputStream(), false, "UTF-8");
+            out.println(token);
+            out.println(request);
+            out.flush();
+
+            BufferedReader in =
+                    new BufferedReader(new InputStreamReader(s.getInputStream(),
+                                                             "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(CompileServer.STDOUT))
+                    System.out.println(line.substring(CompileServer.STDOUT.length()));
+                else if (line.startsWith(CompileServer.STDERR))
+                    System.err.println(line.substring(CompileServer.STDERR.length()));
+                else if (line.startsWith(CompileServer.EXIT))
+                    return Integer.parseInt(line.substring(CompileServer.EXIT.length()));
+            }
+        }
+        throw new IOException("compile server closed the connection");
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || !args[0].equals("-port")) {
+            System.err.println("usage: " + CompileClient.class.getName()
+                    + " -port <port> [-tokenfile <file>] <compiler arguments>");
+            System.exit(1);
+        }
+
+        try {
+            int port = Integer.parseInt(args[1]);
+            if (args.length >= 4 && args[2].equals("-tokenfile")) {
+                System.exit(compile(port,
+                                    new File(args[3]),
+                                    Arrays.copyOfRange(args, 4, args.length)));
+            }
+            System.exit(compile(port, Arrays.copyOfRange(args, 2, args.length)));
+        }
+        catch (TerminationException te) {
+            if (te.getMessage() != null) System.err.println(te.getMessage());
+            System.exit(te.exitCode);
+        }
+        catch (IOException | NumberFormatException e) {
+            System.err.println("compile client: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.main;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+import polyglot.filemanager.ExtFileManager;
+import polyglot.frontend.AbstractExtensionInfo;
+import polyglot.frontend.ExtensionInfo;
+import polyglot.main.Main.TerminationException;
+
+/**
+ * A {@code CompileServer} is a long-running compiler that compiles on
+ * request, so that each compilation does not pay for starting a VM and
+ * loading and warming up the compiler.  The extension of the last
+ * compilation is kept for the next one that uses the same extension, with
+ * its type system and the types it loaded from class files in archives on
+ * the boot class path, such as the JDK's; these are loaded again when the
+ * boot class path or one of its archives changes.  Class files read from
+ * archives on the class path are also kept in memory between compilations.
+ *
+ * Requests and responses are lines of UTF-8 text.  A request is the
+ * working directory of the client followed by the command-line arguments
+ * of the compilation, separated by tabs.  Relative file names in the
+ * arguments are resolved against the working directory of the client,
+ * except those in the options passed through to the post-compiler.  The
+ * response is the output of the compilation, each line prefixed by
+ * {@code "1 "} for standard output or {@code "2 "} for standard error,
+ * followed by a line {@code "exit <n>"} with the exit code.
+ *
+ * Requests are served one at a time, since compilations share the kept
+ * type system, and the standard output and error streams and reporting
+ * state of the VM.
+ *
+ * Usage: {@code CompileServer [-port <port> [-tokenfile <file>]]}.  With
+ * {@code -port}, the server listens on the loopback interface, using any
+ * free port if {@code <port>} is 0, and prints {@code "port <port>"} once
+ * it is ready; see {@link CompileClient}.  Since any local user can connect
+ * to the port, the first line sent on each connection must be a token that
+ * the server writes to a file readable only by its owner, by default
+ * {@link #defaultTokenFile(int)}.  Otherwise, the server serves requests
+ * from standard input until the end of the input.
+ */
+public class CompileServer {
+    public static final String STDOUT = "1 ";
+    public static final String STDERR = "2 ";
+    public static final String EXIT = "exit ";
+
+    /** The extension of the last compilation, or null. */
+    protected ExtensionInfo extInfo;
+
+    public CompileServer() {
+        ExtFileManager.setShareArchivedClassFiles(true);
+    }
+
+    /**
+     * The file holding the token of a server listening on {@code port},
+     * unless another is given by {@code -tokenfile}.
+     */
+    public static File defaultTokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".polyglot-server-"
+                + port);
+    }
+
+    /**
+     * Create a new token and write it to {@code file}, readable and
+     * writable only by the owner of this process.
+     */
+    public static String writeToken(File file) throws IOException {
+        byte[] b = new byte[32];
+        new SecureRandom().nextBytes(b);
+        StringBuilder token = new StringBuilder();
+        for (byte x : b)
+            token.append(String.format("%02x", x & 0xff));
+
+        Path path = file.toPath();
+        Files.deleteIfExists(path);
+        if (FileSystems.getDefault()
+                       .supportedFileAttributeViews()
+                       .contains("posix")) {
+            Files.createFile(path,
+                             PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        else {
+            Files.createFile(path);
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+        Files.write(path, token.toString().getBytes(StandardCharsets.UTF_8));
+        return token.toString();
+    }
+
+    /** Read the token written by {@link #writeToken(File)}. */
+    public static String readToken(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                          StandardCharsets.UTF_8).trim();
+    }
+
+    /** Serve the requests read from {@code in} until the end of input. */
+    public void serve(BufferedReader in, PrintStream out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            int exitCode = compile(line.split("\t", -1), out);
+            out.println(EXIT + exitCode);
+            out.flush();
+        }
+    }
+
+    /**
+     * Serve the connections accepted by {@code server}, one at a time.  The
+     * first line read from each connection must be {@code token}; the
+     * connection is otherwise refused.
+     */
+    public void serve(ServerSocket server, String token) throws IOException {
+        byte[] expected = token.getBytes(StandardCharsets.UTF_8);
+        while (true) {
+            try (Socket s = server.accept()) {
+                BufferedReader in =
+                        new BufferedReader(new InputStreamReader(s.getInputStream(),
+                                                                 "UTF-8"));
+                PrintStream out =
+                        new PrintStream(s.getOutputStream(), false, "UTF-8");
+                String given = in.readLine();
+                if (given == null
+                        || !MessageDigest.isEqual(expected,
+                                                  given.getBytes(StandardCharsets.UTF_8))) {
+                    out.println(STDERR + "compile server: invalid token");
+                    out.println(EXIT + 1);
+                    out.flush();
+                    continue;
+                }
+                serve(in, out);
+            }
+            catch (IOException e) {
+                System.err.println("compile server: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Run the compilation requested by {@code request}, writing its output
+     * to {@code out}, and return its exit code.
+     */
+    protected synchronized int compile(String[] request, PrintStream out) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream requestOut = new PrintStream(new LineOutputStream(out, STDOUT));
+        PrintStream requestErr = new PrintStream(new LineOutputStream(out, STDERR));
+        System.setOut(requestOut);
+        System.setErr(requestErr);
+        ExtensionInfo ext = null;
+        boolean reuse = false;
+        try {
+            Report.clearTopics();
+
+            Main main = new Main();
+            try {
+                List<String> args =
+                        Main.explodeOptions(Arrays.copyOfRange(request,
+                                                               1,
+                                                               request.length));
+                ext = extensionInfo(main.getExtensionInfo(args));
+                ext.getOptions().setWorkingDirectory(new File(request[0]));
+                main.start(args.toArray(new String[args.size()]), ext);
+                reuse = true;
+                return 0;
+            }
+            catch (TerminationException te) {
+                if (te.getMessage() != null)
+                    (te.exitCode == 0 ? System.out : System.err).println(te.getMessage());
+                reuse = true;
+                return te.exitCode;
+            }
+            catch (RuntimeException | Error e) {
+                // The type system may be left inconsistent.  An error, such
+                // as a stack overflow on a deeply nested expression, fails
+                // only this compilation, not the server.
+                e.printStackTrace();
+                return 1;
+            }
+        }
+        finally {
+            if (ext != null) release(ext, reuse);
+            requestOut.close();
+            requestErr.close();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    /**
+     * Return the extension to use for a compilation that asks for
+     * {@code ext}: the extension of the last compilation if it is of the
+     * same class, and otherwise {@code ext}.
+     */
+    protected ExtensionInfo extensionInfo(ExtensionInfo ext) {
+        if (extInfo != null && extInfo.getClass() == ext.getClass())
+            return extInfo;
+        // The last extension was reset after its compilation, so dropping
+        // it releases everything it holds.
+        if (ext instanceof AbstractExtensionInfo)
+            ((AbstractExtensionInfo) ext).setReusable(true);
+        return extInfo = ext;
+    }
+
+    /**
+     * Release {@code ext} after a compilation, keeping it for the next one
+     * if {@code reuse} is true and it can be reset.
+     */
+    protected void release(ExtensionInfo ext, boolean reuse) {
+        if (reuse && ext instanceof AbstractExtensionInfo
+                && ((AbstractExtensionInfo) ext).reset()) {
+            return;
+        }
+        try {
+            ext.extFileManager().close();
+        }
+        catch (IOException e) {
+            // Nothing more can be done with it.
+        }
+        if (extInfo == ext) extInfo = null;
+    }
+
+    /**
+     * An output stream that writes each line written to it to a response,
+     * prefixed by a tag identifying the stream.
+     */
+    protected static class LineOutputStream extends OutputStream {
+        protected final PrintStream out;
+        protected final String prefix;
+        protected final ByteArrayOutputStream line =
+                new ByteArrayOutputStream();
+
+        public LineOutputStream(PrintStream out, String prefix) {
+            this.out = out;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n')
+                writeLine();
+            else if (b != '\r') line.write(b);
+        }
+
+        protected void writeLine() {
+            out.println(prefix + line.toString());
+            line.reset();
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            if (line.size() > 0) writeLine();
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) {
+        CompileServer server = new CompileServer();
+        try {
+            if ((args.length == 2 || args.length == 4)
+                    && args[0].equals("-port")
+                    && (args.length == 2 || args[2].equals("-tokenfile"))) {
+                try (ServerSocket ss =
+                        new ServerSocket(Integer.parseInt(args[1]),
+                                         0,
+                                         InetAddress.getLoopbackAddress())) {
+                    File tokenFile =
+                            args.length == 4
+                                    ? new File(args[3])
+                                    : defaultTokenFile(ss.getLocalPort());
+                    String token = writeToken(tokenFile);
+                    tokenFile.deleteOnExit();
+                    System.out.println("port " + ss.getLocalPort());
+                    System.out.flush();
+                    server.serve(ss, token);
+                }
+            }
+            else if (args.length == 0) {
+                server.serve(new BufferedReader(new InputStreamReader(System.in,
+                                                                      "UTF-8")),
+                             new PrintStream(System.out, false, "UTF-8"));
+            }
+            else {
+                System.err.println("usage: " + CompileServer.class.getName()
+                        + " [-port <port> [-tokenfile <file>]]");
+                System.exit(1);
+            }
+        }
+        catch (IOException | NumberFormatException e) {
+            System.err.println("compile server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
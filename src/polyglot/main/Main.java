@@ -30,6 +30,7 @@ import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
@@ -54,6 +55,7 @@ import polyglot.filemanager.FileManager;
 import polyglot.frontend.Compiler;
 import polyglot.frontend.ExtensionInfo;
 import polyglot.frontend.Job;
+import polyglot.frontend.PipelinedPostCompiler;
 import polyglot.util.ErrorInfo;
 import polyglot.util.ErrorQueue;
 import polyglot.util.InternalCompilerError;
@@ -146,7 +148,8 @@ public class Main {
             throws TerminationException {
         source = new LinkedHashSet<>();
         List<String> args = explodeOptions(argv);
-        if (ext == null) {
+        boolean ownsExtension = ext == null;
+        if (ownsExtension) {
             ext = getExtensionInfo(args);
         }
         Options options = ext.getOptions();
@@ -176,34 +179,55 @@ public class Main {
         }
 
         Compiler compiler = new Compiler(ext, eq);
+        if (options.pipeline_post_compiler && options.post_compiler == null
+                && !options.output_source_only && !options.output_stdout) {
+            compiler.setPipelinedPostCompiler(new PipelinedPostCompiler(ext,
+                                                                        javaCompiler,
+                                                                        getSystemJavacArgs(options)));
+        }
+        try {
+            long time0 = System.currentTimeMillis();
 
-        long time0 = System.currentTimeMillis();
+            if (!compiler.compileFiles(source)) {
+                throw new TerminationException(1);
+            }
 
-        if (!compiler.compileFiles(source)) {
-            throw new TerminationException(1);
-        }
+            jobs = compiler.jobs();
 
-        jobs = compiler.jobs();
+            if (Report.should_report(verbose, 1))
+                Report.report(1, "Output files: " + compiler.outputFiles());
 
-        if (Report.should_report(verbose, 1))
-            Report.report(1, "Output files: " + compiler.outputFiles());
+            Collection<JavaFileObject> outputFiles = compiler.outputFiles();
+            if (outputFiles == null || outputFiles.size() == 0) return;
 
-        Collection<JavaFileObject> outputFiles = compiler.outputFiles();
-        if (outputFiles == null || outputFiles.size() == 0) return;
+            long start_time = System.currentTimeMillis();
 
-        long start_time = System.currentTimeMillis();
+            /* Now call javac or jikes, if necessary. */
+            if (!invokePostCompiler(options, compiler, eq)) {
+                throw new TerminationException(1);
+            }
 
-        /* Now call javac or jikes, if necessary. */
-        if (!invokePostCompiler(options, compiler, eq)) {
-            throw new TerminationException(1);
-        }
+            if (Report.should_report(verbose, 1)) {
+                reportTime("Finished compiling Java output files. time="
+                                   + (System.currentTimeMillis() - start_time),
+                           1);
 
-        if (Report.should_report(verbose, 1)) {
-            reportTime("Finished compiling Java output files. time="
-                               + (System.currentTimeMillis() - start_time),
-                       1);
+                reportTime("Total time=" + (System.currentTimeMillis() - time0), 1);
+            }
+        }
+        finally {
+            // Close the file manager of an extension created here, releasing
+            // the archives and caches it holds.
+            if (ownsExtension) closeFileManager(ext);
+        }
+    }
 
-            reportTime("Total time=" + (System.currentTimeMillis() - time0), 1);
+    protected void closeFileManager(ExtensionInfo ext) {
+        try {
+            ext.extFileManager().close();
+        }
+        catch (IOException e) {
+            // Nothing more can be done with it.
         }
     }
 
@@ -229,7 +253,11 @@ public class Main {
             ErrorQueue eq) {
         if (!options.output_source_only && !options.output_stdout) {
             try {
-                if (options.post_compiler == null) {
+                if (compiler.pipelinedPostCompiler() != null) {
+                    compiler.pipelinedPostCompiler()
+                            .finish(compiler.outputFiles(), eq);
+                }
+                else if (options.post_compiler == null) {
                     List<String> postCompilerArgs = getSystemJavacArgs(options);
                     ByteArrayOutputStream err = new ByteArrayOutputStream();
                     Writer javac_err = new OutputStreamWriter(err);
@@ -338,7 +366,7 @@ public class Main {
         return true;
     }
 
-    private static List<String> explodeOptions(String[] args)
+    static List<String> explodeOptions(String[] args)
             throws TerminationException {
         LinkedList<String> ll = new LinkedList<>();
 
@@ -112,6 +112,12 @@ public class Options {
     /** Inject type information in serialized form into output file? */
     public boolean serialize_type_info;
 
+    /**
+     * Write serialized type information to a type archive in the class
+     * output directory instead of into the output files?
+     */
+    public boolean type_archive;
+
     /** Dump the AST after the following passes? */
     public final Set<String> dump_ast = new HashSet<>();
 
@@ -124,6 +130,15 @@ public class Options {
     /** keep output files */
     public boolean keep_output_files;
 
+    /** Keep the AST of each job after its last goal is reached. */
+    public boolean keep_asts;
+
+    /**
+     * Check each quasiquoted AST made from a template against a parse of
+     * its format string.
+     */
+    public boolean check_qq_templates;
+
     /** Generate position information for compiler-generated code. */
     public boolean precise_compiler_generated_positions;
 
@@ -136,6 +151,36 @@ public class Options {
      */
     public boolean merge_strings;
 
+    /**
+     * Number of worker threads used to parse the sources of different jobs
+     * in parallel; 1 parses every source on the scheduler thread.
+     */
+    public int parallel_threads;
+
+    /**
+     * Run the in-process post-compiler on translated files while other files
+     * are still being translated.
+     */
+    public boolean pipeline_post_compiler;
+
+    /**
+     * File recording the sources, outputs, and dependencies of the previous
+     * compilation, or null if unchanged sources should not be skipped.
+     */
+    public File build_cache;
+
+    /**
+     * File to write the metrics of the compilation to as JSON, or null if
+     * they should not be written.
+     */
+    public File metrics_file;
+
+    /**
+     * Directory against which relative file names are resolved, or null if
+     * they are resolved against the working directory of this process.
+     */
+    protected File workingDirectory;
+
     public boolean classpath_given;
     public boolean bootclasspath_given;
 
@@ -232,14 +277,14 @@ public class Options {
                                     "current directory") {
             @Override
             public Arg<File> handle(String[] args, int index) {
-                File f = new File(args[index]);
+                File f = file(args[index]);
                 if (!f.exists()) f.mkdirs();
                 return createArg(index + 1, f);
             }
 
             @Override
             public Arg<File> defaultArg() {
-                return createDefault(new File(System.getProperty("user.dir")));
+                return createDefault(workingDirectory());
             }
         });
 
@@ -250,7 +295,7 @@ public class Options {
 
             @Override
             public Arg<File> handle(String[] args, int index) {
-                File f = new File(args[index]);
+                File f = file(args[index]);
                 if (!f.exists()) f.mkdirs();
                 return createArg(index + 1, f);
             }
@@ -263,7 +308,7 @@ public class Options {
                     Arg<?> arg = outdirs.get(outdirs.size() - 1);
                     return createDefault((File) arg.value());
                 }
-                else return createDefault(new File(System.getProperty("user.dir")));
+                else return createDefault(workingDirectory());
             }
 
             @Override
@@ -272,7 +317,7 @@ public class Options {
             }
         });
 
-        flags.add(new StdPathFlag(new String[] { "-classpath", "-cp" },
+        flags.add(new ResolvedPathFlag(new String[] { "-classpath", "-cp" },
                                   "<path>",
                                   "where to find user class files",
                                   "JVM property: java.class.path") {
@@ -283,7 +328,7 @@ public class Options {
             }
         });
 
-        flags.add(new StdPathFlag("-bootclasspath",
+        flags.add(new ResolvedPathFlag("-bootclasspath",
                                   "<path>",
                                   "where to find runtime class files",
                                   "JVM property: sun.boot.class.path (or all jars in java.home/lib)") {
@@ -293,17 +338,17 @@ public class Options {
             }
         });
 
-        flags.add(new StdPathFlag("-addbootcp",
+        flags.add(new ResolvedPathFlag("-addbootcp",
                                   "<path>",
                                   "prepend <path> to the bootclasspath"));
 
-        flags.add(new StdPathFlag("-sourcepath",
+        flags.add(new ResolvedPathFlag("-sourcepath",
                                   "<path>",
                                   "where to find source files",
                                   "current directory") {
             @Override
             public Arg<List<File>> defaultArg() {
-                return handle(new String[] { System.getProperty("user.dir") },
+                return handle(new String[] { workingDirectory().getPath() },
                               0);
             }
         });
@@ -377,6 +422,9 @@ public class Options {
 
         flags.add(new Switch("-noserial", "disable class serialization"));
 
+        flags.add(new Switch("-typearchive",
+                             "serialize class information to an archive in the class output directory"));
+
         flags.add(new OptFlag<String>("-dump",
                                       "<pass>",
                                       "dump the ast after pass <pass>") {
@@ -457,9 +505,42 @@ public class Options {
                              "-print-arguments",
                              "Check that no options try to handle the same command line flag."));
 
+        flags.add(new Switch(Kind.SECRET,
+                             "-check-qq-templates",
+                             "Check each quasiquote made from a template against a parse of it."));
+
         flags.add(new Switch("-no-output-to-fs",
                              "keep .java files in memory if possible"));
 
+        flags.add(new IntFlag("-parallel",
+                              "<num>",
+                              "parse sources on <num> threads",
+                              1));
+
+        flags.add(new Switch("-keep-asts",
+                             "keep the AST of each source file after its code is generated"));
+
+        flags.add(new Switch("-pipeline-postcompiler",
+                             "post-compile translated files while others are still being translated"));
+
+        flags.add(new OptFlag<File>("-buildcache",
+                                    "<file>",
+                                    "skip sources unchanged since the compilation recorded in <file>") {
+            @Override
+            public Arg<File> handle(String[] args, int index) {
+                return createArg(index + 1, file(args[index]));
+            }
+        });
+
+        flags.add(new OptFlag<File>("-metrics",
+                                    "<file>",
+                                    "write the time and allocation of each pass to <file> as JSON") {
+            @Override
+            public Arg<File> handle(String[] args, int index) {
+                return createArg(index + 1, file(args[index]));
+            }
+        });
+
         flags.add(new PathFlag<File>("-method-filter", "<file>",
                 "for each method whose signature matches any of the regular expressions " +
                         "listed in <file>, replace its body with " +
@@ -467,7 +548,7 @@ public class Options {
                         "QualifiedClassName#methodName(T1, T2, ..., Tn)") {
             @Override
             public File handlePathEntry(String entry) {
-                return new File(entry);
+                return file(entry);
             }
         });
     }
@@ -498,11 +579,68 @@ public class Options {
 
         @Override
         public File handlePathEntry(String entry) {
-            File f = new File(entry);
+            File f = file(entry);
             if (f.exists())
                 return f;
             else return null;
         }
+
+        /** Return the file named by the path entry {@code entry}. */
+        protected File file(String entry) {
+            return new File(entry);
+        }
+    }
+
+    /**
+     * A StdPathFlag that resolves relative path entries against the working
+     * directory of the compilation.
+     */
+    protected class ResolvedPathFlag extends StdPathFlag {
+        public ResolvedPathFlag(String id, String params, String usage,
+                String defaultValue) {
+            super(id, params, usage, defaultValue);
+        }
+
+        public ResolvedPathFlag(String id, String params, String usage) {
+            super(id, params, usage);
+        }
+
+        public ResolvedPathFlag(String[] ids, String params, String usage,
+                String defaultValue) {
+            super(ids, params, usage, defaultValue);
+        }
+
+        @Override
+        protected File file(String entry) {
+            return Options.this.file(entry);
+        }
+    }
+
+    /**
+     * Set the directory against which relative file names on the command
+     * line are resolved, in place of the working directory of this process.
+     * A compiler that serves compilations for other processes sets it to the
+     * working directory of the requesting process before the command line
+     * is parsed.
+     */
+    public void setWorkingDirectory(File dir) {
+        workingDirectory = dir.getAbsoluteFile();
+    }
+
+    /** Return the working directory of the compilation. */
+    public File workingDirectory() {
+        if (workingDirectory != null) return workingDirectory;
+        return new File(System.getProperty("user.dir"));
+    }
+
+    /**
+     * Return the file named by {@code name} on the command line, resolving
+     * a relative name against the working directory of the compilation.
+     */
+    public File file(String name) {
+        File f = new File(name);
+        if (workingDirectory == null || f.isAbsolute()) return f;
+        return new File(workingDirectory, name);
     }
 
     /**
@@ -557,6 +695,8 @@ public class Options {
         // If we are using an external post compiler,
         // we have to output files to disk
         if (post_compiler != null || keep_output_files) noOutputToFS = false;
+        // Outputs reused from the build cache must still be on disk
+        if (build_cache != null) noOutputToFS = false;
     }
 
     /**
@@ -633,6 +773,24 @@ public class Options {
         out.println();
     }
 
+    /**
+     * Return the flags given on the command line, excluding source files and
+     * flags that do not affect the output of the compiler.  Two compilations
+     * with the same configuration translate a source file the same way.
+     */
+    public String outputConfiguration() {
+        StringBuilder sb = new StringBuilder();
+        for (Arg<?> arg : arguments) {
+            if (arg.flag == null) continue;
+            Set<String> ids = arg.flag.ids();
+            if (ids.contains("-parallel") || ids.contains("-buildcache"))
+                continue;
+            sb.append(" ");
+            sb.append(arg);
+        }
+        return sb.toString();
+    }
+
     /**
      * Performs a shallow checked cast of parameterized collections
      * @param in
@@ -720,6 +878,9 @@ public class Options {
         else if (ids.contains("-noserial")) {
             setNoSerializedTypes((Boolean) arg.value());
         }
+        else if (ids.contains("-typearchive")) {
+            type_archive = (Boolean) arg.value();
+        }
         else if (ids.contains("-dump")) {
             addDumpAST((String) arg.value());
         }
@@ -755,6 +916,24 @@ public class Options {
         else if (ids.contains("-no-output-to-fs")) {
             noOutputToFS = (Boolean) arg.value();
         }
+        else if (ids.contains("-parallel")) {
+            setParallelThreads((Integer) arg.value());
+        }
+        else if (ids.contains("-check-qq-templates")) {
+            check_qq_templates = (Boolean) arg.value();
+        }
+        else if (ids.contains("-keep-asts")) {
+            keep_asts = (Boolean) arg.value();
+        }
+        else if (ids.contains("-pipeline-postcompiler")) {
+            pipeline_post_compiler = (Boolean) arg.value();
+        }
+        else if (ids.contains("-buildcache")) {
+            setBuildCache((File) arg.value());
+        }
+        else if (ids.contains("-metrics")) {
+            setMetricsFile((File) arg.value());
+        }
         else if (ids.contains("-method-filter")) {
             setMemberFilter(this.<List<File>, File>sccast(arg.value(), File.class));
         }
@@ -768,6 +947,7 @@ public class Options {
      */
     protected void handleSourceArg(Arg<?> arg, Set<String> source) {
         String filename = (String) arg.value();
+        if (workingDirectory != null) filename = file(filename).getPath();
         source.add(filename);
     }
 
@@ -900,6 +1080,21 @@ public class Options {
         merge_strings = value;
     }
 
+    protected void setParallelThreads(Integer value) throws UsageError {
+        if (value < 1)
+            throw new UsageError("Number of parallel threads must be positive: "
+                    + value);
+        parallel_threads = value;
+    }
+
+    protected void setBuildCache(File file) {
+        build_cache = file;
+    }
+
+    protected void setMetricsFile(File file) {
+        metrics_file = file;
+    }
+
     protected void setMemberFilter(List<File> files) throws UsageError {
         StringBuilder sb = new StringBuilder();
         String[] autoEscapes = {"(", ")", "[", "]"};
@@ -26,19 +26,30 @@
 
 package polyglot.main;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import polyglot.util.ErrorInfo;
 import polyglot.util.ErrorQueue;
 import polyglot.util.Position;
 import polyglot.util.SimpleErrorQueue;
 
-/** Class used for reporting debug messages. */
+/**
+ * Class used for reporting debug messages.
+ *
+ * Code that checks whether to report on the same topics often should
+ * register a {@link Topic} handle for them with {@link #topic(String...)}
+ * and check it with {@link #should_report(Topic, int)}, which reads the
+ * level kept in the handle rather than looking up each topic by name.  When
+ * nothing is reported, the normal case, every check returns after reading
+ * a single flag.
+ */
 public class Report {
     /** A collection of string names of topics which can be used with the
         -report command-line switch */
@@ -52,7 +63,46 @@ public class Report {
      * The topics that the user has selected to report, mapped to the level
      * they want to report them to.
      */
-    protected final static Map<String, Integer> reportTopics = new HashMap<>();
+    protected final static Map<String, Integer> reportTopics =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A registered handle for one or more topics.  Its level is the highest
+     * level to which any of its topics is reported, and is updated whenever
+     * the reported topics change.
+     */
+    public static final class Topic {
+        protected final String[] names;
+        protected volatile int level;
+
+        protected Topic(String[] names) {
+            this.names = names;
+            update();
+        }
+
+        protected void update() {
+            int max = 0;
+            for (String name : names)
+                max = Math.max(max, Report.level(name));
+            level = max;
+        }
+
+        /** The highest level to which any topic of this handle is reported. */
+        public int level() {
+            return level;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(names);
+        }
+    }
+
+    /** The registered topic handles. */
+    protected final static List<Topic> handles = new CopyOnWriteArrayList<>();
+
+    /** The highest level of the topics in {@link #should_report}. */
+    protected static volatile int stackLevel;
 
     /** Error queue to which to write messages. */
     protected static ErrorQueue eq;
@@ -64,7 +114,7 @@ public class Report {
      * this flag to bypass a lot of the checking. When the options are processed,
      * this flag should be changed.
      */
-    protected static boolean noReporting = true;
+    protected static volatile boolean noReporting = true;
 
     /** Report topics understood by the base compiler. */
     public final static String cfg = "cfg";
@@ -103,6 +153,38 @@ public class Report {
         pushTopic(verbose);
     }
 
+    /**
+     * Return a registered handle for {@code names}, to check with
+     * {@link #should_report(Topic, int)}.  Handles should be created once,
+     * e.g., in a static field, since each is updated whenever the reported
+     * topics change.
+     */
+    public static Topic topic(String... names) {
+        Topic t = new Topic(names.clone());
+        handles.add(t);
+        return t;
+    }
+
+    /** Return a registered handle for {@code names}. */
+    public static Topic topic(Collection<String> names) {
+        return topic(names.toArray(new String[names.size()]));
+    }
+
+    /** Is anything reported? */
+    public static boolean reporting() {
+        return !noReporting;
+    }
+
+    /**
+     * Return whether a message on the topics of {@code topic} of obscurity
+     * {@code level} should be reported, based on use of the
+     * -report command-line switches given by the user.
+     */
+    public static boolean should_report(Topic topic, int level) {
+        if (noReporting) return false;
+        return topic.level >= level || stackLevel >= level;
+    }
+
     /**
      * Return whether a message on {@code topic} of obscurity
      * {@code level} should be reported, based on use of the
@@ -110,7 +192,7 @@ public class Report {
      */
     public static boolean should_report(String topic, int level) {
         if (noReporting) return false;
-        return should_report(Collections.singletonList(topic), level);
+        return stackLevel >= level || level(topic) >= level;
     }
 
     /**
@@ -120,11 +202,7 @@ public class Report {
      */
     public static boolean should_report(String[] topics, int level) {
         if (noReporting) return false;
-        synchronized (should_report) {
-            for (String topic : should_report) {
-                if (level(topic) >= level) return true;
-            }
-        }
+        if (stackLevel >= level) return true;
         if (topics != null) {
             for (String topic : topics) {
                 if (level(topic) >= level) return true;
@@ -134,12 +212,18 @@ public class Report {
     }
 
     public static void pushTopic(String topic) {
-        should_report.push(topic);
+        synchronized (should_report) {
+            should_report.push(topic);
+            stackLevel = Math.max(stackLevel, level(topic));
+        }
     }
 
     public static void popTopic() {
-        if (should_report.isEmpty()) return;
-        should_report.pop();
+        synchronized (should_report) {
+            if (should_report.isEmpty()) return;
+            should_report.pop();
+            updateStackLevel();
+        }
     }
 
     /**
@@ -149,11 +233,7 @@ public class Report {
      */
     public static boolean should_report(Collection<String> topics, int level) {
         if (noReporting) return false;
-        synchronized (should_report) {
-            for (String topic : should_report) {
-                if (level(topic) >= level) return true;
-            }
-        }
+        if (stackLevel >= level) return true;
         if (topics != null) {
             for (String topic : topics) {
                 if (level(topic) >= level) return true;
@@ -163,15 +243,48 @@ public class Report {
     }
 
     public static void addTopic(String topic, int level) {
-        Integer i = reportTopics.get(topic);
-        if (i == null || i.intValue() < level) {
-            reportTopics.put(topic, new Integer(level));
+        synchronized (reportTopics) {
+            Integer i = reportTopics.get(topic);
+            if (i == null || i.intValue() < level) {
+                reportTopics.put(topic, new Integer(level));
+            }
+            updateLevels();
         }
         noReporting = false;
     }
 
+    /** Stop reporting all topics, e.g., before processing new options. */
+    public static void clearTopics() {
+        noReporting = true;
+        synchronized (reportTopics) {
+            reportTopics.clear();
+            updateLevels();
+        }
+    }
+
     public static void setTopic(String topic, int level) {
-        if (reportTopics.containsKey(topic)) reportTopics.put(topic, level);
+        synchronized (reportTopics) {
+            if (reportTopics.containsKey(topic)) {
+                reportTopics.put(topic, level);
+                updateLevels();
+            }
+        }
+    }
+
+    /** Update the levels of the topic stack and of the handles. */
+    protected static void updateLevels() {
+        synchronized (should_report) {
+            updateStackLevel();
+        }
+        for (Topic t : handles)
+            t.update();
+    }
+
+    private static void updateStackLevel() {
+        int max = 0;
+        for (String topic : should_report)
+            max = Math.max(max, level(topic));
+        stackLevel = max;
     }
 
     /** Get the error queue, possibly creating it if not set. */
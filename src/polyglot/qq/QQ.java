@@ -44,7 +44,9 @@ import polyglot.main.Report;
 import polyglot.types.Type;
 import polyglot.types.TypeSystem;
 import polyglot.util.ErrorQueue;
+import polyglot.util.InternalCompilerError;
 import polyglot.util.Position;
+import polyglot.visit.NodeVisitor;
 
 /**
   Java language quasiquoter.  This class contains methods for parsing strings
@@ -243,11 +245,11 @@ public class QQ {
     }
 
     /** Parse a string into an AST node of the given type,
-     * applying substitutions. */
+     * applying substitutions.  Each format string is parsed once into a
+     * template, which later parses with the same kinds of substitutions
+     * reuse; see {@link QQTemplate}. */
     protected Node parse(int kind, String fmt, Object... subst) {
-        TypeSystem ts = ext.typeSystem();
         NodeFactory nf = ext.nodeFactory();
-        ErrorQueue eq = ext.compiler().errorQueue();
 
         // Replace Types with TypeNodes
         for (int i = 0; i < subst.length; i++) {
@@ -281,6 +283,90 @@ public class QQ {
             pos = Position.compilerGenerated(3);
         }
 
+        QQTemplateCache cache = ext.qqTemplateCache();
+        QQTemplateCache.Key key = cache.key(getClass(), kind, fmt, subst);
+        if (key != null) {
+            QQTemplate t = cache.get(key);
+            if (t == null) {
+                t = template(kind, fmt, pos, subst);
+                cache.put(key, t);
+            }
+            if (t.isReusable()) {
+                if (Report.should_report(polyglot.frontend.Topics.qq, 1)) {
+                    Report.report(1, "qq (template): " + fmt);
+                    Report.report(1, "subst: " + subst);
+                }
+                Node n = t.instantiate(nf, subst, lexer(fmt, pos, subst));
+                if (ext.getOptions().check_qq_templates)
+                    checkTemplate(fmt, n, parse(kind, fmt, pos, subst));
+                return n;
+            }
+        }
+
+        if (Report.should_report(polyglot.frontend.Topics.qq, 1))
+            Report.report(1, "qq (no template): " + fmt);
+        return parse(kind, fmt, pos, subst);
+    }
+
+    /**
+     * Check that the AST {@code n} made from the template of {@code fmt}
+     * is the AST {@code m} parsed from {@code fmt}, with the same nodes at
+     * the same positions.
+     */
+    protected void checkTemplate(String fmt, Node n, Node m) {
+        String made = describe(n);
+        String parsed = describe(m);
+        if (!made.equals(parsed))
+            throw new InternalCompilerError("The template of \"" + fmt
+                    + "\" made\n" + made + "instead of\n" + parsed, pos);
+    }
+
+    /** Describe the nodes of {@code n} and their positions, one per line. */
+    protected String describe(Node n) {
+        final StringBuilder sb = new StringBuilder();
+        n.visit(new NodeVisitor(ext.nodeFactory().lang()) {
+            @Override
+            public Node leave(Node old, Node m, NodeVisitor v) {
+                sb.append(m.getClass().getName() + " " + m);
+                Position p = m.position();
+                if (p != null)
+                    sb.append(" at " + p.path() + ":" + p.line() + ","
+                            + p.column() + "-" + p.endLine() + ","
+                            + p.endColumn() + " [" + p.offset() + "-"
+                            + p.endOffset() + "]");
+                sb.append("\n");
+                return m;
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * Parse {@code fmt} into a template for the substitutions
+     * {@code subst}; see {@link QQTemplate}.
+     */
+    protected QQTemplate template(int kind, String fmt, Position pos,
+            Object... subst) {
+        // Substitute fresh strings, which the template finds by identity.
+        Object[] probe = subst.clone();
+        for (int i = 0; i < probe.length; i++) {
+            if (probe[i] instanceof String)
+                probe[i] = new String((String) probe[i]);
+        }
+        Node n = parse(kind, fmt, pos, probe);
+        return QQTemplate.create(ext.nodeFactory(),
+                                 n,
+                                 probe,
+                                 lexer(fmt, pos, probe));
+    }
+
+    /** Parse a string into an AST node of the given type at {@code pos},
+     * applying substitutions that have been converted to nodes. */
+    protected Node parse(int kind, String fmt, Position pos, Object... subst) {
+        TypeSystem ts = ext.typeSystem();
+        NodeFactory nf = ext.nodeFactory();
+        ErrorQueue eq = ext.compiler().errorQueue();
+
         polyglot.lex.Lexer lexer = lexer(fmt, pos, subst);
         QQParser grm = parser(lexer, ts, nf, eq);
 
@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.qq;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import polyglot.ast.ClassDecl;
+import polyglot.ast.ClassMember;
+import polyglot.ast.Expr;
+import polyglot.ast.Formal;
+import polyglot.ast.Id;
+import polyglot.ast.Node;
+import polyglot.ast.NodeFactory;
+import polyglot.ast.Stmt;
+import polyglot.ast.TypeNode;
+import polyglot.lex.Lexer;
+import polyglot.types.Flags;
+import polyglot.util.Position;
+import polyglot.visit.NodeVisitor;
+
+/**
+ * A {@code QQTemplate} is the AST of a quasiquoted format string, with
+ * holes for its substitutions, from which the AST for the same format
+ * string with other substitutions is made without parsing again.
+ *
+ * A template is made from a parse with the substitutions of its first use,
+ * in which each string substitution is a fresh string.  Each substituted
+ * node is then found in the AST by identity, and each substituted string
+ * as the name of an {@code Id}, and substituted nodes are replaced with
+ * small marker nodes, so that the template does not keep them alive.  If
+ * some substitution cannot be found, because the parser copied or
+ * combined it, the format string is parsed every time instead.
+ *
+ * A use of the template copies the AST, replacing the markers and names
+ * with the new substitutions.  The positions of the copied nodes are
+ * derived from the new substitutions and the quasiquote as the parser
+ * would have derived them.
+ */
+public class QQTemplate {
+    /** The part of a position is kept as it is. */
+    protected static final int KEEP = -1;
+    /** The start of a position is in the quasiquote. */
+    protected static final int LEXER = -2;
+
+    /**
+     * The AST of the template, with markers for the substituted nodes, or
+     * null if the format string must be parsed every time.
+     */
+    protected final Node node;
+
+    /** The marker node or string of each substitution. */
+    protected final Object[] holes;
+
+    /** The substitution of each marker and string, by identity. */
+    protected final Map<Object, Integer> holeIndex;
+
+    /**
+     * For each position in the AST, by identity, where its start and end
+     * come from: the substitution with that index, {@code LEXER} or
+     * {@code KEEP}.
+     */
+    protected final Map<Position, int[]> positions;
+
+    protected static final QQTemplate NOT_REUSABLE =
+            new QQTemplate(null,
+                           null,
+                           Collections.<Object, Integer> emptyMap(),
+                           Collections.<Position, int[]> emptyMap());
+
+    protected QQTemplate(Node node, Object[] holes,
+            Map<Object, Integer> holeIndex, Map<Position, int[]> positions) {
+        this.node = node;
+        this.holes = holes;
+        this.holeIndex = holeIndex;
+        this.positions = positions;
+    }
+
+    /** Whether this template can be used instead of parsing. */
+    public boolean isReusable() {
+        return node != null;
+    }
+
+    /**
+     * Create the template for {@code n}, which was parsed by
+     * {@code lexer} with the substitutions {@code subst}.  Each string in
+     * {@code subst} must be a distinct object that the parser saw only as a
+     * substitution.
+     */
+    public static QQTemplate create(NodeFactory nf, Node n,
+            final Object[] subst, final Lexer lexer) {
+        final Map<Object, Integer> substIndex = new IdentityHashMap<>();
+        for (int i = 0; i < subst.length; i++) {
+            if (substIndex.put(subst[i], i) != null) {
+                // The same node is substituted twice.
+                return NOT_REUSABLE;
+            }
+        }
+
+        // Find the substitutions, and the sources of the positions.
+        final boolean[] found = new boolean[subst.length];
+        final Map<Position, int[]> positions = new IdentityHashMap<>();
+        n.visit(new NodeVisitor(nf.lang()) {
+            @Override
+            public Node override(Node m) {
+                Integer i = substIndex.get(m);
+                if (i != null) {
+                    found[i] = true;
+                    return m;
+                }
+                return null;
+            }
+
+            @Override
+            public Node leave(Node old, Node m, NodeVisitor v) {
+                if (m instanceof Id) {
+                    Integer i = substIndex.get(((Id) m).id());
+                    if (i != null) found[i] = true;
+                }
+                Position p = m.position();
+                if (p != null && !p.isCompilerGenerated()
+                        && !positions.containsKey(p)) {
+                    positions.put(p, new int[] { startSource(p, subst, lexer),
+                            endSource(p, subst) });
+                }
+                return m;
+            }
+        });
+
+        for (boolean f : found) {
+            if (!f) return NOT_REUSABLE;
+        }
+
+        // Replace the substituted nodes with markers.
+        final Object[] holes = subst.clone();
+        Map<Object, Integer> holeIndex = new IdentityHashMap<>();
+        for (int i = 0; i < subst.length; i++) {
+            if (subst[i] instanceof Node) {
+                holes[i] = marker(nf, (Node) subst[i]);
+                if (holes[i] == null) return NOT_REUSABLE;
+            }
+            holeIndex.put(holes[i], i);
+        }
+
+        Node t;
+        try {
+            t = n.visit(new NodeVisitor(nf.lang()) {
+                @Override
+                public Node override(Node m) {
+                    Integer i = substIndex.get(m);
+                    if (i != null) return (Node) holes[i];
+                    return null;
+                }
+            });
+        }
+        catch (ClassCastException e) {
+            // A marker does not fit where the substituted node was.
+            return NOT_REUSABLE;
+        }
+
+        return new QQTemplate(t, holes, holeIndex, positions);
+    }
+
+    /**
+     * Return a node of the same kind as the substituted node {@code n} to
+     * stand for it in a template, or null if there is none.
+     */
+    protected static Node marker(NodeFactory nf, Node n) {
+        Position pos = Position.COMPILER_GENERATED;
+        Id id = nf.Id(pos, "qq$hole");
+        if (n instanceof TypeNode) return nf.AmbTypeNode(pos, id);
+        if (n instanceof Formal)
+            return nf.Formal(pos, Flags.NONE, nf.AmbTypeNode(pos, id), id);
+        if (n instanceof ClassDecl)
+            return nf.ClassDecl(pos,
+                                Flags.NONE,
+                                id,
+                                null,
+                                Collections.<TypeNode> emptyList(),
+                                nf.ClassBody(pos,
+                                             Collections.<ClassMember> emptyList()),
+                                null);
+        if (n instanceof Expr) return nf.AmbExpr(pos, id);
+        if (n instanceof Stmt) return nf.Empty(pos);
+        if (n instanceof ClassMember)
+            return nf.Initializer(pos, Flags.NONE, nf.Block(pos));
+        return null;
+    }
+
+    /** Where the start of {@code p} comes from. */
+    protected static int startSource(Position p, Object[] subst, Lexer lexer) {
+        for (int i = 0; i < subst.length; i++) {
+            Position h = position(subst[i]);
+            if (h != null && equals(p.path(), h.path())
+                    && equals(p.file(), h.file()) && p.line() == h.line()
+                    && p.column() == h.column() && p.offset() == h.offset())
+                return i;
+        }
+        if (equals(p.path(), lexer.path()) && equals(p.file(), lexer.file()))
+            return LEXER;
+        return KEEP;
+    }
+
+    /** Where the end of {@code p} comes from. */
+    protected static int endSource(Position p, Object[] subst) {
+        for (int i = 0; i < subst.length; i++) {
+            Position h = position(subst[i]);
+            if (h != null && p.endLine() == h.endLine()
+                    && p.endColumn() == h.endColumn()
+                    && p.endOffset() == h.endOffset()) return i;
+        }
+        return KEEP;
+    }
+
+    protected static Position position(Object o) {
+        return o instanceof Node ? ((Node) o).position() : null;
+    }
+
+    protected static boolean equals(String s, String t) {
+        return s == null ? t == null : s.equals(t);
+    }
+
+    /**
+     * Return the AST of this template with the substitutions
+     * {@code subst}, whose quasiquote is scanned by {@code lexer}.
+     */
+    public Node instantiate(NodeFactory nf, final Object[] subst,
+            final Lexer lexer) {
+        final Map<Position, Position> newPositions = new IdentityHashMap<>();
+        return node.visit(new NodeVisitor(nf.lang()) {
+            @Override
+            public Node override(Node m) {
+                Integer i = holeIndex.get(m);
+                if (i != null) return (Node) subst[i];
+                return null;
+            }
+
+            @Override
+            public Node leave(Node old, Node m, NodeVisitor v) {
+                if (m instanceof Id) {
+                    Integer i = holeIndex.get(((Id) m).id());
+                    if (i != null) m = ((Id) m).id((String) subst[i]);
+                }
+                Position p = m.position();
+                Position q = newPositions.get(p);
+                if (q == null && p != null) {
+                    q = reposition(p, subst, lexer);
+                    newPositions.put(p, q);
+                }
+                m = m.position(q);
+                // Never share nodes between the template and its uses.
+                if (m == old) m = m.copy();
+                return m;
+            }
+        });
+    }
+
+    /** Return the position {@code p} of the template for a new use. */
+    protected Position reposition(Position p, Object[] subst, Lexer lexer) {
+        int[] sources = positions.get(p);
+        if (sources == null) return p;
+
+        String path = p.path();
+        String file = p.file();
+        int line = p.line();
+        int column = p.column();
+        int offset = p.offset();
+        Position h = sources[0] >= 0 ? position(subst[sources[0]]) : null;
+        if (h != null) {
+            path = h.path();
+            file = h.file();
+            line = h.line();
+            column = h.column();
+            offset = h.offset();
+        }
+        else if (sources[0] == LEXER) {
+            path = lexer.path();
+            file = lexer.file();
+        }
+
+        int endLine = p.endLine();
+        int endColumn = p.endColumn();
+        int endOffset = p.endOffset();
+        h = sources[1] >= 0 ? position(subst[sources[1]]) : null;
+        if (h != null) {
+            endLine = h.endLine();
+            endColumn = h.endColumn();
+            endOffset = h.endOffset();
+        }
+
+        return new Position(path,
+                            file,
+                            line,
+                            column,
+                            endLine,
+                            endColumn,
+                            offset,
+                            endOffset);
+    }
+}
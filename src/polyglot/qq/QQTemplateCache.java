@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.qq;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import polyglot.ast.Node;
+import polyglot.frontend.Stats;
+
+/**
+ * A {@code QQTemplateCache} holds the templates parsed by the quasiquoters
+ * of an extension, so that each format string is parsed once; see
+ * {@link QQTemplate}.  Templates are keyed by the quasiquoter class, the
+ * kind of node parsed, the format string, and the classes of the
+ * substituted values, and the least recently used template is dropped when
+ * the cache is full.
+ */
+public class QQTemplateCache implements Stats.Counters {
+    /** The default maximum number of templates in a cache. */
+    public static final int DEFAULT_MAX_TEMPLATES = 256;
+
+    protected final int maxTemplates;
+    protected final Map<Key, QQTemplate> templates;
+
+    protected long hits;
+    protected long misses;
+    protected long uncached;
+
+    public QQTemplateCache() {
+        this(DEFAULT_MAX_TEMPLATES);
+    }
+
+    public QQTemplateCache(final int maxTemplates) {
+        this.maxTemplates = maxTemplates;
+        this.templates = new LinkedHashMap<Key, QQTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, QQTemplate> eldest) {
+                return size() > maxTemplates;
+            }
+        };
+    }
+
+    public static class Key {
+        protected final Class<?> qq;
+        protected final int kind;
+        protected final String fmt;
+        protected final Class<?>[] substClasses;
+        protected final int hash;
+
+        protected Key(Class<?> qq, int kind, String fmt, Class<?>[] substClasses) {
+            this.qq = qq;
+            this.kind = kind;
+            this.fmt = fmt;
+            this.substClasses = substClasses;
+            this.hash =
+                    (qq.hashCode() * 31 + fmt.hashCode()) * 31
+                            + Arrays.hashCode(substClasses) + kind;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key k = (Key) o;
+                return hash == k.hash && kind == k.kind && qq == k.qq
+                        && fmt.equals(k.fmt)
+                        && Arrays.equals(substClasses, k.substClasses);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Return the key of the template of {@code fmt} for {@code kind} with
+     * the substitutions {@code subst}, or null if the parse cannot be
+     * cached because a substitution is a list or not a string or node.
+     */
+    public Key key(Class<?> qq, int kind, String fmt, Object[] subst) {
+        Class<?>[] substClasses = new Class<?>[subst.length];
+        for (int i = 0; i < subst.length; i++) {
+            Object o = subst[i];
+            if (o instanceof List || !(o instanceof String || o instanceof Node)) {
+                synchronized (this) {
+                    uncached++;
+                }
+                return null;
+            }
+            substClasses[i] = o.getClass();
+        }
+        return new Key(qq, kind, fmt, substClasses);
+    }
+
+    /** Return the template for {@code key}, or null if there is none. */
+    public synchronized QQTemplate get(Key key) {
+        QQTemplate t = templates.get(key);
+        if (t == null)
+            misses++;
+        else if (t.isReusable())
+            hits++;
+        else uncached++;
+        return t;
+    }
+
+    /** Cache the template {@code t} for {@code key}. */
+    public synchronized void put(Key key, QQTemplate t) {
+        templates.put(key, t);
+    }
+
+    @Override
+    public synchronized void accumCounts(Stats stats) {
+        stats.accumCount("qq template hits", hits);
+        stats.accumCount("qq template misses", misses);
+        stats.accumCount("qq parses not cached", uncached);
+        hits = 0;
+        misses = 0;
+        uncached = 0;
+    }
+}
@@ -40,6 +40,9 @@ import polyglot.frontend.goals.SourceFileGoal;
 import polyglot.main.OptFlag.Arg;
 import polyglot.main.Options;
 import polyglot.main.UsageError;
+import polyglot.types.reflect.ClassFileLoader;
+import polyglot.types.reflect.ClassFile_c;
+import polyglot.types.reflect.SharedClassFileLoader;
 import polyglot.util.InternalCompilerError;
 
 /**
@@ -93,6 +96,19 @@ public class JLOutputExtensionInfo extends JLExtensionInfo {
         return opt;
     }
 
+    /**
+     * Share the class files loaded by the parent extension, so each class
+     * file is only located and parsed once.
+     */
+    @Override
+    public ClassFileLoader classFileLoader() {
+        if (classFileLoader == null) {
+            classFileLoader =
+                    new SharedClassFileLoader(parent, this, ClassFile_c.class);
+        }
+        return classFileLoader;
+    }
+
     static protected class JLOutputScheduler extends JLScheduler {
         public JLOutputScheduler(ExtensionInfo extInfo) {
             super(extInfo);
@@ -31,9 +31,9 @@ import java.util.HashMap;
 import java.util.Map;
 
 import polyglot.main.Report;
-import polyglot.util.CollectionUtil;
 import polyglot.util.Copy;
 import polyglot.util.InternalCompilerError;
+import polyglot.util.NestedMap;
 
 /**
  * A {@code CachingResolver} memoizes another Resolver
@@ -86,7 +86,7 @@ public class CachingResolver implements Resolver, Copy<CachingResolver> {
     }
 
     protected boolean shouldReport(int level) {
-        return (Report.should_report("sysresolver", level) && this instanceof SystemResolver)
+        return (Report.should_report(SYSRESOLVER, level) && this instanceof SystemResolver)
                 || Report.should_report(TOPICS, level);
     }
 
@@ -102,6 +102,37 @@ public class CachingResolver implements Resolver, Copy<CachingResolver> {
         }
     }
 
+    /**
+     * Return a copy of this resolver whose cache is layered over the cache of
+     * this resolver: the copy sees the results cached here, including those
+     * cached after the copy is made, but results cached in the copy are not
+     * seen here.  Making the copy takes constant time, and discarding it
+     * discards only the results cached in it.
+     */
+    protected CachingResolver layeredCopy() {
+        try {
+            CachingResolver r = (CachingResolver) super.clone();
+            r.cache = new NestedMap<>(this.cache);
+            return r;
+        }
+        catch (CloneNotSupportedException e) {
+            throw new InternalCompilerError("clone failed");
+        }
+    }
+
+    /**
+     * Return the named objects found by this resolver, by the names under
+     * which they are cached.
+     */
+    public Map<String, Named> cachedNamed() {
+        Map<String, Named> m = new HashMap<>();
+        for (Map.Entry<String, CachedResult> e : cache.entrySet()) {
+            if (e.getValue() instanceof CachedResult.Success)
+                m.put(e.getKey(), ((CachedResult.Success) e.getValue()).named);
+        }
+        return m;
+    }
+
     /**
      * The resolver whose results this resolver caches.
      */
@@ -207,6 +238,8 @@ public class CachingResolver implements Resolver, Copy<CachingResolver> {
         }
     }
 
-    private static final Collection<String> TOPICS =
-            CollectionUtil.list(Report.types, Report.resolver);
+    private static final Report.Topic SYSRESOLVER =
+            Report.topic("sysresolver");
+    private static final Report.Topic TOPICS =
+            Report.topic(Report.types, Report.resolver);
 }
@@ -26,14 +26,12 @@
 
 package polyglot.types;
 
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
 
 import polyglot.main.Report;
-import polyglot.util.CollectionUtil;
 import polyglot.util.InternalCompilerError;
 import polyglot.util.StringUtil;
 
@@ -192,7 +190,7 @@ public class ClassContextResolver extends AbstractAccessControlResolver {
         return type;
     }
 
-    private static final Collection<String> TOPICS =
-            CollectionUtil.list(Report.types, Report.resolver);
+    private static final Report.Topic TOPICS =
+            Report.topic(Report.types, Report.resolver);
 
 }
@@ -26,7 +26,6 @@
 
 package polyglot.types;
 
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,7 +33,6 @@ import java.util.Map;
 import polyglot.ast.JLangToJLDel;
 import polyglot.ast.Lang;
 import polyglot.main.Report;
-import polyglot.util.CollectionUtil;
 import polyglot.util.Enum;
 import polyglot.util.InternalCompilerError;
 import polyglot.util.SerialVersionUID;
@@ -670,7 +668,7 @@ public class Context_c implements Context {
         vars.put(var.name(), var);
     }
 
-    private static final Collection<String> TOPICS =
-            CollectionUtil.list(Report.types, Report.context);
+    private static final Report.Topic TOPICS =
+            Report.topic(Report.types, Report.context);
 
 }
@@ -26,6 +26,10 @@
 
 package polyglot.types;
 
+import java.util.List;
+
+import polyglot.util.TypeEncoder;
+
 /**
  * A LazyClassInitializer is responsible for initializing members of a class
  * after it has been created. Members are initialized lazily to correctly handle
@@ -36,6 +40,14 @@ public class DeserializedClassInitializer implements LazyClassInitializer {
     protected ParsedClassType ct;
     protected boolean init;
 
+    /**
+     * The encoder that decoded the class, the classes decoded with it, and
+     * the encoded groups of members of the class, each null once decoded.
+     */
+    protected TypeEncoder encoder;
+    protected List<? extends TypeObject> encodedClasses;
+    protected byte[][] encodedMembers;
+
     public DeserializedClassInitializer(TypeSystem ts) {
         this.ts = ts;
     }
@@ -45,6 +57,49 @@ public class DeserializedClassInitializer implements LazyClassInitializer {
         this.ct = ct;
     }
 
+    /**
+     * Decode each group of members of the class from {@code encodedMembers}
+     * with {@code encoder} when it is first needed.  The members may refer
+     * to any of {@code classes}, which were decoded with the class.
+     */
+    public void setEncodedMembers(TypeEncoder encoder,
+            List<? extends TypeObject> classes, byte[][] encodedMembers) {
+        this.encoder = encoder;
+        this.encodedClasses = classes;
+        this.encodedMembers = encodedMembers;
+    }
+
+    /**
+     * Decode the group {@code group} of the members of the class if it has
+     * not been decoded yet.  If one of the types of the members cannot be
+     * resolved yet, an {@code UnavailableTypeException} aborts the current
+     * pass, and the group is decoded again when next needed.
+     */
+    protected void initMembers(int group) {
+        if (encodedMembers == null || group >= encodedMembers.length) return;
+        byte[] b = encodedMembers[group];
+        if (b == null) return;
+        // Members that refer back to the group while it is being decoded
+        // see it empty.
+        encodedMembers[group] = null;
+        boolean okay = false;
+        try {
+            encoder.decodeMembers(ct, encodedClasses, group, b);
+            okay = true;
+        }
+        finally {
+            if (!okay) encodedMembers[group] = b;
+        }
+    }
+
+    /** Decode all the members of the class that have not been decoded yet. */
+    protected void initMembers() {
+        if (encodedMembers == null) return;
+        for (int i = 0; i < encodedMembers.length; i++) {
+            initMembers(i);
+        }
+    }
+
     @Override
     public boolean fromClassFile() {
         return false;
@@ -82,14 +137,17 @@ public class DeserializedClassInitializer implements LazyClassInitializer {
 
     @Override
     public void initConstructors() {
+        initMembers(ParsedClassType_c.CONSTRUCTOR_GROUP);
     }
 
     @Override
     public void initMethods() {
+        initMembers(ParsedClassType_c.METHOD_GROUP);
     }
 
     @Override
     public void initFields() {
+        initMembers(ParsedClassType_c.FIELD_GROUP);
     }
 
     @Override
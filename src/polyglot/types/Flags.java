@@ -28,11 +28,14 @@ package polyglot.types;
 
 import java.io.Serializable;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import polyglot.util.Copy;
 import polyglot.util.InternalCompilerError;
@@ -45,11 +48,28 @@ import polyglot.util.SerialVersionUID;
  * scope modifiers.
  */
 public class Flags implements Serializable, Copy<Flags> {
-    private static final long serialVersionUID = SerialVersionUID.generate();
+    // Pinned to the value generated when the flags were stored only as a
+    // set of names, which remains the serialized form; see writeReplace.
+    private static final long serialVersionUID = 4418999482630203699L;
 
-    protected Set<String> flags;
+    /** The flags in this set, one bit per flag name; see {@link #bit}. */
+    protected transient long bits;
     protected Position position;
 
+    /**
+     * The names of the flags in this set, in serialized flags only; see
+     * {@link #writeReplace()}.
+     */
+    protected Set<String> flags;
+
+    /** The flag names, indexed by bit number. */
+    protected static final List<String> names = new ArrayList<>();
+    /** The bit numbers of the flag names. */
+    protected static final Map<String, Integer> bitForName = new HashMap<>();
+    /** Flags with the shared compiler-generated position, by bits. */
+    protected static final ConcurrentHashMap<Long, Flags> interned =
+            new ConcurrentHashMap<>();
+
     protected static class FlagComparator implements Comparator<String>,
             Serializable {
         private static final long serialVersionUID =
@@ -103,9 +123,18 @@ public class Flags implements Serializable, Copy<Flags> {
      *        if we should print at the end.
      */
     public static Flags createFlag(String name, Flags after) {
-        addToOrder(name, after);
-
-        return new Flags(name);
+        synchronized (names) {
+            addToOrder(name, after);
+
+            // The name may already have a bit if deserialized flags
+            // mentioned it before it was created.
+            Flags f = new Flags(name);
+            if (f.position == Position.COMPILER_GENERATED) {
+                Flags old = interned.putIfAbsent(f.bits, f);
+                if (old != null) return old;
+            }
+            return f;
+        }
     }
 
     public static void addToOrder(String name, Flags after) {
@@ -119,7 +148,7 @@ public class Flags implements Serializable, Copy<Flags> {
             index = ordering.size() + 1;
         else {
             index = 0;
-            for (String s : after.flags) {
+            for (String s : after.flags()) {
                 int si = ordering.get(s);
                 if (si > index) index = si;
             }
@@ -135,21 +164,68 @@ public class Flags implements Serializable, Copy<Flags> {
         revOrdering.put(index, name);
     }
 
+    /**
+     * Return the bit of the flag {@code name}, allocating one if the name
+     * does not have one yet.
+     */
+    protected static long bit(String name) {
+        synchronized (names) {
+            Integer i = bitForName.get(name);
+            if (i == null) {
+                if (names.size() == Long.SIZE)
+                    throw new InternalCompilerError("Cannot add flag " + name
+                            + ": all " + Long.SIZE + " flag bits are in use.");
+                i = names.size();
+                names.add(name);
+                bitForName.put(name, i);
+            }
+            return 1L << i;
+        }
+    }
+
+    /**
+     * Return flags with the given bits and position.  Flags with the shared
+     * compiler-generated position are interned.
+     */
+    protected static Flags create(long bits, Position position) {
+        if (position == Position.COMPILER_GENERATED) {
+            Flags f = interned.get(bits);
+            if (f != null) return f;
+        }
+        Flags f = new Flags();
+        f.bits = bits;
+        f.position = position;
+        if (position == Position.COMPILER_GENERATED) {
+            Flags old = interned.putIfAbsent(bits, f);
+            if (old != null) return old;
+        }
+        return f;
+    }
+
     /**
      * Effects: returns a new access flags object with no access flags set.
      */
     protected Flags() {
-        this.flags = new TreeSet<>(FlagComparator.instance);
+        this.bits = 0;
         position = Position.compilerGenerated();
     }
 
     protected Flags(String name) {
         this();
-        flags.add(name);
+        bits = bit(name);
     }
 
+    /**
+     * Return the names of the flags in this set, in the order in which they
+     * are printed.
+     */
     public Set<String> flags() {
-        return this.flags;
+        Set<String> s = new TreeSet<>(FlagComparator.instance);
+        synchronized (names) {
+            for (long b = bits; b != 0; b &= b - 1)
+                s.add(names.get(Long.numberOfTrailingZeros(b)));
+        }
+        return s;
     }
 
     public Position position() {
@@ -187,62 +263,43 @@ public class Flags implements Serializable, Copy<Flags> {
      * Create new flags with the flags in {@code other} also set.
      */
     public Flags set(Flags other) {
-        Flags f = new Flags();
-        f.flags.addAll(this.flags);
-        f.flags.addAll(other.flags);
-
         Position start = Position.first(position, other.position);
         Position end = Position.last(position, other.position);
 
         if (start == null || end == null) {
-            f.position = Position.compilerGenerated();
+            return create(bits | other.bits, Position.compilerGenerated());
         }
         else {
-            f.position = new Position(start, end);
+            return create(bits | other.bits, new Position(start, end));
         }
-
-        return f;
     }
 
     /**
      * Create new flags with the flags in {@code other} cleared.
      */
     public Flags clear(Flags other) {
-        Flags f = new Flags();
-        f.flags.addAll(this.flags);
-        f.flags.removeAll(other.flags);
-        f.position = Position.compilerGenerated();
-        return f;
+        return create(bits & ~other.bits, Position.compilerGenerated());
     }
 
     /**
      * Create new flags with only flags in {@code other} set.
      */
     public Flags retain(Flags other) {
-        Flags f = new Flags();
-        f.flags.addAll(this.flags);
-        f.flags.retainAll(other.flags);
-        f.position = Position.compilerGenerated();
-        return f;
+        return create(bits & other.bits, Position.compilerGenerated());
     }
 
     /**
      * Check if <i>any</i> flags in {@code other} are set.
      */
     public boolean intersects(Flags other) {
-        for (String name : this.flags) {
-            if (other.flags.contains(name)) {
-                return true;
-            }
-        }
-        return false;
+        return (bits & other.bits) != 0;
     }
 
     /**
      * Check if <i>all</i> flags in {@code other} are set.
      */
     public boolean contains(Flags other) {
-        return this.flags.containsAll(other.flags);
+        return (bits & other.bits) == other.bits;
     }
 
     /**
@@ -569,7 +626,7 @@ public class Flags implements Serializable, Copy<Flags> {
     public String translate() {
         StringBuffer sb = new StringBuffer();
 
-        for (String s : this.flags) {
+        for (String s : flags()) {
             sb.append(s);
             sb.append(" ");
         }
@@ -579,16 +636,16 @@ public class Flags implements Serializable, Copy<Flags> {
 
     @Override
     public int hashCode() {
-        return flags.hashCode();
+        return (int) (bits ^ bits >>> 32);
     }
 
     @Override
     public boolean equals(Object o) {
-        return o instanceof Flags && flags.equals(((Flags) o).flags);
+        return o instanceof Flags && bits == ((Flags) o).bits;
     }
 
     public boolean isEmpty() {
-        return flags.isEmpty();
+        return bits == 0;
     }
 
     public int toModifiers() {
@@ -609,4 +666,23 @@ public class Flags implements Serializable, Copy<Flags> {
         
         return modifiers;
     }
+
+    protected Object writeReplace() {
+        // Write the names rather than the bits, which depend on the order in
+        // which flags are created.
+        Flags f = copy();
+        f.flags = flags();
+        return f;
+    }
+
+    protected Object readResolve() {
+        long bits = 0;
+        if (flags != null) {
+            // Flags of extensions not loaded yet get a bit here, and are
+            // ordered when the extension creates them.
+            for (String name : flags)
+                bits |= bit(name);
+        }
+        return create(bits, position);
+    }
 }
@@ -26,9 +26,13 @@
 
 package polyglot.types;
 
+import java.io.File;
 import java.io.InvalidClassException;
+import java.net.URI;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 
@@ -37,6 +41,8 @@ import polyglot.main.Report;
 import polyglot.main.Version;
 import polyglot.types.reflect.ClassFile;
 import polyglot.types.reflect.ClassFileLoader;
+import polyglot.types.reflect.EncodedClassType;
+import polyglot.types.reflect.TypeArchive;
 import polyglot.util.CollectionUtil;
 import polyglot.util.InternalCompilerError;
 import polyglot.util.ObjectDumper;
@@ -45,7 +51,8 @@ import polyglot.util.TypeEncoder;
 
 /**
  * Loads class information from class files, or serialized class information
- * from within class files. It does not load from source files.
+ * from within class files or from the type archives of the directories they
+ * are found in. It does not load from source files.
  */
 public class LoadedClassResolver implements TopLevelResolver {
     protected final static int NOT_COMPATIBLE = -1;
@@ -62,8 +69,17 @@ public class LoadedClassResolver implements TopLevelResolver {
 
     protected final static Collection<String> report_topics =
             CollectionUtil.list(Report.types, Report.resolver, Report.loader);
+
+    private static final Report.Topic REPORT_TOPICS =
+            Report.topic(report_topics);
     protected ClassFileLoader loader;
 
+    /**
+     * The type archives of the directories class files have been loaded
+     * from, opened on first use; null for a directory without an archive.
+     */
+    protected Map<File, TypeArchive> archives = new HashMap<>();
+
     public LoadedClassResolver(ExtensionInfo extInfo, boolean allowRawClasses) {
         this.extInfo = extInfo;
         this.ts = extInfo.typeSystem();
@@ -90,31 +106,85 @@ public class LoadedClassResolver implements TopLevelResolver {
         return loader.loadFile(name);
     }
 
+    /**
+     * Return the serialized type information for class {@code name} from the
+     * type archive of the directory of the class path that {@code clazz}, the
+     * class file found for {@code name}, was loaded from, or null.  Only the
+     * archive next to the class file is used, so the order of the class path
+     * decides between archives as it does between class files, and the entry
+     * of a class whose class file has been removed is ignored.
+     */
+    protected EncodedClassType archivedType(String name, ClassFile clazz) {
+        File dir = classPathDirectory(clazz);
+        if (dir == null) return null;
+        TypeArchive a;
+        if (archives.containsKey(dir)) {
+            a = archives.get(dir);
+        }
+        else {
+            a = TypeArchive.open(dir, version.name());
+            archives.put(dir, a);
+        }
+        if (a == null) return null;
+
+        EncodedClassType t = a.find(name);
+        if (t != null && Report.should_report(REPORT_TOPICS, 4))
+            Report.report(4, "Class " + name + " found in " + a);
+        return t;
+    }
+
+    /**
+     * Return the directory of the class path that {@code clazz} was loaded
+     * from, or null if it was not loaded from a directory.
+     */
+    protected File classPathDirectory(ClassFile clazz) {
+        URI uri = clazz.getClassFileURI();
+        if (uri == null || !"file".equals(uri.getScheme())) return null;
+        File dir;
+        try {
+            dir = new File(uri).getParentFile();
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+        // Go up one directory for each package of the class name.
+        String n = clazz.name();
+        for (int i = n.indexOf('/'); i >= 0 && dir != null; i =
+                n.indexOf('/', i + 1))
+            dir = dir.getParentFile();
+        return dir;
+    }
+
     /**
      * Find a type by name.
      */
     @Override
     public Named find(String name) throws SemanticException {
-        if (Report.should_report(report_topics, 3))
+        if (Report.should_report(REPORT_TOPICS, 3))
             Report.report(3, "LoadedCR.find(" + name + ")");
 
         Named result = null;
 
-        // First try the class file.
+        // The type information is in the class file or in the type archive
+        // of its directory.
         ClassFile clazz = loadFile(name);
         if (clazz == null) {
             throw new NoClassException(name);
         }
+        EncodedClassType encoded = EncodedClassType.of(clazz, version.name());
+        if (encoded == null) {
+            encoded = archivedType(name, clazz);
+        }
 
         // Check for encoded type information.
-        if (clazz.encodedClassType(version.name()) != null) {
-            if (Report.should_report(report_topics, 4))
+        if (encoded != null) {
+            if (Report.should_report(REPORT_TOPICS, 4))
                 Report.report(4, "Using encoded class type for " + name);
-            result = getEncodedType(clazz, name);
+            result = getEncodedType(encoded, name);
         }
 
-        if (allowRawClasses) {
-            if (Report.should_report(report_topics, 4))
+        if (allowRawClasses && clazz != null) {
+            if (Report.should_report(REPORT_TOPICS, 4))
                 Report.report(4, "Using raw class file for " + name);
             result = ts.classFileLazyClassInitializer(clazz).type();
         }
@@ -149,16 +219,24 @@ public class LoadedClassResolver implements TopLevelResolver {
      */
     protected ClassType getEncodedType(ClassFile clazz, String name)
             throws SemanticException {
+        return getEncodedType(EncodedClassType.of(clazz, version.name()), name);
+    }
+
+    /**
+     * Extract an encoded type from its serialized type information.
+     */
+    protected ClassType getEncodedType(EncodedClassType clazz, String name)
+            throws SemanticException {
         // At this point we've decided to go with the Class. So if something
         // goes wrong here, we have only one choice, to throw an exception.
 
         // Check to see if it has serialized info. If so then check the
         // version.
-        int comp = checkCompilerVersion(clazz.compilerVersion(version.name()));
+        int comp = checkCompilerVersion(clazz.compilerVersion);
 
         if (comp == NOT_COMPATIBLE) {
             throw new SemanticException("Unable to find a suitable definition of "
-                    + clazz.name()
+                    + clazz.name
                     + ". Try recompiling or obtaining "
                     + " a newer version of the class file.");
         }
@@ -185,7 +263,7 @@ public class LoadedClassResolver implements TopLevelResolver {
             if (Report.should_report(Report.serialize, 1))
                 Report.report(1, "Decoding " + name + " in " + clazz);
 
-            dt = te.decode(clazz.encodedClassType(version.name()), name);
+            dt = te.decode(clazz.encodedClassType, name);
 
             if (dt == null) {
                 if (Report.should_report(Report.serialize, 1))
@@ -295,9 +373,9 @@ public class LoadedClassResolver implements TopLevelResolver {
                     }
                 }
 
-                if (Report.should_report(report_topics, 2))
+                if (Report.should_report(REPORT_TOPICS, 2))
                     Report.report(2, "Returning serialized ClassType for "
-                            + clazz.name() + ".");
+                            + clazz.name + ".");
 
                 okay = true;
                 return ct;
@@ -305,18 +383,17 @@ public class LoadedClassResolver implements TopLevelResolver {
             else {
                 if (Report.should_report(Report.serialize, 2))
                     Report.report(2, "Failing to deserialize: Class " + name
-                            + " not found in " + clazz.name() + ".");
+                            + " not found in " + clazz.name + ".");
                 throw new SemanticException("Class " + name + " not found in "
-                        + clazz.name() + ".");
+                        + clazz.name + ".");
             }
         }
         catch (InvalidClassException e) {
             if (Report.should_report(Report.serialize, 2))
                 Report.report(2, "Failing to deserialize: Bad serialization: "
-                        + clazz.name() + "@" + clazz.getClassFileURI());
+                        + clazz);
 
-            throw new BadSerializationException(clazz.name() + "@"
-                    + clazz.getClassFileURI());
+            throw new BadSerializationException(clazz.toString());
         }
         catch (UnavailableTypeException e) {
             throw e;
@@ -50,6 +50,9 @@ public class MemberClassResolver implements TopLevelResolver {
                                 Report.loader,
                                 "mcr");
 
+    private static final Report.Topic REPORT_TOPICS =
+            Report.topic(report_topics);
+
     /**
      * Create a member class resolver.
      * @param ts The type system
@@ -73,7 +76,7 @@ public class MemberClassResolver implements TopLevelResolver {
      */
     @Override
     public Named find(String name) throws SemanticException {
-        if (Report.should_report(report_topics, 3))
+        if (Report.should_report(REPORT_TOPICS, 3))
             Report.report(3, "MemberCR.find(" + name + ")");
 
         if (nocache.contains(name)) {
@@ -90,12 +93,12 @@ public class MemberClassResolver implements TopLevelResolver {
 
         // First, just try the long name.
         try {
-            if (Report.should_report(report_topics, 2))
+            if (Report.should_report(REPORT_TOPICS, 2))
                 Report.report(2, "MCR: loading " + name + " from " + inner);
             return inner.find(name);
         }
         catch (SemanticException e) {
-            if (Report.should_report(report_topics, 2))
+            if (Report.should_report(REPORT_TOPICS, 2))
                 Report.report(2, "MCR: " + e.getMessage());
             if (StringUtil.isNameShort(name)) {
                 throw e;
@@ -114,7 +117,7 @@ public class MemberClassResolver implements TopLevelResolver {
         // so that encoded type information and source files are preferred
         // to the raw class file.
         try {
-            if (Report.should_report(report_topics, 2))
+            if (Report.should_report(REPORT_TOPICS, 2))
                 Report.report(2, "MCR: loading prefix " + prefix);
 
             n = find(prefix);
@@ -140,7 +143,7 @@ public class MemberClassResolver implements TopLevelResolver {
         if (container instanceof ClassType) {
             ClassType ct = (ClassType) container;
 
-            if (Report.should_report(report_topics, 2))
+            if (Report.should_report(REPORT_TOPICS, 2))
                 Report.report(2, "MCR: found prefix " + ct);
 
             // Uncomment if we should search superclasses
@@ -148,7 +151,7 @@ public class MemberClassResolver implements TopLevelResolver {
             Named n = ct.memberClassNamed(name);
 
             if (n != null) {
-                if (Report.should_report(report_topics, 2))
+                if (Report.should_report(REPORT_TOPICS, 2))
                     Report.report(2, "MCR: found member of " + ct + ": " + n);
                 return n;
             }
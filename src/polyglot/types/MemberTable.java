@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.types;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@code MemberTable} indexes a list of members of a class by name, so that
+ * looking up a name does not scan the whole list.  A table is a snapshot of
+ * the list: {@link #update} returns a new table if the list has been replaced
+ * or its size has changed since the table was built.  This keeps the table
+ * consistent with members added one at a time, with lists filled in by lazy
+ * initializers, and with lists set anew; members must not be replaced in
+ * place.  Short lists are scanned rather than indexed.
+ */
+public final class MemberTable<T> {
+    /** Lists shorter than this are scanned rather than indexed. */
+    public static final int MIN_INDEXED = 8;
+
+    /** How to find the name of a member. */
+    public interface Namer<T> {
+        String name(T member);
+    }
+
+    public static final Namer<MethodInstance> METHODS =
+            new Namer<MethodInstance>() {
+                @Override
+                public String name(MethodInstance mi) {
+                    return mi.name();
+                }
+            };
+
+    public static final Namer<FieldInstance> FIELDS =
+            new Namer<FieldInstance>() {
+                @Override
+                public String name(FieldInstance fi) {
+                    return fi.name();
+                }
+            };
+
+    public static final Namer<ClassType> CLASSES = new Namer<ClassType>() {
+        @Override
+        public String name(ClassType ct) {
+            return ct.name();
+        }
+    };
+
+    /**
+     * Return {@code table} if it is a table of {@code members} as they are
+     * now, or a new table of {@code members} otherwise.
+     */
+    public static <T> MemberTable<T> update(MemberTable<T> table,
+            List<? extends T> members, Namer<? super T> namer) {
+        if (table != null && table.members == members
+                && table.size == members.size()) return table;
+        return new MemberTable<>(members, namer);
+    }
+
+    private final List<? extends T> members;
+    private final int size;
+    private final Namer<? super T> namer;
+
+    /** The members with each name, or null if the list is scanned. */
+    private final Map<String, List<T>> byName;
+
+    private MemberTable(List<? extends T> members, Namer<? super T> namer) {
+        this.members = members;
+        this.size = members.size();
+        this.namer = namer;
+        this.byName = size < MIN_INDEXED ? null : index(members, namer);
+    }
+
+    private static <T> Map<String, List<T>> index(List<? extends T> members,
+            Namer<? super T> namer) {
+        Map<String, List<T>> byName = new HashMap<>();
+        for (T m : members) {
+            String name = namer.name(m);
+            List<T> l = byName.get(name);
+            if (l == null)
+                byName.put(name, Collections.singletonList(m));
+            else {
+                if (l.size() == 1) {
+                    l = new ArrayList<>(l);
+                    byName.put(name, l);
+                }
+                l.add(m);
+            }
+        }
+        for (Map.Entry<String, List<T>> e : byName.entrySet()) {
+            if (e.getValue().size() > 1)
+                e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        return byName;
+    }
+
+    /** Return an immutable list of the members named {@code name}, in order. */
+    public List<T> named(String name) {
+        if (byName != null) {
+            List<T> l = byName.get(name);
+            return l == null ? Collections.<T> emptyList() : l;
+        }
+        List<T> l = null;
+        for (T m : members) {
+            if (name.equals(namer.name(m))) {
+                if (l == null) l = new ArrayList<>(2);
+                l.add(m);
+            }
+        }
+        return l == null
+                ? Collections.<T> emptyList() : Collections.unmodifiableList(l);
+    }
+
+    /** Return the first member named {@code name}, or null if there is none. */
+    public T first(String name) {
+        if (byName != null) {
+            List<T> l = byName.get(name);
+            return l == null ? null : l.get(0);
+        }
+        for (T m : members) {
+            if (name.equals(namer.name(m))) return m;
+        }
+        return null;
+    }
+}
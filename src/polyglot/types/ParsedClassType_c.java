@@ -69,6 +69,11 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
 
     protected transient List<ClassType> memberClasses;
 
+    /** The members of this class indexed by name, built when first needed. */
+    protected transient MemberTable<MethodInstance> methodTable;
+    protected transient MemberTable<FieldInstance> fieldTable;
+    protected transient MemberTable<ClassType> memberClassTable;
+
     public LazyClassInitializer init() {
         return init;
     }
@@ -185,11 +190,13 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     @Override
     public void setFlags(Flags flags) {
         this.flags = flags;
+        ts.typeRelationsChanged(this);
     }
 
     @Override
     public void flags(Flags flags) {
         this.flags = flags;
+        ts.typeRelationsChanged(this);
     }
 
     @Override
@@ -234,11 +241,13 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     @Override
     public void superType(Type t) {
         this.superType = t;
+        ts.typeRelationsChanged(this);
     }
 
     @Override
     public void addInterface(ReferenceType t) {
         interfaces.add(t);
+        ts.typeRelationsChanged(this);
     }
 
     @Override
@@ -264,6 +273,7 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
     @Override
     public void setInterfaces(List<? extends ReferenceType> l) {
         this.interfaces = new ArrayList<>(l);
+        ts.typeRelationsChanged(this);
     }
 
     @Override
@@ -281,6 +291,40 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
         this.constructors = new ArrayList<>(l);
     }
 
+    /** Index of the group of methods in {@link #encodedMemberGroups()}. */
+    public static final int METHOD_GROUP = 0;
+
+    /** Index of the group of fields in {@link #encodedMemberGroups()}. */
+    public static final int FIELD_GROUP = 1;
+
+    /** Index of the group of constructors in {@link #encodedMemberGroups()}. */
+    public static final int CONSTRUCTOR_GROUP = 2;
+
+    /**
+     * Return the lists of members of this class, without initializing them,
+     * in groups.  The type encoder stores each group apart from the rest of
+     * the class and from the other groups, so that a decoded class reads each
+     * group only when it is first needed.  The methods, fields and
+     * constructors are the groups {@link #METHOD_GROUP}, {@link #FIELD_GROUP}
+     * and {@link #CONSTRUCTOR_GROUP}.  A subclass that keeps other lists of
+     * members should add each to the group whose lists share elements with
+     * it, or else as a new group.
+     */
+    public List<List<List<? extends TypeObject>>> encodedMemberGroups() {
+        List<List<List<? extends TypeObject>>> l = new ArrayList<>(3);
+        l.add(group(methods));
+        l.add(group(fields));
+        l.add(group(constructors));
+        return l;
+    }
+
+    private static List<List<? extends TypeObject>> group(
+            List<? extends TypeObject> members) {
+        List<List<? extends TypeObject>> l = new ArrayList<>(2);
+        l.add(members);
+        return l;
+    }
+
     @Override
     public void setMemberClasses(List<? extends ClassType> l) {
         this.memberClasses = new ArrayList<>(l);
@@ -310,6 +354,16 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
         return Collections.unmodifiableList(memberClasses);
     }
 
+    @Override
+    public ClassType memberClassNamed(String name) {
+        init.initMemberClasses();
+        memberClassTable =
+                MemberTable.update(memberClassTable,
+                                   memberClasses,
+                                   MemberTable.CLASSES);
+        return memberClassTable.first(name);
+    }
+
     /** Return an immutable list of methods. */
     @Override
     public List<? extends MethodInstance> methods() {
@@ -326,15 +380,14 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
         // returned is canonical.
         init.initMethods();
 
-        List<MethodInstance> l = new LinkedList<>();
+        methodTable =
+                MemberTable.update(methodTable, methods, MemberTable.METHODS);
+        List<MethodInstance> l = methodTable.named(name);
 
-        for (MethodInstance mi : methods) {
-            if (mi.name().equals(name)) {
-                if (!mi.isCanonical()) {
-                    // Force an exception to get thrown.
-                    init.canonicalMethods();
-                }
-                l.add(mi);
+        for (MethodInstance mi : l) {
+            if (!mi.isCanonical()) {
+                // Force an exception to get thrown.
+                init.canonicalMethods();
             }
         }
 
@@ -359,17 +412,15 @@ public class ParsedClassType_c extends ClassType_c implements ParsedClassType {
         // in Jx or Jif.
         init.initFields();
 
-        for (FieldInstance fi : fields) {
-            if (fi.name().equals(name)) {
-                if (!fi.isCanonical()) {
-                    // Force an exception to get thrown.
-                    init.canonicalFields();
-                }
-                return fi;
-            }
+        fieldTable = MemberTable.update(fieldTable, fields, MemberTable.FIELDS);
+        FieldInstance fi = fieldTable.first(name);
+
+        if (fi != null && !fi.isCanonical()) {
+            // Force an exception to get thrown.
+            init.canonicalFields();
         }
 
-        return null;
+        return fi;
     }
 
     /** Return an immutable list of interfaces */
@@ -27,6 +27,7 @@
 package polyglot.types;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -138,15 +139,16 @@ public abstract class ReferenceType_c extends Type_c implements ReferenceType {
 
     @Override
     public List<? extends MethodInstance> methodsNamed(String name) {
-        List<MethodInstance> l = new LinkedList<>();
+        List<MethodInstance> l = null;
 
         for (MethodInstance mi : methods()) {
             if (mi.name().equals(name)) {
+                if (l == null) l = new ArrayList<>(2);
                 l.add(mi);
             }
         }
 
-        return l;
+        return l == null ? Collections.<MethodInstance> emptyList() : l;
     }
 
     @Override
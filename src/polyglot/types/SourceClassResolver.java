@@ -37,10 +37,12 @@ import polyglot.frontend.Scheduler;
 import polyglot.frontend.goals.Goal;
 import polyglot.main.Report;
 import polyglot.types.reflect.ClassFile;
+import polyglot.types.reflect.EncodedClassType;
 
 /**
  * Loads class information from source files, class files, or serialized class
- * information from within class files. An outline of the steps is given below.
+ * information from type archives or from within class files. An outline of the
+ * steps is given below.
  *
  * <ol>
  * <li>When the polyglot translator looks for a class by the name "foo.bar.Quux"
@@ -55,7 +57,11 @@ import polyglot.types.reflect.ClassFile;
  *
  * <li>Regardless of whether or not a source file is found, the translator
  * searches the classpath (defined as normal through the environment and
- * command-line options to the interpreter) for the desired class.
+ * command-line options to the interpreter) for the desired class. If its class
+ * file has no jlc class type information, the type archive in the directory of
+ * the classpath where the class file was found is searched for the class; a
+ * class found there is treated below as a class with jlc class type
+ * information.
  *
  * <li>If no source file exists, and no class is found then an error is reported
  * (skipping the rest of the steps below).
@@ -152,28 +158,32 @@ public class SourceClassResolver extends LoadedClassResolver {
             Report.report(3, "SourceCR.find(" + name + ")");
 
         ClassFile clazz = null;
-        ClassFile encodedClazz = null;
+        EncodedClassType encodedClazz = null;
         FileSource source = null;
 
-        // First try the class file.
         clazz = loadFile(name);
         if (clazz != null) {
             // Check for encoded type information.
-            if (clazz.encodedClassType(version.name()) != null) {
+            encodedClazz = EncodedClassType.of(clazz, version.name());
+            if (encodedClazz != null) {
                 if (Report.should_report(report_topics, 4))
                     Report.report(4,
                                   "Class " + name + " has encoded type info");
-                encodedClazz = clazz;
             }
             if (encodedClazz != null
-                    && !name.replace(".", "/").equals(encodedClazz.name())) {
+                    && !name.replace(".", "/").equals(encodedClazz.name)) {
                 if (Report.should_report(report_topics, 3))
                     Report.report(3,
-                                  "Not using " + encodedClazz.name()
+                                  "Not using " + encodedClazz.name
                                           + "(case-insensitive filesystem?)");
                 encodedClazz = null;
                 clazz = null;
             }
+            else if (encodedClazz == null) {
+                // Look for the type information in the type archive of the
+                // directory of the class file.
+                encodedClazz = archivedType(name, clazz);
+            }
         }
 
         // Now, try and find the source file.
@@ -214,11 +224,11 @@ public class SourceClassResolver extends LoadedClassResolver {
         // to
         // use based on compiler compatibility and modification times.
         if (encodedClazz != null && source != null) {
-            long classModTime = encodedClazz.sourceLastModified(version.name());
+            long classModTime = encodedClazz.sourceLastModified;
             long sourceModTime = source.getLastModified();
 
             int comp =
-                    checkCompilerVersion(encodedClazz.compilerVersion(version.name()));
+                    checkCompilerVersion(encodedClazz.compilerVersion);
             if (!ignoreModTimes && classModTime < sourceModTime) {
                 if (Report.should_report(report_topics,
                                          3))
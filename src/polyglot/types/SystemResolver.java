@@ -33,7 +33,7 @@ import java.util.Map;
 
 import polyglot.frontend.ExtensionInfo;
 import polyglot.main.Report;
-import polyglot.util.CollectionUtil;
+import polyglot.util.NestedMap;
 import polyglot.util.Pair;
 import polyglot.util.StringUtil;
 import polyglot.util.Transformation;
@@ -65,10 +65,20 @@ public class SystemResolver extends CachingResolver implements TopLevelResolver
         return previous;
     }
 
+    /**
+     * Return a resolver to use in place of this one while decoding a type.
+     * The new resolver records only the names and packages resolved through
+     * it, over the caches of this resolver, so that it can be made and
+     * discarded in constant time, and {@link #putAll} installs just the new
+     * names here.  The caches of this resolver are not copied: names and
+     * packages cached here while the new resolver is in use, for instance
+     * by {@link #installInAll}, are seen by the new resolver too, unless it
+     * has cached a result of its own for them.
+     */
     @Override
     public SystemResolver copy() {
-        SystemResolver r = (SystemResolver) super.copy();
-        r.packageCache = new HashMap<>(this.packageCache);
+        SystemResolver r = (SystemResolver) super.layeredCopy();
+        r.packageCache = new NestedMap<>(this.packageCache);
         r.previous = this;
         r.justAdded = new LinkedList<>();
         return r;
@@ -317,6 +327,6 @@ public class SystemResolver extends CachingResolver implements TopLevelResolver
         }
     }
 
-    private static final Collection<String> TOPICS =
-            CollectionUtil.list(Report.types, Report.resolver, "sysresolver");
+    private static final Report.Topic TOPICS =
+            Report.topic(Report.types, Report.resolver, "sysresolver");
 }
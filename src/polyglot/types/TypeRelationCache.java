@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.types;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import polyglot.frontend.Stats;
+
+/**
+ * A {@code TypeRelationCache} memoizes the subtype, descent and cast
+ * relations of a type system on pairs of types.  Only types that are their
+ * own canonical representation are cached: primitive types, the null type,
+ * parsed class types, and arrays of these.
+ *
+ * <p>A relation on two class types depends on their flags and on their
+ * supertypes, which the type system consults through the relations on the
+ * supertypes.  While a relation is computed, the cache records that the
+ * types of the relation depend on the types of every relation consulted in
+ * the computation.  When the flags or supertypes of a class type change,
+ * {@link #invalidate(Type)} discards only the relations on that type and on
+ * the types that depend on it.
+ *
+ * <p>A computation must be bracketed by {@link #enter} and {@link #exit}
+ * for the dependencies to be recorded.
+ */
+public class TypeRelationCache implements Stats.Counters {
+    public static final int SUBTYPE = 0;
+    public static final int DESCENDS_FROM = 1;
+    public static final int IMPLICIT_CAST = 2;
+    public static final int CAST = 3;
+
+    protected static final String[] NAMES =
+            { "isSubtype", "descendsFrom", "isImplicitCastValid", "isCastValid" };
+
+    protected Map<Key, Boolean> results = new HashMap<>();
+
+    /** The cached relations on each type, by the base of either operand. */
+    protected Map<Type, Set<Key>> keys = new IdentityHashMap<>();
+
+    /**
+     * For each type, the types whose relations were computed from relations
+     * on it.
+     */
+    protected Map<Type, Set<Type>> dependents = new IdentityHashMap<>();
+
+    /**
+     * The types of the relations being computed by each thread, innermost
+     * last.  An entry is null for a relation that is not cached.
+     */
+    protected final ThreadLocal<List<Type[]>> computing =
+            new ThreadLocal<List<Type[]>>() {
+                @Override
+                protected List<Type[]> initialValue() {
+                    return new ArrayList<>();
+                }
+            };
+
+    /** Incremented whenever cached relations are discarded. */
+    protected int generation;
+
+    protected final long[] hits = new long[NAMES.length];
+    protected final long[] misses = new long[NAMES.length];
+    protected long invalidations;
+
+    protected static class Key {
+        protected final int relation;
+        protected final Type t1;
+        protected final Type t2;
+
+        protected Key(int relation, Type t1, Type t2) {
+            this.relation = relation;
+            this.t1 = t1;
+            this.t2 = t2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(t1) * 31 + System.identityHashCode(t2))
+                    * 31 + relation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key k = (Key) o;
+                return relation == k.relation && t1 == k.t1 && t2 == k.t2;
+            }
+            return false;
+        }
+    }
+
+    /** The element type of {@code t} if it is an array, or {@code t}. */
+    protected static Type base(Type t) {
+        while (t.isArray())
+            t = t.toArray().base();
+        return t;
+    }
+
+    /** Whether relations on {@code t} may be cached. */
+    protected boolean cacheable(Type t) {
+        t = base(t);
+        return t instanceof ParsedClassType || t.isPrimitive() || t.isNull();
+    }
+
+    /**
+     * Return the cached result of {@code relation} on {@code t1} and
+     * {@code t2}, or null if it is not cached.  The relation being computed
+     * by the calling thread, if any, is recorded to depend on the relations
+     * on {@code t1} and {@code t2}, or on the declarations of those that are
+     * not cached.
+     */
+    public synchronized Boolean get(int relation, Type t1, Type t2) {
+        List<Type[]> stack = computing.get();
+        Type[] outer = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+        if (!cacheable(t1) || !cacheable(t2)) {
+            // The relation reads the supertypes and flags of the
+            // declarations of its operands, such as the generic class of
+            // an instantiation, directly rather than through relations on
+            // them.
+            if (outer != null) {
+                addDependents(declaration(t1), outer);
+                addDependents(declaration(t2), outer);
+            }
+            return null;
+        }
+        if (outer != null) {
+            addDependents(base(t1), outer);
+            addDependents(base(t2), outer);
+        }
+        Boolean b = results.get(new Key(relation, t1, t2));
+        if (b != null)
+            hits[relation]++;
+        else misses[relation]++;
+        return b;
+    }
+
+    /**
+     * The parsed class type declaring the element type of {@code t}, or
+     * null if there is none.
+     */
+    protected Type declaration(Type t) {
+        t = base(t);
+        if (!(t instanceof ClassType)) return null;
+        Declaration d = ((ClassType) t).declaration();
+        return d instanceof ParsedClassType ? (Type) d : null;
+    }
+
+    protected void addDependents(Type t, Type[] outer) {
+        if (!(t instanceof ParsedClassType)) return;
+        for (Type o : outer) {
+            if (o == t || !(o instanceof ParsedClassType)) continue;
+            Set<Type> s = dependents.get(t);
+            if (s == null) {
+                s = Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+                dependents.put(t, s);
+            }
+            s.add(o);
+        }
+    }
+
+    /**
+     * Begin computing a relation on {@code t1} and {@code t2} that was not
+     * found in the cache.  The computation must be followed by a call to
+     * {@link #exit()}, even if it completes abruptly.
+     *
+     * @return the generation of the cache, to be passed to {@link #put}.
+     */
+    public synchronized int enter(Type t1, Type t2) {
+        List<Type[]> stack = computing.get();
+        if (cacheable(t1) && cacheable(t2)) {
+            stack.add(new Type[] { base(t1), base(t2) });
+        }
+        else {
+            // Relations consulted in the computation are dependencies of
+            // the enclosing relation.
+            stack.add(stack.isEmpty() ? null : stack.get(stack.size() - 1));
+        }
+        return generation;
+    }
+
+    /** End the computation begun by the last call to {@link #enter}. */
+    public void exit() {
+        List<Type[]> stack = computing.get();
+        stack.remove(stack.size() - 1);
+    }
+
+    /** The current generation of the cache; see {@link #put}. */
+    public synchronized int generation() {
+        return generation;
+    }
+
+    /**
+     * Cache the result of {@code relation} on {@code t1} and {@code t2},
+     * computed when the cache was at generation {@code generation}.  The
+     * result is dropped if relations were discarded in the meantime.
+     */
+    public synchronized void put(int relation, Type t1, Type t2,
+            boolean result, int generation) {
+        if (generation != this.generation) return;
+        if (!cacheable(t1) || !cacheable(t2)) return;
+        Key k = new Key(relation, t1, t2);
+        if (results.put(k, Boolean.valueOf(result)) == null) {
+            index(base(t1), k);
+            if (base(t2) != base(t1)) index(base(t2), k);
+        }
+    }
+
+    protected void index(Type t, Key k) {
+        Set<Key> s = keys.get(t);
+        if (s == null) {
+            s = new HashSet<>();
+            keys.put(t, s);
+        }
+        s.add(k);
+    }
+
+    /**
+     * Discard the cached relations on {@code t} and on the types whose
+     * relations were computed from them, after the flags or supertypes of
+     * {@code t} changed.
+     */
+    public synchronized void invalidate(Type t) {
+        t = base(t);
+        if (!keys.containsKey(t) && !dependents.containsKey(t)) return;
+        List<Type> worklist = new LinkedList<>();
+        Set<Type> seen =
+                Collections.newSetFromMap(new IdentityHashMap<Type, Boolean>());
+        worklist.add(t);
+        seen.add(t);
+        while (!worklist.isEmpty()) {
+            Type u = worklist.remove(0);
+            Set<Key> ks = keys.remove(u);
+            if (ks != null) {
+                for (Key k : ks) {
+                    results.remove(k);
+                    Type other = base(k.t1) == u ? base(k.t2) : base(k.t1);
+                    Set<Key> os = keys.get(other);
+                    if (os != null) os.remove(k);
+                }
+            }
+            Set<Type> s = dependents.remove(u);
+            if (s != null) {
+                for (Type d : s)
+                    if (seen.add(d)) worklist.add(d);
+            }
+        }
+        // A relation being computed may have consulted the discarded ones.
+        generation++;
+        invalidations++;
+    }
+
+    /** Discard all cached relations. */
+    public synchronized void invalidate() {
+        generation++;
+        if (!results.isEmpty()) {
+            results = new HashMap<>();
+            invalidations++;
+        }
+        keys = new IdentityHashMap<>();
+        dependents = new IdentityHashMap<>();
+    }
+
+    @Override
+    public synchronized void accumCounts(Stats stats) {
+        for (int i = 0; i < NAMES.length; i++) {
+            stats.accumCount(NAMES[i] + " cache hits", hits[i]);
+            stats.accumCount(NAMES[i] + " cache misses", misses[i]);
+            hits[i] = 0;
+            misses[i] = 0;
+        }
+        stats.accumCount("type relation cache invalidations", invalidations);
+        invalidations = 0;
+    }
+}
@@ -80,6 +80,21 @@ public interface TypeSystem {
     /** Set the system resolver to {@code r}. */
     void restoreSystemResolver(SystemResolver r);
 
+    /**
+     * Notify the type system that the supertypes or flags of class types
+     * have changed, so that all relations between types it has memoized must
+     * be recomputed.
+     */
+    void typeRelationsChanged();
+
+    /**
+     * Notify the type system that the supertypes or flags of {@code t} have
+     * changed, so that the relations it has memoized on {@code t}, and on
+     * the types whose relations depend on those of {@code t}, must be
+     * recomputed.
+     */
+    void typeRelationsChanged(Type t);
+
     /**
      * Return the type system's loaded resolver.
      * This resolver contains types loaded from class files.
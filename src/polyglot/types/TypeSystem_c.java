@@ -26,7 +26,10 @@
 
 package polyglot.types;
 
+import java.io.File;
 import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -47,6 +50,7 @@ import polyglot.types.reflect.ClassFile;
 import polyglot.types.reflect.ClassFileLazyClassInitializer;
 import polyglot.util.Copy;
 import polyglot.util.InternalCompilerError;
+import polyglot.util.Pair;
 import polyglot.util.Position;
 import polyglot.util.StringUtil;
 import polyglot.util.SubtypeSet;
@@ -64,9 +68,30 @@ public class TypeSystem_c implements TypeSystem {
     protected Map<String, Flags> flagsForName;
     protected ExtensionInfo extInfo;
 
+    /**
+     * The archives on the boot class path when this type system was last
+     * initialized, with their lengths and modification times.
+     */
+    protected Map<File, Pair<Long, Long>> bootArchives = Collections.emptyMap();
+
+    /** Memoized relations between types; see {@link #relationCache()}. */
+    private TypeRelationCache relationCache;
+
     public TypeSystem_c() {
     }
 
+    protected TypeRelationCache createTypeRelationCache() {
+        return new TypeRelationCache();
+    }
+
+    /** Return the cache of relations between types, creating it if needed. */
+    protected TypeRelationCache relationCache() {
+        if (relationCache == null) {
+            relationCache = createTypeRelationCache();
+        }
+        return relationCache;
+    }
+
     @Override
     public void initialize(TopLevelResolver loadedResolver,
             ExtensionInfo extInfo) throws SemanticException {
@@ -85,13 +110,94 @@ public class TypeSystem_c implements TypeSystem {
         // fully qualified names to instances of Named. A pass over a
         // compilation unit looks up classes first in its
         // import table and then in the system resolver.
+        SystemResolver previous = systemResolver;
         systemResolver = new SystemResolver(loadedResolver, extInfo);
 
+        // The type system may be initialized again for another compilation,
+        // by a compiler that keeps running between compilations.
+        Map<File, Pair<Long, Long>> archives = bootArchives();
+        if (previous != null) {
+            discardCaches();
+            if (archives.equals(bootArchives)) retainTypes(previous);
+        }
+        bootArchives = archives;
+
+        extInfo.getStats().addCounters(relationCache());
+
         initEnums();
         initFlags();
         initTypes();
     }
 
+    /**
+     * Return the archives on the boot class path, with their lengths and
+     * modification times.
+     */
+    protected Map<File, Pair<Long, Long>> bootArchives() {
+        Map<File, Pair<Long, Long>> m = new HashMap<>();
+        for (File f : extInfo.getOptions().bootclasspathDirectories()) {
+            if (f.isFile()) {
+                f = f.getAbsoluteFile();
+                m.put(f, new Pair<>(f.length(), f.lastModified()));
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Discard the types and relations cached by this type system, before it
+     * is initialized again for another compilation.
+     */
+    protected void discardCaches() {
+        relationCache().invalidate();
+        arrayTypeCache.clear();
+        OBJECT_ = null;
+        CLASS_ = null;
+        STRING_ = null;
+        THROWABLE_ = null;
+    }
+
+    /**
+     * Install in the system resolver the types of {@code previous}, the
+     * system resolver of the last compilation, that the next compilation
+     * can share.  The boot class path is the same as for the last
+     * compilation, and its archives have not changed since.
+     */
+    protected void retainTypes(SystemResolver previous) {
+        for (Map.Entry<String, Named> e : previous.cachedNamed().entrySet()) {
+            if (retainType(e.getValue())) {
+                systemResolver.install(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Can the type {@code n} of the last compilation be shared with the
+     * next?  This implementation shares the class types loaded from class
+     * files in archives on the boot class path, which refer only to each
+     * other.  Other types, such as those of source files and of class files
+     * in directories, may have changed since, and are loaded again.
+     */
+    protected boolean retainType(Named n) {
+        if (!(n instanceof ParsedClassType)) return false;
+        LazyInitializer init = ((ParsedClassType) n).initializer();
+        if (!(init instanceof ClassFileLazyClassInitializer)) return false;
+        URI uri =
+                ((ClassFileLazyClassInitializer) init).classFile()
+                                                      .getClassFileURI();
+        if (!"jar".equals(uri.getScheme())) return false;
+        String s = uri.getRawSchemeSpecificPart();
+        int bang = s.indexOf("!/");
+        if (bang < 0) return false;
+        try {
+            File archive = new File(new URI(s.substring(0, bang)));
+            return bootArchives.containsKey(archive.getAbsoluteFile());
+        }
+        catch (URISyntaxException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     protected void initEnums() {
         // Ensure the enums in the type system are initialized and interned
         // before any deserialization occurs.
@@ -158,7 +264,22 @@ public class TypeSystem_c implements TypeSystem {
         if (r != systemResolver.previous()) {
             throw new InternalCompilerError("Inconsistent systemResolver.previous");
         }
+        SystemResolver discarded = systemResolver;
         systemResolver = r;
+        // Forget the relations on the types discarded with the resolver.
+        for (Named n : discarded.justAdded()) {
+            if (n instanceof Type) relationCache().invalidate((Type) n);
+        }
+    }
+
+    @Override
+    public void typeRelationsChanged() {
+        relationCache().invalidate();
+    }
+
+    @Override
+    public void typeRelationsChanged(Type t) {
+        relationCache().invalidate(t);
     }
 
     @Deprecated
@@ -385,6 +506,32 @@ public class TypeSystem_c implements TypeSystem {
     public boolean descendsFrom(Type child, Type ancestor) {
         assert_(child);
         assert_(ancestor);
+        Boolean b =
+                relationCache().get(TypeRelationCache.DESCENDS_FROM,
+                                  child,
+                                  ancestor);
+        if (b != null) return b.booleanValue();
+        int generation = relationCache().enter(child, ancestor);
+        boolean result;
+        try {
+            result = computeDescendsFrom(child, ancestor);
+        }
+        finally {
+            relationCache().exit();
+        }
+        relationCache().put(TypeRelationCache.DESCENDS_FROM,
+                          child,
+                          ancestor,
+                          result,
+                          generation);
+        return result;
+    }
+
+    /**
+     * Returns true if {@code child} descends from {@code ancestor},
+     * without consulting the relation cache.
+     */
+    protected boolean computeDescendsFrom(Type child, Type ancestor) {
         return child.descendsFromImpl(ancestor);
     }
 
@@ -392,6 +539,29 @@ public class TypeSystem_c implements TypeSystem {
     public boolean isCastValid(Type fromType, Type toType) {
         assert_(fromType);
         assert_(toType);
+        Boolean b = relationCache().get(TypeRelationCache.CAST, fromType, toType);
+        if (b != null) return b.booleanValue();
+        int generation = relationCache().enter(fromType, toType);
+        boolean result;
+        try {
+            result = computeCastValid(fromType, toType);
+        }
+        finally {
+            relationCache().exit();
+        }
+        relationCache().put(TypeRelationCache.CAST,
+                          fromType,
+                          toType,
+                          result,
+                          generation);
+        return result;
+    }
+
+    /**
+     * Returns true if a value of {@code fromType} can be cast to
+     * {@code toType}, without consulting the relation cache.
+     */
+    protected boolean computeCastValid(Type fromType, Type toType) {
         return fromType.isCastValidImpl(toType);
     }
 
@@ -399,6 +569,32 @@ public class TypeSystem_c implements TypeSystem {
     public boolean isImplicitCastValid(Type fromType, Type toType) {
         assert_(fromType);
         assert_(toType);
+        Boolean b =
+                relationCache().get(TypeRelationCache.IMPLICIT_CAST,
+                                  fromType,
+                                  toType);
+        if (b != null) return b.booleanValue();
+        int generation = relationCache().enter(fromType, toType);
+        boolean result;
+        try {
+            result = computeImplicitCastValid(fromType, toType);
+        }
+        finally {
+            relationCache().exit();
+        }
+        relationCache().put(TypeRelationCache.IMPLICIT_CAST,
+                          fromType,
+                          toType,
+                          result,
+                          generation);
+        return result;
+    }
+
+    /**
+     * Returns true if a value of {@code fromType} can be implicitly cast to
+     * {@code toType}, without consulting the relation cache.
+     */
+    protected boolean computeImplicitCastValid(Type fromType, Type toType) {
         return fromType.isImplicitCastValidImpl(toType);
     }
 
@@ -737,6 +933,29 @@ public class TypeSystem_c implements TypeSystem {
     public boolean isSubtype(Type t1, Type t2) {
         assert_(t1);
         assert_(t2);
+        Boolean b = relationCache().get(TypeRelationCache.SUBTYPE, t1, t2);
+        if (b != null) return b.booleanValue();
+        int generation = relationCache().enter(t1, t2);
+        boolean result;
+        try {
+            result = computeSubtype(t1, t2);
+        }
+        finally {
+            relationCache().exit();
+        }
+        relationCache().put(TypeRelationCache.SUBTYPE,
+                          t1,
+                          t2,
+                          result,
+                          generation);
+        return result;
+    }
+
+    /**
+     * Returns true if {@code t1} is a subtype of {@code t2}, without
+     * consulting the relation cache.
+     */
+    protected boolean computeSubtype(Type t1, Type t2) {
         return t1.isSubtypeImpl(t2);
     }
 
@@ -1351,14 +1570,10 @@ public class TypeSystem_c implements TypeSystem {
                         + " non-reference type " + type + ".");
             }
 
-            for (MethodInstance mi : type.toReference().methods()) {
+            for (MethodInstance mi : type.toReference().methodsNamed(name)) {
                 if (Report.should_report(Report.types, 3))
                     Report.report(3, "Trying " + mi);
 
-                if (!mi.name().equals(name)) {
-                    continue;
-                }
-
                 if (methodCallValid(mi, name, argTypes)) {
                     if (isMember(mi, container.toReference())
                             && isAccessible(mi,
@@ -1740,7 +1955,12 @@ public class TypeSystem_c implements TypeSystem {
         return DOUBLE_;
     }
 
-    protected ClassType load(String name) {
+    /**
+     * Load the class named {@code name}.  This method is synchronized since
+     * well-known classes may be loaded by parsers running on scheduler worker
+     * threads.
+     */
+    protected synchronized ClassType load(String name) {
         try {
             return (ClassType) typeForName(name);
         }
@@ -1997,7 +2217,7 @@ public class TypeSystem_c implements TypeSystem {
         return new ArrayType_c(this, pos, type);
     }
 
-    protected ArrayType arrayType(Position pos, Type type) {
+    protected synchronized ArrayType arrayType(Position pos, Type type) {
         ArrayType t = arrayTypeCache.get(type);
         if (t == null) {
             t = createArrayType(pos, type);
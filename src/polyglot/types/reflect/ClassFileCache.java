@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.types.reflect;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.tools.JavaFileManager.Location;
+
+/**
+ * A class file loader that keeps the class files it has loaded, so that the
+ * extensions of a compiler that share it (see {@link SharedClassFileLoader})
+ * locate and parse each class file only once.  Look ups in a given location
+ * are not kept.
+ */
+public class ClassFileCache implements ClassFileLoader {
+    protected final ClassFileLoader loader;
+
+    /** The class files loaded, by class name. */
+    protected final ConcurrentMap<String, ClassFile> classFiles =
+            new ConcurrentHashMap<>();
+
+    public ClassFileCache(ClassFileLoader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public boolean packageExists(String name) {
+        return loader.packageExists(name);
+    }
+
+    @Override
+    public boolean packageExists(Location location, String name) {
+        return loader.packageExists(location, name);
+    }
+
+    @Override
+    public ClassFile loadFile(String name) {
+        ClassFile clazz = classFiles.get(name);
+        if (clazz == null) {
+            // The loader remembers the classes it cannot find.
+            clazz = loader.loadFile(name);
+            if (clazz != null) {
+                ClassFile other = classFiles.putIfAbsent(name, clazz);
+                if (other != null) clazz = other;
+            }
+        }
+        return clazz;
+    }
+
+    @Override
+    public ClassFile loadFile(Location location, String name) {
+        return loader.loadFile(location, name);
+    }
+}
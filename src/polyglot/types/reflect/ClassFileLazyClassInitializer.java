@@ -83,6 +83,11 @@ public class ClassFileLazyClassInitializer implements LazyClassInitializer {
         this.ts = ts;
     }
 
+    /** The class file from which the class type is initialized. */
+    public ClassFile classFile() {
+        return clazz;
+    }
+
     @Override
     public void setClass(ParsedClassType ct) {
         this.ct = ct;
@@ -26,11 +26,14 @@
 
 package polyglot.types.reflect;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,6 +48,14 @@ import polyglot.types.SemanticException;
  * ClassFile represents a Java classfile as it is found on disk. The classfile
  * is modeled according to the Java Virtual Machine Specification. Methods are
  * provided to access the classfile at a very low level.
+ * <p>
+ * The class file is read from a {@code ByteBuffer}, which is copied only if
+ * it is not on the heap, so that a class file does not keep a memory-mapped
+ * archive mapped.  The strings in the constant pool are decoded when first
+ * used, and the field and method tables are read when first requested,
+ * since a class that is only a supertype or the type of a declaration needs
+ * neither.  The bounds of the tables are checked when the class file is
+ * created, so that a malformed class file is rejected then.
  * 
  * @see polyglot.types.reflect Attribute
  * @see polyglot.types.reflect ConstantValue
@@ -66,6 +77,13 @@ public class ClassFile_c implements ClassFile {
     protected FileObject classFileSource;
     protected ExtensionInfo extensionInfo;
 
+    /** The contents of the class file. */
+    protected ByteBuffer code;
+
+    /** The positions of the field and method tables in {@code code}. */
+    protected int fieldsPosition;
+    protected int methodsPosition;
+
     protected Map<String, JLCInfo> jlcInfoCache = new HashMap<>();
 
     protected static Collection<String> verbose;
@@ -83,12 +101,34 @@ public class ClassFile_c implements ClassFile {
      */
     public ClassFile_c(FileObject classFileSource, byte[] code,
             ExtensionInfo ext) throws IOException {
+        this(classFileSource, ByteBuffer.wrap(code), ext);
+    }
+
+    /**
+     * Constructor. This constructor parses the class file from the remaining
+     * contents of the buffer, which must not change afterwards.  A direct
+     * buffer is copied.
+     * 
+     * @param code
+     *            A buffer containing the class data
+     * @throws IOException
+     */
+    public ClassFile_c(FileObject classFileSource, ByteBuffer code,
+            ExtensionInfo ext) throws IOException {
         this.classFileSource = classFileSource;
         this.extensionInfo = ext;
+        if (code.isDirect()) {
+            byte[] b = new byte[code.remaining()];
+            code.duplicate().get(b);
+            this.code = ByteBuffer.wrap(b);
+        }
+        else this.code = code.slice();
 
-        try (ByteArrayInputStream bin = new ByteArrayInputStream(code);
-             DataInputStream in = new DataInputStream(bin)) {
-            read(in);
+        try {
+            read();
+        }
+        catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new ClassFormatError("Truncated class file");
         }
     }
 
@@ -102,7 +142,7 @@ public class ClassFile_c implements ClassFile {
         return classFileSource.toUri();
     }
 
-    JLCInfo getJLCInfo(String typeSystemKey) {
+    synchronized JLCInfo getJLCInfo(String typeSystemKey) {
         // Check if already set.
         JLCInfo jlc = jlcInfoCache.get(typeSystemKey);
 
@@ -116,6 +156,11 @@ public class ClassFile_c implements ClassFile {
         try {
             int mask = 0;
 
+            // Most class files, such as the JDK's, have no such fields, and
+            // are found to have none without reading the field table.
+            if (!hasFieldWithPrefix("jlc$")) return jlc;
+
+            Field[] fields = getFields();
             for (Field field : fields) {
                 if (field.name().equals("jlc$SourceLastModified$"
                         + typeSystemKey)) {
@@ -204,17 +249,123 @@ public class ClassFile_c implements ClassFile {
     }
 
     /**
-     * Read the class file.
+     * Read the class file, except for the field and method tables.
      */
-    void read(DataInputStream in) throws IOException {
-        // Read in file contents from stream
-        readHeader(in);
-        readConstantPool(in);
+    void read() throws IOException {
+        readHeader();
+        int p = readConstantPool(8);
+
+        ByteBufferInputStream bin = new ByteBufferInputStream(code, p);
+        DataInputStream in = new DataInputStream(bin);
         readAccessFlags(in);
         readClassInfo(in);
-        readFields(in);
-        readMethods(in);
-        readAttributes(in);
+
+        fieldsPosition = bin.position();
+        methodsPosition = skipMembers(fieldsPosition);
+        p = skipMembers(methodsPosition);
+
+        readAttributes(new DataInputStream(new ByteBufferInputStream(code, p)));
+    }
+
+    /**
+     * Return the position following the field or method table at
+     * {@code p}.  The names and descriptors of the members and the names of
+     * their attributes must be strings in the constant pool, and the
+     * attributes must lie within the class file.
+     */
+    protected int skipMembers(int p) {
+        int count = code.getShort(p) & 0xffff;
+        p += 2;
+        for (int i = 0; i < count; i++) {
+            // Skip the access flags, name and descriptor.
+            checkUtf8(code.getShort(p + 2) & 0xffff);
+            checkUtf8(code.getShort(p + 4) & 0xffff);
+            p += 6;
+            int numAttributes = code.getShort(p) & 0xffff;
+            p += 2;
+            for (int j = 0; j < numAttributes; j++) {
+                checkUtf8(code.getShort(p) & 0xffff);
+                int length = code.getInt(p + 2);
+                if (length < 0 || length > code.limit() - p - 6)
+                    throw new ClassFormatError("Invalid attribute length");
+                p += 6 + length;
+            }
+        }
+        if (p > code.limit()) throw new ClassFormatError("Truncated class file");
+        return p;
+    }
+
+    /** Check that constant {@code index} is a string. */
+    protected void checkUtf8(int index) {
+        if (index >= constants.length || constants[index] == null
+                || constants[index].tag() != Constant.UTF8)
+            throw new ClassFormatError("Invalid constant pool index " + index);
+    }
+
+    /**
+     * Does the class have a field whose name starts with {@code prefix}?
+     * The field table is not read.
+     */
+    protected boolean hasFieldWithPrefix(String prefix) {
+        int p = fieldsPosition;
+        int count = code.getShort(p) & 0xffff;
+        p += 2;
+        for (int i = 0; i < count; i++) {
+            int nameIndex = code.getShort(p + 2) & 0xffff;
+            if (nameIndex < constants.length) {
+                Constant c = constants[nameIndex];
+                if (c != null && c.startsWith(prefix)) return true;
+            }
+            p += 6;
+            int numAttributes = code.getShort(p) & 0xffff;
+            p += 2;
+            for (int j = 0; j < numAttributes; j++) {
+                p += 6 + code.getInt(p + 2);
+            }
+        }
+        return false;
+    }
+
+    /** An input stream reading a buffer from a position. */
+    protected static class ByteBufferInputStream extends InputStream {
+        protected final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer code, int position) {
+            this.buffer = code.duplicate();
+            // Called through Buffer, which a later JDK's ByteBuffer
+            // overrides covariantly, so that the class runs on Java 7.
+            ((Buffer) this.buffer).position(position);
+        }
+
+        public int position() {
+            return buffer.position();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            ((Buffer) buffer).position(buffer.position() + k);
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
     }
 
     /*
@@ -262,23 +413,22 @@ public class ClassFile_c implements ClassFile {
     }
 
     /**
-     * Read a constant from the constant pool.
+     * Read the constant at position {@code p} of the class file into
+     * {@code constants[i]}.  The value of a UTF8 constant is not decoded.
      * 
-     * @param in
-     *            The stream from which to read.
-     * @return The constant.
-     * @exception IOException
-     *                If an error occurs while reading.
+     * @return The position following the constant.
      */
-    Constant readConstant(DataInputStream in) throws IOException {
-        int tag = in.readUnsignedByte();
+    int readConstant(int i, int p) {
+        int tag = code.get(p) & 0xff;
+        p++;
         Object value;
 
         switch (tag) {
         case Constant.CLASS:
         case Constant.STRING:
         case Constant.METHOD_TYPE:
-            value = new Integer(in.readUnsignedShort());
+            value = new Integer(code.getShort(p) & 0xffff);
+            p += 2;
             break;
         case Constant.FIELD_REF:
         case Constant.METHOD_REF:
@@ -287,75 +437,73 @@ public class ClassFile_c implements ClassFile {
         case Constant.INVOKE_DYNAMIC:
             value = new int[2];
 
-            ((int[]) value)[0] = in.readUnsignedShort();
-            ((int[]) value)[1] = in.readUnsignedShort();
+            ((int[]) value)[0] = code.getShort(p) & 0xffff;
+            ((int[]) value)[1] = code.getShort(p + 2) & 0xffff;
+            p += 4;
             break;
         case Constant.METHOD_HANDLE:
             value = new int[2];
 
-            ((int[]) value)[0] = in.readUnsignedByte();
-            ((int[]) value)[1] = in.readUnsignedShort();
+            ((int[]) value)[0] = code.get(p) & 0xff;
+            ((int[]) value)[1] = code.getShort(p + 1) & 0xffff;
+            p += 3;
             break;
         case Constant.INTEGER:
-            value = new Integer(in.readInt());
+            value = new Integer(code.getInt(p));
+            p += 4;
             break;
         case Constant.FLOAT:
-            value = new Float(in.readFloat());
+            value = new Float(code.getFloat(p));
+            p += 4;
             break;
         case Constant.LONG:
             // Longs take up 2 constant pool entries.
-            value = new Long(in.readLong());
+            value = new Long(code.getLong(p));
+            p += 8;
             break;
         case Constant.DOUBLE:
             // Doubles take up 2 constant pool entries.
-            value = new Double(in.readDouble());
+            value = new Double(code.getDouble(p));
+            p += 8;
             break;
         case Constant.UTF8:
-            value = in.readUTF();
-            break;
+            int length = code.getShort(p) & 0xffff;
+            if (p + 2 + length > code.limit())
+                throw new ClassFormatError("Truncated class file");
+            constants[i] = new Constant(code, p + 2, length);
+            return p + 2 + length;
         default:
             throw new ClassFormatError("Invalid constant tag: " + tag);
         }
 
-        return new Constant(tag, value);
+        constants[i] = new Constant(tag, value);
+        return p;
     }
 
     /**
      * Read the class file header.
-     * 
-     * @param in
-     *            The stream from which to read.
-     * @exception IOException
-     *                If an error occurs while reading.
      */
-    void readHeader(DataInputStream in) throws IOException {
-        int magic = in.readInt();
+    void readHeader() {
+        int magic = code.getInt(0);
 
         if (magic != 0xCAFEBABE) {
             throw new ClassFormatError("Bad magic number.");
         }
-
-        @SuppressWarnings("unused")
-        int minor = in.readUnsignedShort();
-
-        @SuppressWarnings("unused")
-        int major = in.readUnsignedShort();
     }
 
     /**
-     * Read the class's constant pool. Constants in the constant pool are
-     * modeled by an array of <tt>reflect.Constant</tt>/
+     * Read the class's constant pool, which starts at position {@code p} of
+     * the class file. Constants in the constant pool are modeled by an array
+     * of <tt>reflect.Constant</tt>/
      * 
-     * @param in
-     *            The stream from which to read.
-     * @exception IOException
-     *                If an error occurs while reading.
+     * @return The position following the constant pool.
      * 
      * @see Constant
      * @see #constants
      */
-    void readConstantPool(DataInputStream in) throws IOException {
-        int count = in.readUnsignedShort();
+    int readConstantPool(int p) {
+        int count = code.getShort(p) & 0xffff;
+        p += 2;
 
         constants = new Constant[count];
 
@@ -364,7 +512,7 @@ public class ClassFile_c implements ClassFile {
 
         // Read the constants.
         for (int i = 1; i < count; i++) {
-            constants[i] = readConstant(in);
+            p = readConstant(i, p);
 
             switch (constants[i].tag()) {
             case Constant.LONG:
@@ -376,6 +524,8 @@ public class ClassFile_c implements ClassFile {
                 break;
             }
         }
+
+        return p;
     }
 
     /**
@@ -545,7 +695,19 @@ public class ClassFile_c implements ClassFile {
      * @see polyglot.types.reflect.ClassFileI#getFields()
      */
     @Override
-    public Field[] getFields() {
+    public synchronized Field[] getFields() {
+        if (fields == null) {
+            try {
+                readFields(new DataInputStream(new ByteBufferInputStream(code,
+                                                                         fieldsPosition)));
+            }
+            catch (IOException | IndexOutOfBoundsException
+                    | BufferUnderflowException e) {
+                fields = null;
+                throw new ClassFormatError("Cannot read the fields of "
+                        + name() + ": " + e);
+            }
+        }
         return fields;
     }
 
@@ -575,7 +737,19 @@ public class ClassFile_c implements ClassFile {
      * @see polyglot.types.reflect.ClassFileI#getMethods()
      */
     @Override
-    public Method[] getMethods() {
+    public synchronized Method[] getMethods() {
+        if (methods == null) {
+            try {
+                readMethods(new DataInputStream(new ByteBufferInputStream(code,
+                                                                          methodsPosition)));
+            }
+            catch (IOException | IndexOutOfBoundsException
+                    | BufferUnderflowException e) {
+                methods = null;
+                throw new ClassFormatError("Cannot read the methods of "
+                        + name() + ": " + e);
+            }
+        }
         return methods;
     }
 
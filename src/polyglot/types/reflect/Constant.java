@@ -26,6 +26,8 @@
 
 package polyglot.types.reflect;
 
+import java.nio.ByteBuffer;
+
 /**
  * A Constant is used to represent an item in the constant pool of a class.
  *
@@ -36,6 +38,14 @@ public class Constant {
     protected int tag;
     protected Object value;
 
+    /**
+     * The class file holding the modified UTF-8 encoding of a UTF8 constant
+     * whose value has not been decoded yet, and where the encoding is.
+     */
+    protected ByteBuffer encoded;
+    protected int encodedOffset;
+    protected int encodedLength;
+
     /**
      * Constant tag for class types.
      * This is used to reference other classes, such as the superclass,
@@ -135,6 +145,23 @@ public class Constant {
         this.value = value;
     }
 
+    /**
+     * Create a UTF8 constant whose value is decoded when first needed.
+     *
+     * @param code
+     *        The class file.
+     * @param offset
+     *        The position of the encoded string in the class file.
+     * @param length
+     *        The length of the encoded string.
+     */
+    Constant(ByteBuffer code, int offset, int length) {
+        this.tag = UTF8;
+        this.encoded = code;
+        this.encodedOffset = offset;
+        this.encodedLength = length;
+    }
+
     /**
      * Get the tag of the constant.
      *
@@ -152,7 +179,64 @@ public class Constant {
      *        The value.
      */
     public final Object value() {
-        return value;
+        Object v = value;
+        if (v == null && encoded != null) {
+            v = decode(encoded, encodedOffset, encodedLength);
+            value = v;
+        }
+        return v;
+    }
+
+    /**
+     * Is this a UTF8 constant that starts with {@code prefix}, which must be
+     * ASCII?  The value of the constant is not decoded.
+     */
+    boolean startsWith(String prefix) {
+        if (tag != UTF8) return false;
+        if (value != null || encoded == null)
+            return ((String) value()).startsWith(prefix);
+        if (encodedLength < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (encoded.get(encodedOffset + i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decode the string in the modified UTF-8 encoding of class files at
+     * {@code offset} in {@code code}.
+     */
+    static String decode(ByteBuffer code, int offset, int length) {
+        char[] chars = new char[length];
+        int n = 0;
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            int c = code.get(i) & 0xff;
+            if (c < 0x80) {
+                chars[n++] = (char) c;
+                i++;
+            }
+            else if ((c & 0xe0) == 0xc0 && i + 1 < end) {
+                int c2 = code.get(i + 1);
+                if ((c2 & 0xc0) != 0x80) break;
+                chars[n++] = (char) (((c & 0x1f) << 6) | (c2 & 0x3f));
+                i += 2;
+            }
+            else if ((c & 0xf0) == 0xe0 && i + 2 < end) {
+                int c2 = code.get(i + 1);
+                int c3 = code.get(i + 2);
+                if ((c2 & 0xc0) != 0x80 || (c3 & 0xc0) != 0x80) break;
+                chars[n++] =
+                        (char) (((c & 0x0f) << 12) | ((c2 & 0x3f) << 6) | (c3 & 0x3f));
+                i += 3;
+            }
+            else break;
+        }
+        if (i != end)
+            throw new ClassFormatError("Malformed UTF-8 constant");
+        return new String(chars, 0, n);
     }
 
     /**
@@ -172,7 +256,7 @@ public class Constant {
         case DOUBLE:
         case UTF8:
         case METHOD_TYPE:
-            return tag ^ value.hashCode();
+            return tag ^ value().hashCode();
         case FIELD_REF:
         case METHOD_REF:
         case INTERFACE_METHOD_REF:
@@ -214,7 +298,7 @@ public class Constant {
         case DOUBLE:
         case UTF8:
         case METHOD_TYPE:
-            return value.equals(c.value);
+            return value().equals(c.value());
         case FIELD_REF:
         case METHOD_REF:
         case INTERFACE_METHOD_REF:
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.types.reflect;
+
+import java.net.URI;
+
+/**
+ * An {@code EncodedClassType} is the serialized type information of a class
+ * written by the compiler: the encoded class type, the version of the
+ * compiler that encoded it, and the modification time of the source it was
+ * compiled from.  It is read either from the {@code jlc$} fields of a class
+ * file or from a {@link TypeArchive}.
+ */
+public class EncodedClassType {
+    /** The name of the class, as given by its class file or archive. */
+    public final String name;
+    /** Where the type information was read from, for error messages. */
+    public final URI location;
+    public final String compilerVersion;
+    public final long sourceLastModified;
+    public final String encodedClassType;
+
+    public EncodedClassType(String name, URI location, String compilerVersion,
+            long sourceLastModified, String encodedClassType) {
+        this.name = name;
+        this.location = location;
+        this.compilerVersion = compilerVersion;
+        this.sourceLastModified = sourceLastModified;
+        this.encodedClassType = encodedClassType;
+    }
+
+    /**
+     * Return the type information for the type system {@code typeSystemKey}
+     * encoded in {@code clazz}, or null if there is none.
+     */
+    public static EncodedClassType of(ClassFile clazz, String typeSystemKey) {
+        String encoded = clazz.encodedClassType(typeSystemKey);
+        if (encoded == null) return null;
+        return new EncodedClassType(clazz.name(),
+                                    clazz.getClassFileURI(),
+                                    clazz.compilerVersion(typeSystemKey),
+                                    clazz.sourceLastModified(typeSystemKey),
+                                    encoded);
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + location;
+    }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ * 
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan 
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.types.reflect;
+
+import javax.tools.JavaFileManager.Location;
+
+import polyglot.frontend.ExtensionInfo;
+import polyglot.main.Options;
+
+/**
+ * A class file loader for an extension, such as an output extension, that
+ * shares the class files of another extension of the same compiler, kept by
+ * that extension's {@link ClassFileCache}.  The class files are located and
+ * parsed once, and each type system builds its own types from them; their
+ * fields and methods are parsed when first used by either.  A class file is
+ * shared only if it is of the kind the extension would create itself, and
+ * only if both extensions have the same class path; otherwise the extension
+ * loads class files itself.
+ */
+public class SharedClassFileLoader implements ClassFileLoader {
+    /** The loader of the extension whose class files are shared. */
+    protected final ClassFileLoader shared;
+
+    /** The loader of the extension itself. */
+    protected final ClassFileLoader own;
+
+    /** The kind of class file the extension creates. */
+    protected final Class<? extends ClassFile> kind;
+
+    /** Whether the two extensions have the same class path. */
+    protected final boolean samePath;
+
+    public SharedClassFileLoader(ExtensionInfo sharedExt, ExtensionInfo ext,
+            Class<? extends ClassFile> kind) {
+        this.shared = sharedExt.classFileLoader();
+        this.own = ext.extFileManager();
+        this.kind = kind;
+        Options sharedOpts = sharedExt.getOptions();
+        Options opts = ext.getOptions();
+        this.samePath =
+                sharedOpts.bootclasspathDirectories()
+                          .equals(opts.bootclasspathDirectories())
+                        && sharedOpts.classpathDirectories()
+                                     .equals(opts.classpathDirectories());
+    }
+
+    @Override
+    public boolean packageExists(String name) {
+        if (samePath) return shared.packageExists(name);
+        return own.packageExists(name);
+    }
+
+    @Override
+    public boolean packageExists(Location location, String name) {
+        return own.packageExists(location, name);
+    }
+
+    @Override
+    public ClassFile loadFile(String name) {
+        if (!samePath) return own.loadFile(name);
+        ClassFile clazz = shared.loadFile(name);
+        if (clazz == null || kind.isInstance(clazz)) return clazz;
+        return own.loadFile(name);
+    }
+
+    @Override
+    public ClassFile loadFile(Location location, String name) {
+        return own.loadFile(location, name);
+    }
+}
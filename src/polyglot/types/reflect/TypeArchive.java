@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.types.reflect;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import polyglot.main.Report;
+
+/**
+ * A {@code TypeArchive} holds the serialized type information of the
+ * classes compiled into an output directory, for one type system, in a
+ * single file in that directory.  With {@code -typearchive}, the compiler
+ * writes the type information there instead of into {@code jlc$} fields of
+ * the generated code.  When the class resolvers find a class file without
+ * these fields, they look the class up in the archive of the directory the
+ * class file was found in; an entry is not used without its class file.
+ *
+ * The archive starts with a table of fixed-size records sorted by class
+ * name, so a class is found by a binary search over the memory-mapped file
+ * without reading the other entries.  An archive is never changed in place:
+ * an {@link Updater} writes a new archive holding the old entries merged
+ * with the new ones, and renames it over the old archive, dropping the
+ * entries of classes whose class files have been removed.
+ */
+public class TypeArchive {
+    protected static final int MAGIC = 0x504c5441;
+    protected static final int VERSION = 1;
+
+    /** The size of the header: the magic number, version and entry count. */
+    protected static final int HEADER = 12;
+
+    /**
+     * The size of a record of the table: the offset and length of the name,
+     * and the offset and length of the data, of an entry.
+     */
+    protected static final int RECORD = 16;
+
+    /** The prefix of the name of an archive, followed by the type system key. */
+    public static final String FILE_PREFIX = "jlc-types.";
+
+    /** The archives opened by this VM, keyed by file. */
+    protected static final Map<File, TypeArchive> archives = new HashMap<>();
+
+    /** Return the archive file for {@code typeSystemKey} in {@code dir}. */
+    public static File file(File dir, String typeSystemKey) {
+        return new File(dir, FILE_PREFIX + typeSystemKey).getAbsoluteFile();
+    }
+
+    /**
+     * Return the archive for {@code typeSystemKey} in {@code dir}, or null if
+     * there is none or it cannot be read.
+     */
+    public static TypeArchive open(File dir, String typeSystemKey) {
+        File f = file(dir, typeSystemKey);
+        long lastModified = f.lastModified();
+        long length = f.length();
+        synchronized (archives) {
+            TypeArchive a = archives.get(f);
+            if (a != null && a.lastModified == lastModified
+                    && a.length == length) return a;
+            archives.remove(f);
+            if (!f.isFile()) return null;
+
+            try {
+                a = new TypeArchive(f, lastModified, length);
+            }
+            catch (IOException e) {
+                if (Report.should_report(Report.loader, 1))
+                    Report.report(1, "Ignoring unreadable type archive " + f
+                            + ": " + e.getMessage());
+                return null;
+            }
+            archives.put(f, a);
+            return a;
+        }
+    }
+
+    public final File file;
+    public final long lastModified;
+    public final long length;
+
+    /** The contents of the archive. */
+    protected final ByteBuffer buffer;
+    protected final int count;
+
+    protected TypeArchive(File file, long lastModified, long length)
+            throws IOException {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.length = length;
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Archive larger than 2 GB");
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        if (length < HEADER || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION)
+            throw new IOException("Not a type archive");
+        count = buffer.getInt(8);
+        if (count < 0 || HEADER + (long) count * RECORD > length)
+            throw new IOException("Truncated type archive");
+    }
+
+    /** The number of classes in the archive. */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return the type information of the class {@code name}, or null if it is
+     * not in the archive.
+     */
+    public EncodedClassType find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareName(mid, key);
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else return decode(name, data(mid));
+        }
+        return null;
+    }
+
+    /** Compare the name of entry {@code i} with {@code key}. */
+    protected int compareName(int i, byte[] key) {
+        int record = HEADER + i * RECORD;
+        int offset = buffer.getInt(record);
+        int length = buffer.getInt(record + 4);
+        int n = Math.min(length, key.length);
+        for (int j = 0; j < n; j++) {
+            int c = (buffer.get(offset + j) & 0xff) - (key[j] & 0xff);
+            if (c != 0) return c;
+        }
+        return length - key.length;
+    }
+
+    /** Return the name of entry {@code i}. */
+    protected String name(int i) {
+        int record = HEADER + i * RECORD;
+        return new String(bytes(buffer.getInt(record),
+                                buffer.getInt(record + 4)),
+                          StandardCharsets.UTF_8);
+    }
+
+    /** Return the data of entry {@code i}. */
+    protected byte[] data(int i) {
+        int record = HEADER + i * RECORD;
+        return bytes(buffer.getInt(record + 8), buffer.getInt(record + 12));
+    }
+
+    protected byte[] bytes(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > this.length)
+            throw new IllegalStateException("Bad entry in type archive "
+                    + file);
+        ByteBuffer b = buffer.duplicate();
+        // Not ByteBuffer.position(int), which older JDKs lack.
+        ((Buffer) b).position(offset);
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Return the data of an entry: the source modification time, the
+     * compiler version and the encoded class type.
+     */
+    protected static byte[] encode(EncodedClassType t) throws IOException {
+        ByteArrayOutputStream b =
+                new ByteArrayOutputStream(t.encodedClassType.length() + 32);
+        try (DataOutputStream out = new DataOutputStream(b)) {
+            out.writeLong(t.sourceLastModified);
+            out.writeUTF(t.compilerVersion);
+            out.write(t.encodedClassType.getBytes(StandardCharsets.UTF_8));
+        }
+        return b.toByteArray();
+    }
+
+    protected EncodedClassType decode(String name, byte[] data) {
+        ByteBuffer b = ByteBuffer.wrap(data);
+        long sourceLastModified = b.getLong();
+        int versionLength = b.getShort() & 0xffff;
+        String version =
+                new String(data, b.position(), versionLength,
+                           StandardCharsets.UTF_8);
+        int start = b.position() + versionLength;
+        String encoded =
+                new String(data,
+                           start,
+                           data.length - start,
+                           StandardCharsets.UTF_8);
+        return new EncodedClassType(name,
+                                    file.toURI(),
+                                    version,
+                                    sourceLastModified,
+                                    encoded);
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+
+    /** Orders names by their UTF-8 encoding, as the table is sorted. */
+    protected static final Comparator<byte[]> NAME_ORDER =
+            new Comparator<byte[]>() {
+                @Override
+                public int compare(byte[] a, byte[] b) {
+                    int n = Math.min(a.length, b.length);
+                    for (int i = 0; i < n; i++) {
+                        int c = (a[i] & 0xff) - (b[i] & 0xff);
+                        if (c != 0) return c;
+                    }
+                    return a.length - b.length;
+                }
+            };
+
+    /**
+     * An {@code Updater} collects the classes to add to or remove from the
+     * archive in a directory, and replaces the archive with one holding the
+     * changes when committed.  Entries of the old archive that are not
+     * replaced or removed are kept while their class files exist, so a
+     * compilation of some of the sources of a directory leaves the types of
+     * the other sources in place.
+     */
+    public static class Updater {
+        protected final File dir;
+        protected final String typeSystemKey;
+
+        protected final Map<String, EncodedClassType> added =
+                new LinkedHashMap<>();
+        protected final Set<String> removed = new HashSet<>();
+
+        public Updater(File dir, String typeSystemKey) {
+            this.dir = dir;
+            this.typeSystemKey = typeSystemKey;
+        }
+
+        /** Add {@code t}, replacing any entry of the same name. */
+        public synchronized void add(EncodedClassType t) {
+            removed.remove(t.name);
+            added.put(t.name, t);
+        }
+
+        /** Remove the class {@code name} from the archive, if it is there. */
+        public synchronized void remove(String name) {
+            added.remove(name);
+            removed.add(name);
+        }
+
+        /**
+         * Write the archive, if it changes, and replace the old archive
+         * atomically.
+         */
+        public synchronized void commit() throws IOException {
+            if (added.isEmpty() && removed.isEmpty()) return;
+
+            File f = file(dir, typeSystemKey);
+            TypeArchive old = open(dir, typeSystemKey);
+            boolean changed = !added.isEmpty();
+
+            Map<String, byte[]> entries = new HashMap<>();
+            if (old != null) {
+                for (int i = 0; i < old.count; i++) {
+                    String name = old.name(i);
+                    if (added.containsKey(name)) continue;
+                    if (removed.contains(name) || !classFileExists(name)) {
+                        changed = true;
+                        continue;
+                    }
+                    entries.put(name, old.data(i));
+                }
+            }
+            if (changed) {
+                for (EncodedClassType t : added.values())
+                    entries.put(t.name, encode(t));
+                write(f, entries);
+            }
+
+            added.clear();
+            removed.clear();
+        }
+
+        /** Is there a class file for the class {@code name} in the directory? */
+        protected boolean classFileExists(String name) {
+            return new File(dir, name.replace('.', File.separatorChar)
+                    + ".class").isFile();
+        }
+
+        protected void write(File f, Map<String, byte[]> entries)
+                throws IOException {
+            Map<byte[], byte[]> sorted = new TreeMap<>(NAME_ORDER);
+            for (Map.Entry<String, byte[]> e : entries.entrySet())
+                sorted.put(e.getKey().getBytes(StandardCharsets.UTF_8),
+                           e.getValue());
+            int n = sorted.size();
+
+            if (!dir.exists()) dir.mkdirs();
+            File tmp = File.createTempFile(f.getName(), ".tmp", dir);
+            try {
+                try (DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(n);
+                    long offset = HEADER + (long) n * RECORD;
+                    for (Map.Entry<byte[], byte[]> e : sorted.entrySet()) {
+                        int nameLength = e.getKey().length;
+                        int dataLength = e.getValue().length;
+                        out.writeInt((int) offset);
+                        out.writeInt(nameLength);
+                        out.writeInt((int) (offset + nameLength));
+                        out.writeInt(dataLength);
+                        offset += nameLength + dataLength;
+                    }
+                    if (offset > Integer.MAX_VALUE)
+                        throw new IOException("Type archive " + f
+                                + " would be larger than 2 GB");
+                    for (Map.Entry<byte[], byte[]> e : sorted.entrySet()) {
+                        out.write(e.getKey());
+                        out.write(e.getValue());
+                    }
+                }
+                try {
+                    Files.move(tmp.toPath(),
+                               f.toPath(),
+                               StandardCopyOption.ATOMIC_MOVE,
+                               StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp.toPath(),
+                               f.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            finally {
+                tmp.delete();
+            }
+
+            synchronized (archives) {
+                archives.remove(f);
+            }
+            if (Report.should_report(Report.serialize, 1))
+                Report.report(1, "Wrote " + n + " classes to " + f);
+        }
+    }
+}
@@ -29,6 +29,7 @@ package polyglot.util;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -38,10 +39,15 @@ import java.util.Set;
  * defers to another map.  Modifications, however, are not passed on to
  * the supermap.
  *
- * A NestedMap and its backing collections and iterators support all
- * operations except 'remove' and 'clear', since operations to a
- * NestedMap must not affect the backing map.  Instead, use the 'release'
- * method.
+ * A NestedMap and its backing collections support all operations, but
+ * operations to a NestedMap never affect the backing map: removing a key
+ * bound in the backing map only hides the binding in this map, and
+ * clearing this map hides all of the backing map.  The iterators do not
+ * support 'remove'.  To drop the binding of a key in this map and return
+ * to the binding (if any) in the backing map, use the 'release' method.
+ *
+ * The backing map is not copied: bindings added to it after this map is
+ * created are seen in this map, unless hidden by bindings in this map.
  *
  * It is used to implement nested namespaces, such as those which store
  * local-variable bindings.
@@ -55,8 +61,10 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
         this.superMap =
                 containing == null ? NilMap.<K, V> emptyMap() : containing;
         this.myMap = new HashMap<>();
+        this.hidden = new HashSet<>();
+        this.cleared = false;
         setView = new EntrySet();
-        nShadowed = 0;
+        keyView = new KeySet();
     }
 
     /////
@@ -75,6 +83,7 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
      **/
     public void release(Object key) {
         myMap.remove(key);
+        hidden.remove(key);
     }
 
     /**
@@ -84,6 +93,13 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
         return myMap;
     }
 
+    /**
+     * Is the binding of <key> in the supermap, if any, visible in this map?
+     */
+    protected boolean defers(Object key) {
+        return !cleared && !myMap.containsKey(key) && !hidden.contains(key);
+    }
+
     /////
     // Methods required for AbstractMap.
     /////
@@ -93,21 +109,39 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
         return setView;
     }
 
+    @Override
+    public Set<K> keySet() {
+        return keyView;
+    }
+
     @Override
     public int size() {
-        return superMap.size() + myMap.size() - nShadowed;
+        if (cleared) return myMap.size();
+        // Count the keys of the supermap that are visible, as the iterators
+        // do, from the bindings of this level.
+        int n = superMap.size() + myMap.size();
+        for (K key : myMap.keySet()) {
+            if (superMap.containsKey(key)) n--;
+        }
+        for (Object key : hidden) {
+            if (superMap.containsKey(key)) n--;
+        }
+        return n;
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return myMap.containsKey(key) || superMap.containsKey(key);
+        return myMap.containsKey(key)
+                || (defers(key) && superMap.containsKey(key));
     }
 
     @Override
     public V get(Object key) {
         if (myMap.containsKey(key))
             return myMap.get(key);
-        else return superMap.get(key);
+        else if (defers(key))
+            return superMap.get(key);
+        else return null;
     }
 
     @Override
@@ -116,21 +150,26 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
             return myMap.put(key, value);
         }
         else {
-            V oldV = superMap.get(key);
+            V oldV = defers(key) ? superMap.get(key) : null;
+            hidden.remove(key);
             myMap.put(key, value);
-            nShadowed++;
             return oldV;
         }
     }
 
     @Override
     public V remove(Object key) {
-        throw new UnsupportedOperationException("Remove from NestedMap");
+        V oldV = get(key);
+        myMap.remove(key);
+        if (!cleared && superMap.containsKey(key)) hidden.add(key);
+        return oldV;
     }
 
     @Override
     public void clear() {
-        throw new UnsupportedOperationException("Clear in NestedMap");
+        myMap.clear();
+        hidden.clear();
+        cleared = true;
     }
 
     public final class KeySet extends AbstractSet<K> {
@@ -138,7 +177,7 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
         public Iterator<K> iterator() {
             return new ConcatenatedIterator<>(myMap.keySet().iterator(),
                                               new FilteringIterator<>(superMap.keySet(),
-                                                                      keyNotInMyMap));
+                                                                      keyDeferred));
         }
 
         @Override
@@ -154,7 +193,14 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
 
         @Override
         public boolean remove(Object o) {
-            throw new UnsupportedOperationException("Remove from NestedMap.keySet");
+            if (!NestedMap.this.containsKey(o)) return false;
+            NestedMap.this.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            NestedMap.this.clear();
         }
     }
 
@@ -163,7 +209,7 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
         public Iterator<Entry<K, V>> iterator() {
             return new ConcatenatedIterator<>(myMap.entrySet().iterator(),
                                               new FilteringIterator<>(superMap.entrySet(),
-                                                                      entryKeyNotInMyMap));
+                                                                      entryKeyDeferred));
         }
 
         @Override
@@ -191,25 +237,36 @@ public class NestedMap<K, V> extends AbstractMap<K, V> {
 
         @Override
         public boolean remove(Object o) {
-            throw new UnsupportedOperationException("Remove from NestedMap.entrySet");
+            if (!contains(o)) return false;
+            NestedMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            NestedMap.this.clear();
         }
     }
 
     private HashMap<K, V> myMap;
-    private int nShadowed;
+    /** Keys of the supermap removed from this map. */
+    private Set<Object> hidden;
+    /** Whether this map was cleared, hiding all of the supermap. */
+    private boolean cleared;
     private Set<Entry<K, V>> setView; // the set view of this.
+    private Set<K> keyView; // the key set view of this.
     private Map<K, V> superMap;
-    private Predicate<Entry<K, V>> entryKeyNotInMyMap =
+    private Predicate<Entry<K, V>> entryKeyDeferred =
             new Predicate<Entry<K, V>>() {
                 @Override
                 public boolean isTrue(Entry<K, V> ent) {
-                    return !myMap.containsKey(ent.getKey());
+                    return defers(ent.getKey());
                 }
             };
-    private Predicate<K> keyNotInMyMap = new Predicate<K>() {
+    private Predicate<K> keyDeferred = new Predicate<K>() {
         @Override
         public boolean isTrue(K o) {
-            return !myMap.containsKey(o);
+            return defers(o);
         }
     };
 
@@ -28,18 +28,31 @@ package polyglot.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InvalidClassException;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import polyglot.frontend.SchedulerException;
 import polyglot.main.Report;
+import polyglot.types.DeserializedClassInitializer;
 import polyglot.types.Named;
+import polyglot.types.ParsedClassType;
+import polyglot.types.ParsedClassType_c;
 import polyglot.types.TypeObject;
 import polyglot.types.TypeSystem;
+import polyglot.types.UnavailableTypeException;
 
 /**
  * The {@code TypeEncoder} gives the ability to encode a polyglot 
@@ -48,6 +61,26 @@ import polyglot.types.TypeSystem;
  * It uses a form of serialization to encode the {@code Type} into
  * a byte stream and then converts the byte stream to a standard Java string.
  * <p>
+ * The string starts with {@code COMPACT_MARK} and a version character.
+ * The serialization stream names each class once, without the field
+ * descriptions of standard serialization, and is compressed with DEFLATE.
+ * Every character holds seven bits of the compressed stream, which a class
+ * file stores in one byte.
+ * <p>
+ * The members of each class written in full are compressed apart from the
+ * rest of the class, which refers to them through empty lists, in the
+ * groups of {@link ParsedClassType_c#encodedMemberGroups()}: methods,
+ * fields and constructors each in a group of their own.  The decoder reads
+ * only the rest of the class, and the {@code DeserializedClassInitializer}
+ * of the class decodes each group when it is first needed, so that classes
+ * that are only named in the source being compiled cost little to load,
+ * and looking up a method does not decode the fields.  If the types of a
+ * group cannot be resolved yet, decoding it aborts the current pass as
+ * decoding the class would have.  Strings written by earlier versions of
+ * the compiler, which encode the class and its members as one stream or
+ * are gzipped and Base64-encoded standard serialization streams, can still
+ * be decoded.
+ * <p>
  * The difference between the encoder and a normal serialization process is
  * that in order to encode this type, we need to sever any links to other types
  * in the current environment. So any {@code ClassType} other than the 
@@ -57,9 +90,16 @@ import polyglot.types.TypeSystem;
  * "mangled" name; non-member classes use their fully qualified name.
  */
 public class TypeEncoder {
+    /**
+     * First character of a string in the compact encoding.  It does not
+     * occur in Base64.
+     */
+    public static final char COMPACT_MARK = '\u007f';
+
+    /** Version of the compact encoding, which follows {@code COMPACT_MARK}. */
+    public static final char COMPACT_VERSION = '3';
+
     protected TypeSystem ts;
-    protected final boolean zip = true;
-    protected final boolean base64 = true;
     protected final boolean test = false;
     protected Map<Object, Object> placeHolderCache;
     protected int depth;
@@ -76,38 +116,57 @@ public class TypeEncoder {
      * @throws IOException If the encoding fails.
      */
     public String encode(TypeObject t) throws IOException {
-        ByteArrayOutputStream baos;
-
         if (Report.should_report(Report.serialize, 1)) {
             Report.report(1, "Encoding type " + t);
         }
 
-        baos = new ByteArrayOutputStream();
-        try (GZIPOutputStream gzos = zip ? new GZIPOutputStream(baos) : null;
-             ObjectOutputStream oos =
-                     new TypeOutputStream(zip ? gzos : baos, ts, t)) {
-            oos.writeObject(t);
-            oos.flush();
+        // The members of each class written in full are written apart from
+        // the classes, which are place holders there, group by group.
+        Set<? extends TypeObject> roots = ts.getTypeEncoderRootSet(t);
+        List<ParsedClassType_c> segmented = new ArrayList<>();
+        List<List<List<List<? extends TypeObject>>>> groups =
+                new ArrayList<>();
+        List<List<?>> omitted = new ArrayList<>();
+        for (TypeObject r : roots) {
+            if (r instanceof ParsedClassType_c) {
+                ParsedClassType_c ct = (ParsedClassType_c) r;
+                List<List<List<? extends TypeObject>>> g =
+                        ct.encodedMemberGroups();
+                segmented.add(ct);
+                groups.add(g);
+                for (List<List<? extends TypeObject>> lists : g) {
+                    omitted.addAll(lists);
+                }
+            }
         }
 
+        byte[] header = serialize(roots, omitted, t, segmented);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(header.length);
+        out.write(header);
+        for (List<List<List<? extends TypeObject>>> g : groups) {
+            out.writeInt(g.size());
+            for (List<List<? extends TypeObject>> lists : g) {
+                byte[] body =
+                        serialize(Collections.<TypeObject> emptySet(),
+                                  Collections.<List<?>> emptyList(),
+                                  new ArrayList<>(lists));
+                out.writeInt(body.length);
+                out.write(body);
+            }
+        }
+        out.flush();
         byte[] b = baos.toByteArray();
 
         if (Report.should_report(Report.serialize, 2)) {
-            Report.report(2, "Size of serialization (with" + (zip ? "" : "out")
-                    + " zipping) is " + b.length + " bytes");
+            Report.report(2, "Size of compressed serialization is " + b.length
+                    + " bytes, " + (b.length - header.length - 4)
+                    + " of them members");
         }
 
-        String s;
-
-        if (base64) {
-            s = Base64.encodeBytes(b);
-        }
-        else {
-            StringBuffer sb = new StringBuffer(b.length);
-            for (byte element : b)
-                sb.append((char) element);
-            s = sb.toString();
-        }
+        String s = pack(b);
 
         if (Report.should_report(Report.serialize, 2)) {
             Report.report(2,
@@ -134,6 +193,33 @@ public class TypeEncoder {
         return s;
     }
 
+    /**
+     * Serialize {@code objects} in the compact encoding, writing the type
+     * objects in {@code roots} in full and the lists in {@code omitted} as
+     * empty lists, and return the compressed bytes.
+     */
+    protected byte[] serialize(Set<? extends TypeObject> roots,
+            Collection<? extends List<?>> omitted, Object... objects)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (TypeOutputStream oos =
+                new TypeOutputStream(new DeflaterOutputStream(baos, deflater),
+                                     ts,
+                                     roots,
+                                     true)) {
+            oos.omit(omitted);
+            for (Object o : objects) {
+                oos.writeObject(o);
+            }
+            oos.flush();
+        }
+        finally {
+            deflater.end();
+        }
+        return baos.toByteArray();
+    }
+
     /**
      * Decode a serialized type object.  If deserialization fails because
      * a type could not be resolved, the method returns null.  The calling
@@ -156,34 +242,57 @@ public class TypeEncoder {
         depth++;
 
         try {
-            byte[] b;
-
-            if (base64) {
-                b = Base64.decode(s);
+            InputStream in;
+            boolean compact = isCompact(s);
+            DataInputStream members = null;
+            if (compact) {
+                byte[] b = unpack(s);
+                if (s.charAt(1) != '1') {
+                    // The classes are followed by their members.
+                    members = new DataInputStream(new ByteArrayInputStream(b));
+                    b = readSegment(members);
+                }
+                in = new InflaterInputStream(new ByteArrayInputStream(b));
             }
             else {
-                char[] source;
-                source = s.toCharArray();
-                b = new byte[source.length];
-                for (int i = 0; i < source.length; i++)
-                    b[i] = (byte) source[i];
+                // The Base64 decoder automatically unzips byte streams.
+                in = new ByteArrayInputStream(Base64.decode(s));
             }
 
-//            // dead code
-//            if (zip && !base64) {
-//                // The base64 decoder automatically unzips byte streams, so
-//                // we only need an explicit GZIPInputStream if we are not
-//                // using base64 encoding.
-//                ois =
-//                        new TypeInputStream(new GZIPInputStream(new ByteArrayInputStream(b)),
-//                                            ts,
-//                                            placeHolderCache);
-//            }
-            try (TypeInputStream ois = ois(new ByteArrayInputStream(b))) {
+            try (TypeInputStream ois = ois(in, compact)) {
                 TypeObject o = (TypeObject) ois.readObject();
+                List<?> segmented =
+                        members != null
+                                ? (List<?>) ois.readObject()
+                                : Collections.emptyList();
 
                 if (ois.deserializationFailed()) return null;
 
+                for (Object c : segmented) {
+                    if (!(c instanceof ParsedClassType_c)) {
+                        throw new InvalidClassException("Members encoded for "
+                                + c);
+                    }
+                    ParsedClassType_c ct = (ParsedClassType_c) c;
+                    byte[][] groups = new byte[members.readInt()][];
+                    for (int i = 0; i < groups.length; i++) {
+                        groups[i] = readSegment(members);
+                    }
+                    @SuppressWarnings("unchecked")
+                    List<? extends TypeObject> classes =
+                            (List<? extends TypeObject>) segmented;
+                    if (ct.initializer() instanceof DeserializedClassInitializer) {
+                        DeserializedClassInitializer init =
+                                (DeserializedClassInitializer) ct.initializer();
+                        init.setEncodedMembers(this, classes, groups);
+                    }
+                    else {
+                        for (int i = 0; i < groups.length; i++) {
+                            decodeMembers(ct, classes, i, groups[i]);
+                        }
+                    }
+                }
+
                 return o;
             }
         }
@@ -210,7 +319,148 @@ public class TypeEncoder {
         }
     }
 
+    /**
+     * Read a length-prefixed segment of an encoded type from {@code in}.
+     * @throws InvalidClassException If the segment is malformed.
+     */
+    protected static byte[] readSegment(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new InvalidClassException("Malformed type encoding");
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+
+    /**
+     * Decode the group {@code group} of the members of {@code ct} encoded in
+     * {@code members} by {@link #encode(TypeObject)}, and add them to the
+     * class.  The members may refer to any of {@code classes}, which were
+     * decoded with the class.
+     * @throws UnavailableTypeException If one of the types of the members
+     *     could not be resolved.  Dependencies have been set up so that the
+     *     current pass is reattempted after the types are resolved.
+     */
+    public void decodeMembers(ParsedClassType ct,
+            List<? extends TypeObject> classes, int group, byte[] members) {
+        if (Report.should_report(Report.serialize, 1))
+            Report.report(1, "Decoding members " + group + " of " + ct);
+
+        ParsedClassType_c pct = (ParsedClassType_c) ct;
+        Map<Object, Object> oldCache = placeHolderCache;
+        placeHolderCache = new HashMap<>();
+        if (oldCache != null) {
+            placeHolderCache.putAll(oldCache);
+        }
+        for (TypeObject c : classes) {
+            Object p = ts.placeHolder(c);
+            if (p != c) placeHolderCache.put(p, c);
+        }
+        depth++;
+
+        try (TypeInputStream ois =
+                ois(new InflaterInputStream(new ByteArrayInputStream(members)),
+                    true)) {
+            @SuppressWarnings("unchecked")
+            List<List<? extends TypeObject>> decoded =
+                    (List<List<? extends TypeObject>>) ois.readObject();
+
+            if (ois.deserializationFailed()) {
+                if (Report.should_report(Report.serialize, 1))
+                    Report.report(1, "* Decoding members of " + ct + " failed");
+                throw new UnavailableTypeException(null,
+                                                   "Could not decode the members of "
+                                                           + ct.fullName());
+            }
+
+            List<List<? extends TypeObject>> lists =
+                    pct.encodedMemberGroups().get(group);
+            if (decoded.size() != lists.size()) {
+                throw new InternalCompilerError("Encoded members of " + ct
+                        + " do not match the class");
+            }
+            for (int i = 0; i < lists.size(); i++) {
+                @SuppressWarnings("unchecked")
+                List<TypeObject> l = (List<TypeObject>) lists.get(i);
+                l.addAll(decoded.get(i));
+            }
+        }
+        catch (IOException e) {
+            throw new InternalCompilerError("IOException thrown while "
+                    + "decoding the members of " + ct + ": " + e.getMessage(),
+                                            e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new InternalCompilerError("Unable to find one of the classes "
+                    + "for the members of " + ct + ": " + e.getMessage(), e);
+        }
+        finally {
+            placeHolderCache = oldCache;
+            depth--;
+        }
+    }
+
     public TypeInputStream ois(ByteArrayInputStream bais) throws IOException {
         return new TypeInputStream(bais, ts, placeHolderCache);
     }
+
+    /**
+     * Return a stream to read a type object from {@code in}, which is in the
+     * compact encoding if {@code compact} is true.
+     */
+    protected TypeInputStream ois(InputStream in, boolean compact)
+            throws IOException {
+        if (!compact) return ois((ByteArrayInputStream) in);
+        return new TypeInputStream(in, ts, placeHolderCache, true);
+    }
+
+    /** Is {@code s} in the compact encoding? */
+    public static boolean isCompact(String s) {
+        return s.length() >= 2 && s.charAt(0) == COMPACT_MARK;
+    }
+
+    /** Convert {@code b} to a string in the compact encoding. */
+    protected static String pack(byte[] b) {
+        StringBuilder sb = new StringBuilder(2 + (b.length * 8 + 6) / 7);
+        sb.append(COMPACT_MARK);
+        sb.append(COMPACT_VERSION);
+        int bits = 0;
+        int n = 0;
+        for (byte element : b) {
+            bits = (bits << 8) | (element & 0xff);
+            n += 8;
+            while (n >= 7) {
+                n -= 7;
+                sb.append((char) ((bits >>> n) & 0x7f));
+            }
+        }
+        if (n > 0) sb.append((char) ((bits << (7 - n)) & 0x7f));
+        return sb.toString();
+    }
+
+    /**
+     * Convert the string {@code s} in the compact encoding back to bytes.
+     * @throws InvalidClassException If the string is from an unknown version.
+     */
+    protected static byte[] unpack(String s) throws InvalidClassException {
+        if (s.charAt(1) != '1' && s.charAt(1) != COMPACT_VERSION) {
+            throw new InvalidClassException("Unknown type encoding version "
+                    + s.charAt(1));
+        }
+        int chars = s.length() - 2;
+        byte[] b = new byte[chars * 7 / 8];
+        int bits = 0;
+        int n = 0;
+        int j = 0;
+        for (int i = 2; i < s.length() && j < b.length; i++) {
+            bits = (bits << 7) | (s.charAt(i) & 0x7f);
+            n += 7;
+            if (n >= 8) {
+                n -= 8;
+                b[j++] = (byte) (bits >>> n);
+            }
+        }
+        return b;
+    }
 }
@@ -28,7 +28,9 @@ package polyglot.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -48,9 +50,22 @@ public class TypeInputStream extends ObjectInputStream {
     protected boolean enableReplace;
     protected Set<Object> placeHoldersUsed;
 
+    /**
+     * Whether class descriptors were written as just the class name and
+     * serial version UID; see {@link TypeOutputStream#writeClassDescriptor}.
+     */
+    protected final boolean compactClassDescriptors;
+
     public TypeInputStream(InputStream in, TypeSystem ts,
             Map<Object, Object> cache) throws IOException {
+        this(in, ts, cache, false);
+    }
+
+    public TypeInputStream(InputStream in, TypeSystem ts,
+            Map<Object, Object> cache, boolean compactClassDescriptors)
+            throws IOException {
         super(in);
+        this.compactClassDescriptors = compactClassDescriptors;
 
         enableResolveObject(true);
 
@@ -102,6 +117,24 @@ public class TypeInputStream extends ObjectInputStream {
         }
     }
 
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException,
+            ClassNotFoundException {
+        if (!compactClassDescriptors) return super.readClassDescriptor();
+
+        String name = readUTF();
+        long suid = readLong();
+        Class<?> c = Class.forName(name, false, ts.getClass().getClassLoader());
+        ObjectStreamClass desc = ObjectStreamClass.lookupAny(c);
+        if (desc.getSerialVersionUID() != suid) {
+            throw new InvalidClassException(name,
+                                            "serialVersionUID of encoded type is "
+                                                    + suid + ", expected "
+                                                    + desc.getSerialVersionUID());
+        }
+        return desc;
+    }
+
     public void enableReplace(boolean f) {
         this.enableReplace = f;
     }
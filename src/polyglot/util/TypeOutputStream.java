@@ -28,9 +28,14 @@ package polyglot.util;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -44,12 +49,37 @@ public class TypeOutputStream extends ObjectOutputStream {
     protected Set<? extends TypeObject> roots;
     protected Map<IdentityKey, Object> placeHolders;
 
+    /**
+     * Whether class descriptors are written as just the class name and
+     * serial version UID; see {@link TypeInputStream#readClassDescriptor()}.
+     */
+    protected final boolean compactClassDescriptors;
+
+    /** Lists that are written as empty lists; see {@link #omit(Collection)}. */
+    protected Set<IdentityKey> omitted = Collections.emptySet();
+
     public TypeOutputStream(OutputStream out, TypeSystem ts, TypeObject root)
             throws IOException {
+        this(out, ts, root, false);
+    }
+
+    public TypeOutputStream(OutputStream out, TypeSystem ts, TypeObject root,
+            boolean compactClassDescriptors) throws IOException {
+        this(out, ts, ts.getTypeEncoderRootSet(root), compactClassDescriptors);
+    }
+
+    /**
+     * Create a stream that writes the type objects in {@code roots} in full,
+     * and every other class as a place holder.
+     */
+    public TypeOutputStream(OutputStream out, TypeSystem ts,
+            Set<? extends TypeObject> roots, boolean compactClassDescriptors)
+            throws IOException {
         super(out);
+        this.compactClassDescriptors = compactClassDescriptors;
 
         this.ts = ts;
-        this.roots = ts.getTypeEncoderRootSet(root);
+        this.roots = roots;
         this.placeHolders = new HashMap<>();
 
         if (Report.should_report(Report.serialize, 2)) {
@@ -73,6 +103,30 @@ public class TypeOutputStream extends ObjectOutputStream {
         return p;
     }
 
+    /**
+     * Write each of {@code lists} as an empty list, for an encoding that
+     * stores their elements separately.
+     */
+    public void omit(Collection<? extends List<?>> lists) {
+        if (omitted.isEmpty()) omitted = new HashSet<>();
+        for (List<?> l : lists) {
+            omitted.add(new IdentityKey(l));
+        }
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc)
+            throws IOException {
+        if (!compactClassDescriptors) {
+            super.writeClassDescriptor(desc);
+            return;
+        }
+        // The reader knows the fields of the class from its own copy of the
+        // class, which the serial version UID guarantees is compatible.
+        writeUTF(desc.getName());
+        writeLong(desc.getSerialVersionUID());
+    }
+
     @Override
     protected Object replaceObject(Object o) throws IOException {
         if (o instanceof TypeObject) {
@@ -101,6 +155,12 @@ public class TypeOutputStream extends ObjectOutputStream {
 
             return r;
         }
+        else if (!omitted.isEmpty() && omitted.contains(new IdentityKey(o))) {
+            if (Report.should_report(Report.serialize, 2)) {
+                Report.report(2, "+ Omitting: " + o);
+            }
+            return new ArrayList<>();
+        }
         else {
             if (Report.should_report(Report.serialize, 2)) {
                 Report.report(2, "+ " + o + " : " + o.getClass());
@@ -26,13 +26,18 @@
 
 package polyglot.visit;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import polyglot.ast.Assign;
@@ -247,7 +252,11 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
 
         protected FlowItem(Map<VarInstance, AssignmentStatus> map,
                 boolean canTerminateNormally) {
-            assignmentStatus = Collections.unmodifiableMap(new HashMap<>(map));
+            // A StatusMap is already immutable.
+            assignmentStatus =
+                    map instanceof StatusMap
+                            ? map
+                            : Collections.unmodifiableMap(new HashMap<>(map));
             normalTermination = canTerminateNormally;
         }
 
@@ -271,6 +280,277 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
         }
     }
 
+    /**
+     * Numbers the variables tracked by a checker densely, so that assignment
+     * statuses can be kept in bit sets.
+     */
+    protected static class VarIndex {
+        protected final Map<VarInstance, Integer> numbers = new HashMap<>();
+        protected final List<VarInstance> vars = new ArrayList<>();
+
+        /** Return the number of {@code v}, or -1 if it has none. */
+        public int lookup(Object v) {
+            Integer i = numbers.get(v);
+            return i == null ? -1 : i.intValue();
+        }
+
+        /** Return the number of {@code v}, numbering it if needed. */
+        public int number(VarInstance v) {
+            Integer i = numbers.get(v);
+            if (i == null) {
+                i = vars.size();
+                numbers.put(v, i);
+                vars.add(v);
+            }
+            return i.intValue();
+        }
+
+        public VarInstance var(int i) {
+            return vars.get(i);
+        }
+    }
+
+    /**
+     * An immutable map from variables to their assignment statuses, kept as
+     * three bit sets over the numbers of a {@link VarIndex}: the variables in
+     * the map, and those of them that are definitely assigned and definitely
+     * unassigned.  Joining and comparing maps over the same index works a
+     * word at a time.
+     */
+    protected static class StatusMap extends
+            AbstractMap<VarInstance, AssignmentStatus> {
+        protected static final long[] NONE = new long[0];
+
+        protected final VarIndex index;
+        protected final long[] present;
+        protected final long[] assigned;
+        protected final long[] unassigned;
+        private int hash;
+        private boolean hashed;
+
+        protected StatusMap(VarIndex index, long[] present, long[] assigned,
+                long[] unassigned) {
+            this.index = index;
+            this.present = present;
+            this.assigned = assigned;
+            this.unassigned = unassigned;
+        }
+
+        /**
+         * Return a {@code StatusMap} over {@code index} with the contents of
+         * {@code m}.
+         */
+        public static StatusMap of(VarIndex index,
+                Map<? extends VarInstance, AssignmentStatus> m) {
+            if (m instanceof StatusMap && ((StatusMap) m).index == index)
+                return (StatusMap) m;
+            if (m.isEmpty()) return new StatusMap(index, NONE, NONE, NONE);
+
+            int max = 0;
+            for (VarInstance v : m.keySet())
+                max = Math.max(max, index.number(v));
+            int words = (max >>> 6) + 1;
+            long[] p = new long[words];
+            long[] a = new long[words];
+            long[] u = new long[words];
+            for (Entry<? extends VarInstance, AssignmentStatus> e : m.entrySet()) {
+                int i = index.lookup(e.getKey());
+                set(p, a, u, i, e.getValue());
+            }
+            return new StatusMap(index, p, a, u);
+        }
+
+        private static void set(long[] p, long[] a, long[] u, int i,
+                AssignmentStatus as) {
+            int w = i >>> 6;
+            long bit = 1L << i;
+            p[w] |= bit;
+            if (as.definitelyAssigned)
+                a[w] |= bit;
+            else a[w] &= ~bit;
+            if (as.definitelyUnassigned)
+                u[w] |= bit;
+            else u[w] &= ~bit;
+        }
+
+        private static boolean get(long[] bits, int i) {
+            int w = i >>> 6;
+            return w < bits.length && (bits[w] & 1L << i) != 0;
+        }
+
+        private static long word(long[] bits, int w) {
+            return w < bits.length ? bits[w] : 0;
+        }
+
+        private static boolean sameBits(long[] b1, long[] b2) {
+            for (int w = Math.max(b1.length, b2.length) - 1; w >= 0; w--)
+                if (word(b1, w) != word(b2, w)) return false;
+            return true;
+        }
+
+        protected AssignmentStatus status(int i) {
+            boolean a = get(assigned, i);
+            boolean u = get(unassigned, i);
+            return a ? u ? AssignmentStatus.BOTH : AssignmentStatus.ASSIGNED
+                    : u ? AssignmentStatus.UNASSIGNED : AssignmentStatus.NEITHER;
+        }
+
+        @Override
+        public AssignmentStatus get(Object key) {
+            int i = index.lookup(key);
+            if (i < 0 || !get(present, i)) return null;
+            return status(i);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            int i = index.lookup(key);
+            return i >= 0 && get(present, i);
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (long w : present)
+                size += Long.bitCount(w);
+            return size;
+        }
+
+        /** Return this map with {@code v} mapped to {@code as}. */
+        public StatusMap with(VarInstance v, AssignmentStatus as) {
+            int i = index.number(v);
+            int words = Math.max(present.length, (i >>> 6) + 1);
+            long[] p = Arrays.copyOf(present, words);
+            long[] a = Arrays.copyOf(assigned, words);
+            long[] u = Arrays.copyOf(unassigned, words);
+            set(p, a, u, i, as);
+            return new StatusMap(index, p, a, u);
+        }
+
+        /** Return this map without {@code v}. */
+        public StatusMap without(VarInstance v) {
+            int i = index.lookup(v);
+            if (i < 0 || !get(present, i)) return this;
+            int w = i >>> 6;
+            long mask = ~(1L << i);
+            long[] p = present.clone();
+            long[] a = Arrays.copyOf(assigned, p.length);
+            long[] u = Arrays.copyOf(unassigned, p.length);
+            p[w] &= mask;
+            a[w] &= mask;
+            u[w] &= mask;
+            return new StatusMap(index, p, a, u);
+        }
+
+        /** Return this map with every variable mapped to {@code as}. */
+        public StatusMap withAll(AssignmentStatus as) {
+            return new StatusMap(index,
+                                 present,
+                                 as.definitelyAssigned ? present : NONE,
+                                 as.definitelyUnassigned ? present : NONE);
+        }
+
+        /**
+         * Return the join of this map and {@code m}: a variable in only one
+         * of the maps keeps its status, and the statuses of a variable in
+         * both are joined with {@link AssignmentStatus#join}.
+         */
+        public StatusMap join(StatusMap m) {
+            if (m == this) return this;
+            int words = Math.max(present.length, m.present.length);
+            long[] p = new long[words];
+            long[] a = new long[words];
+            long[] u = new long[words];
+            for (int w = 0; w < words; w++) {
+                long p1 = word(present, w), p2 = word(m.present, w);
+                long a1 = word(assigned, w), a2 = word(m.assigned, w);
+                long u1 = word(unassigned, w), u2 = word(m.unassigned, w);
+                p[w] = p1 | p2;
+                a[w] = a1 & a2 | a1 & ~p2 | a2 & ~p1;
+                u[w] = u1 & u2 | u1 & ~p2 | u2 & ~p1;
+            }
+            return new StatusMap(index, p, a, u);
+        }
+
+        @Override
+        public Set<Entry<VarInstance, AssignmentStatus>> entrySet() {
+            return new AbstractSet<Entry<VarInstance, AssignmentStatus>>() {
+                @Override
+                public Iterator<Entry<VarInstance, AssignmentStatus>> iterator() {
+                    return new Iterator<Entry<VarInstance, AssignmentStatus>>() {
+                        int next = nextPresent(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return next >= 0;
+                        }
+
+                        @Override
+                        public Entry<VarInstance, AssignmentStatus> next() {
+                            if (next < 0) throw new NoSuchElementException();
+                            int i = next;
+                            next = nextPresent(i + 1);
+                            return new SimpleImmutableEntry<>(index.var(i),
+                                                              status(i));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return StatusMap.this.size();
+                }
+            };
+        }
+
+        private int nextPresent(int i) {
+            int w = i >>> 6;
+            if (w >= present.length) return -1;
+            long bits = present[w] & -1L << i;
+            while (bits == 0) {
+                if (++w >= present.length) return -1;
+                bits = present[w];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof StatusMap && ((StatusMap) o).index == index) {
+                StatusMap m = (StatusMap) o;
+                return sameBits(present, m.present)
+                        && sameBits(assigned, m.assigned)
+                        && sameBits(unassigned, m.unassigned);
+            }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            if (!hashed) {
+                hash = super.hashCode();
+                hashed = true;
+            }
+            return hash;
+        }
+    }
+
+    /** The numbering of the variables in the flow items of this checker. */
+    protected final VarIndex varIndex = new VarIndex();
+
+    /**
+     * Return the assignment statuses of {@code fi} as a {@link StatusMap}
+     * over {@link #varIndex}.
+     */
+    protected StatusMap statuses(FI fi) {
+        return StatusMap.of(varIndex, fi.assignmentStatus);
+    }
+
     /**
      * Factory method for creating a new flow item from the given map.
      */
@@ -307,6 +587,11 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
         return newFlowItem(Collections.<VarInstance, AssignmentStatus> emptyMap());
     }
 
+    @Override
+    protected boolean useWorklist() {
+        return true;
+    }
+
     @Override
     protected FlowGraph<FI> initGraph(CodeNode code, Term root) {
         curCBI.curCodeDecl = code;
@@ -457,7 +742,8 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
      * ClassBodyInfo#curClassFieldAsgtStatuses}.
      */
     protected FI createInitDFI() {
-        return newFlowItem(new HashMap<VarInstance, AssignmentStatus>(curCBI.curClassFieldAsgtStatuses));
+        return newFlowItem(StatusMap.of(varIndex,
+                                        curCBI.curClassFieldAsgtStatuses));
     }
 
     @Override
@@ -486,7 +772,8 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
             if (filtered.isEmpty()) {
                 // Record the fact that this dataflow item was not produced for
                 // a node that can be reached by normal termination.
-                return newFlowItem(new HashMap<VarInstance, AssignmentStatus>(curCBI.curClassFieldAsgtStatuses),
+                return newFlowItem(StatusMap.of(varIndex,
+                                                curCBI.curClassFieldAsgtStatuses),
                                    false);
             }
 
@@ -510,21 +797,11 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
     protected FI confluence(List<FI> inItems, Peer<FI> peer,
             FlowGraph<FI> graph) {
         // Resolve any conflicts pairwise.
-        Map<VarInstance, AssignmentStatus> m = null;
+        StatusMap m = null;
         for (FI itm : inItems) {
             if (itm == BOTTOM) continue;
-            if (m == null) {
-                m = new HashMap<>(itm.assignmentStatus);
-            }
-            else {
-                Map<VarInstance, AssignmentStatus> n = itm.assignmentStatus;
-                for (Entry<VarInstance, AssignmentStatus> e : n.entrySet()) {
-                    VarInstance v = e.getKey();
-                    AssignmentStatus as1 = m.get(v);
-                    AssignmentStatus as2 = e.getValue();
-                    m.put(v, AssignmentStatus.join(as1, as2));
-                }
-            }
+            StatusMap n = statuses(itm);
+            m = m == null ? n : m.join(n);
         }
 
         if (m == null) return BOTTOM;
@@ -571,11 +848,8 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
             if (n instanceof LocalDecl) {
                 LocalDecl ld = (LocalDecl) n;
                 if (inItem.assignmentStatus.containsKey(ld.localInstance())) {
-                    Map<VarInstance, AssignmentStatus> newAsgtStatus =
-                            new HashMap<>(inItem.assignmentStatus);
-
-                    newAsgtStatus.remove(ld.localInstance());
-                    inItem = newFlowItem(newAsgtStatus);
+                    inItem =
+                            newFlowItem(statuses(inItem).without(ld.localInstance()));
                 }
             }
             return itemToMap(inItem, peer.succEdgeKeys());
@@ -663,12 +937,7 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
             return m;
         }
 
-        Map<VarInstance, AssignmentStatus> assignmentStatus = new HashMap<>();
-        for (VarInstance vi : fi.assignmentStatus.keySet()) {
-            assignmentStatus.put(vi, asgtStatus);
-        }
-
-        FI newFI = reconstructFlowItem(fi, assignmentStatus);
+        FI newFI = reconstructFlowItem(fi, statuses(fi).withAll(asgtStatus));
         Map<EdgeKey, FI> newM = new HashMap<>(m);
         newM.put(ek, newFI);
         return newM;
@@ -679,10 +948,10 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
      */
     protected Map<EdgeKey, FI> flowFormal(FI inItem, FlowGraph<FI> graph,
             Formal f, Set<EdgeKey> succEdgeKeys) {
-        Map<VarInstance, AssignmentStatus> m =
-                new HashMap<>(inItem.assignmentStatus);
         // a formal argument is always defined.
-        m.put(f.localInstance().orig(), AssignmentStatus.ASSIGNED);
+        StatusMap m =
+                statuses(inItem).with(f.localInstance().orig(),
+                                      AssignmentStatus.ASSIGNED);
 
         // record the fact that we have seen the formal declaration
         curCBI.localDeclarations.add(f.localInstance().orig());
@@ -696,12 +965,10 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
      */
     protected Map<EdgeKey, FI> flowLocalDecl(FI inItem, FlowGraph<FI> graph,
             LocalDecl ld, Set<EdgeKey> succEdgeKeys) {
-        Map<VarInstance, AssignmentStatus> m =
-                new HashMap<>(inItem.assignmentStatus);
-
         AssignmentStatus asgtStatus = ld.init() == null
                 ? AssignmentStatus.UNASSIGNED : AssignmentStatus.ASSIGNED;
-        m.put(ld.localInstance().orig(), asgtStatus);
+        StatusMap m =
+                statuses(inItem).with(ld.localInstance().orig(), asgtStatus);
 
         // record the fact that we have seen a local declaration
         curCBI.localDeclarations.add(ld.localInstance());
@@ -716,9 +983,9 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
     protected Map<EdgeKey, FI> flowLocalAssign(FI inItem, FlowGraph<FI> graph,
             LocalAssign a, Set<EdgeKey> succEdgeKeys) {
         Local l = a.left();
-        Map<VarInstance, AssignmentStatus> m =
-                new HashMap<>(inItem.assignmentStatus);
-        m.put(l.localInstance().orig(), AssignmentStatus.ASSIGNED);
+        StatusMap m =
+                statuses(inItem).with(l.localInstance().orig(),
+                                      AssignmentStatus.ASSIGNED);
 
         return DataFlow.<FI> itemToMap(reconstructFlowItem(inItem, m),
                                        succEdgeKeys);
@@ -736,15 +1003,14 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
         // what we are interested in.
         if (!isFieldsTargetAppropriate(graph, f)) return null;
 
-        Map<VarInstance, AssignmentStatus> m =
-                new HashMap<>(inItem.assignmentStatus);
+        StatusMap m = statuses(inItem);
 
         // m.get(fi.orig()) may be null if the field is defined in an
         // outer class. If so, ignore this assignment.
         if (m.get(fi.orig()) == null) return null;
 
         // The field is now definitely assigned.
-        m.put(fi.orig(), AssignmentStatus.ASSIGNED);
+        m = m.with(fi.orig(), AssignmentStatus.ASSIGNED);
         return DataFlow.<FI> itemToMap(reconstructFlowItem(inItem, m),
                                        succEdgeKeys);
     }
@@ -764,11 +1030,11 @@ public abstract class AbstractAssignmentChecker<CBI extends AbstractAssignmentCh
             curCBI.constructorsCallingThis.add(cd);
 
             // Set all final non-static fields as assigned.
-            Map<VarInstance, AssignmentStatus> m = new HashMap<>(inItem.assignmentStatus);
+            StatusMap m = statuses(inItem);
             ReferenceType container = cd.constructorInstance().container();
             for (FieldInstance fi : container.fields())
                 if (fi.flags().isFinal() && !fi.flags().isStatic())
-                    m.put(fi.orig(), AssignmentStatus.ASSIGNED);
+                    m = m.with(fi.orig(), AssignmentStatus.ASSIGNED);
             return DataFlow.itemToMap(reconstructFlowItem(inItem, m), succEdgeKeys);
         }
         return null;
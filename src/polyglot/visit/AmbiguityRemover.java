@@ -26,7 +26,6 @@
 
 package polyglot.visit;
 
-import java.util.Arrays;
 import java.util.Collection;
 
 import polyglot.ast.ClassDecl;
@@ -219,6 +218,9 @@ public class AmbiguityRemover extends DisambiguationDriver {
     }
 
     protected static class AmbChecker extends NodeVisitor {
+        private static final Report.Topic TOPICS =
+                Report.topic(Report.types, Report.frontend, "disam-check");
+
         public int notOkCount;
 
         public AmbChecker(JLang lang) {
@@ -227,10 +229,6 @@ public class AmbiguityRemover extends DisambiguationDriver {
 
         @Override
         public Node override(Node parent, Node n) {
-            final Collection<String> TOPICS =
-                    Arrays.asList(new String[] { Report.types, Report.frontend,
-                            "disam-check" });
-
             // Don't check if New is disambiguated; this is handled
             // during type-checking.
             if (n instanceof New) {
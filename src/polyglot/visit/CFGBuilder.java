@@ -52,7 +52,6 @@ import polyglot.util.CollectionUtil;
 import polyglot.util.Copy;
 import polyglot.util.InternalCompilerError;
 import polyglot.util.StringUtil;
-import polyglot.visit.FlowGraph.Edge;
 import polyglot.visit.FlowGraph.EdgeKey;
 import polyglot.visit.FlowGraph.Peer;
 
@@ -834,8 +833,7 @@ public class CFGBuilder<FlowItem extends DataFlow.Item>
                               pp.hashCode() + " -> " + pq.hashCode()
                                       + " [label=\"" + edgeKey + "\"];");
             }
-            pp.succs.add(new Edge<>(edgeKey, pq));
-            pq.preds.add(new Edge<>(edgeKey, pp));
+            graph.addEdge(pp, pq, edgeKey);
         }
         else {
             if (Report.should_report(Report.cfg, 2)) {
@@ -843,8 +841,7 @@ public class CFGBuilder<FlowItem extends DataFlow.Item>
                               pq.hashCode() + " -> " + pp.hashCode()
                                       + " [label=\"" + edgeKey + "\"];");
             }
-            pq.succs.add(new Edge<>(edgeKey, pp));
-            pp.preds.add(new Edge<>(edgeKey, pq));
+            graph.addEdge(pq, pp, edgeKey);
         }
     }
 
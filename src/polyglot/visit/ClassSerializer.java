@@ -45,6 +45,8 @@ import polyglot.types.FieldInstance;
 import polyglot.types.Flags;
 import polyglot.types.InitializerInstance;
 import polyglot.types.TypeSystem;
+import polyglot.types.reflect.EncodedClassType;
+import polyglot.types.reflect.TypeArchive;
 import polyglot.util.ErrorInfo;
 import polyglot.util.ErrorQueue;
 import polyglot.util.Position;
@@ -52,7 +54,7 @@ import polyglot.util.TypeEncoder;
 
 /**
  * Visitor which serializes class objects and adds a field to the class
- * containing the serialization.
+ * containing the serialization, or adds the serialization to a type archive.
  */
 public class ClassSerializer extends NodeVisitor {
     /**
@@ -69,8 +71,23 @@ public class ClassSerializer extends NodeVisitor {
     protected NodeFactory nf;
     protected Version ver;
 
+    /**
+     * The type archive of the output directory, or null if there is none.
+     * If {@code toArchive} is false, classes serialized into fields are
+     * removed from the archive, so their old entries do not hide the new
+     * class files.
+     */
+    protected TypeArchive.Updater archive;
+    protected boolean toArchive;
+
     public ClassSerializer(TypeSystem ts, NodeFactory nf, long time,
             ErrorQueue eq, Version ver) {
+        this(ts, nf, time, eq, ver, null, false);
+    }
+
+    public ClassSerializer(TypeSystem ts, NodeFactory nf, long time,
+            ErrorQueue eq, Version ver, TypeArchive.Updater archive,
+            boolean toArchive) {
         super(nf.lang());
         this.ts = ts;
         this.nf = nf;
@@ -78,6 +95,8 @@ public class ClassSerializer extends NodeVisitor {
         this.eq = eq;
         this.time = time;
         this.ver = ver;
+        this.archive = archive;
+        this.toArchive = toArchive && archive != null;
     }
 
     @Override
@@ -97,6 +116,17 @@ public class ClassSerializer extends NodeVisitor {
         }
 
         ClassDecl cd = (ClassDecl) n;
+
+        if (toArchive) {
+            EncodedClassType t = createArchiveEntry(cd.type());
+            if (t != null) archive.add(t);
+            return n;
+        }
+        if (archive != null) {
+            String name = ts.getTransformedClassName(cd.type());
+            if (name != null) archive.remove(name);
+        }
+
         ClassBody body = cd.body();
 
         List<ClassMember> l = createSerializationMembers(cd);
@@ -112,18 +142,59 @@ public class ClassSerializer extends NodeVisitor {
         return createSerializationMembers(cd.type());
     }
 
+    /**
+     * Return the serialization of {@code ct} to add to a type archive, or
+     * null if {@code ct} is not serialized.
+     */
+    public EncodedClassType createArchiveEntry(ClassType ct) {
+        try {
+            initMembers(ct);
+
+            // Only serialize top-level and member classes.
+            if (!ct.isTopLevel() && !ct.isMember()) {
+                return null;
+            }
+
+            return new EncodedClassType(ts.getTransformedClassName(ct),
+                                        null,
+                                        version(),
+                                        time,
+                                        te.encode(ct));
+        }
+        catch (IOException e) {
+            if (Report.should_report(Report.serialize, 1)) e.printStackTrace();
+            eq.enqueue(ErrorInfo.IO_ERROR,
+                       "Unable to serialize class information: "
+                               + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Force the members of {@code ct} to be created by its lazy class
+     * initializer, so they are serialized.
+     */
+    protected void initMembers(ClassType ct) {
+        ct.memberClasses();
+        ct.constructors();
+        ct.methods();
+        ct.fields();
+        ct.interfaces();
+        ct.superType();
+    }
+
+    /** The compiler version recorded with the serialization. */
+    protected String version() {
+        return ver.major() + "." + ver.minor() + "." + ver.patch_level();
+    }
+
     public List<ClassMember> createSerializationMembers(ClassType ct) {
         try {
             List<ClassMember> newMembers = new ArrayList<>(3);
 
             // HACK: force class members to get created from lazy class
             // initializer.
-            ct.memberClasses();
-            ct.constructors();
-            ct.methods();
-            ct.fields();
-            ct.interfaces();
-            ct.superType();
+            initMembers(ct);
 
             // Only serialize top-level and member classes.
             if (!ct.isTopLevel() && !ct.isMember()) {
@@ -152,8 +223,7 @@ public class ClassSerializer extends NodeVisitor {
             InitializerInstance ii;
 
             /* Add the compiler version number. */
-            String version =
-                    ver.major() + "." + ver.minor() + "." + ver.patch_level();
+            String version = version();
 
             Position pos = Position.compilerGenerated();
 
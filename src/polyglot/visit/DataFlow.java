@@ -27,6 +27,7 @@
 package polyglot.visit;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -52,7 +53,6 @@ import polyglot.types.MemberInstance;
 import polyglot.types.SemanticException;
 import polyglot.types.Type;
 import polyglot.types.TypeSystem;
-import polyglot.util.IdentityKey;
 import polyglot.util.InternalCompilerError;
 import polyglot.util.Pair;
 import polyglot.util.StringUtil;
@@ -60,7 +60,6 @@ import polyglot.visit.FlowGraph.Edge;
 import polyglot.visit.FlowGraph.EdgeKey;
 import polyglot.visit.FlowGraph.ExceptionEdgeKey;
 import polyglot.visit.FlowGraph.Peer;
-import polyglot.visit.FlowGraph.PeerKey;
 
 /**
  * Abstract dataflow Visitor, to allow simple dataflow equations to be easily
@@ -792,10 +791,25 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
         return count;
     }
 
+    /**
+     * Whether to perform the dataflow with {@link #worklistDataflow}
+     * instead of iterating over the strongly connected components of the
+     * flow graph.  The result is the same for monotone flow functions;
+     * subclasses whose flow functions are monotone should return true.
+     */
+    protected boolean useWorklist() {
+        return false;
+    }
+
     /**
      * Perform the dataflow on flow graph {@code graph}.
      */
     protected void dataflow(FlowGraph<FlowItem> graph) {
+        if (useWorklist()) {
+            worklistDataflow(graph);
+            return;
+        }
+
         if (Report.should_report(Report.dataflow, 1)) {
             Report.report(1, "Finding strongly connected components");
         }
@@ -833,46 +847,7 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
                 change = false; // just started working on a new SCC
             }
 
-            // get the in items by examining the out items of all
-            // the predecessors of p
-            List<FlowItem> inItems = new ArrayList<>(p.preds.size());
-            List<EdgeKey> inItemKeys = new ArrayList<>(p.preds.size());
-            List<Peer<FlowItem>> inItemPeers = new ArrayList<>(p.preds.size());
-            for (Edge<FlowItem> e : p.preds) {
-                Peer<FlowItem> o = e.getTarget();
-                if (o.outItems != null) {
-                    if (!o.outItems.keySet().contains(e.getKey())) {
-                        throw new InternalCompilerError("There should have "
-                                + "an out Item with edge key " + e.getKey()
-                                + "; instead there were only "
-                                + o.outItems.keySet());
-                    }
-                    FlowItem it = o.outItems.get(e.getKey());
-                    if (it != null) {
-                        inItems.add(it);
-                        inItemKeys.add(e.getKey());
-                        inItemPeers.add(o);
-                    }
-                }
-            }
-
-            // calculate the out item
-            Map<EdgeKey, FlowItem> oldOutItems = p.outItems;
-            p.inItem = this.safeConfluence(inItems, inItemKeys, p, graph);
-            p.outItems = this.flow(inItems, inItemKeys, inItemPeers, graph, p);
-
-            if (!p.succEdgeKeys().equals(p.outItems.keySet())) {
-                // This check is more for developers to ensure that they
-                // have implemented their dataflow correctly. If performance
-                // is an issue, maybe we should remove this check.
-                throw new InternalCompilerError("The flow only defined "
-                        + "outputs for " + p.outItems.keySet() + "; needs to "
-                        + "define outputs for all of: " + p.succEdgeKeys()
-                        + " for node " + p.node, p.node.position());
-            }
-
-            if (oldOutItems != p.outItems
-                    && (oldOutItems == null || !oldOutItems.equals(p.outItems))) {
+            if (flowPeer(graph, p)) {
                 // the outItems of p has changed, so we will
                 // loop when we get to the end of the current SCC.
                 change = true;
@@ -890,6 +865,138 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
         }
     }
 
+    /**
+     * Compute the in item and out items of peer {@code p} from the out items
+     * of its predecessors.
+     *
+     * @return true if the out items of {@code p} changed.
+     */
+    protected boolean flowPeer(FlowGraph<FlowItem> graph, Peer<FlowItem> p) {
+        // get the in items by examining the out items of all
+        // the predecessors of p
+        int start = graph.predStart(p.id);
+        int end = graph.predEnd(p.id);
+        List<FlowItem> inItems = new ArrayList<>(end - start);
+        List<EdgeKey> inItemKeys = new ArrayList<>(end - start);
+        List<Peer<FlowItem>> inItemPeers = new ArrayList<>(end - start);
+        for (int e = start; e < end; e++) {
+            Peer<FlowItem> o = graph.peer(graph.predPeer(e));
+            if (o.outItems != null) {
+                EdgeKey key = graph.edgeKey(graph.predKey(e));
+                FlowItem it = o.outItems.get(key);
+                if (it == null && !o.outItems.containsKey(key)) {
+                    throw new InternalCompilerError("There should have "
+                            + "an out Item with edge key " + key
+                            + "; instead there were only "
+                            + o.outItems.keySet());
+                }
+                if (it != null) {
+                    inItems.add(it);
+                    inItemKeys.add(key);
+                    inItemPeers.add(o);
+                }
+            }
+        }
+
+        // calculate the out item
+        Map<EdgeKey, FlowItem> oldOutItems = p.outItems;
+        p.inItem = this.safeConfluence(inItems, inItemKeys, p, graph);
+        p.outItems = this.flow(inItems, inItemKeys, inItemPeers, graph, p);
+
+        if (!p.succEdgeKeys().equals(p.outItems.keySet())) {
+            // This check is more for developers to ensure that they
+            // have implemented their dataflow correctly. If performance
+            // is an issue, maybe we should remove this check.
+            throw new InternalCompilerError("The flow only defined "
+                    + "outputs for " + p.outItems.keySet() + "; needs to "
+                    + "define outputs for all of: " + p.succEdgeKeys()
+                    + " for node " + p.node, p.node.position());
+        }
+
+        return oldOutItems != p.outItems
+                && (oldOutItems == null || !oldOutItems.equals(p.outItems));
+    }
+
+    /**
+     * Perform the dataflow on flow graph {@code graph} with a worklist.
+     * The peers reachable from the start peers are numbered in reverse
+     * postorder, and the pending peer with the lowest number is always
+     * flowed next, so that a peer is normally flowed after its predecessors.
+     * Only the successors of a peer whose out items changed are flowed
+     * again, instead of every peer of a strongly connected component.
+     */
+    protected void worklistDataflow(FlowGraph<FlowItem> graph) {
+        if (Report.should_report(Report.dataflow, 1)) {
+            Report.report(1, "Ordering peers");
+        }
+
+        // Put the reachable peers in postorder.
+        List<Peer<FlowItem>> postorder = new ArrayList<>();
+        LinkedList<Frame<FlowItem>> stack = new LinkedList<>();
+        Set<Peer<FlowItem>> reachable = new HashSet<>();
+        for (Peer<FlowItem> peer : graph.startPeers()) {
+            if (reachable.add(peer)) {
+                stack.addFirst(createFrame(peer, true, graph));
+                while (!stack.isEmpty()) {
+                    Frame<FlowItem> top = stack.getFirst();
+                    if (top.edges.hasNext()) {
+                        Peer<FlowItem> q = top.edges.next().getTarget();
+                        if (reachable.add(q))
+                            stack.addFirst(createFrame(q, true, graph));
+                    }
+                    else {
+                        stack.removeFirst();
+                        postorder.add(top.peer);
+                    }
+                }
+            }
+        }
+
+        int npeers = postorder.size();
+        @SuppressWarnings("unchecked")
+        Peer<FlowItem>[] order = (Peer<FlowItem>[]) new Peer<?>[npeers];
+        for (int i = 0; i < npeers; i++) {
+            Peer<FlowItem> p = postorder.get(npeers - 1 - i);
+            p.order = i;
+            order[i] = p;
+        }
+
+        if (this.detectBackEdges) {
+            this.postordering = new HashMap<>();
+            for (int i = 0; i < npeers; i++) {
+                this.postordering.put(order[i], Integer.valueOf(npeers - 1 - i));
+            }
+        }
+
+        if (Report.should_report(Report.dataflow, 1)) {
+            Report.report(1, "Iterating dataflow equations");
+        }
+
+        BitSet pending = new BitSet(npeers);
+        pending.set(0, npeers);
+        int flowed = 0;
+        int next = 0;
+        while ((next = pending.nextSetBit(next)) >= 0) {
+            pending.clear(next);
+            Peer<FlowItem> p = order[next];
+            flowed++;
+            next++;
+            if (flowPeer(graph, p)) {
+                int end = graph.succEnd(p.id);
+                for (int e = graph.succStart(p.id); e < end; e++) {
+                    int j = graph.peer(graph.succPeer(e)).order;
+                    pending.set(j);
+                    if (j < next) next = j;
+                }
+            }
+        }
+
+        if (Report.should_report(Report.dataflow, 1)) {
+            Report.report(1, "Done: flowed " + flowed + " times for " + npeers
+                    + " peers.");
+        }
+    }
+
     /**
      * Initialize the {@code FlowGraph} to be used in the dataflow
      * analysis.
@@ -942,20 +1049,16 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
     /**
      * Overridden superclass method, to make sure that if a subclass has changed
      * a Term, that we update the peer maps appropriately, since they are based
-     * on {@code IdentityKey}s.
+     * on node identity.
      */
     @Override
     public Node leave(Node parent, Node old, Node n, NodeVisitor v) {
         if (old != n) {
             if (dataflowOnEntry && currentFlowGraph() != null) {
-                // We currently only update the key in the peerMap.
-                // We DO NOT update the Terms inside the peers, nor the
-                // List of Terms that are the path maps. 
-                Map<PeerKey, Peer<FlowItem>> o =
-                        currentFlowGraph().peerMap.get(new IdentityKey(old));
-                if (o != null) {
-                    currentFlowGraph().peerMap.put(new IdentityKey(n), o);
-                }
+                // The peers of old become the peers of n too.  The peers
+                // themselves, and their paths to finally blocks, still
+                // refer to old.
+                currentFlowGraph().nodeReplaced(old, n);
             }
         }
         return super.leave(parent, old, n, v);
@@ -994,29 +1097,41 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
             dumpFlowGraph(graph, root);
         }
 
-        // Check the nodes in approximately flow order.
-        Set<Peer<FlowItem>> uncheckedPeers = new HashSet<>(graph.peers());
-        LinkedList<Peer<FlowItem>> peersToCheck =
-                new LinkedList<>(graph.startPeers());
+        // Check the nodes in approximately flow order.  A peer is queued
+        // for checking at most once.
+        int npeers = graph.peerCount();
+        boolean[] queued = new boolean[npeers];
+        int unqueued = 0;
+        LinkedList<Peer<FlowItem>> peersToCheck = new LinkedList<>();
+        for (Peer<FlowItem> p : graph.startPeers()) {
+            if (!queued[p.id]) {
+                queued[p.id] = true;
+                peersToCheck.addLast(p);
+            }
+        }
         while (!peersToCheck.isEmpty()) {
             Peer<FlowItem> p = peersToCheck.removeFirst();
-            uncheckedPeers.remove(p);
 
             this.check(graph, p);
 
-            for (Edge<FlowItem> e : p.succs) {
-                Peer<FlowItem> q = e.getTarget();
-                if (uncheckedPeers.contains(q) && !peersToCheck.contains(q)) {
+            int end = graph.succEnd(p.id);
+            for (int e = graph.succStart(p.id); e < end; e++) {
+                int q = graph.succPeer(e);
+                if (!queued[q]) {
                     // q hasn't been checked yet.
-                    peersToCheck.addLast(q);
+                    queued[q] = true;
+                    peersToCheck.addLast(graph.peer(q));
                 }
             }
 
-            if (peersToCheck.isEmpty() && !uncheckedPeers.isEmpty()) {
+            if (peersToCheck.isEmpty()) {
                 // done all the we can reach...
-                Iterator<Peer<FlowItem>> i = uncheckedPeers.iterator();
-                peersToCheck.add(i.next());
-                i.remove();
+                while (unqueued < npeers && queued[unqueued])
+                    unqueued++;
+                if (unqueued < npeers) {
+                    queued[unqueued] = true;
+                    peersToCheck.add(graph.peer(unqueued));
+                }
             }
 
         }
@@ -1542,7 +1657,7 @@ public abstract class DataFlow<FlowItem extends DataFlow.Item> extends
                                   + "\" ];");
 
             // dump out the successors.
-            for (Edge<FlowItem> q : p.succs) {
+            for (Edge<FlowItem> q : p.succs()) {
                 Report.report(2,
                               q.getTarget().hashCode()
                                       + " [ label = \""
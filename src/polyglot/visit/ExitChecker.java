@@ -52,6 +52,11 @@ public class ExitChecker extends DataFlow<ExitChecker.DataFlowItem> {
         super(job, ts, nf, false /* backward analysis */);
     }
 
+    @Override
+    protected boolean useWorklist() {
+        return true;
+    }
+
     @Override
     protected FlowGraph<DataFlowItem> initGraph(CodeNode code, Term root) {
         this.code = code;
@@ -27,10 +27,13 @@
 package polyglot.visit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -40,22 +43,16 @@ import polyglot.ast.Node;
 import polyglot.ast.Term;
 import polyglot.types.Type;
 import polyglot.util.CollectionUtil;
-import polyglot.util.IdentityKey;
+import polyglot.util.InternalCompilerError;
 
 public class FlowGraph<FlowItem extends DataFlow.Item> {
 
     /**
-     * Maps from AST nodes to path maps and hence to {@code Peer}s that
-     * represent occurrences of the AST node in the flow graph. In particular,
-     * {@code peerMap} maps {@code IdentityKey(Node)}s to path
-     * maps. A path map is a map from paths ({@code ListKey(List<Term>)})
-     * to {@code Peer}s. In particular, if {@code n} is an AST
-     * node in a finally block, then there will be a {@code Peer} of
-     * {@code n} for each possible path to the finally block, and the
-     * path map records which {@code Peer} corresponds to which path. If
-     * {@code n} does not occur in a finally block, then the path map
-     * should have only a single entry, from an empty list to the unique
-     * {@code Peer} for {@code n}.
+     * Maps AST nodes to the {@code Peer}s that represent occurrences of the
+     * AST node in the flow graph. If {@code n} is an AST node in a finally
+     * block, then there will be a {@code Peer} of {@code n} for each
+     * possible path to the finally block. If {@code n} does not occur in a
+     * finally block, then it has only the peers for the empty path.
      *
      * <p>
      * <b>WARNING</b>: the AST must be a tree, not a DAG. Otherwise the same
@@ -63,7 +60,41 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
      * These points may have different data flows.
      * </p>
      */
-    protected Map<IdentityKey, Map<PeerKey, Peer<FlowItem>>> peerMap;
+    protected Map<Term, NodePeers<FlowItem>> nodePeers;
+
+    /**
+     * All the peers of this graph, indexed by their ids; see
+     * {@link Peer#id()}.
+     */
+    protected List<Peer<FlowItem>> peerList;
+
+    /**
+     * The edges of this graph in the order they were added, in the
+     * direction of the flow, as the ids of their source and target peers
+     * and of their edge keys.
+     */
+    protected int[] edgeSources, edgeTargets, edgeKeyIds;
+    protected int edgeCount;
+
+    /** The edge keys of this graph, indexed by their ids. */
+    protected List<EdgeKey> edgeKeys;
+    /** The ids of the edge keys of this graph. */
+    protected Map<EdgeKey, Integer> edgeKeyIdMap;
+
+    /**
+     * The edges of this graph in compressed sparse row form, built from the
+     * edges when first needed: the successor edges of the peer with id
+     * {@code i} are {@code succStarts[i]} to {@code succStarts[i+1]-1}, with
+     * targets {@code succPeers} and edge keys {@code succKeys}, and likewise
+     * for predecessor edges.
+     */
+    protected int[] succStarts, succPeers, succKeys;
+    protected int[] predStarts, predPeers, predKeys;
+
+    /** The ids of the edge keys every graph has. */
+    public static final int EDGE_KEY_TRUE_ID = 0;
+    public static final int EDGE_KEY_FALSE_ID = 1;
+    public static final int EDGE_KEY_OTHER_ID = 2;
 
     /**
      * The root of the AST that this is a flow graph for.
@@ -89,7 +120,19 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
             boolean alwaysHaveSuccEdgeKey) {
         this.root = root;
         this.forward = forward;
-        this.peerMap = new HashMap<>();
+        this.nodePeers = new IdentityHashMap<>();
+        this.peerList = new ArrayList<>();
+        this.edgeSources = new int[16];
+        this.edgeTargets = new int[16];
+        this.edgeKeyIds = new int[16];
+        this.edgeCount = 0;
+        this.edgeKeys =
+                new ArrayList<>(Arrays.asList(EDGE_KEY_TRUE,
+                                              EDGE_KEY_FALSE,
+                                              EDGE_KEY_OTHER));
+        this.edgeKeyIdMap = new HashMap<>();
+        for (int i = 0; i < edgeKeys.size(); i++)
+            edgeKeyIdMap.put(edgeKeys.get(i), i);
         this.alwaysHaveSuccEdgeKey = alwaysHaveSuccEdgeKey;
     }
 
@@ -117,25 +160,44 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
         return forward ? exitPeers() : entryPeers();
     }
 
+    /**
+     * Return the path maps of all nodes in the flow graph; see
+     * {@link #pathMap(Node)}.
+     */
     public Collection<Map<PeerKey, Peer<FlowItem>>> pathMaps() {
-        return peerMap.values();
+        List<Map<PeerKey, Peer<FlowItem>>> l =
+                new ArrayList<>(nodePeers.size());
+        for (NodePeers<FlowItem> np : nodePeers.values()) {
+            l.add(np.pathMap());
+        }
+        return l;
     }
 
+    /**
+     * Return a map from the paths to finally blocks of the peers of
+     * {@code n} to those peers, or null if {@code n} has no peers.
+     */
     public Map<PeerKey, Peer<FlowItem>> pathMap(Node n) {
-        return peerMap.get(new IdentityKey(n));
+        NodePeers<FlowItem> np = nodePeers.get(n);
+        return np == null ? null : np.pathMap();
     }
 
     /**
-     * Return a collection of all {@code Peer}s in this flow graph.
+     * Return a collection of all {@code Peer}s in this flow graph, in the
+     * order of their ids.
      */
     public Collection<Peer<FlowItem>> peers() {
-        Collection<Peer<FlowItem>> c = new ArrayList<>();
-        for (Map<PeerKey, Peer<FlowItem>> m : peerMap.values()) {
-            for (Peer<FlowItem> p : m.values()) {
-                c.add(p);
-            }
-        }
-        return c;
+        return Collections.unmodifiableList(peerList);
+    }
+
+    /** The number of peers in this flow graph. */
+    public int peerCount() {
+        return peerList.size();
+    }
+
+    /** The peer with id {@code id}. */
+    public Peer<FlowItem> peer(int id) {
+        return peerList.get(id);
     }
 
     /**
@@ -162,19 +224,22 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
      * {@code entry} can be Term.ENTRY or Term.EXIT.
      */
     public Collection<Peer<FlowItem>> peers(Term n, int entry) {
-        IdentityKey k = new IdentityKey(n);
-        Map<PeerKey, Peer<FlowItem>> pathMap = peerMap.get(k);
+        NodePeers<FlowItem> np = nodePeers.get(n);
 
-        if (pathMap == null) {
+        if (np == null) {
             return Collections.emptyList();
         }
 
-        Collection<Peer<FlowItem>> peers = pathMap.values();
-        List<Peer<FlowItem>> l = new ArrayList<>(peers.size());
-
-        for (Peer<FlowItem> p : peers) {
-            if (p.entry == entry) {
-                l.add(p);
+        List<Peer<FlowItem>> l = new ArrayList<>(1);
+        Peer<FlowItem> p = entry == Term.ENTRY ? np.entry : np.exit;
+        if (p != null) {
+            l.add(p);
+        }
+        if (np.onPaths != null) {
+            for (Peer<FlowItem> q : np.onPaths) {
+                if (q.entry == entry) {
+                    l.add(q);
+                }
             }
         }
 
@@ -190,8 +255,40 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
      * {@code entry} can be Term.ENTRY or Term.EXIT.
      */
     public Peer<FlowItem> peer(Term n, List<Term> path_to_finally, int entry) {
-        PeerKey lk = new PeerKey(path_to_finally, entry);
-        return peer(n, lk);
+        NodePeers<FlowItem> np = nodePeers.get(n);
+
+        if (np == null) {
+            np = new NodePeers<>();
+            nodePeers.put(n, np);
+        }
+
+        if (path_to_finally.isEmpty()) {
+            if (entry == Term.ENTRY) {
+                if (np.entry == null)
+                    np.entry = createPeer(n, path_to_finally, entry);
+                return np.entry;
+            }
+            else {
+                if (np.exit == null)
+                    np.exit = createPeer(n, path_to_finally, entry);
+                return np.exit;
+            }
+        }
+
+        // Few nodes are in finally blocks, and those have few paths.
+        if (np.onPaths == null) {
+            np.onPaths = new ArrayList<>(2);
+        }
+        for (Peer<FlowItem> p : np.onPaths) {
+            if (p.entry == entry
+                    && CollectionUtil.equals(p.path_to_finally, path_to_finally)) {
+                return p;
+            }
+        }
+
+        Peer<FlowItem> p = createPeer(n, path_to_finally, entry);
+        np.onPaths.add(p);
+        return p;
     }
 
     /**
@@ -199,25 +296,203 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
      * associated with the given PeerKey.
      */
     public Peer<FlowItem> peer(Term n, PeerKey peerKey) {
-        IdentityKey k = new IdentityKey(n);
-        Map<PeerKey, Peer<FlowItem>> pathMap = peerMap.get(k);
+        return peer(n, peerKey.list, peerKey.entry);
+    }
 
-        if (pathMap == null) {
-            pathMap = new HashMap<>();
-            peerMap.put(k, pathMap);
+    /**
+     * Make the peers of {@code old} also the peers of {@code n}, which
+     * replaces it in the AST.  The peers still refer to {@code old}.
+     */
+    public void nodeReplaced(Node old, Node n) {
+        NodePeers<FlowItem> np = nodePeers.get(old);
+        if (np != null && n instanceof Term) {
+            nodePeers.put((Term) n, np);
         }
+    }
 
-        Peer<FlowItem> p = pathMap.get(peerKey);
-
-        if (p == null) {
-            p = new Peer<>(n,
-                           peerKey.list,
-                           peerKey.entry,
+    /** Create a new peer of this graph, with the next id. */
+    protected Peer<FlowItem> createPeer(Term n, List<Term> path_to_finally,
+            int entry) {
+        Peer<FlowItem> p =
+                new Peer<>(this,
+                           peerList.size(),
+                           n,
+                           path_to_finally,
+                           entry,
                            this.alwaysHaveSuccEdgeKey);
-            pathMap.put(peerKey, p);
+        peerList.add(p);
+        return p;
+    }
+
+    /**
+     * Add an edge from {@code from} to {@code to} with the edge key
+     * {@code key}, in the direction of the flow.  Both peers must belong to
+     * this graph.
+     */
+    public void addEdge(Peer<FlowItem> from, Peer<FlowItem> to, EdgeKey key) {
+        if (from.graph != this || to.graph != this) {
+            throw new InternalCompilerError("Cannot add an edge between peers "
+                    + "of another flow graph: " + from + " -> " + to);
         }
 
-        return p;
+        if (edgeCount == edgeSources.length) {
+            int n = 2 * edgeCount;
+            edgeSources = Arrays.copyOf(edgeSources, n);
+            edgeTargets = Arrays.copyOf(edgeTargets, n);
+            edgeKeyIds = Arrays.copyOf(edgeKeyIds, n);
+        }
+        edgeSources[edgeCount] = from.id;
+        edgeTargets[edgeCount] = to.id;
+        edgeKeyIds[edgeCount] = edgeKeyId(key);
+        edgeCount++;
+
+        // Invalidate the compact edges and the edge lists built from them.
+        succStarts = null;
+        predStarts = null;
+        from.succs = null;
+        from.succEdgeKeys = null;
+        to.preds = null;
+    }
+
+    /** Return the id of the edge key {@code key} in this graph. */
+    public int edgeKeyId(EdgeKey key) {
+        if (key == EDGE_KEY_TRUE) return EDGE_KEY_TRUE_ID;
+        if (key == EDGE_KEY_FALSE) return EDGE_KEY_FALSE_ID;
+        if (key == EDGE_KEY_OTHER) return EDGE_KEY_OTHER_ID;
+        Integer id = edgeKeyIdMap.get(key);
+        if (id == null) {
+            id = edgeKeys.size();
+            edgeKeys.add(key);
+            edgeKeyIdMap.put(key, id);
+        }
+        return id;
+    }
+
+    /** The edge key with id {@code id}. */
+    public EdgeKey edgeKey(int id) {
+        return edgeKeys.get(id);
+    }
+
+    /** The number of edges in this graph. */
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Build the compressed sparse row form of the edges, if it is out of
+     * date.
+     */
+    protected void compact() {
+        if (succStarts != null) return;
+
+        int n = peerList.size();
+        int[] succStarts = new int[n + 1];
+        int[] predStarts = new int[n + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            succStarts[edgeSources[e] + 1]++;
+            predStarts[edgeTargets[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            succStarts[i + 1] += succStarts[i];
+            predStarts[i + 1] += predStarts[i];
+        }
+
+        // Fill the rows in the order the edges were added.
+        succPeers = new int[edgeCount];
+        succKeys = new int[edgeCount];
+        predPeers = new int[edgeCount];
+        predKeys = new int[edgeCount];
+        int[] succNext = Arrays.copyOf(succStarts, n);
+        int[] predNext = Arrays.copyOf(predStarts, n);
+        for (int e = 0; e < edgeCount; e++) {
+            int s = succNext[edgeSources[e]]++;
+            succPeers[s] = edgeTargets[e];
+            succKeys[s] = edgeKeyIds[e];
+            int p = predNext[edgeTargets[e]]++;
+            predPeers[p] = edgeSources[e];
+            predKeys[p] = edgeKeyIds[e];
+        }
+
+        this.predStarts = predStarts;
+        this.succStarts = succStarts;
+    }
+
+    /**
+     * The index of the first successor edge of the peer with id {@code id};
+     * see {@link #succPeer(int)} and {@link #succKey(int)}.
+     */
+    public int succStart(int id) {
+        compact();
+        return succStarts[id];
+    }
+
+    /**
+     * The index after the last successor edge of the peer with id
+     * {@code id}.
+     */
+    public int succEnd(int id) {
+        compact();
+        return succStarts[id + 1];
+    }
+
+    /** The id of the target peer of the successor edge {@code e}. */
+    public int succPeer(int e) {
+        return succPeers[e];
+    }
+
+    /** The id of the edge key of the successor edge {@code e}. */
+    public int succKey(int e) {
+        return succKeys[e];
+    }
+
+    /**
+     * The index of the first predecessor edge of the peer with id
+     * {@code id}; see {@link #predPeer(int)} and {@link #predKey(int)}.
+     */
+    public int predStart(int id) {
+        compact();
+        return predStarts[id];
+    }
+
+    /**
+     * The index after the last predecessor edge of the peer with id
+     * {@code id}.
+     */
+    public int predEnd(int id) {
+        compact();
+        return predStarts[id + 1];
+    }
+
+    /** The id of the source peer of the predecessor edge {@code e}. */
+    public int predPeer(int e) {
+        return predPeers[e];
+    }
+
+    /** The id of the edge key of the predecessor edge {@code e}. */
+    public int predKey(int e) {
+        return predKeys[e];
+    }
+
+    /**
+     * The peers of an AST node.  The peers for the empty path to finally
+     * blocks, which most nodes have only, are kept apart from the others.
+     */
+    protected static class NodePeers<FlowItem extends DataFlow.Item> {
+        protected Peer<FlowItem> entry;
+        protected Peer<FlowItem> exit;
+        protected List<Peer<FlowItem>> onPaths;
+
+        protected Map<PeerKey, Peer<FlowItem>> pathMap() {
+            Map<PeerKey, Peer<FlowItem>> m = new LinkedHashMap<>();
+            if (entry != null) m.put(entry.peerKey(), entry);
+            if (exit != null) m.put(exit.peerKey(), exit);
+            if (onPaths != null) {
+                for (Peer<FlowItem> p : onPaths) {
+                    m.put(p.peerKey(), p);
+                }
+            }
+            return m;
+        }
     }
 
     /**
@@ -357,8 +632,10 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
         protected FlowItem inItem; // Input Item for dataflow analysis
         protected Map<EdgeKey, FlowItem> outItems; // Output Items for dataflow analysis, a map from EdgeKeys to DataFlowlItems
         protected Term node; // The AST node that this peer is an occurrence of.
-        protected List<Edge<FlowItem>> succs; // List of successor Edges
-        protected List<Edge<FlowItem>> preds; // List of predecessor Edges
+        protected final FlowGraph<FlowItem> graph; // The graph that created this peer, or null
+        protected final int id; // Index of this peer in its graph, or -1
+        protected List<Edge<FlowItem>> succs; // List of successor Edges, built from the graph when needed
+        protected List<Edge<FlowItem>> preds; // List of predecessor Edges, built from the graph when needed
         protected final boolean alwaysHaveSuccEdgeKey;
         /**
          * the path to the finally block that uniquely distinguishes this Peer
@@ -368,6 +645,7 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
         protected List<Term> path_to_finally;
 
         protected int entry; // Term.ENTRY or Term.EXIT
+        protected int order = -1; // Position in the worklist dataflow order
 
         /**
          * Set of all the different EdgeKeys that occur in the Edges in the
@@ -376,26 +654,78 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
          */
         private Set<EdgeKey> succEdgeKeys;
 
+        /**
+         * Create a peer that is not part of a flow graph, whose edges are
+         * added to its lists of edges directly.
+         */
         public Peer(Term node, List<Term> path_to_finally, int entry,
                 boolean alwaysHaveSuccEdgeKey) {
+            this(null, -1, node, path_to_finally, entry, alwaysHaveSuccEdgeKey);
+            this.succs = new ArrayList<>();
+            this.preds = new ArrayList<>();
+        }
+
+        /**
+         * Create the peer with id {@code id} of {@code graph}, whose edges
+         * are added with {@link FlowGraph#addEdge}.
+         */
+        protected Peer(FlowGraph<FlowItem> graph, int id, Term node,
+                List<Term> path_to_finally, int entry,
+                boolean alwaysHaveSuccEdgeKey) {
+            this.graph = graph;
+            this.id = id;
             this.node = node;
             this.path_to_finally = path_to_finally;
             this.inItem = null;
             this.outItems = null;
-            this.succs = new ArrayList<>();
-            this.preds = new ArrayList<>();
+            this.succs = null;
+            this.preds = null;
             this.entry = entry;
             this.succEdgeKeys = null;
             this.alwaysHaveSuccEdgeKey = alwaysHaveSuccEdgeKey;
         }
 
-        /** The successor Edges. */
+        /**
+         * The id of this peer in its flow graph, from 0 to
+         * {@code peerCount()-1}, or -1 if it is not part of a flow graph.
+         */
+        public int id() {
+            return id;
+        }
+
+        /**
+         * The successor Edges.  For a peer of a flow graph, the list is
+         * built from the edges of the graph and cannot be modified.
+         */
         public List<Edge<FlowItem>> succs() {
+            if (succs == null) {
+                int start = graph.succStart(id);
+                int end = graph.succEnd(id);
+                List<Edge<FlowItem>> l = new ArrayList<>(end - start);
+                for (int e = start; e < end; e++) {
+                    l.add(new Edge<>(graph.edgeKey(graph.succKey(e)),
+                                     graph.peer(graph.succPeer(e))));
+                }
+                succs = Collections.unmodifiableList(l);
+            }
             return succs;
         }
 
-        /** The predecessor Edges. */
+        /**
+         * The predecessor Edges.  For a peer of a flow graph, the list is
+         * built from the edges of the graph and cannot be modified.
+         */
         public List<Edge<FlowItem>> preds() {
+            if (preds == null) {
+                int start = graph.predStart(id);
+                int end = graph.predEnd(id);
+                List<Edge<FlowItem>> l = new ArrayList<>(end - start);
+                for (int e = start; e < end; e++) {
+                    l.add(new Edge<>(graph.edgeKey(graph.predKey(e)),
+                                     graph.peer(graph.predPeer(e))));
+                }
+                preds = Collections.unmodifiableList(l);
+            }
             return preds;
         }
 
@@ -441,8 +771,16 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
                 // the successor edge keys have not yet been calculated. do it
                 // now.
                 this.succEdgeKeys = new HashSet<>();
-                for (Edge<FlowItem> e : this.succs) {
-                    this.succEdgeKeys.add(e.getKey());
+                if (graph != null) {
+                    int end = graph.succEnd(id);
+                    for (int e = graph.succStart(id); e < end; e++) {
+                        this.succEdgeKeys.add(graph.edgeKey(graph.succKey(e)));
+                    }
+                }
+                else {
+                    for (Edge<FlowItem> e : this.succs) {
+                        this.succEdgeKeys.add(e.getKey());
+                    }
                 }
                 if (alwaysHaveSuccEdgeKey && this.succEdgeKeys.isEmpty()) {
                     // There are no successors for this node. Add in the OTHER
@@ -500,7 +838,7 @@ public class FlowGraph<FlowItem extends DataFlow.Item> {
             todo.remove(p);
 //        sb.append(StringUtil.getShortNameComponent(p.node.getClass().getName()) + " ["+p.node+"]" + "\n");
             sb.append(p + " (" + p.node.position() + ")\n");
-            for (Edge<FlowItem> e : p.succs) {
+            for (Edge<FlowItem> e : p.succs()) {
                 Peer<FlowItem> q = e.getTarget();
                 sb.append("    -> " + q + " (" + q.node.position() + ")\n");
                 //sb.append("  " + StringUtil.getShortNameComponent(q.node.getClass().getName()) + " ["+q.node+"]" + "\n");
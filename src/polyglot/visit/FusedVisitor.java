@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.visit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import polyglot.ast.Node;
+import polyglot.util.InternalCompilerError;
+import polyglot.util.Position;
+
+/**
+ * A {@code FusedVisitor} runs several visitors in one traversal of the AST,
+ * with the same result as running them one after another.  Each node is
+ * entered by every member visitor, in order, and after its children have
+ * been visited it is left by every member visitor, in order, each member
+ * seeing the node as rewritten by the members before it.
+ * <p>
+ * When a member replaces a node, the later members have not seen the new
+ * parts of the tree, so each later member first visits the children of the
+ * replacement it has not seen, skipping the subtrees that every member has
+ * already processed.  If a member overrides the traversal of a subtree, the
+ * members visit that subtree one after another.
+ * <p>
+ * Members are only fused correctly if each member's rewrite of a node does
+ * not depend on how later members rewrite the node's children, and if
+ * members do not copy subtrees already processed by later members: such
+ * copies would be processed twice.  A member may replace a node by one that
+ * shares the node's processed children, or copies of those that are leaves,
+ * which later members then leave again; a member that copies processed
+ * subtrees deeper than that must be the last member.  When assertions are
+ * enabled, a later member that is about to visit such a copy, a node of the
+ * same position and shape as a processed node with children that are
+ * neither leaves nor processed, fails an assertion.
+ */
+public class FusedVisitor extends NodeVisitor {
+    /** The member visitors, in the order they run. */
+    protected NodeVisitor[] members;
+
+    /**
+     * The results of the fused traversal, which every member has processed.
+     */
+    protected Set<Node> done;
+
+    /**
+     * The nodes in {@code done} by position, to detect copies of them; kept
+     * only when assertions are enabled.
+     */
+    protected Map<Position, List<Node>> donePositions;
+
+    /** Whether to skip the nodes in {@code done}. */
+    protected boolean catchUp;
+
+    public FusedVisitor(List<? extends NodeVisitor> members) {
+        this(members.toArray(new NodeVisitor[members.size()]),
+             null,
+             null,
+             false);
+    }
+
+    protected FusedVisitor(NodeVisitor[] members, Set<Node> done,
+            Map<Position, List<Node>> donePositions, boolean catchUp) {
+        super(members[0].lang());
+        this.members = members;
+        this.done = done;
+        this.donePositions = donePositions;
+        this.catchUp = catchUp;
+    }
+
+    public List<NodeVisitor> members() {
+        List<NodeVisitor> l = new ArrayList<>(members.length);
+        Collections.addAll(l, members);
+        return l;
+    }
+
+    @Override
+    public NodeVisitor begin() {
+        List<NodeVisitor> begun = new ArrayList<>(members.length);
+        for (NodeVisitor m : members) {
+            NodeVisitor v = m.begin();
+            if (v != null) begun.add(v);
+        }
+        if (begun.isEmpty()) return null;
+        FusedVisitor v = (FusedVisitor) copy();
+        v.members = begun.toArray(new NodeVisitor[begun.size()]);
+        v.done = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        v.donePositions = new IdentityHashMap<>();
+        v.catchUp = false;
+        return v;
+    }
+
+    @Override
+    public void finish(Node ast) {
+        for (NodeVisitor m : members) {
+            m.finish(ast);
+        }
+    }
+
+    @Override
+    public Node override(Node parent, Node n) {
+        if (catchUp && done.contains(n)) return n;
+        assert !catchUp || !copiesDone(n) : "A member before "
+                + members[0] + " copied " + n + ", which was already processed";
+
+        Node[] overrides = null;
+        for (int i = 0; i < members.length; i++) {
+            Node o = members[i].override(parent, n);
+            if (o != null) {
+                if (overrides == null) overrides = new Node[members.length];
+                overrides[i] = o;
+            }
+        }
+        if (overrides == null) return null;
+
+        // Some member overrides the traversal of n, so the members visit
+        // the subtree one after another.
+        Node m = n;
+        for (int i = 0; i < members.length; i++) {
+            Node o = m == n ? overrides[i] : members[i].override(parent, m);
+            m = o != null ? o : members[i].visitEdgeNoOverride(parent, m);
+        }
+        if (!catchUp) addDone(m);
+        return m;
+    }
+
+    @Override
+    public NodeVisitor enter(Node parent, Node n) {
+        FusedVisitor v = (FusedVisitor) copy();
+        v.members = new NodeVisitor[members.length];
+        for (int i = 0; i < members.length; i++) {
+            v.members[i] = members[i].enter(parent, n);
+            if (v.members[i] == null)
+                throw new InternalCompilerError("NodeVisitor.enter() returned null.");
+        }
+        return v;
+    }
+
+    @Override
+    public Node leave(Node parent, Node old, Node n, NodeVisitor v) {
+        FusedVisitor fv = (FusedVisitor) v;
+        Node m = n;
+        for (int i = 0; i < members.length; i++) {
+            if (m != n) {
+                // An earlier member replaced the node; visit the parts of
+                // the replacement this member has not seen.
+                FusedVisitor member =
+                        new FusedVisitor(new NodeVisitor[] { fv.members[i] },
+                                         done,
+                                         donePositions,
+                                         true);
+                m = lang().visitChildren(m, member);
+            }
+            m = members[i].leave(parent, old, m, fv.members[i]);
+        }
+        if (!catchUp) addDone(m);
+        return m;
+    }
+
+    /** Record that every member has processed {@code n}. */
+    protected void addDone(Node n) {
+        done.add(n);
+        assert recordDonePosition(n);
+    }
+
+    protected boolean recordDonePosition(Node n) {
+        Position pos = n.position();
+        if (pos == null) return true;
+        List<Node> l = donePositions.get(pos);
+        if (l == null) {
+            l = new ArrayList<>(1);
+            donePositions.put(pos, l);
+        }
+        l.add(n);
+        return true;
+    }
+
+    /**
+     * Is {@code n} a copy of a subtree every member has processed, with
+     * children that are not leaves and have not been processed, so that
+     * their subtrees would be processed again?
+     */
+    protected boolean copiesDone(Node n) {
+        if (n.position() == null) return false;
+        List<Node> l = donePositions.get(n.position());
+        if (l == null) return false;
+        boolean processed = true;
+        for (Node c : children(n)) {
+            processed &= done.contains(c) || children(c).isEmpty();
+        }
+        if (processed) return false;
+        for (Node d : l) {
+            if (d != n && copies(n, d)) return true;
+        }
+        return false;
+    }
+
+    /** Is {@code n} the same as {@code d} or a copy of it? */
+    protected boolean copies(Node n, Node d) {
+        if (n == d) return true;
+        if (n.getClass() != d.getClass()) return false;
+        List<Node> children = children(n);
+        List<Node> doneChildren = children(d);
+        if (children.size() != doneChildren.size()) return false;
+        if (children.isEmpty()) return n.toString().equals(d.toString());
+        for (int i = 0; i < children.size(); i++) {
+            if (!copies(children.get(i), doneChildren.get(i))) return false;
+        }
+        return true;
+    }
+
+    /** Return the children of {@code n}. */
+    protected List<Node> children(Node n) {
+        final List<Node> l = new ArrayList<>();
+        lang().visitChildren(n, new NodeVisitor(lang()) {
+            @Override
+            public Node override(Node parent, Node child) {
+                l.add(child);
+                return child;
+            }
+        });
+        return l;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("FusedVisitor(");
+        for (int i = 0; i < members.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(members[i]);
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+}
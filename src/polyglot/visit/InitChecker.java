@@ -94,6 +94,11 @@ public class InitChecker extends DataFlow<InitChecker.FlowItem> {
         super(job, ts, nf, true /* forward analysis */, false /* perform dataflow when leaving CodeDecls, not when entering */);
     }
 
+    @Override
+    protected boolean useWorklist() {
+        return true;
+    }
+
     protected ClassBodyInfo currCBI = null;
 
     /**
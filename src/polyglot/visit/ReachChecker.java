@@ -54,6 +54,11 @@ public class ReachChecker extends DataFlow<ReachChecker.DataFlowItem> {
         super(job, ts, nf, true /* forward analysis */, true /* perform dataflow on entry to CodeDecls */);
     }
 
+    @Override
+    protected boolean useWorklist() {
+        return true;
+    }
+
     @Override
     protected CFGBuilder<ReachChecker.DataFlowItem> createCFGBuilder(
             TypeSystem ts, FlowGraph<ReachChecker.DataFlowItem> g) {
@@ -43,7 +43,9 @@ import polyglot.ast.PackageNode;
 import polyglot.ast.SourceCollection;
 import polyglot.ast.SourceFile;
 import polyglot.ast.TopLevelDecl;
+import polyglot.frontend.BuildCache;
 import polyglot.frontend.Job;
+import polyglot.frontend.PipelinedPostCompiler;
 import polyglot.frontend.TargetFactory;
 import polyglot.types.Context;
 import polyglot.types.TypeSystem;
@@ -211,6 +213,8 @@ public class Translator extends PrettyPrinter implements Copy<Translator> {
         TargetFactory tf = this.tf;
         int outputWidth = job.compiler().outputWidth();
         Collection<JavaFileObject> outputFiles = job.compiler().outputFiles();
+        BuildCache cache = job.compiler().buildCache();
+        List<JavaFileObject> sourceOutputs = new LinkedList<>();
 
         PackageNode pkgNode = sf.package_();
         String pkg = pkgNode != null ? pkgNode.package_().fullName() : "";
@@ -232,7 +236,10 @@ public class Translator extends PrettyPrinter implements Copy<Translator> {
             else of = tf.outputFileObject(pkg, filename, sf.source());
 
             String opfPath = of.getName();
-            if (!opfPath.endsWith("$")) outputFiles.add(of);
+            if (!opfPath.endsWith("$")) {
+                outputFiles.add(of);
+                sourceOutputs.add(of);
+            }
             try (CodeWriter w = tf.outputCodeWriter(of, outputWidth)) {
                 writeHeader(sf, w);
 
@@ -251,6 +258,9 @@ public class Translator extends PrettyPrinter implements Copy<Translator> {
                 return false;
             }
         }
+        if (cache != null) cache.record(job, sf, sourceOutputs);
+        PipelinedPostCompiler pc = job.compiler().pipelinedPostCompiler();
+        if (pc != null) pc.sourceTranslated(job, sf, sourceOutputs);
         return true;
     }
 
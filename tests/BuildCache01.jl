@@ -0,0 +1,4 @@
+// Compiled with -buildcache against both versions of BCLib.
+class BuildCache01 {
+    int h(BCLib l) { return l.f(); }
+}
@@ -0,0 +1,4 @@
+// TALib01 is compiled with -typearchive, so its type comes from the archive.
+class TypeArchive01 {
+    int g(TALib01 l) { return l.f(); }
+}
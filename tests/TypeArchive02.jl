@@ -0,0 +1,5 @@
+// TALib02 is in the type archive of its directory, but has no class file
+// there, so it must not be found.
+class TypeArchive02 {
+    int g(TALib02 l) { return l.f(); }
+}
@@ -0,0 +1,5 @@
+// The class file of TALib03 in typearchive/b comes first on the class path,
+// so the entry for TALib03 in the archive of typearchive/a must not be used.
+class TypeArchive03 {
+    int g(TALib03 l) { return l.b(); }
+}
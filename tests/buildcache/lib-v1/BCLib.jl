@@ -0,0 +1,3 @@
+public class BCLib {
+    public int f() { return 1; }
+}
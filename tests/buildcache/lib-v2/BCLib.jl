@@ -0,0 +1,5 @@
+// BCLib without f(): sources using f() cached against the first version
+// must be compiled again.
+public class BCLib {
+    public int g() { return 2; }
+}
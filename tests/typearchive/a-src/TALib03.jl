@@ -0,0 +1,3 @@
+public class TALib03 {
+    public int a() { return 3; }
+}
@@ -0,0 +1,3 @@
+public class TALib03 {
+    public int b() { return 3; }
+}
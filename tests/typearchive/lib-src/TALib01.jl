@@ -0,0 +1,3 @@
+public class TALib01 {
+    public int f() { return 1; }
+}
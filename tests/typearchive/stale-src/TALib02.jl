@@ -0,0 +1,3 @@
+public class TALib02 {
+    public int f() { return 2; }
+}
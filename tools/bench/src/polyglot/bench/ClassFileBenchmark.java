@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+
+package polyglot.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import polyglot.bench.FrontEnd.Language;
+import polyglot.bench.FrontEnd.Stage;
+import polyglot.filemanager.ExtFileObject;
+import polyglot.frontend.ExtensionInfo;
+import polyglot.types.reflect.ClassFile;
+
+/**
+ * Measures reading class files: parsing their bytes into a
+ * {@link ClassFile}, and reading their members and any Polyglot type
+ * information, as the class-file loader does for each class it resolves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassFileBenchmark {
+    /** Classes of the JDK, as resolved by almost every compilation. */
+    protected static final String[] JDK =
+            { "java.lang.Object", "java.lang.String", "java.lang.StringBuilder",
+                    "java.lang.Integer", "java.lang.Math", "java.lang.System",
+                    "java.lang.Thread", "java.lang.Class",
+                    "java.util.ArrayList", "java.util.HashMap",
+                    "java.util.Collections", "java.util.Arrays",
+                    "java.util.concurrent.ConcurrentHashMap",
+                    "java.io.PrintStream" };
+
+    /** Classes of Polyglot, with many members. */
+    protected static final String[] POLYGLOT =
+            { "polyglot.types.TypeSystem_c", "polyglot.types.ClassType_c",
+                    "polyglot.types.ParsedClassType_c",
+                    "polyglot.ast.NodeFactory_c", "polyglot.ast.Node_c",
+                    "polyglot.frontend.Scheduler",
+                    "polyglot.frontend.AbstractExtensionInfo",
+                    "polyglot.main.Options", "polyglot.visit.TypeChecker",
+                    "polyglot.ext.jl5.types.JL5TypeSystem_c",
+                    "polyglot.ext.jl5.parse.Grm",
+                    "polyglot.ext.jl5.parse.Lexer_c" };
+
+    @Param({ "jdk", "polyglot" })
+    public String classes;
+
+    protected File dir;
+    protected ExtensionInfo extInfo;
+    protected String tsKey;
+    protected List<FileObject> fileObjects;
+    protected List<byte[]> code;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Corpus.tempDir("classfile-bench");
+        File dummy = new File(dir, "Dummy.jl");
+        dummy.createNewFile();
+        FrontEnd fe =
+                new FrontEnd(Language.JL,
+                             Stage.PARSED,
+                             Collections.singletonList(dummy),
+                             dir);
+        extInfo = fe.extensionInfo();
+        tsKey = extInfo.compilerName();
+
+        String[] names = "jdk".equals(classes) ? JDK : POLYGLOT;
+        fileObjects = new ArrayList<>(names.length);
+        code = new ArrayList<>(names.length);
+        for (String name : names) {
+            String resource = name.replace('.', '/') + ".class";
+            try (InputStream in =
+                    ClassLoader.getSystemResourceAsStream(resource)) {
+                if (in == null)
+                    throw new IOException("Cannot find " + resource);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                for (int n; (n = in.read(buf)) > 0;)
+                    out.write(buf, 0, n);
+                code.add(out.toByteArray());
+            }
+            fileObjects.add(new ExtFileObject(URI.create("bench:/" + resource),
+                                              JavaFileObject.Kind.CLASS));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Corpus.delete(dir);
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws IOException {
+        for (int i = 0; i < code.size(); i++)
+            bh.consume(extInfo.createClassFile(fileObjects.get(i), code.get(i)));
+    }
+
+    @Benchmark
+    public void parseAndReadMembers(Blackhole bh) throws IOException {
+        for (int i = 0; i < code.size(); i++) {
+            ClassFile cf =
+                    extInfo.createClassFile(fileObjects.get(i), code.get(i));
+            bh.consume(cf.name());
+            bh.consume(cf.getMethods());
+            bh.consume(cf.getFields());
+            bh.consume(cf.encodedClassType(tsKey));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+
+package polyglot.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polyglot.ast.Lang;
+import polyglot.ast.Node;
+import polyglot.bench.FrontEnd.Language;
+import polyglot.bench.FrontEnd.Stage;
+import polyglot.frontend.Job;
+import polyglot.util.CodeWriter;
+import polyglot.util.OptimalCodeWriter;
+import polyglot.util.SimpleCodeWriter;
+import polyglot.visit.PrettyPrinter;
+
+/**
+ * Measures pretty-printing the ASTs of type-checked synthetic units through
+ * the {@link OptimalCodeWriter}, which the translator uses, with the
+ * {@link SimpleCodeWriter} as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeWriterBenchmark {
+    @Param({ "JL", "JL5" })
+    public Language language;
+
+    @Param({ "50" })
+    public int units;
+
+    @Param({ "80" })
+    public int width;
+
+    protected File dir;
+    protected Lang lang;
+    protected List<Node> asts;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Corpus.tempDir("codewriter-bench");
+        List<File> files = Corpus.synthetic(language, units, dir);
+        FrontEnd fe = new FrontEnd(language, Stage.TYPE_CHECKED, files, dir);
+        fe.compile(files);
+        lang = fe.extensionInfo().nodeFactory().lang();
+        asts = new ArrayList<>();
+        for (Job job : fe.compiler().jobs())
+            asts.add(job.ast());
+    }
+
+    @TearDown
+    public void tearDown() {
+        Corpus.delete(dir);
+    }
+
+    protected int print(CodeWriter w, StringWriter out) throws IOException {
+        for (Node n : asts)
+            lang.prettyPrint(n, w, new PrettyPrinter(lang));
+        w.flush();
+        return out.getBuffer().length();
+    }
+
+    @Benchmark
+    public int optimal() throws IOException {
+        StringWriter out = new StringWriter();
+        return print(new OptimalCodeWriter(out, width), out);
+    }
+
+    @Benchmark
+    public int simple() throws IOException {
+        StringWriter out = new StringWriter();
+        return print(new SimpleCodeWriter(out, width), out);
+    }
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.bench;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import polyglot.bench.FrontEnd.Language;
+
+/**
+ * {@code Corpus} finds the source files of a benchmark input: either the
+ * regression tests of a language, or units made by {@link SyntheticUnits}.
+ * The regression tests are found under the directory named by the
+ * {@code polyglot.home} system property, or the current directory if it is
+ * not set.
+ */
+public class Corpus {
+    /** The input naming the regression tests of a language. */
+    public static final String TESTS = "tests";
+
+    /** The number of methods in each synthetic unit. */
+    public static final int SYNTHETIC_METHODS = 8;
+
+    /** Seed for synthetic units, so every run measures the same program. */
+    public static final long SEED = 0x9017L;
+
+    /**
+     * Return the source files for {@code input}, which is either
+     * {@value #TESTS} or the number of synthetic units to write under
+     * {@code dir}.
+     */
+    public static List<File> files(Language language, String input, File dir)
+            throws IOException {
+        if (TESTS.equals(input)) return tests(language);
+        return synthetic(language, Integer.parseInt(input), dir);
+    }
+
+    public static File polyglotHome() {
+        return new File(System.getProperty("polyglot.home", "."));
+    }
+
+    /** The regression tests of {@code language}. */
+    public static List<File> tests(final Language language) throws IOException {
+        File dir = new File(polyglotHome(), language.corpus);
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith("." + language.fileExtension);
+            }
+        });
+        if (files == null || files.length == 0)
+            throw new IOException("No " + language.fileExtension
+                    + " files in " + dir + "; set polyglot.home.");
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /** Write {@code units} synthetic units of {@code language} under {@code dir}. */
+    public static List<File> synthetic(Language language, int units, File dir)
+            throws IOException {
+        return new SyntheticUnits(language, SYNTHETIC_METHODS, SEED).write(dir,
+                                                                           units);
+    }
+
+    public static String read(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()),
+                          StandardCharsets.UTF_8);
+    }
+
+    /** Create a fresh temporary directory. */
+    public static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /** Delete {@code f} and everything under it. */
+    public static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children)
+                delete(c);
+        }
+        f.delete();
+    }
+}
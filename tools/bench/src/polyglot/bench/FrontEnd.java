@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.bench;
+
+import java.io.File;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import polyglot.ext.jl5.JL5ExtensionInfo;
+import polyglot.ext.jl7.JL7ExtensionInfo;
+import polyglot.frontend.Compiler;
+import polyglot.frontend.ExtensionInfo;
+import polyglot.frontend.JLExtensionInfo;
+import polyglot.frontend.Job;
+import polyglot.frontend.Scheduler;
+import polyglot.frontend.Source;
+import polyglot.frontend.goals.Goal;
+import polyglot.lex.Lexer;
+import polyglot.main.Options;
+import polyglot.main.UsageError;
+import polyglot.util.ErrorInfo;
+import polyglot.util.ErrorQueue;
+import polyglot.util.SilentErrorQueue;
+
+/**
+ * A {@code FrontEnd} is a compiler for one of the base languages whose
+ * compile goal is a given stage of the front end, so that a benchmark can
+ * run the front end up to the pass before the one it measures.
+ */
+public class FrontEnd {
+    /** The languages benchmarked. */
+    public enum Language {
+        JL("jl", "tests"), JL5("jl5", "testsjl5"), JL7("jl7", "testsjl7");
+
+        /** The extension of the source files. */
+        public final String fileExtension;
+
+        /** The directory of the test corpus, relative to the Polyglot home. */
+        public final String corpus;
+
+        private Language(String fileExtension, String corpus) {
+            this.fileExtension = fileExtension;
+            this.corpus = corpus;
+        }
+
+        /** Return an extension whose compile goal is {@code stage}. */
+        public ExtensionInfo extension(final Stage stage) {
+            switch (this) {
+            case JL:
+                return new JLExtensionInfo() {
+                    @Override
+                    public Goal getCompileGoal(Job job) {
+                        return stage.goal(scheduler(), job);
+                    }
+                };
+            case JL5:
+                return new JL5ExtensionInfo() {
+                    @Override
+                    public Goal getCompileGoal(Job job) {
+                        return stage.goal(scheduler(), job);
+                    }
+                };
+            case JL7:
+                return new JL7ExtensionInfo() {
+                    @Override
+                    public Goal getCompileGoal(Job job) {
+                        return stage.goal(scheduler(), job);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException(toString());
+            }
+        }
+
+        /** Return a lexer for {@code source}. */
+        public Lexer lexer(Reader reader, Source source, ErrorQueue eq) {
+            reader = new polyglot.lex.EscapedUnicodeReader(reader);
+            switch (this) {
+            case JL:
+                return new polyglot.parse.Lexer_c(reader, source, eq);
+            case JL5:
+                return new polyglot.ext.jl5.parse.Lexer_c(reader, source, eq);
+            case JL7:
+                return new polyglot.ext.jl7.parse.Lexer_c(reader, source, eq);
+            default:
+                throw new IllegalArgumentException(toString());
+            }
+        }
+    }
+
+    /** The stages of the front end, in order. */
+    public enum Stage {
+        PARSED {
+            @Override
+            public Goal goal(Scheduler s, Job job) {
+                return s.Parsed(job);
+            }
+        },
+        TYPES_INITIALIZED {
+            @Override
+            public Goal goal(Scheduler s, Job job) {
+                return s.TypesInitialized(job);
+            }
+        },
+        DISAMBIGUATED {
+            @Override
+            public Goal goal(Scheduler s, Job job) {
+                return s.Disambiguated(job);
+            }
+        },
+        TYPE_CHECKED {
+            @Override
+            public Goal goal(Scheduler s, Job job) {
+                return s.TypeChecked(job);
+            }
+        },
+        INITIALIZATIONS_CHECKED {
+            @Override
+            public Goal goal(Scheduler s, Job job) {
+                return s.InitializationsChecked(job);
+            }
+        },
+        CODE_GENERATED {
+            @Override
+            public Goal goal(Scheduler s, Job job) {
+                return s.CodeGenerated(job);
+            }
+        };
+
+        public abstract Goal goal(Scheduler s, Job job);
+
+        /** The stage before this one. */
+        public Stage previous() {
+            return values()[ordinal() - 1];
+        }
+    }
+
+    protected final Language language;
+    protected final ExtensionInfo extInfo;
+    protected final Compiler compiler;
+    protected final SilentErrorQueue eq;
+
+    /**
+     * Create a front end for {@code language} that compiles {@code files}
+     * up to {@code stage}, writing any output to {@code outputDir}.
+     */
+    public FrontEnd(Language language, Stage stage, List<File> files,
+            File outputDir) {
+        this.language = language;
+        this.extInfo = language.extension(stage);
+
+        List<String> args = new ArrayList<>();
+        args.add("-d");
+        args.add(outputDir.getPath());
+        args.add("-c");
+        args.add("-noserial");
+        for (File f : files)
+            args.add(f.getPath());
+
+        Options options = extInfo.getOptions();
+        Options.global = options;
+        Set<String> source = new HashSet<>();
+        try {
+            options.parseCommandLine(args.toArray(new String[args.size()]),
+                                     source);
+        }
+        catch (UsageError e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+
+        this.eq = new SilentErrorQueue(1000, extInfo.compilerName());
+        this.compiler = new Compiler(extInfo, eq);
+    }
+
+    public ExtensionInfo extensionInfo() {
+        return extInfo;
+    }
+
+    public Compiler compiler() {
+        return compiler;
+    }
+
+    public ErrorQueue errorQueue() {
+        return eq;
+    }
+
+    /** Compile {@code files} up to the stage of this front end. */
+    public void compile(List<File> files) {
+        List<String> names = new ArrayList<>(files.size());
+        for (File f : files)
+            names.add(f.getPath());
+        compiler.compileFiles(names);
+        checkErrors();
+    }
+
+    /** Run the jobs of the compiler on to {@code stage}. */
+    public void runTo(Stage stage) {
+        Scheduler scheduler = extInfo.scheduler();
+        for (Job job : compiler.jobs())
+            scheduler.attemptGoal(stage.goal(scheduler, job));
+        checkErrors();
+    }
+
+    /** Fail if an error was reported; benchmark inputs must compile. */
+    protected void checkErrors() {
+        if (eq.hasErrors()) {
+            StringBuilder sb = new StringBuilder("Benchmark input does not compile:");
+            for (ErrorInfo e : eq) {
+                if (e.getErrorKind() != ErrorInfo.WARNING)
+                    sb.append("\n").append(e);
+            }
+            throw new IllegalStateException(sb.toString());
+        }
+    }
+}
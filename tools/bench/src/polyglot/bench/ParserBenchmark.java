@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+
+package polyglot.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.FileObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import polyglot.ast.Node;
+import polyglot.bench.FrontEnd.Language;
+import polyglot.bench.FrontEnd.Stage;
+import polyglot.frontend.ExtensionInfo;
+import polyglot.frontend.Source;
+import polyglot.lex.EOF;
+import polyglot.lex.Lexer;
+import polyglot.lex.Token;
+import polyglot.util.SilentErrorQueue;
+
+/**
+ * Measures lexing and parsing of a benchmark input held in memory.  Inputs
+ * from the regression tests that do not parse are left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({ "JL", "JL5", "JL7" })
+    public Language language;
+
+    /** {@value Corpus#TESTS}, or the number of synthetic units. */
+    @Param({ "tests", "100" })
+    public String input;
+
+    protected File dir;
+    protected ExtensionInfo extInfo;
+    protected List<Source> sources;
+    protected List<String> contents;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Corpus.tempDir("parser-bench");
+        List<File> files = Corpus.files(language, input, dir);
+        FrontEnd fe = new FrontEnd(language, Stage.PARSED, files, dir);
+        extInfo = fe.extensionInfo();
+
+        sources = new ArrayList<>(files.size());
+        contents = new ArrayList<>(files.size());
+        for (File f : files) {
+            FileObject fo =
+                    extInfo.extFileManager().getJavaFileObjects(f).iterator().next();
+            Source source =
+                    extInfo.createFileSource(fo, Source.Kind.USER_SPECIFIED);
+            String content = Corpus.read(f);
+            SilentErrorQueue eq = new SilentErrorQueue(1, "bench");
+            try {
+                Node n = extInfo.parser(new StringReader(content), source, eq)
+                                .parse();
+                if (n == null || eq.hasErrors()) continue;
+            }
+            catch (RuntimeException e) {
+                continue;
+            }
+            sources.add(source);
+            contents.add(content);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Corpus.delete(dir);
+    }
+
+    @Benchmark
+    public int lex() throws IOException {
+        int tokens = 0;
+        SilentErrorQueue eq = new SilentErrorQueue(1000, "bench");
+        for (int i = 0; i < sources.size(); i++) {
+            Lexer lexer =
+                    language.lexer(new StringReader(contents.get(i)),
+                                   sources.get(i),
+                                   eq);
+            Token t;
+            do {
+                t = lexer.nextToken();
+                tokens++;
+            } while (!(t instanceof EOF));
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) {
+        SilentErrorQueue eq = new SilentErrorQueue(1000, "bench");
+        for (int i = 0; i < sources.size(); i++) {
+            bh.consume(extInfo.parser(new StringReader(contents.get(i)),
+                                      sources.get(i),
+                                      eq).parse());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+
+package polyglot.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polyglot.bench.FrontEnd.Language;
+import polyglot.bench.FrontEnd.Stage;
+
+/**
+ * Measures one stage of the front end over synthetic units: the units are
+ * compiled up to the stage before, outside the measurement, and then the
+ * benchmark runs the passes that reach {@link #stage}.  Since each
+ * invocation needs a fresh compiler, this is a single-shot benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, batchSize = 1)
+@Measurement(iterations = 20, batchSize = 1)
+@Fork(1)
+public class PassBenchmark {
+    @Param({ "JL", "JL5", "JL7" })
+    public Language language;
+
+    /**
+     * The stage measured: TYPES_INITIALIZED runs the type builder,
+     * DISAMBIGUATED the ambiguity remover, TYPE_CHECKED the type checker, and
+     * INITIALIZATIONS_CHECKED the data-flow passes up to the initialization
+     * checker.
+     */
+    @Param({ "TYPES_INITIALIZED", "DISAMBIGUATED", "TYPE_CHECKED",
+            "INITIALIZATIONS_CHECKED" })
+    public Stage stage;
+
+    @Param({ "100" })
+    public int units;
+
+    protected File dir;
+    protected List<File> files;
+    protected FrontEnd frontEnd;
+
+    @Setup(Level.Trial)
+    public void writeUnits() throws IOException {
+        dir = Corpus.tempDir("pass-bench");
+        files = Corpus.synthetic(language, units, dir);
+    }
+
+    @Setup(Level.Invocation)
+    public void compileToPreviousStage() {
+        frontEnd = new FrontEnd(language, stage.previous(), files, dir);
+        frontEnd.compile(files);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Corpus.delete(dir);
+    }
+
+    @Benchmark
+    public FrontEnd run() {
+        frontEnd.runTo(stage);
+        return frontEnd;
+    }
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import polyglot.bench.FrontEnd.Language;
+
+/**
+ * {@code SyntheticUnits} generates compilation units of a given size for a
+ * language.  Unit {@code i} declares class {@code C<i>} in package
+ * {@code bench}, which calls static methods of classes with smaller
+ * indices, so the units have no cyclic dependencies and the same seed gives
+ * the same program.  The JL5 and JL7 units also use the features those
+ * languages add.
+ */
+public class SyntheticUnits {
+    public static final String PACKAGE = "bench";
+
+    protected final Language language;
+    protected final int methods;
+    protected final Random random;
+
+    /**
+     * @param methods the number of methods in each class, which scales the
+     *          size of each unit.
+     */
+    public SyntheticUnits(Language language, int methods, long seed) {
+        this.language = language;
+        this.methods = methods;
+        this.random = new Random(seed);
+    }
+
+    /** Write {@code units} units to the package directory under {@code dir}. */
+    public List<File> write(File dir, int units) throws IOException {
+        File pkg = new File(dir, PACKAGE);
+        if (!pkg.isDirectory() && !pkg.mkdirs())
+            throw new IOException("Cannot create " + pkg);
+
+        List<File> files = new ArrayList<>(units);
+        for (int i = 0; i < units; i++) {
+            File f = new File(pkg, "C" + i + "." + language.fileExtension);
+            try (Writer w =
+                    new OutputStreamWriter(new FileOutputStream(f),
+                                           StandardCharsets.UTF_8)) {
+                w.write(unit(i));
+            }
+            files.add(f);
+        }
+        return files;
+    }
+
+    /** Return the source of unit {@code i}. */
+    public String unit(int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(PACKAGE).append(";\n\n");
+        if (language != Language.JL) sb.append("import java.util.*;\n\n");
+
+        sb.append("public class C").append(i);
+        if (language != Language.JL) sb.append("<T extends Comparable<T>>");
+        sb.append(" {\n");
+        sb.append("    private int count;\n");
+        sb.append("    private String name = \"C").append(i).append("\";\n");
+        sb.append("    protected static final int LIMIT = ")
+          .append(10 + i % 7)
+          .append(";\n\n");
+
+        sb.append("    public C").append(i).append("(int count) {\n");
+        sb.append("        this.count = count;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public static int value").append(i).append("(int x) {\n");
+        sb.append("        return x * ").append(i + 1).append(" + LIMIT;\n");
+        sb.append("    }\n\n");
+
+        for (int m = 0; m < methods; m++) {
+            switch (m % 4) {
+            case 0:
+                loopMethod(sb, i, m);
+                break;
+            case 1:
+                branchMethod(sb, i, m);
+                break;
+            case 2:
+                stringMethod(sb, m);
+                break;
+            default:
+                languageMethod(sb, i, m);
+                break;
+            }
+        }
+
+        if (language != Language.JL) {
+            sb.append("    enum Kind { SMALL, MEDIUM, LARGE }\n\n");
+        }
+        sb.append("    static class Node {\n");
+        sb.append("        Node next;\n");
+        sb.append("        int value;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /** A call to a method of a class with a smaller index, if there is one. */
+    protected String call(int i, String arg) {
+        if (i == 0) return arg;
+        int j = random.nextInt(i);
+        return "C" + j + ".value" + j + "(" + arg + ")";
+    }
+
+    protected void loopMethod(StringBuilder sb, int i, int m) {
+        sb.append("    public int loop").append(m).append("(int n) {\n");
+        sb.append("        int sum = 0;\n");
+        sb.append("        for (int k = 0; k < n; k++) {\n");
+        sb.append("            if (k % 3 == 0) continue;\n");
+        sb.append("            sum += ").append(call(i, "k")).append(";\n");
+        sb.append("        }\n");
+        sb.append("        int j = n;\n");
+        sb.append("        while (j > 0) {\n");
+        sb.append("            sum -= j--;\n");
+        sb.append("        }\n");
+        sb.append("        return sum + count;\n");
+        sb.append("    }\n\n");
+    }
+
+    protected void branchMethod(StringBuilder sb, int i, int m) {
+        sb.append("    public int branch").append(m).append("(int x) {\n");
+        sb.append("        final int y;\n");
+        sb.append("        if (x > LIMIT) {\n");
+        sb.append("            y = ").append(call(i, "x")).append(";\n");
+        sb.append("        }\n");
+        sb.append("        else if (x < -LIMIT) {\n");
+        sb.append("            y = -x;\n");
+        sb.append("        }\n");
+        sb.append("        else {\n");
+        sb.append("            y = x * x;\n");
+        sb.append("        }\n");
+        sb.append("        switch (y % 4) {\n");
+        sb.append("        case 0: return y;\n");
+        sb.append("        case 1: return y + 1;\n");
+        sb.append("        default: break;\n");
+        sb.append("        }\n");
+        sb.append("        try {\n");
+        sb.append("            return 100 / (y - ").append(m).append(");\n");
+        sb.append("        }\n");
+        sb.append("        catch (ArithmeticException e) {\n");
+        sb.append("            return 0;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+    }
+
+    protected void stringMethod(StringBuilder sb, int m) {
+        sb.append("    public String string").append(m).append("(String s, int n) {\n");
+        sb.append("        StringBuffer sb = new StringBuffer(name);\n");
+        sb.append("        Node head = null;\n");
+        sb.append("        for (int k = 0; k < n; k++) {\n");
+        sb.append("            Node node = new Node();\n");
+        sb.append("            node.value = k;\n");
+        sb.append("            node.next = head;\n");
+        sb.append("            head = node;\n");
+        sb.append("            sb.append(s).append(k);\n");
+        sb.append("        }\n");
+        sb.append("        return sb.toString() + (head == null ? \"\" : \"#\" + head.value);\n");
+        sb.append("    }\n\n");
+    }
+
+    protected void languageMethod(StringBuilder sb, int i, int m) {
+        switch (language) {
+        case JL:
+            sb.append("    public int[] array").append(m).append("(int n) {\n");
+            sb.append("        int[] a = new int[n];\n");
+            sb.append("        for (int k = 0; k < a.length; k++) a[k] = ")
+              .append(call(i, "k"))
+              .append(";\n");
+            sb.append("        return a;\n");
+            sb.append("    }\n\n");
+            break;
+        case JL5:
+            sb.append("    public List<String> generic").append(m).append("(Map<String, Integer> map, T... ts) {\n");
+            sb.append("        List<String> result = new ArrayList<String>();\n");
+            sb.append("        for (Map.Entry<String, Integer> e : map.entrySet()) {\n");
+            sb.append("            int v = e.getValue();\n");
+            sb.append("            if (v > ").append(call(i, "LIMIT")).append(") result.add(e.getKey());\n");
+            sb.append("        }\n");
+            sb.append("        for (T t : ts) result.add(String.valueOf(t));\n");
+            sb.append("        Integer boxed = result.size();\n");
+            sb.append("        if (boxed > 0) Collections.sort(result);\n");
+            sb.append("        return result;\n");
+            sb.append("    }\n\n");
+            break;
+        case JL7:
+            sb.append("    public List<String> generic").append(m).append("(String key, Map<String, Integer> map) {\n");
+            sb.append("        List<String> result = new ArrayList<>();\n");
+            sb.append("        switch (key) {\n");
+            sb.append("        case \"first\":\n");
+            sb.append("            result.add(key);\n");
+            sb.append("            break;\n");
+            sb.append("        default:\n");
+            sb.append("            for (Map.Entry<String, Integer> e : map.entrySet())\n");
+            sb.append("                if (e.getValue() > ").append(call(i, "0b1010_1010")).append(") result.add(e.getKey());\n");
+            sb.append("        }\n");
+            sb.append("        try {\n");
+            sb.append("            result.add(String.valueOf(Integer.parseInt(key) / result.size()));\n");
+            sb.append("        }\n");
+            sb.append("        catch (NumberFormatException | ArithmeticException e) {\n");
+            sb.append("            result.add(e.getMessage());\n");
+            sb.append("        }\n");
+            sb.append("        return result;\n");
+            sb.append("    }\n\n");
+            break;
+        }
+    }
+}
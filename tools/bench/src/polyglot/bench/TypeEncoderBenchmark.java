@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+
+package polyglot.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import polyglot.ast.ClassDecl;
+import polyglot.ast.SourceFile;
+import polyglot.ast.TopLevelDecl;
+import polyglot.bench.FrontEnd.Language;
+import polyglot.bench.FrontEnd.Stage;
+import polyglot.frontend.Job;
+import polyglot.types.ParsedClassType;
+import polyglot.types.SystemResolver;
+import polyglot.types.TypeSystem;
+import polyglot.util.TypeEncoder;
+
+/**
+ * Measures the {@link TypeEncoder} on the type-checked classes of synthetic
+ * units: encoding them as the type information written into class files,
+ * and decoding them again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeEncoderBenchmark {
+    @Param({ "JL", "JL5", "JL7" })
+    public Language language;
+
+    @Param({ "50" })
+    public int units;
+
+    protected File dir;
+    protected TypeSystem ts;
+    protected List<ParsedClassType> types;
+    protected List<String> encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Corpus.tempDir("encoder-bench");
+        List<File> files = Corpus.synthetic(language, units, dir);
+        FrontEnd fe = new FrontEnd(language, Stage.TYPE_CHECKED, files, dir);
+        fe.compile(files);
+        ts = fe.extensionInfo().typeSystem();
+
+        types = new ArrayList<>();
+        for (Job job : fe.compiler().jobs()) {
+            SourceFile sf = (SourceFile) job.ast();
+            for (TopLevelDecl d : sf.decls()) {
+                if (d instanceof ClassDecl) types.add(((ClassDecl) d).type());
+            }
+        }
+
+        encoded = new ArrayList<>(types.size());
+        TypeEncoder te = new TypeEncoder(ts);
+        for (ParsedClassType ct : types)
+            encoded.add(te.encode(ct));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Corpus.delete(dir);
+    }
+
+    @Benchmark
+    public void encode(Blackhole bh) throws IOException {
+        TypeEncoder te = new TypeEncoder(ts);
+        for (ParsedClassType ct : types)
+            bh.consume(te.encode(ct));
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) throws IOException {
+        TypeEncoder te = new TypeEncoder(ts);
+        for (int i = 0; i < types.size(); i++) {
+            // As the loaded-class resolver does, decode into a fresh system
+            // resolver, which is then discarded, since the classes are
+            // already installed from source.
+            SystemResolver old = ts.saveSystemResolver();
+            try {
+                bh.consume(te.decode(encoded.get(i), types.get(i).fullName()));
+            }
+            finally {
+                ts.restoreSystemResolver(old);
+            }
+        }
+    }
+}
@@ -810,6 +810,9 @@ public class emit {
         out.println("  @Override");
         out.println("  public short[][] action_table() {return _action_table;}");
 
+        /* and the table in comb vector form, with its accessor */
+        do_comb_table(out, "_action_comb", "action_comb", action_table);
+
         action_table_time = System.currentTimeMillis() - start_time;
     }
 
@@ -866,6 +869,9 @@ public class emit {
         out.println("  /** Access to {@code reduce_goto} table. */");
         out.println("  @Override");
         out.println("  public short[][] reduce_table() {return _reduce_table;}");
+
+        /* and the table in comb vector form, with its accessor */
+        do_comb_table(out, "_reduce_comb", "reduce_comb", reduce_goto_table);
         out.println();
 
         goto_table_time = System.currentTimeMillis() - start_time;
@@ -900,6 +906,63 @@ public class emit {
         out.print("\" }");
     }
 
+    /** Emit a table in comb vector form, packed from its rows, so that the
+     *  generated parser need not pack it when it is loaded.
+     * @param out      stream to produce output on.
+     * @param field    name of the field holding the table.
+     * @param accessor name of the accessor method for the table.
+     * @param rows     the rows of the table.
+     */
+    protected static void do_comb_table(PrintWriter out, String field,
+            String accessor, short[][] rows) {
+        out.println();
+        out.println("  /** Comb vector form of the table above. */");
+        out.println("  protected static final java_cup.runtime.CombTable "
+                + field + " = ");
+        out.print("    new java_cup.runtime.CombTable(unpackIntsFromStrings(");
+        do_int_table_as_string(out,
+                               java_cup.runtime.CombTable.fromRows(rows)
+                                                         .packed());
+        out.println("));");
+
+        out.println();
+        out.println("  /** Access to comb vector form of the table above. */");
+        out.println("  @Override");
+        out.println("  public java_cup.runtime.CombTable " + accessor
+                + "() {return " + field + ";}");
+    }
+
+    // print a string array encoding the given int[][] array.
+    protected static void do_int_table_as_string(PrintWriter out, int[][] ia) {
+        out.println("new String[] {");
+        out.print("    \"");
+        int nchar = 0, nbytes = 0;
+        nbytes += do_escaped(out, (char) (ia.length >> 16));
+        nchar = do_newline(out, nchar, nbytes);
+        if (nbytes > max_string_size) nbytes = 0;
+        nbytes += do_escaped(out, (char) (ia.length & 0xFFFF));
+        nchar = do_newline(out, nchar, nbytes);
+        if (nbytes > max_string_size) nbytes = 0;
+        for (int[] element : ia) {
+            nbytes += do_escaped(out, (char) (element.length >> 16));
+            nchar = do_newline(out, nchar, nbytes);
+            if (nbytes > max_string_size) nbytes = 0;
+            nbytes += do_escaped(out, (char) (element.length & 0xFFFF));
+            nchar = do_newline(out, nchar, nbytes);
+            if (nbytes > max_string_size) nbytes = 0;
+            for (int element2 : element) {
+                // each value takes two characters, high half first
+                nbytes += do_escaped(out, (char) (element2 >>> 16));
+                nchar = do_newline(out, nchar, nbytes);
+                if (nbytes > max_string_size) nbytes = 0;
+                nbytes += do_escaped(out, (char) (element2 & 0xFFFF));
+                nchar = do_newline(out, nchar, nbytes);
+                if (nbytes > max_string_size) nbytes = 0;
+            }
+        }
+        out.print("\" }");
+    }
+
     // split string if it is very long; start new line occasionally for neatness
     protected static int do_newline(PrintWriter out, int nchar, int nbytes) {
         if (nbytes > max_string_size) {
@@ -0,0 +1,186 @@
+package java_cup.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/** This class holds a parse table in row-displacement ("comb vector")
+ *  form, so that an entry is found in constant time.  The entries of all
+ *  rows are overlaid in one vector: the entry for state s and Symbol index
+ *  i is at position base[s] + i, provided that the check vector records
+ *  state s at that position.  Otherwise the state's default is used.<p>
+ *
+ *  The table is built from the rows of an action or reduce-goto table
+ *  as emitted by CUP: pairs of Symbol index and value, sorted by Symbol
+ *  index and terminated by a default entry (denoted with a Symbol index of
+ *  -1).  Lookups give the same results as searching those rows.
+ *
+ * @see java_cup.runtime.lr_parser#get_action
+ * @see java_cup.runtime.lr_parser#get_reduce
+ */
+public final class CombTable {
+    /*-----------------------------------------------------------*/
+    /*--- Constructor(s) ----------------------------------------*/
+    /*-----------------------------------------------------------*/
+
+    /** Constructor from the vectors returned by packed(). */
+    public CombTable(int[][] packed) {
+        base = packed[0];
+        deflt = packed[1];
+        check = packed[2];
+        value = packed[3];
+    }
+
+    /*-----------------------------------------------------------*/
+    /*--- (Access to) Instance Variables ------------------------*/
+    /*-----------------------------------------------------------*/
+
+    /** Position of the entries of each state in the check and value
+     *  vectors, less the smallest Symbol index. */
+    private final int[] base;
+
+    /** Default entry of each state. */
+    private final int[] deflt;
+
+    /** State owning each position, or -1 for unused positions. */
+    private final int[] check;
+
+    /** Entry at each position. */
+    private final int[] value;
+
+    /** The base, default, check and value vectors, in that order. */
+    public int[][] packed() {
+        return new int[][] { base, deflt, check, value };
+    }
+
+    /*-----------------------------------------------------------*/
+    /*--- General Methods ---------------------------------------*/
+    /*-----------------------------------------------------------*/
+
+    /** Fetch the entry for a state and Symbol index.
+     *
+     * @param state the state index of the entry being accessed.
+     * @param sym   the Symbol index of the entry being accessed.
+     */
+    public int get(int state, int sym) {
+        int i = base[state] + sym;
+        if (i >= 0 && i < check.length && check[i] == state) return value[i];
+        return deflt[state];
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    /** Tables already built from rows, by the (identity of the) rows, so
+     *  that parsers whose class does not supply a comb table build it once. */
+    private static final Map<short[][], CombTable> built =
+            new WeakHashMap<>();
+
+    /** Return the table for the given rows, building it on first use. */
+    public static CombTable forRows(short[][] rows) {
+        synchronized (built) {
+            CombTable t = built.get(rows);
+            if (t == null) {
+                t = fromRows(rows);
+                built.put(rows, t);
+            }
+            return t;
+        }
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    /** Build a table from rows of (Symbol index, value) pairs, each
+     *  terminated by a default entry.  A missing row has no entries and a
+     *  default of -1.  Rows are placed in order of decreasing size, each at
+     *  the first position where its entries fit, so the same rows always
+     *  give the same table.
+     */
+    public static CombTable fromRows(short[][] rows) {
+        int nstates = rows.length;
+        int[] base = new int[nstates];
+        int[] deflt = new int[nstates];
+        int[][] syms = new int[nstates][];
+        int[][] vals = new int[nstates][];
+
+        for (int s = 0; s < nstates; s++) {
+            short[] row = rows[s];
+            int n = 0;
+            if (row == null) {
+                deflt[s] = -1;
+            }
+            else {
+                while (2 * n + 1 < row.length && row[2 * n] != -1)
+                    n++;
+                /* a row without a default entry defaults to error */
+                deflt[s] = 2 * n + 1 < row.length ? row[2 * n + 1] : 0;
+            }
+            syms[s] = new int[n];
+            vals[s] = new int[n];
+            for (int k = 0; k < n; k++) {
+                syms[s][k] = row[2 * k];
+                vals[s][k] = row[2 * k + 1];
+            }
+        }
+
+        /* place the largest rows first; ties go in state order */
+        List<Integer> order = new ArrayList<>(nstates);
+        for (int s = 0; s < nstates; s++)
+            if (syms[s].length > 0) order.add(s);
+        final int[][] entries = syms;
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (entries[a].length != entries[b].length)
+                    return entries[b].length - entries[a].length;
+                return a - b;
+            }
+        });
+
+        int[] check = new int[16];
+        int[] value = new int[16];
+        Arrays.fill(check, -1);
+        int size = 0;
+        int first_free = 0;
+
+        for (int s : order) {
+            int[] sy = syms[s];
+            int min = sy[0];
+            int b = first_free - min;
+            for (;; b++) {
+                boolean fits = true;
+                for (int k = 0; k < sy.length; k++) {
+                    int i = b + sy[k];
+                    if (i < check.length && check[i] != -1) {
+                        fits = false;
+                        break;
+                    }
+                }
+                if (fits) break;
+            }
+
+            int top = b + sy[sy.length - 1] + 1;
+            if (top > check.length) {
+                int len = Math.max(top, 2 * check.length);
+                int old = check.length;
+                check = Arrays.copyOf(check, len);
+                value = Arrays.copyOf(value, len);
+                Arrays.fill(check, old, len, -1);
+            }
+            for (int k = 0; k < sy.length; k++) {
+                check[b + sy[k]] = s;
+                value[b + sy[k]] = vals[s][k];
+            }
+            base[s] = b;
+            size = Math.max(size, top);
+            while (first_free < check.length && check[first_free] != -1)
+                first_free++;
+        }
+
+        return new CombTable(new int[][] { base, deflt,
+                Arrays.copyOf(check, size), Arrays.copyOf(value, size) });
+    }
+}
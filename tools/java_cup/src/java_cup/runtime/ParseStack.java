@@ -0,0 +1,113 @@
+package java_cup.runtime;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.Stack;
+
+/** This class implements the stack operations used while parsing without
+ *  the locking of java.util.Stack.  A parse stack is only used by the
+ *  thread running its parser, so the operations on it need not be
+ *  synchronized.  It remains a java.util.Stack so that parser actions,
+ *  which are given the parse stack, keep working unchanged.
+ *
+ * @see java_cup.runtime.lr_parser
+ * @see java_cup.runtime.virtual_parse_stack
+ */
+public class ParseStack<E> extends Stack<E> {
+    private static final long serialVersionUID = 1L;
+
+    /*-----------------------------------------------------------*/
+    /*--- General Methods ---------------------------------------*/
+    /*-----------------------------------------------------------*/
+
+    /** Push an element onto the stack. */
+    @Override
+    public E push(E item) {
+        modCount++;
+        if (elementCount == elementData.length)
+            elementData =
+                    Arrays.copyOf(elementData,
+                                  Math.max(16, 2 * elementData.length));
+        elementData[elementCount++] = item;
+        return item;
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    /** Pop the top element off the stack. */
+    @Override
+    public E pop() {
+        E item = peek();
+        modCount++;
+        elementData[--elementCount] = null;
+        return item;
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    /** Return the top element of the stack. */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        if (elementCount == 0) throw new EmptyStackException();
+        return (E) elementData[elementCount - 1];
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    /** Return the element at the given index from the bottom of the
+     *  stack. */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E elementAt(int index) {
+        if (index >= elementCount)
+            throw new ArrayIndexOutOfBoundsException(index + " >= "
+                    + elementCount);
+        return (E) elementData[index];
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    @Override
+    public E get(int index) {
+        return elementAt(index);
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    @Override
+    public boolean empty() {
+        return elementCount == 0;
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    @Override
+    public boolean isEmpty() {
+        return elementCount == 0;
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    @Override
+    public int size() {
+        return elementCount;
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    /** Remove all elements from the stack. */
+    @Override
+    public void removeAllElements() {
+        modCount++;
+        Arrays.fill(elementData, 0, elementCount, null);
+        elementCount = 0;
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    @Override
+    public void clear() {
+        removeAllElements();
+    }
+}
@@ -232,6 +232,31 @@ public abstract class lr_parser {
 
     /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
 
+    /** The action table in comb vector form, which get_action() uses to
+     *  find entries in constant time.  Parsers generated by CUP override
+     *  this to return a table packed when the parser was generated; by
+     *  default the table is packed from action_table() once per class
+     *  loader.
+     *
+     * @see java_cup.runtime.CombTable
+     */
+    public CombTable action_comb() {
+        return CombTable.forRows(action_table());
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    /** The reduce-goto table in comb vector form, which get_reduce() uses
+     *  to find entries in constant time.
+     *
+     * @see java_cup.runtime.lr_parser#action_comb
+     */
+    public CombTable reduce_comb() {
+        return CombTable.forRows(reduce_table());
+    }
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
     /** The index of the start state (supplied by generated subclass). */
     public abstract int start_state();
 
@@ -283,7 +308,7 @@ public abstract class lr_parser {
     /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
 
     /** The parse stack itself. */
-    protected Stack<Symbol> stack = new Stack<>();
+    protected Stack<Symbol> stack = new ParseStack<>();
 
     /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
 
@@ -302,6 +327,16 @@ public abstract class lr_parser {
 
     /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
 
+    /** Direct reference to the action table in comb vector form. */
+    protected CombTable action_comb_tab;
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
+    /** Direct reference to the reduce-goto table in comb vector form. */
+    protected CombTable reduce_comb_tab;
+
+    /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
+
     /** This is the scanner object used by the default implementation
      *  of scan() to get Symbols.  To avoid name conflicts with existing
      *  code, this field is private. [CSA/davidm] */
@@ -553,47 +588,14 @@ public abstract class lr_parser {
      *  rows, one per state (rows are indexed directly by state number).
      *  Within each row, a list of index, value pairs are given (as sequential
      *  entries in the table), and the list is terminated by a default entry
-     *  (denoted with a Symbol index of -1).  To find the proper entry in a row
-     *  we do a linear or binary search (depending on the size of the row).
+     *  (denoted with a Symbol index of -1).  The entry is found in constant
+     *  time in the comb vector form of the table (see action_comb()).
      *
      * @param state the state index of the action being accessed.
      * @param sym   the Symbol index of the action being accessed.
      */
     protected final short get_action(int state, int sym) {
-        short tag;
-        int first, last, probe;
-        short[] row = action_tab[state];
-
-        /* linear search if we are < 10 entries */
-        if (row.length < 20)
-            for (probe = 0; probe < row.length; probe++) {
-                /* is this entry labeled with our Symbol or the default? */
-                tag = row[probe++];
-                if (tag == sym || tag == -1) {
-                    /* return the next entry */
-                    return row[probe];
-                }
-            }
-        /* otherwise binary search */
-        else {
-            first = 0;
-            last = (row.length - 1) / 2 - 1; /* leave out trailing default entry */
-            while (first <= last) {
-                probe = (first + last) / 2;
-                if (sym == row[probe * 2])
-                    return row[probe * 2 + 1];
-                else if (sym > row[probe * 2])
-                    first = probe + 1;
-                else last = probe - 1;
-            }
-
-            /* not found, use the default at the end */
-            return row[row.length - 1];
-        }
-
-        /* shouldn't happened, but if we run off the end we return the
-        default (error == 0) */
-        return 0;
+        return (short) action_comb_tab.get(state, sym);
     }
 
     /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
@@ -602,29 +604,15 @@ public abstract class lr_parser {
      *  rows, one per state (rows are indexed directly by state number).
      *  Within each row, a list of index, value pairs are given (as sequential
      *  entries in the table), and the list is terminated by a default entry
-     *  (denoted with a Symbol index of -1).  To find the proper entry in a row
-     *  we do a linear search.
+     *  (denoted with a Symbol index of -1).  A null row only holds the
+     *  default, -1.  The entry is found in constant time in the comb vector
+     *  form of the table (see reduce_comb()).
      *
      * @param state the state index of the entry being accessed.
      * @param sym   the Symbol index of the entry being accessed.
      */
     protected final short get_reduce(int state, int sym) {
-        short tag;
-        short[] row = reduce_tab[state];
-
-        /* if we have a null row we go with the default */
-        if (row == null) return -1;
-
-        for (int probe = 0; probe < row.length; probe++) {
-            /* is this entry labeled with our Symbol or the default? */
-            tag = row[probe++];
-            if (tag == sym || tag == -1) {
-                /* return the next entry */
-                return row[probe];
-            }
-        }
-        /* if we run off the end we return the default (error == -1) */
-        return -1;
+        return (short) reduce_comb_tab.get(state, sym);
     }
 
     /*. . . . . . . . . . . . . . . . . . . . . . . . . . . . . .*/
@@ -650,6 +638,8 @@ public abstract class lr_parser {
         production_tab = production_table();
         action_tab = action_table();
         reduce_tab = reduce_table();
+        action_comb_tab = action_comb();
+        reduce_comb_tab = reduce_comb();
 
         /* initialize the action encapsulation object */
         init_actions();
@@ -823,6 +813,8 @@ public abstract class lr_parser {
         production_tab = production_table();
         action_tab = action_table();
         reduce_tab = reduce_table();
+        action_comb_tab = action_comb();
+        reduce_comb_tab = reduce_comb();
 
         debug_message("# Initializing parser");
 
@@ -1316,4 +1308,28 @@ public abstract class lr_parser {
         }
         return result;
     }
+
+    /** Utility function: unpacks int tables, such as the vectors of a
+     *  CombTable, from strings.  Each int is given by two characters, the
+     *  high half first. */
+    protected static int[][] unpackIntsFromStrings(String[] sa) {
+        // Concatenate initialization strings.
+        StringBuilder sb = new StringBuilder(sa[0]);
+        for (int i = 1; i < sa.length; i++)
+            sb.append(sa[i]);
+        int n = 0; // location in initialization string
+        int size1 = sb.charAt(n) << 16 | sb.charAt(n + 1);
+        n += 2;
+        int[][] result = new int[size1][];
+        for (int i = 0; i < size1; i++) {
+            int size2 = sb.charAt(n) << 16 | sb.charAt(n + 1);
+            n += 2;
+            result[i] = new int[size2];
+            for (int j = 0; j < size2; j++) {
+                result[i][j] = sb.charAt(n) << 16 | sb.charAt(n + 1);
+                n += 2;
+            }
+        }
+        return result;
+    }
 }
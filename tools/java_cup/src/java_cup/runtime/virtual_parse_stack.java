@@ -32,7 +32,7 @@ public class virtual_parse_stack {
 
         /* set up our internals */
         real_stack = shadowing_stack;
-        vstack = new Stack<>();
+        vstack = new ParseStack<>();
         real_next = 0;
 
         /* get one element onto the virtual portion of the stack */
@@ -25,7 +25,11 @@
  ******************************************************************************/
 package polyglot.pth;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
@@ -61,7 +65,37 @@ public abstract class AbstractTest implements Test {
     @Override
     public final boolean run() {
         preRun();
-        success = runTest();
+        return finishRun(runTest());
+    }
+
+    /**
+     * Run this test, taking the result of {@link #runTest()} from
+     * {@code outcome}, which a test suite running its tests in parallel
+     * computes on a worker thread.  The test is reported here, so a suite
+     * that calls this method on its tests in order reports them in order.
+     */
+    protected final boolean run(Future<Boolean> outcome) {
+        preRun();
+        boolean result;
+        try {
+            result = outcome.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            appendFailureMessage("Interrupted");
+            result = false;
+        }
+        catch (ExecutionException e) {
+            StringWriter trace = new StringWriter();
+            e.getCause().printStackTrace(new PrintWriter(trace));
+            appendFailureMessage("Uncaught " + trace);
+            result = false;
+        }
+        return finishRun(result);
+    }
+
+    private boolean finishRun(boolean result) {
+        success = result;
 
         hasRun = true;
         Date lastSuccess = null;
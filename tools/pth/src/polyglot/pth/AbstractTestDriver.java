@@ -21,6 +21,11 @@ public abstract class AbstractTestDriver implements TestDriver {
         return false;
     }
 
+    @Override
+    public boolean runsInParallel() {
+        return false;
+    }
+
     @Override
     public void getSummary(StringBuffer sb) {
     }
@@ -85,6 +85,9 @@ public class Options {
     // filename for LaTeX report
     protected String pdffilename = null;
 
+    // number of tests of a collection to run in parallel
+    protected int jobs = 1;
+
     // array of the possible command line options.
     // the order in the array is the order that they will be applied in.
     protected CommandLineOption[] commandLineOpts = {
@@ -158,6 +161,18 @@ public class Options {
                                 + "between 0 and 9 inclusive.");
                     return index + 1;
                 }
+            },
+            new CommandLineOption(new String[] { "j", "jobs" },
+                                  "n",
+                                  "run up to n tests of a test collection in parallel, each worker with its own copy of the compiler.") {
+                @Override
+                protected int invoke(int index, String[] args) {
+                    jobs = getIntArg(++index, args);
+                    if (jobs < 1)
+                        throw new IllegalArgumentException("The number of "
+                                + "jobs must be at least 1.");
+                    return index + 1;
+                }
             }, new CommandLineOption(new String[] { "pdf" },
                                      "filename",
                                      "generate PDF report.") {
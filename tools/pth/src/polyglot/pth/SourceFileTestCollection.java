@@ -7,6 +7,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
@@ -166,15 +169,23 @@ public abstract class SourceFileTestCollection
         Map<String, TestResult> oldTestResults = new HashMap<>(testResults);
         Map<String, TestResult> newResults = new HashMap<>();
 
+        Map<SourceFileTest, Future<Boolean>> outcomes = null;
+        if (runsInParallel()) outcomes = submitTests(oldTestResults);
+
         boolean shouldExecute = true;
         for (SourceFileTest t : tests) {
             t.setTestDriver(td);
             TestResult tr = oldTestResults.get(t.getUniqueId());
-            if (shouldExecute && t.shouldExecute(tr)) {
+            boolean execute =
+                    outcomes != null
+                            ? outcomes.containsKey(t)
+                            : shouldExecute && t.shouldExecute(tr);
+            if (execute) {
                 if (tr != null) t.setTestResult(tr);
                 t.setCommandLineHeader(cmdLineHdr);
 
-                boolean result = t.run();
+                boolean result =
+                        outcomes != null ? t.run(outcomes.get(t)) : t.run();
                 okay = okay && result;
 
                 tr = t.getTestResult();
@@ -201,6 +212,45 @@ public abstract class SourceFileTestCollection
         return okay;
     }
 
+    /**
+     * Whether to run the tests of this collection in parallel.  Tests are
+     * run in order if they may halt the collection, or if the test driver
+     * cannot keep them from seeing each other's output.
+     */
+    protected boolean runsInParallel() {
+        return Main.options.jobs > 1 && !haltOnFirstFailure
+                && !td.haltOnFailure() && td.runsInParallel();
+    }
+
+    /**
+     * Submit the tests to execute to the workers, returning the outcome of
+     * each test's {@code runTest()}.  The tests are reported later, in
+     * order, as their outcomes become available.
+     */
+    protected Map<SourceFileTest, Future<Boolean>> submitTests(
+            Map<String, TestResult> oldTestResults) {
+        ForkJoinPool workers = TestWorkers.pool();
+        Map<SourceFileTest, Future<Boolean>> outcomes = new HashMap<>();
+        for (final SourceFileTest t : tests) {
+            t.setTestDriver(td);
+            TestResult tr = oldTestResults.get(t.getUniqueId());
+            if (t.shouldExecute(tr)) {
+                t.setCommandLineHeader(cmdLineHdr);
+                outcomes.put(t, workers.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return t.runTest();
+                    }
+                }));
+            }
+        }
+        return outcomes;
+    }
+
+    public List<String> getCommandLineHeader() {
+        return cmdLineHdr;
+    }
+
     public String getSummary() {
         StringBuffer sb = new StringBuffer(getName());
         sb.append(": ");
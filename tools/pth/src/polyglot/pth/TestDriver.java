@@ -10,6 +10,8 @@ public interface TestDriver {
 
     boolean haltOnFailure();
 
+    boolean runsInParallel();
+
     boolean preTest(SourceFileTestCollection sftc);
 
     boolean preTest(SourceFileTest t);
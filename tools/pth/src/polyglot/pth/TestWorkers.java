@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * This file is part of the Polyglot extensible compiler framework.
+ *
+ * Copyright (c) 2000-2012 Polyglot project group, Cornell University
+ * Copyright (c) 2006-2012 IBM Corporation
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Eclipse Public License v1.0 which accompanies this
+ * distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * This program and the accompanying materials are made available under
+ * the terms of the Lesser GNU Public License v2.0 which accompanies this
+ * distribution.
+ *
+ * The development of the Polyglot project has been supported by a
+ * number of funding sources, including DARPA Contract F30602-99-1-0533,
+ * monitored by USAF Rome Laboratory, ONR Grants N00014-01-1-0968 and
+ * N00014-09-1-0652, NSF Grants CNS-0208642, CNS-0430161, CCF-0133302,
+ * and CCF-1054172, AFRL Contract FA8650-10-C-7022, an Alfred P. Sloan
+ * Research Fellowship, and an Intel Research Ph.D. Fellowship.
+ *
+ * See README for contributors.
+ ******************************************************************************/
+
+package polyglot.pth;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The worker threads on which test collections run their tests when pth is
+ * given {@code -j n}.  The workers form a work-stealing pool, so a worker
+ * that finishes its tests early takes queued tests from the others, and a
+ * collection of tests of uneven size keeps all of them busy.
+ */
+public class TestWorkers {
+    private static ForkJoinPool pool;
+
+    /**
+     * Return the pool of {@code Main.options.jobs} workers, creating it on
+     * first use.  The workers are daemon threads, so the pool need not be
+     * shut down.
+     */
+    public static synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool(Main.options.jobs);
+        return pool;
+    }
+
+    /**
+     * Return the index of the current thread in the pool, or -1 if it is not
+     * a worker.  No two live workers have the same index, so a worker may
+     * use it to name resources that it alone uses.
+     */
+    public static int currentWorker() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            ForkJoinWorkerThread w = (ForkJoinWorkerThread) t;
+            if (w.getPool() == pool) return w.getPoolIndex();
+        }
+        return -1;
+    }
+}
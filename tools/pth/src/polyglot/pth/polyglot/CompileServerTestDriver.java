@@ -0,0 +1,90 @@
+package polyglot.pth.polyglot;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import polyglot.main.CompileServer;
+import polyglot.pth.SourceFileTestCollection;
+import polyglot.util.ErrorInfo;
+
+/**
+ * A test driver that sends each compilation to a {@link CompileServer}
+ * shared by the tests of its collection, so that the tests check that the
+ * server keeps serving compilations after the ones before them.  The
+ * extension is given in the arguments of the collection by
+ * {@code -extclass}.  The server reports the errors of a compilation as
+ * text, so a compilation that fails is reported as one internal error
+ * whose message is its standard error output.
+ */
+public class CompileServerTestDriver extends PolyglotTestDriver {
+
+    /**
+     * The server, created for the first test, since creating it makes the
+     * compiler share class files between compilations.
+     */
+    protected CompileServer server;
+
+    public CompileServerTestDriver(SourceFileTestCollection sftc) {
+        super(sftc);
+    }
+
+    @Override
+    public String commandName() {
+        return "compile server";
+    }
+
+    /**
+     * Each test depends on the state the server is left in by the tests
+     * before it, so these tests run in order.
+     */
+    @Override
+    public boolean runsInParallel() {
+        return false;
+    }
+
+    @Override
+    public int invokeCompiler(PolyglotSourceFileTest sft,
+            List<String> cmdLine) {
+        if (server == null) server = new CompileServer();
+        StringBuilder request =
+                new StringBuilder(System.getProperty("user.dir"));
+        for (String arg : cmdLine)
+            request.append('\t').append(arg);
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(response, false, "UTF-8")) {
+            server.serve(new BufferedReader(new StringReader(request.toString())),
+                         out);
+        }
+        catch (IOException e) {
+            sft.appendFailureMessage("Cannot serve the compilation: "
+                    + e.getMessage());
+            return 1;
+        }
+
+        int exitCode = -1;
+        StringBuilder stderr = new StringBuilder();
+        for (String line : new String(response.toByteArray(),
+                                      StandardCharsets.UTF_8).split("\n")) {
+            if (line.startsWith(CompileServer.STDERR))
+                stderr.append(line.substring(CompileServer.STDERR.length()))
+                      .append('\n');
+            else if (line.startsWith(CompileServer.EXIT))
+                exitCode =
+                        Integer.parseInt(line.substring(CompileServer.EXIT.length()));
+        }
+        if (exitCode < 0) {
+            sft.appendFailureMessage("The compile server sent no exit code");
+            return 1;
+        }
+        if (exitCode != 0)
+            sft.errorQueue().enqueue(ErrorInfo.INTERNAL_ERROR,
+                                     stderr.toString().trim());
+        return 0;
+    }
+}
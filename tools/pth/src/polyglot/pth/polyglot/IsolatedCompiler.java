@@ -0,0 +1,235 @@
+package polyglot.pth.polyglot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import polyglot.pth.TestWorkers;
+import polyglot.util.ErrorInfo;
+import polyglot.util.ErrorLimitError;
+import polyglot.util.ErrorQueue;
+import polyglot.util.Position;
+import polyglot.util.SilentErrorQueue;
+
+/**
+ * An {@code IsolatedCompiler} is the copy of the compiler used by one pth
+ * worker.  The compiler keeps state in static fields, such as
+ * {@code Options.global} and the report topics, so each worker loads its own
+ * copy of the compiler classes in a class loader of its own.  Errors are
+ * copied between the error queue of the test and one of the worker's, so the
+ * compiler sees the errors of earlier compilation units of the test, as it
+ * does when the queue is shared.
+ *
+ * Each worker also writes its output to a directory of its own, under the
+ * output directory of the test collection, so that tests run at the same
+ * time do not overwrite each other's output.
+ */
+public class IsolatedCompiler {
+    private static final Map<Integer, IsolatedCompiler> compilers =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Return the compiler of the current worker, or null if the current
+     * thread is not a worker.
+     */
+    public static IsolatedCompiler forCurrentWorker() {
+        int worker = TestWorkers.currentWorker();
+        if (worker < 0) return null;
+        // Only the worker with this index uses its entry.
+        IsolatedCompiler compiler = compilers.get(worker);
+        if (compiler == null) {
+            compiler = new IsolatedCompiler(worker);
+            compilers.put(worker, compiler);
+        }
+        return compiler;
+    }
+
+    protected final int worker;
+    protected final Method compile;
+
+    protected IsolatedCompiler(int worker) {
+        this.worker = worker;
+        String[] classpath =
+                System.getProperty("java.class.path").split(File.pathSeparator);
+        URL[] urls = new URL[classpath.length];
+        try {
+            for (int i = 0; i < classpath.length; i++)
+                urls[i] = new File(classpath[i]).toURI().toURL();
+
+            // Load everything but the Java platform anew.
+            ClassLoader loader =
+                    new URLClassLoader(urls,
+                                       ClassLoader.getSystemClassLoader()
+                                                  .getParent());
+            Class<?> runner =
+                    Class.forName(Runner.class.getName(), true, loader);
+            compile =
+                    runner.getMethod("compile",
+                                     String[].class,
+                                     String.class,
+                                     List.class);
+        }
+        catch (MalformedURLException | ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load the compiler for worker "
+                    + worker, e);
+        }
+    }
+
+    /**
+     * Compile with the command line {@code cmdLine}, as
+     * {@link PolyglotTestDriver#invokeCompiler} does.
+     */
+    public int invokeCompiler(PolyglotSourceFileTest sft, List<String> cmdLine) {
+        List<Object[]> errors = errors(sft.eq.getErrors());
+        String failure;
+        try {
+            failure =
+                    (String) compile.invoke(null,
+                                            arguments(cmdLine),
+                                            sft.getName(),
+                                            errors);
+        }
+        catch (InvocationTargetException e) {
+            copyErrors(errors, sft.errorQueue());
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        copyErrors(errors, sft.errorQueue());
+        if (failure != null) {
+            sft.appendFailureMessage(failure);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Return the command line with the output directories moved into the
+     * directory of this worker.
+     */
+    protected String[] arguments(List<String> cmdLine) {
+        String workerDir = "pthOutput.worker" + worker;
+        List<String> args = new ArrayList<>(cmdLine.size() + 2);
+        boolean hasOutputDir = false;
+        for (Iterator<String> i = cmdLine.iterator(); i.hasNext();) {
+            String arg = i.next();
+            args.add(arg);
+            if ((arg.equals("-d") || arg.equals("-D")) && i.hasNext()) {
+                args.add(new File(i.next(), workerDir).getPath());
+                hasOutputDir = true;
+            }
+        }
+        if (!hasOutputDir) {
+            args.add(0, "-d");
+            args.add(1, workerDir);
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Enqueue {@code errors}, each given as its kind, message, and serialized
+     * position, on {@code eq}.
+     */
+    protected static void copyErrors(List<Object[]> errors, ErrorQueue eq) {
+        try {
+            for (Object[] e : errors)
+                eq.enqueue((Integer) e[0],
+                           (String) e[1],
+                           deserialize((byte[]) e[2]));
+        }
+        catch (ErrorLimitError e) {
+            // The copy stopped where the compiler did.
+        }
+    }
+
+    /**
+     * Return {@code errors}, each as its kind, message, and serialized
+     * position.
+     */
+    protected static List<Object[]> errors(List<ErrorInfo> errors) {
+        List<Object[]> result = new ArrayList<>(errors.size());
+        for (ErrorInfo e : errors)
+            result.add(new Object[] { e.getErrorKind(), e.getMessage(),
+                    serialize(e.getPosition()) });
+        return result;
+    }
+
+    protected static byte[] serialize(Position pos) {
+        if (pos == null) return null;
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(b)) {
+            out.writeObject(pos);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return b.toByteArray();
+    }
+
+    protected static Position deserialize(byte[] b) {
+        if (b == null) return null;
+        try (ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(b))) {
+            return (Position) in.readObject();
+        }
+        catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The entry point into the compiler, loaded by the class loader of a
+     * worker.  Only Java platform types cross between the class loaders.
+     */
+    public static class Runner {
+        /**
+         * Run the compiler with the arguments {@code args} and an error queue
+         * holding {@code errors}, replacing {@code errors} with the errors
+         * the compiler adds to the queue.  Return the failure message, or
+         * null if the compiler succeeded or failed only with the errors
+         * reported.
+         */
+        public static String compile(String[] args, String name,
+                List<Object[]> errors) {
+            SilentErrorQueue eq =
+                    new SilentErrorQueue(PolyglotSourceFileTest.ERROR_LIMIT,
+                                         name);
+            copyErrors(errors, eq);
+            int earlierErrors = eq.getErrors().size();
+            errors.clear();
+            try {
+                new polyglot.main.Main().start(args, eq);
+                return null;
+            }
+            catch (polyglot.main.Main.TerminationException e) {
+                if (e.getMessage() != null) return e.getMessage();
+                if (!eq.hasErrors())
+                    return "Failed to compile for unknown reasons: "
+                            + e.toString();
+                return null;
+            }
+            finally {
+                List<ErrorInfo> all = eq.getErrors();
+                errors.addAll(errors(all.subList(earlierErrors, all.size())));
+            }
+        }
+    }
+}
@@ -20,6 +20,15 @@ public class JavaTestDriver extends PolyglotTestDriver {
         return "javac";
     }
 
+    /**
+     * Later test collections compile against the classes compiled here, so
+     * these tests run in order.
+     */
+    @Override
+    public boolean runsInParallel() {
+        return false;
+    }
+
     @Override
     public int invokeCompiler(PolyglotSourceFileTest sft,
             List<String> cmdLine) {
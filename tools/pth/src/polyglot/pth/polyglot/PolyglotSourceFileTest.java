@@ -20,13 +20,14 @@ public class PolyglotSourceFileTest extends SourceFileTest {
 
     protected static final int TIMEOUT = 30;
     protected static final TimeUnit TIMEUNIT = TimeUnit.SECONDS;
+    protected static final int ERROR_LIMIT = 100;
 
     protected final SilentErrorQueue eq;
 
     public PolyglotSourceFileTest(List<List<String>> compilationUnits,
             List<ExpectedFailure> expectedFailures) {
         super(compilationUnits, expectedFailures);
-        eq = new SilentErrorQueue(100, getName());
+        eq = new SilentErrorQueue(ERROR_LIMIT, getName());
     }
 
     public ErrorQueue errorQueue() {
@@ -11,6 +11,8 @@ import polyglot.pth.SourceFileTestCollection;
 public class PolyglotSourceFileTestCollection extends SourceFileTestCollection {
 
     private static final String JAVAC = "javac";
+    private static final String COMPILE_SERVER =
+            "polyglot.main.CompileServer";
 
     public PolyglotSourceFileTestCollection(String testCommand, String name,
             String testDir, String args, List<SourceFileTest> tests) {
@@ -28,7 +30,8 @@ public class PolyglotSourceFileTestCollection extends SourceFileTestCollection {
         List<String> args = super.buildCmdLine();
         String s;
 
-        if ((s = testCommand) != null && !s.equals(JAVAC)) {
+        if ((s = testCommand) != null && !s.equals(JAVAC)
+                && !s.equals(COMPILE_SERVER)) {
             args.add("-extclass");
             args.add(testCommand);
         }
@@ -76,9 +79,12 @@ public class PolyglotSourceFileTestCollection extends SourceFileTestCollection {
     protected PolyglotTestDriver createTestDriver() {
         PolyglotTestDriver ptd;
         switch (testCommand) {
-        case "javac":
+        case JAVAC:
             ptd = new JavaTestDriver(this);
             break;
+        case COMPILE_SERVER:
+            ptd = new CompileServerTestDriver(this);
+            break;
         default:
             ptd = new PolyglotTestDriver(this);
         }
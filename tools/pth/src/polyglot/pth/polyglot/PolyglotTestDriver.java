@@ -1,6 +1,9 @@
 package polyglot.pth.polyglot;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import polyglot.pth.AbstractTestDriver;
@@ -45,6 +48,9 @@ public class PolyglotTestDriver extends AbstractTestDriver {
 
     public int invokeCompiler(PolyglotSourceFileTest sft,
             List<String> cmdLine) {
+        IsolatedCompiler isolated = IsolatedCompiler.forCurrentWorker();
+        if (isolated != null) return isolated.invokeCompiler(sft, cmdLine);
+
         ErrorQueue eq = sft.errorQueue();
         try {
             polyglot.main.Main polyglotMain = new polyglot.main.Main();
@@ -66,6 +72,37 @@ public class PolyglotTestDriver extends AbstractTestDriver {
         return 0;
     }
 
+    /**
+     * Tests run in parallel unless they may depend on one another: a test
+     * sees the output of earlier tests if the output directory is also on
+     * the class path, and tests copied to a separate source path may share
+     * source files.
+     */
+    @Override
+    public boolean runsInParallel() {
+        File sourceDir = new File(getPathFromFlagMap("workpath", "sourcepath"));
+        if (!isSameDirectory(getTestDir(), sourceDir)) return false;
+
+        List<String> outputDirs = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        Iterator<String> i = sftc.getCommandLineHeader().iterator();
+        while (i.hasNext()) {
+            String arg = i.next();
+            if (!i.hasNext()) break;
+            if (arg.equals("-d") || arg.equals("-D"))
+                outputDirs.add(i.next());
+            else if (arg.equals("-cp") || arg.equals("-classpath")
+                    || arg.equals("-sourcepath"))
+                paths.addAll(Arrays.asList(i.next()
+                                            .split(File.pathSeparator)));
+        }
+        for (String outputDir : outputDirs)
+            for (String path : paths)
+                if (isSameDirectory(new File(outputDir), new File(path)))
+                    return false;
+        return true;
+    }
+
     @Override
     public boolean preTest(SourceFileTestCollection sftc) {
         return true;